@@ -112,7 +112,7 @@ class Build {
 			}
 
         ant.copy( todir: pathCompileLibs ) {
-            fileset( dir: pathLocalLibraries ) { include (name:'*.jar') }
+            fileset( dir: pathLocalLibraries, erroronmissingdir: false ) { include (name:'*.jar') }
         }
 
 	}
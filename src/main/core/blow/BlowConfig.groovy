@@ -23,6 +23,7 @@ import blow.exception.BlowConfigException
 import blow.exception.MissingKeyException
 import blow.operation.OperationHelper
 import blow.operation.Validate
+import blow.ssh.ExecPolicy
 import com.google.common.base.Charsets
 import com.google.common.io.Files
 import groovy.util.logging.Slf4j
@@ -65,7 +66,8 @@ class BlowConfig  {
     def securityId
     def placementGroup
 
-    /** Port used by Fast Data Transport (FDT) protocol */
+    /** Not used any more, the fcp command copies the files over SSH */
+    @Deprecated
     def int fdtPort = 9000
 
     /** Which port to open using the syntax: n,m,from-to */
@@ -82,6 +84,69 @@ class BlowConfig  {
     /** The list of all operation defined in the configuration */
 	List operations = []
 
+    /**
+     * When {@code true} the operations event handlers run in parallel,
+     * the order between them is defined by the {@link blow.eventbus.DependsOn} annotation
+     */
+    def boolean asyncOperations
+
+    /**
+     * The max number of seconds to wait for a started node to accept SSH connections
+     * before notifying it as ready, {@code 0} to not wait
+     */
+    def int nodeReadyTimeout = 300
+
+    /**
+     * When {@code true} the output of the scripts run on the nodes is printed while it is produced,
+     * each line prefixed by the node name
+     */
+    def boolean streamOutput
+
+    /**
+     * The number of the last output lines of each node kept in memory by the streaming execution,
+     * {@code 0} to keep all of them
+     */
+    def int outputTailLines
+
+    /**
+     * The size in bytes from which a file copied to the nodes is uploaded only to {@link #broadcastSeeds} nodes
+     * and forwarded by them to the other nodes, {@code 0} to always upload it to each node
+     */
+    def long broadcastThreshold = 64 * 1024 * 1024
+
+    /** The number of nodes to which a broadcast file is uploaded by the client */
+    def int broadcastSeeds = 1
+
+    /** The number of nodes to which each node forwards a broadcast file at the same time */
+    def int broadcastFanout = 2
+
+    /**
+     * The default policy used to run the scripts on the nodes, for example {@code execPolicy (maxInFlight: 20, wave: 25)},
+     * see {@link blow.ssh.ExecPolicy}. The operations can override it by their own {@code execPolicy} attribute
+     */
+    def Map execPolicy
+
+    /**
+     * When {@code true} the artifacts downloaded by the operations are fetched only once by the master node
+     * and the other nodes download them from it, see {@link blow.ssh.ArtifactCache}
+     */
+    def boolean artifactCache = true
+
+    /** The port of the HTTP server used by the master node to serve the cached artifacts */
+    def int artifactCachePort = 8642
+
+    /** The max number of node log records waiting to be written */
+    def int logQueueSize = 1024
+
+    /** What to do when the log queue is full: {@code block} the caller or {@code drop} the record */
+    def String logQueuePolicy = 'block'
+
+    /** The size in bytes over which a node log file is compressed and a new one is started, {@code 0} to never rotate */
+    def long logMaxFileSize = 10 * 1024 * 1024
+
+    /** The number of compressed log files kept for each node */
+    def int logMaxFiles = 5
+
     /** The {@link org.jclouds.domain.LoginCredentials} object */
 	@Lazy
     protected transient LoginCredentials credentials = {
@@ -162,18 +227,11 @@ class BlowConfig  {
             if( createUser == null ) createUser = true
         }
 
-        /*
-         * FDT port
-         */
-        if( !fdtPort ) {
-            fdtPort = 50000
-        }
-
         /*
          * Inbound ports
          */
         if( !inboundPorts ) {
-            inboundPorts = [22, fdtPort]
+            inboundPorts = [22]
         }
 
 
@@ -305,19 +363,15 @@ class BlowConfig  {
         /*
          * Validate port numbers
          */
-        if( fdtPort < 1 || fdtPort > 65535 ) {
-            throw BlowConfigException("Invalid port number FDT service ($fdtPort)")
-        }
-
-
         if( !hasInboundPort(22) ) {
             throw BlowConfigException("Missing SSH port (22) in declared 'inboundPorts' property.")
         }
 
-        if( !hasInboundPort(fdtPort) ) {
-            throw BlowConfigException("Missing FDT port ($fdtPort) in declared 'inboundPorts' property.")
-        }
 
+        /*
+         * Validate the execution policy
+         */
+        ExecPolicy.create(execPolicy)
 
         /*
          * validate operations
@@ -506,7 +560,11 @@ class BlowConfig  {
     def int hashCode() {
         def hash = HashCodeHelper.initHash()
 
-        def excludes = ['class','metaClass', 'operations', 'defaultKeyFile']
+        // note: 'asyncOperations' and the output settings do not change the cluster, so they are not taken in account
+        def excludes = ['class','metaClass', 'operations', 'defaultKeyFile', 'asyncOperations', 'nodeReadyTimeout', 'streamOutput', 'outputTailLines',
+                'broadcastThreshold', 'broadcastSeeds', 'broadcastFanout',
+                'logQueueSize', 'logQueuePolicy', 'logMaxFileSize', 'logMaxFiles', 'execPolicy',
+                'artifactCache', 'artifactCachePort']
         def list = metaPropertyValues .sort(false, {PropertyValue prop -> prop.getName()})
         list.each { PropertyValue prop ->
             if( prop.name in excludes ) return
@@ -19,24 +19,48 @@
 
 package blow
 
+import blow.eventbus.AsyncOrderedEventBus
 import blow.eventbus.OrderedEventBus
 import blow.events.OnAfterClusterStartedEvent
 import blow.events.OnAfterClusterTerminationEvent
 import blow.events.OnAfterNodeLaunchEvent
+import blow.events.OnAfterNodesAddedEvent
+import blow.events.OnAfterNodesRemovalEvent
 import blow.events.OnBeforeClusterStartEvent
 import blow.events.OnBeforeClusterTerminationEvent
 import blow.events.OnBeforeNodeLaunchEvent
+import blow.events.OnBeforeNodesRemovalEvent
+import blow.events.OnNodeReadyEvent
 import blow.exception.BlowConfigException
 import blow.exception.BlowException
 import blow.exception.DirtySessionException
 import blow.exception.OperationAbortException
+import blow.metrics.Metrics
+import blow.metrics.Timer
 import blow.operation.OperationHelper
+import blow.ssh.ArtifactCache
+import blow.ssh.BroadcastConsole
+import blow.ssh.ClusterBroadcastCopy
+import blow.ssh.ConsolePrinter
+import blow.ssh.ExecPolicy
+import blow.ssh.LineOutputStream
+import blow.ssh.MergedConsoleView
+import blow.ssh.OutputListener
+import blow.ssh.RollingExecutor
 import blow.ssh.ScpClient
+import blow.ssh.SshConnectionPool
+import blow.ssh.TailLines
+import blow.ssh.TiledConsoleView
 import blow.storage.BlockStorage
 import blow.util.ArrayListMultimapConverter
 import blow.util.HashBiMapConverter
 import blow.util.InjectorHelper
+import blow.util.NodeMetadataCacheConverter
+import blow.util.NodeLogWriter
+import blow.util.NodeMetadataCodec
 import blow.util.PromptHelper
+import blow.util.SessionFile
+import blow.util.SessionReferenceConverter
 import com.google.common.base.Predicate
 import com.google.common.base.Predicates
 import com.google.common.collect.ArrayListMultimap
@@ -46,9 +70,13 @@ import com.google.common.collect.ImmutableSet
 import com.google.common.collect.Multimap
 import com.google.inject.Module
 import com.thoughtworks.xstream.XStream
-import com.thoughtworks.xstream.io.xml.PrettyPrintWriter
+import com.thoughtworks.xstream.io.xml.CompactWriter
 import com.thoughtworks.xstream.io.xml.StaxDriver
+import groovy.json.JsonBuilder
 import groovy.util.logging.Slf4j
+import net.schmizz.sshj.SSHClient
+import net.schmizz.sshj.common.StreamCopier
+import net.schmizz.sshj.connection.channel.direct.Session
 import org.jclouds.Constants
 import org.jclouds.ContextBuilder
 import org.jclouds.aws.ec2.AWSEC2Client
@@ -76,10 +104,15 @@ import org.jclouds.sshj.config.SshjSshClientModule
 
 import java.lang.reflect.InvocationTargetException
 import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
 import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.ThreadPoolExecutor
 import java.util.concurrent.TimeUnit
+import java.util.regex.Pattern
 
 import static com.google.common.base.Predicates.not
 import static org.jclouds.compute.predicates.NodePredicates.TERMINATED
@@ -107,10 +140,13 @@ class BlowSession {
 
     transient Map<String,ExecResponse> errors = [:]
 
+    /** The manager sharing the context and the I/O threads with the other open sessions, it may be {@code null} */
+    transient SessionManager manager
+
     transient private boolean contextCreated
 
     @Lazy
-	transient ComputeServiceContext context = { def ctx=createContext(conf); contextCreated=true; ctx }()
+	transient ComputeServiceContext context = { openContext() }()
 
 	@Lazy
     transient ComputeService compute = { context.getComputeService() }()
@@ -147,10 +183,45 @@ class BlowSession {
     } ()
 
 	/*
-	 * The thread pool to handle ssh upload / download 
+	 * The thread pool to handle ssh upload / download and remote commands execution
+	 * note: core size must be equals to the max size, otherwise with an unbounded queue only one thread is used
 	 */
 	@Lazy 
-	transient private ExecutorService scpExecutor = new ThreadPoolExecutor(0, 20, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>())
+	transient private ExecutorService scpExecutor = {
+        if( manager ) {
+            return manager.getIoExecutor()
+        }
+        def pool = new ThreadPoolExecutor(20, 20, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>())
+        pool.allowCoreThreadTimeOut(true)
+        return pool
+    } ()
+
+    transient private boolean sshPoolCreated
+
+    /** The cache of the artifacts downloaded by the operations, see {@link #cacheArtifacts(java.util.Collection)} */
+    transient private ArtifactCache artifactCache
+
+    /** The provisioning steps completed by the operations, see {@link #resumeCluster()} */
+    transient private ProvisioningJournal journal
+
+    /** Serialize the questions asked when a step fails, see {@link #safeTry(groovy.lang.Closure)} */
+    static private final Object PROMPT_LOCK = new Object()
+
+    /** The seconds given to the nodes to stop a script timed out, before it is reported as timed out by the client */
+    static final int REMOTE_TIMEOUT_GRACE = 30
+
+    /** The max number of nodes waited and notified as ready at the same time */
+    static final int NODE_NOTIFIER_THREADS = 20
+
+    /** The max milliseconds to wait for a launched node to run */
+    static final long NODE_RUNNING_TIMEOUT = 20 * 60 * 1000L
+
+    /*
+     * Keep the SSH connections to the cluster nodes open, so that they can be reused
+     * by uploads and remote commands
+     */
+    @Lazy
+    volatile transient private SshConnectionPool sshPool = { def pool=new SshConnectionPool(); sshPoolCreated=true; pool }()
 	
 	/**
 	 * The metadata for the master node
@@ -160,7 +231,7 @@ class BlowSession {
     @Deprecated
 	transient private NodeMetadata masterMetadata
 
-    transient private Timer refreshTimer
+    transient private ScheduledFuture refreshTask
 
     private long refreshLastRun
 
@@ -191,7 +262,7 @@ class BlowSession {
      * <p>
      * The 'Instance ID' is defined by {@link NodeMetadata#getId()}
      */
-    private BiMap<String, String> nodeNamesMap = HashBiMap.create()
+    protected BiMap<String, String> nodeNamesMap = HashBiMap.create()
 
 
     /**
@@ -202,12 +273,12 @@ class BlowSession {
      * <p>
      * The 'Instance ID' is defined by {@link NodeMetadata#getId()}
      */
-    private Multimap<String,String> nodeRolesMap = ArrayListMultimap.create()
+    protected Multimap<String,String> nodeRolesMap = ArrayListMultimap.create()
 
     /**
-     * The map containing pair < Node name, Node metadata >
+     * The map containing pair < Node name, Node metadata >, see {@link NodeMetadataCache}
      */
-    private Map<String,BlowNodeMetadata> allNodes = [:]
+    private Map<String,BlowNodeMetadata> allNodes = new NodeMetadataCache()
 
     private long nodesCacheDuration = 4 * 60 * 1000 // 4 min
 
@@ -231,7 +302,7 @@ class BlowSession {
 		this.conf = conf;
 		this.clusterName = clusterName
 
-        eventBus = new OrderedEventBus()
+        eventBus = createEventBus()
         conf.operations.each { it ->
             eventBus.register(it)
             injectFields(it, [this])
@@ -242,6 +313,91 @@ class BlowSession {
         log.debug "NewSession ConfHashCode: ${confHashCode}"
 	}
 
+    /**
+     * Create the bus dispatching the events to the operations. When the configuration
+     * property {@code asyncOperations} is enabled the operations handlers are invoked in parallel
+     */
+    protected OrderedEventBus createEventBus() {
+        def result = conf.asyncOperations ? new AsyncOrderedEventBus() : new OrderedEventBus()
+        result.setInterceptor(getJournal())
+        return result
+    }
+
+    synchronized protected ProvisioningJournal getJournal() {
+        if( journal == null ) {
+            journal = new ProvisioningJournal(journalFile(clusterName)).load()
+        }
+        return journal
+    }
+
+    /**
+     * Restore a session saved by {@link #persist(def)}.
+     * <p>
+     * Only the session attributes, the nodes name and role maps and the configuration are read here,
+     * the metadata of each node is decoded when it is accessed the first time, see {@link NodeMetadataCache#defer(Map)}
+     */
+    protected BlowSession( SessionFile source ) {
+        def input = source.input('session')
+        this.clusterName = input.readUTF()
+        this.confHashCode = input.readInt()
+        this.dirty = input.readBoolean()
+        this.saveOnExit = input.readBoolean()
+        this.refreshLastRun = input.readLong()
+        this.nodesCacheDuration = input.readLong()
+
+        int count = input.readInt()
+        this.devicesMap = new LinkedHashMap(count)
+        count.times { devicesMap.put(input.readUTF(), input.readInt()) }
+
+        count = input.readInt()
+        this.nodeNamesMap = HashBiMap.create(count)
+        count.times { nodeNamesMap.put(input.readUTF(), input.readUTF()) }
+
+        count = input.readInt()
+        this.nodeRolesMap = ArrayListMultimap.create()
+        count.times {
+            def role = input.readUTF()
+            int size = input.readInt()
+            size.times { nodeRolesMap.put(role, input.readUTF()) }
+        }
+
+        count = input.readInt()
+        count.times { instancesLogFiles.put(input.readUTF(), new File(input.readUTF())) }
+
+        count = input.readInt()
+        def names = new ArrayList<String>(count)
+        count.times { names.add(input.readUTF()) }
+        allNodes.reset(names)
+
+        /*
+         * the nodes metadata, only the encoded bytes are read
+         */
+        input = source.input('nodes')
+        count = input.readInt()
+        def loaders = new LinkedHashMap<String,Callable<NodeMetadata>>(count)
+        count.times {
+            def name = input.readUTF()
+            def data = new byte[input.readInt()]
+            input.readFully(data)
+            loaders.put(name, nodeLoader(data))
+        }
+        allNodes.defer(loaders)
+
+        /*
+         * the configuration, the references to the session held by the operations are resolved to this instance
+         */
+        def xml = new String(source.read('conf'), 'UTF-8')
+        this.conf = (BlowConfig) SessionReferenceConverter.withSession(this) { confStream.fromXML(xml) }
+
+        restore()
+    }
+
+    private Callable<NodeMetadata> nodeLoader( byte[] data ) {
+        new Callable<NodeMetadata>() {
+            NodeMetadata call() { wrapNode(NodeMetadataCodec.decode(data)) }
+        }
+    }
+
     /**
      * Initialize the object when the session is de-serialized by XStream
      * <p>
@@ -249,7 +405,19 @@ class BlowSession {
      */
     private Object readResolve() {
         log.debug('XStream desialization readResolve invoke')
-        eventBus = new OrderedEventBus()
+        // sessions saved by previous versions store the nodes in a plain map
+        if( !(allNodes instanceof NodeMetadataCache) ) {
+            allNodes = new NodeMetadataCache(allNodes ?: [:])
+        }
+        restore()
+        return this;
+    }
+
+    /*
+     * Create the transient objects of a session restored from a file
+     */
+    private void restore() {
+        eventBus = createEventBus()
         conf.operations.each { it ->
             eventBus.register(it)
             /* note: here we don't need to inject session to the operation instances because the de-serialization
@@ -261,8 +429,16 @@ class BlowSession {
          * If there was a refresh timer, re-set it
          */
         resumeRefreshMetadata()
+    }
 
-        return this;
+    /**
+     * @return The context shared by the {@link SessionManager} when the session has been opened by it,
+     *  otherwise a new one
+     */
+    protected ComputeServiceContext openContext() {
+        def result = manager ? manager.acquireContext(conf) { createContext(conf) } : createContext(conf)
+        contextCreated = true
+        return result
     }
 
 	protected ComputeServiceContext createContext(BlowConfig conf) {
@@ -298,6 +474,11 @@ class BlowSession {
 
 	public BlockStorage getBlockStore() { blockstore }
 
+    /**
+     * @return {@code true} when the session has to be saved to resume it in the next run
+     */
+    public boolean isSaveOnExit() { saveOnExit }
+
 
     def void safeTry(Closure closure) {
         try {
@@ -315,13 +496,74 @@ class BlowSession {
             log.error( e.getMessage() ?: e.toString() , e )
 
             // ask to the user if want to continue
-            println "\nIt is strongly suggested to stop the process and review the cluster configuration!"
-            if( promptYesOrNo("Do you want to continue?") == 'n' ) {
-                throw new OperationAbortException()
+            // note: the nodes are launched concurrently, so only one question at time is printed, holding
+            // a lock used only for this purpose, not the session one required by the other launching nodes
+            synchronized (PROMPT_LOCK) {
+                println "\nIt is strongly suggested to stop the process and review the cluster configuration!"
+                if( promptYesOrNo("Do you want to continue?") == 'n' ) {
+                    throw new OperationAbortException()
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Resume the provisioning of a cluster whose configuration has failed.
+     * <p>
+     * The {@link OnNodeReadyEvent} of each node and the {@link OnAfterClusterStartedEvent} are posted again, the operations steps completed successfully
+     * are skipped and the scripts are executed only on the nodes on which they have not completed,
+     * see {@link ProvisioningJournal}
+     *
+     * @return The steps not completed before resuming, in the form {@code operation:event}
+     */
+    public List<String> resumeCluster() {
+        if( !dirty ) {
+            throw new BlowException("The cluster '${clusterName}' has not been started")
+        }
+
+        def journal = getJournal().load()
+        def steps = journal.incompleteSteps()
+        log.info "Resuming cluster: $clusterName${steps ? ' -- incomplete steps: ' + steps.join(', ') : ''}"
+
+        journal.resuming = true
+        try {
+            resumeNodes( listNodes() as List<BlowNodeMetadata> )
+            safeTry {
+                eventBus.post(new OnAfterClusterStartedEvent(session: this, clusterName: clusterName, nodes: listNodes() ))
             }
         }
+        finally {
+            journal.resuming = false
+        }
+
+        saveOnExit = true
+        return steps
     }
 
+    /**
+     * Post again the {@link OnNodeReadyEvent} of the specified nodes, up to {@link #NODE_NOTIFIER_THREADS} at the same time
+     * <p>
+     * note: the events are not posted by the {@code scpExecutor} threads, since the handlers use them to run their scripts
+     */
+    private void resumeNodes( List<BlowNodeMetadata> nodes ) {
+        if( !nodes ) {
+            return
+        }
+
+        def notifier = Executors.newFixedThreadPool( Math.min(nodes.size(), NODE_NOTIFIER_THREADS) )
+        try {
+            def tasks = nodes.collect { BlowNodeMetadata node ->
+                { -> safeTry {
+                    eventBus.post( new OnNodeReadyEvent(session: this, clusterName: clusterName, role: node.getNodeRole(), name: node.getNodeName(), node: node) )
+                } } as Callable
+            }
+            notifier.invokeAll(tasks).each { Future it -> waitLaunch(it) }
+        }
+        finally {
+            notifier.shutdownNow()
+        }
+    }
 
 	/**
 	 * Create an instance of the specific cluster 
@@ -329,6 +571,16 @@ class BlowSession {
 	 */
 	public void createCluster() {
 		log.info("Starting cluster: $clusterName")
+        def timer = metricsTimer('session.createCluster').start()
+        try {
+            startCluster()
+        }
+        finally {
+            timer.stop()
+        }
+	}
+
+    private void startCluster() {
 
         /*
          * make sure that the session can be started one and only one time
@@ -337,36 +589,13 @@ class BlowSession {
             throw new DirtySessionException()
         }
         dirty = true
+        getJournal().clear()
 
         /*
          * Check that cc1.4xlarge can run only in region 'us-east-1'
          */
 
-        /*
-         * Verify the specified key-pair exists (if any)
-         */
-        if( conf.keyPair ) {
-            log.debug("Check key-pair '${conf.keyPair}' existance")
-            def result = keyPairClient.describeKeyPairsInRegion(conf.regionId,conf.keyPair)?.find()
-            if( !result ) {
-                throw new BlowConfigException("The specified key-pair '${conf.keyPair}' does not exist in region '${conf.regionId}'")
-            }
-        }
-
-        if( !conf.placementGroup ) {
-            def defPlacementGroup = "jclouds#${clusterName}#${conf.regionId}"
-            // make sure to delete the default placementGroup is exist
-            log.debug "Check placement-group '${defPlacementGroup}' existance"
-            def groups = placementGroupClient.describePlacementGroupsInRegion(conf.regionId, defPlacementGroup)
-            if( groups && groups.size() == 1 ) {
-                try {
-                    placementGroupClient.deletePlacementGroupInRegion(conf.regionId, defPlacementGroup)
-                } catch( Exception e ) {
-                    throw new BlowConfigException("Unable to delete the placement-group '${conf.keyPair}' -- make sure to delete it before continue", e)
-                }
-            }
-
-        }
+        checkProviderResources()
 
         /*
          * Initialize the metadata structures
@@ -391,36 +620,37 @@ class BlowSession {
 
 
         /*
-         * Creates the instances for each defined role
+         * Creates the instances for all the roles at the same time,
+         * each node is notified by a 'OnNodeReadyEvent' as soon as it accepts connections
          */
-        conf.roles.each { role ->
-
-            /*
-             * Get the compute service
-             */
-            def templateBuilder = compute.templateBuilder()
-
-            templateBuilder.hardwareId( conf.instanceTypeFor(role) )
-            templateBuilder.imageId( "${conf.regionId}/${conf.imageIdFor(role)}" )
-            templateBuilder.locationId( conf.zoneId )
+        def launches = new LinkedHashMap<String,Future<Set<? extends NodeMetadata>>>()
+        def launcher = Executors.newCachedThreadPool()
+        try {
+            conf.roles.each { String role ->
 
+                def count = conf.instanceNumFor(role)
+                if( !count ) {
+                    log.debug("(no '${role}' nodes required)")
+                    return
+                }
 
-            /*
-             * create the master node
-             */
-            def count = conf.instanceNumFor(role)
-            if( count ) {
                 def lbl = count==1 ? 'node' : 'nodes'
                 log.info("Creating $count $lbl for role '${role}'")
-                def nodes = startNodes(templateBuilder, count, role)
+                launches.put( role, launcher.submit( { launchRole(role, count) } as Callable<Set<? extends NodeMetadata>> ) )
+            }
 
+            /*
+             * wait for all the roles, in the same order they are declared
+             */
+            for( Future<Set<? extends NodeMetadata>> launch : launches.values() ) {
+                def nodes = waitLaunch(launch)
                 if( !masterMetadata ) {
                     masterMetadata = nodes?.find()
                 }
             }
-            else {
-                log.debug("(no '${role}' nodes required)")
-            }            
+        }
+        finally {
+            launcher.shutdownNow()
         }
 
 
@@ -443,15 +673,215 @@ class BlowSession {
 
 
 
+    /**
+     * Verify the key-pair declared by the configuration exists and delete the placement group
+     * left by a previous run of the cluster, if any
+     */
+    protected void checkProviderResources() {
+
+        /*
+         * Verify the specified key-pair exists (if any)
+         */
+        if( conf.keyPair ) {
+            log.debug("Check key-pair '${conf.keyPair}' existance")
+            def result = keyPairClient.describeKeyPairsInRegion(conf.regionId,conf.keyPair)?.find()
+            if( !result ) {
+                throw new BlowConfigException("The specified key-pair '${conf.keyPair}' does not exist in region '${conf.regionId}'")
+            }
+        }
+
+        if( !conf.placementGroup ) {
+            def defPlacementGroup = "jclouds#${clusterName}#${conf.regionId}"
+            // make sure to delete the default placementGroup is exist
+            log.debug "Check placement-group '${defPlacementGroup}' existance"
+            def groups = placementGroupClient.describePlacementGroupsInRegion(conf.regionId, defPlacementGroup)
+            if( groups && groups.size() == 1 ) {
+                try {
+                    placementGroupClient.deletePlacementGroupInRegion(conf.regionId, defPlacementGroup)
+                } catch( Exception e ) {
+                    throw new BlowConfigException("Unable to delete the placement-group '${conf.keyPair}' -- make sure to delete it before continue", e)
+                }
+            }
+
+        }
+    }
+
+    /**
+     * Start the nodes for the specified role and notify each of them by a {@link OnNodeReadyEvent}
+     * <p>
+     * The nodes are created by a single request that does not wait for them to run, then each node
+     * is notified as soon as it is reachable without waiting for the slowest node of the role
+     *
+     * @return The started nodes
+     */
+    private Set<? extends NodeMetadata> launchRole( String role, int count ) {
+
+        def template = nodesTemplate(templateBuilder(role), count, role)
+        template.getOptions().blockUntilRunning(false)
+
+        def result = new LinkedHashSet<NodeMetadata>()
+        Set<? extends NodeMetadata> started = startNodes(template, count, role)
+        if( started ) {
+            def notifier = Executors.newFixedThreadPool( Math.min(started.size(), NODE_NOTIFIER_THREADS) )
+            try {
+                def launches = started.collect { NodeMetadata node ->
+                    notifier.submit( { nodeReady(node, role) } as Callable<NodeMetadata> )
+                }
+                launches.each { Future<NodeMetadata> launch ->
+                    def node = waitLaunch(launch)
+                    if( node ) result.add(node)
+                }
+            }
+            finally {
+                notifier.shutdownNow()
+            }
+        }
+
+		/*
+		 * send the after creation event
+		 */
+	    safeTry {
+            eventBus.post(new OnAfterNodeLaunchEvent(
+                    session: this,
+                    clusterName: clusterName,
+                    numberOfNodes: count,
+                    role: role,
+                    nodes: (result.size()==1 ? result.find() : result)
+            ))
+        }
+
+        return result
+    }
+
+    /**
+     * @return The template builder for the nodes of the specified role, defining their instance type, image and zone
+     */
+    protected TemplateBuilder templateBuilder( String role ) {
+        def result = compute.templateBuilder()
+        result.hardwareId( conf.instanceTypeFor(role) )
+        result.imageId( "${conf.regionId}/${conf.imageIdFor(role)}" )
+        result.locationId( conf.zoneId )
+        return result
+    }
+
+    /**
+     * Wait for the node to run and its SSH port to be open, then post the {@link OnNodeReadyEvent}.
+     * When the property {@code createUser} is set the admin access script is run on the node before notifying it
+     *
+     * @return The running node, {@code null} when the node fails to run
+     */
+    private NodeMetadata nodeReady( NodeMetadata node, String role ) {
+
+        def name = nodeNameOf(node.getId())
+        node = awaitRunning(node, name)
+        if( !node ) {
+            return null
+        }
+        metadataReplaceInstance(name, node)
+
+        def ip = node.getPublicAddresses() ?. find()
+        if( conf.nodeReadyTimeout > 0 && ip && !waitForPort(ip, 22, conf.nodeReadyTimeout * 1000L) ) {
+            log.warn "Node '${name}' (${ip}) does not accept connections after ${conf.nodeReadyTimeout} seconds"
+        }
+
+        if( conf.createUser ) {
+            // note: the script is not run by the compute service, since it does not wait for the nodes
+            log.debug "Creating admin access for user: '${conf.userName}' on node: '${name}'"
+            safeTry {
+                compute.runScriptOnNode(node.getId(), adminAccessScript)
+            }
+        }
+
+        log.debug "Node ready: '${name}' - instance: ${node.getProviderId()}"
+        safeTry {
+            eventBus.post( new OnNodeReadyEvent(session: this, clusterName: clusterName, role: role, name: name, node: allNodes.get(name)) )
+        }
+        return node
+    }
+
+    /**
+     * Poll the node until it is running
+     *
+     * @return The metadata of the running node, {@code null} when the node fails or does not run within {@link #NODE_RUNNING_TIMEOUT}
+     */
+    private NodeMetadata awaitRunning( NodeMetadata node, String name ) {
+        def max = System.currentTimeMillis() + NODE_RUNNING_TIMEOUT
+        while( node.getState() != NodeState.RUNNING ) {
+            if( node.getState() == NodeState.ERROR || node.getState() == NodeState.TERMINATED || System.currentTimeMillis() > max ) {
+                log.warn "Node '${name}' - instance: ${node.getProviderId()} is not running -- state: ${node.getState()}"
+                return null
+            }
+            sleep 5000
+            node = compute.getNodeMetadata(node.getId()) ?: node
+        }
+        return node
+    }
+
+    /**
+     * Check until the specified port accepts connection
+     *
+     * @return {@code true} when the port is open, {@code false} when the timeout expires
+     */
+    static protected boolean waitForPort( String host, int port, long timeoutMillis ) {
+        def max = System.currentTimeMillis() + timeoutMillis
+        while( true ) {
+            def socket = new Socket()
+            try {
+                socket.connect(new InetSocketAddress(host, port), 5000)
+                return true
+            }
+            catch( IOException e ) {
+                if( System.currentTimeMillis() > max ) {
+                    return false
+                }
+                sleep 2000
+            }
+            finally {
+                socket.close()
+            }
+        }
+    }
+
+    /**
+     * Wait for a launch task to complete, re-throwing the abort raised by the user
+     */
+    static private waitLaunch( Future launch ) {
+        try {
+            return launch.get()
+        }
+        catch( ExecutionException e ) {
+            throw e.getCause() ?: e
+        }
+    }
+
     /**
      * Start a set of nodes
      *
-     * @param builder
+     * @param template The template returned by {@link #nodesTemplate(org.jclouds.compute.domain.TemplateBuilder, int, java.lang.String)}
      * @param numberOfNodes
      * @param role
      * @return
      */
-    private startNodes( TemplateBuilder builder, int numberOfNodes, String role ) {
+    private startNodes( Template template, int numberOfNodes, String role ) {
+        def timer = metricsTimer('session.startNodes').start()
+        try {
+            return launchNodes(template, numberOfNodes, role)
+        }
+        finally {
+            timer.stop()
+        }
+    }
+
+    /**
+     * Create the template of the nodes of a role and notify it by a {@link OnBeforeNodeLaunchEvent},
+     * so that the operations can define the launch options
+     *
+     * @param builder
+     * @param numberOfNodes The number of nodes that will be launched with the template
+     * @param role
+     * @return The template used to start each node of the role
+     */
+    private Template nodesTemplate( TemplateBuilder builder, int numberOfNodes, String role ) {
 
         Template template = builder.build()
 
@@ -498,6 +928,11 @@ class BlowSession {
             )  )
         }
 
+        return template
+    }
+
+    private Set<? extends NodeMetadata> launchNodes( Template template, int numberOfNodes, String role ) {
+
 		/*
 		 * Start the requested nodes
 		 */
@@ -512,19 +947,6 @@ class BlowSession {
          * Update session metadata
          */
         metadataAddInstances(setOfNodes, role)
-		
-		/*
-		 * send the after creation event
-		 */
-	    safeTry {
-            eventBus.post(new OnAfterNodeLaunchEvent(
-                    session: this,
-                    clusterName: clusterName,
-                    numberOfNodes: numberOfNodes,
-                    role: role,
-                    nodes: (setOfNodes.size()==1 ? setOfNodes.find() : setOfNodes)
-            ))
-        }
 
 		/*
 		 * returns the set of metadata for the started nodes
@@ -582,10 +1004,107 @@ class BlowSession {
 
         // delete the session file
         deleteSessionFile()
+        getJournal().clear()
 
 		return result
 	}
 
+    /**
+     * Add nodes to the running cluster.
+     * <p>
+     * The nodes are started as at the cluster creation, then a {@link OnAfterNodesAddedEvent} is posted
+     * so that the operations configure only the new nodes
+     *
+     * @param role The role of the nodes to add
+     * @param count The number of nodes to add
+     * @return The names of the added nodes
+     */
+    public List<String> addNodes( String role, int count ) {
+        if( !dirty ) {
+            throw new BlowException("The cluster '${clusterName}' has not been started")
+        }
+        if( !(role in conf.roles) ) {
+            throw new BlowException("Unknown role: '${role}' -- the cluster roles are: ${conf.roles.join(', ')}")
+        }
+        if( role == conf.masterRole && role != conf.workersRole ) {
+            throw new BlowException("Nodes cannot be added to the '${role}' role -- it runs the cluster services")
+        }
+        if( count < 1 ) {
+            throw new BlowException("The number of nodes to add must be greater than zero")
+        }
+
+        log.info "Adding ${count} ${count==1 ? 'node' : 'nodes'} for role '${role}' to cluster: $clusterName"
+        def started = launchRole(role, count)
+
+        def names = started.collect { NodeMetadata node -> nodeNameOf(node.getId()) }.findAll { it }
+        if( names.size() < count ) {
+            log.warn "Only ${names.size()} of ${count} nodes have been started for role '${role}'"
+        }
+
+        if( names ) {
+            safeTry {
+                eventBus.post( new OnAfterNodesAddedEvent(session: this, clusterName: clusterName, role: role, nodes: names.collect { allNodes.get(it) }) )
+            }
+        }
+
+        scheduleRefreshMetadataNow()
+        saveOnExit = true
+        return names
+    }
+
+    /**
+     * Remove nodes from the running cluster.
+     * <p>
+     * A {@link OnBeforeNodesRemovalEvent} is posted so that the operations drain the nodes before they are terminated.
+     * The nodes having the master role cannot be removed
+     *
+     * @param criteria The nodes to remove, a node name, a role or a list of them
+     * @return The names of the removed nodes
+     */
+    public List<String> removeNodes( def criteria ) {
+        if( !dirty ) {
+            throw new BlowException("The cluster '${clusterName}' has not been started")
+        }
+
+        def nodes = listNodes(criteria) as List<BlowNodeMetadata>
+        if( !nodes ) {
+            throw new BlowException("No nodes matching: ${criteria}")
+        }
+
+        def master = nodes.find { BlowNodeMetadata node -> node.getNodeRole() == conf.masterRole }
+        if( master ) {
+            throw new BlowException("Node '${master.getNodeName()}' cannot be removed -- the '${conf.masterRole}' nodes run the cluster services")
+        }
+
+        def names = nodes.collect { BlowNodeMetadata node -> node.getNodeName() }
+        log.info "Removing nodes: ${names.join(', ')} from cluster: $clusterName"
+
+        safeTry {
+            eventBus.post( new OnBeforeNodesRemovalEvent(session: this, clusterName: clusterName, nodes: nodes) )
+        }
+
+        def ids = nodes.collect { BlowNodeMetadata node -> node.getId() } as Set
+        def result = compute.destroyNodesMatching( new Predicate<NodeMetadata>() {
+            boolean apply( NodeMetadata node ) { node.getId() in ids }
+        })
+        result.each { log.debug "- Terminated instance: ${it.providerId} " }
+
+        synchronized (this) {
+            names.each { String name ->
+                metadataRemove(name)
+                // the nodes do not exist anymore, so they are not listed as not-yet-available nodes
+                allNodes.remove(name)
+            }
+        }
+
+        safeTry {
+            eventBus.post( new OnAfterNodesRemovalEvent(session: this, clusterName: clusterName, names: names, nodes: result) )
+        }
+
+        saveOnExit = true
+        return names
+    }
+
     synchronized protected void metadataInitialize() {
 
         int tot = 0;
@@ -593,38 +1112,43 @@ class BlowSession {
 
         nodeNamesMap = HashBiMap.create(tot)
         nodeRolesMap = ArrayListMultimap.create()
-        allNodes = new LinkedHashMap<String, BlowNodeMetadata>(tot)  // <-- use a linked hash map to maintain the insertion order
 
+        def names = new ArrayList<String>(tot)  // <-- the cache maintains the insertion order
         conf.roles.each {
             def count = conf.instanceNumFor(it)
             if( !count ) return
 
             for( int i=0; i<count; i++ ) {
-                def name = getNextNodeName(it,i)
-                allNodes.put( name, null )
+                names << getNextNodeName(it,i)
             }
 
         }
+        allNodes.reset(names)
+
+    }
 
+    synchronized protected void metadataReplaceInstance( String name, NodeMetadata node ) {
+        allNodes.putAll( [(name): wrapNode(node)] )
     }
 
     synchronized protected void metadataAddInstances( Set<? extends NodeMetadata> setOfNodes, String role ) {
         assert role
 
-        setOfNodes.each { NodeMetadata node ->
+        def entries = new LinkedHashMap<String,BlowNodeMetadata>()
+        for( NodeMetadata node : setOfNodes ) {
             def name = getNextNodeName(role)
             log.debug "Adding metadata for node ${name} - instance: ${node.getProviderId()} - IP: ${node.getPublicAddresses().find()} "
             nodeNamesMap.put( name, node.getId() )
             nodeRolesMap.put( role, node.getId() )
-            allNodes.put(name, wrapNode(node))
+            entries.put(name, wrapNode(node))
         }
+        allNodes.putAll(entries)
     }
 
 
     protected void metadataUpdate( def setOfNodes = null ) {
         log.debug "Metadata update"
 
-        def nodeIdToName = nodeNamesMap.inverse()
         List<NodeMetadata> listOfNewNodes = []
         def listOfUpdatedNames = []
 
@@ -632,11 +1156,18 @@ class BlowSession {
          * Find the 'fresh' metadata for the current nodes
          */
         if( !setOfNodes ) {
-            setOfNodes = compute.listNodesDetailsMatching( new Predicate<NodeMetadata>() {
-                boolean apply( NodeMetadata it ) {
-                    return it.getGroup() == clusterName
-                }
-            })
+            def timer = metricsTimer('session.metadataRefresh').start()
+            try {
+                final group = clusterName
+                setOfNodes = compute.listNodesDetailsMatching( new Predicate<NodeMetadata>() {
+                    boolean apply( NodeMetadata it ) {
+                        return it.getGroup() == group
+                    }
+                })
+            }
+            finally {
+                timer.stop()
+            }
         }
 
 
@@ -646,17 +1177,22 @@ class BlowSession {
          */
         synchronized (this) {
 
+            // note: the names map is read holding the lock, since the launching threads are adding nodes to it
+            def nodeIdToName = nodeNamesMap.inverse()
+            def updates = new LinkedHashMap<String,BlowNodeMetadata>()
             setOfNodes.each { NodeMetadata node ->
 
                 if( nodeIdToName.containsKey(node.id) ) {
                     def name = nodeIdToName[ node.id ]
-                    allNodes.put( name, wrapNode(node) )
+                    updates.put( name, wrapNode(node) )
                     listOfUpdatedNames << name
                 }
                 else {
                     listOfNewNodes << node
                 }
             }
+            // replace all the entries at once
+            allNodes.putAll(updates)
 
             if( listOfNewNodes ) {
                 log.debug "Oops these nodes should not exist: ${listOfNewNodes *. getProviderId()}"
@@ -669,21 +1205,83 @@ class BlowSession {
             def missingNames = allNodes.keySet() - listOfUpdatedNames
             log.debug "Removing from cached nodes the following entries: $missingNames"
 
-            missingNames .each { String name ->
+            missingNames .each { String name -> metadataRemove(name) }
+        }
+
+    }
 
-                def node = allNodes.get(name)
-                if( node ) {
-                    nodeNamesMap.remove(name)
-                    nodeRolesMap.remove( node.getNodeRole(), node.getId() )
-                    allNodes.put(name, null) // note: this remove must be the last otherwise the above 'getNodeId()' and 'getNodeRole()' will fail
-                }
-                else {
-                    log.debug "Unknown node: '$name'"
-                }
+    /**
+     * Update the metadata only for the nodes that require to be checked, see {@link NodeMetadataCache#dueNames()}.
+     * When most of the nodes have to be checked all of them are fetched with a single request
+     */
+    protected void metadataUpdateDue() {
+        def names = allNodes.dueNames()
+        if( !names ) {
+            return
+        }
+
+        // note: the values are not read, since it would load all the deferred entries
+        def available = allNodes.getAvailableCount()
+        if( names.size() > 1 && names.size() * 2 >= available ) {
+            metadataUpdate()
+            return
+        }
+
+        log.debug "Metadata update for nodes: $names"
+        def updates = new LinkedHashMap<String,BlowNodeMetadata>()
+        def missing = []
+        names.each { String name ->
+            def id = nodeIdOf(name)
+            def node = id ? compute.getNodeMetadata(id) : null
+            if( node ) {
+                updates.put(name, wrapNode(node))
+            }
+            else {
+                missing << name
             }
-            // end of missingNames
         }
 
+        synchronized (this) {
+            allNodes.putAll(updates)
+            missing.each { String name -> metadataRemove(name) }
+        }
+    }
+
+    /*
+     * The name of the node having the specified instance ID. The names map is modified by the launching
+     * threads holding the session lock, so it is read holding the same lock
+     */
+    synchronized protected String nodeNameOf( String id ) {
+        nodeNamesMap.inverse().get(id)
+    }
+
+    /*
+     * The instance ID of the node having the specified name, read holding the session lock
+     */
+    synchronized protected String nodeIdOf( String name ) {
+        nodeNamesMap.get(name)
+    }
+
+    /*
+     * A copy of the map < Instance ID, Node name >, taken holding the session lock
+     */
+    synchronized protected Map<String,String> nodeIdToNameCopy() {
+        new HashMap<String,String>(nodeNamesMap.inverse())
+    }
+
+    /*
+     * Remove the metadata of a node that does not exist anymore
+     */
+    protected void metadataRemove( String name ) {
+        def node = allNodes.get(name)
+        if( node ) {
+            nodeNamesMap.remove(name)
+            nodeRolesMap.remove( node.getNodeRole(), node.getId() )
+            allNodes.put(name, null) // note: this remove must be the last otherwise the above 'getNodeId()' and 'getNodeRole()' will fail
+        }
+        else {
+            log.debug "Unknown node: '$name'"
+        }
     }
 
     private BlowNodeMetadata wrapNode( NodeMetadata node ) {
@@ -711,16 +1309,18 @@ class BlowSession {
     }
 
     /**
-     * Refresh the nodes metadata scheduling a timer to keep them updated
+     * Refresh the metadata of all nodes and keep them updated
      */
     protected void scheduleRefreshMetadataNow() {
+        allNodes.expireAll()
         scheduleRefreshMetadata(0)
     }
 
     /**
-     * Schedule a metadata update
+     * Schedule a metadata update. The update is executed by the scheduler shared by all the sessions,
+     * see {@link NodeMetadataCache#scheduler}
      */
-    protected void scheduleRefreshMetadata(long delay = nodesCacheDuration) {
+    protected synchronized void scheduleRefreshMetadata(long delay = nodesCacheDuration) {
         log.debug "Schedule refresh metadata with delay: ${delay/1000} secs"
 
         if( !allNodes ) {
@@ -728,26 +1328,28 @@ class BlowSession {
             return
         }
 
-        if( refreshTimer ) { refreshTimer.cancel() }
+        refreshTask?.cancel(false)
+        refreshTask = NodeMetadataCache.scheduler.schedule( { runScheduledRefresh() } as Runnable, delay, TimeUnit.MILLISECONDS )
 
-        refreshTimer = new Timer('BlowSyncTimer',true)
-        refreshTimer.runAfter(delay.toInteger()) {
-            log.debug("Refreshing nodes metadata")
-            try {
-                metadataUpdate()
-                refreshLastRun = System.currentTimeMillis()
-            }
-            catch( Throwable e ) {
-                log.warn("Oops .. unable to refresh nodes metadata. See log file for details.", e)
-            }
-            finally {
-                log.debug("Refreshing nodes metadata - end")
-                // schedule another iteration
-                scheduleRefreshMetadata(nodesCacheDuration)
-                log.debug("Re-scheduled metadata refresh")
-            }
-        }
+    }
 
+    /*
+     * Update the nodes requiring to be checked and schedule the next refresh
+     */
+    private void runScheduledRefresh() {
+        log.trace("Refreshing nodes metadata")
+        try {
+            metadataUpdateDue()
+            refreshLastRun = System.currentTimeMillis()
+        }
+        catch( Throwable e ) {
+            log.warn("Oops .. unable to refresh nodes metadata. See log file for details.", e)
+        }
+        finally {
+            // schedule the next iteration when the first node requires to be checked
+            long next = Math.min(allNodes.getNextDue() - System.currentTimeMillis(), nodesCacheDuration)
+            scheduleRefreshMetadata( Math.max(next, 1000) )
+        }
     }
 
 
@@ -783,12 +1385,12 @@ class BlowSession {
         }
     }
 
-    protected boolean cancelScheduledRefresh() {
-        if( refreshTimer ) {
+    protected synchronized boolean cancelScheduledRefresh() {
+        if( refreshTask ) {
             log.debug "Cancel refresh timer"
 
-            refreshTimer.cancel();
-            refreshTimer=null
+            refreshTask.cancel(false);
+            refreshTask=null
 
             return true
         }
@@ -809,11 +1411,13 @@ class BlowSession {
 
     /**
      * Find out a list of node IDs given a 'node name' or a 'node role' or a combination of them
+     * <p>
+     * The names and roles maps are read holding the session lock, since nodes can be added and removed concurrently
      *
      * @param criteria
      * @return
      */
-    def List<String> findNodeIDs( def criteria ) {
+    synchronized def List<String> findNodeIDs( def criteria ) {
         assert criteria
 
         def result = []
@@ -847,10 +1451,11 @@ class BlowSession {
         assert criteria
 
         def listOfNodeIDs = findNodeIDs(criteria)
+        final group = clusterName
 
         def nodeFilter = new Predicate<NodeMetadata>() {
             boolean apply( NodeMetadata it) {
-                return it.getGroup() == clusterName \
+                return it.getGroup() == group \
 				    && it.getState() == NodeState.RUNNING \
 				    && it.getId() in listOfNodeIDs
             }
@@ -859,9 +1464,10 @@ class BlowSession {
 
 	def Predicate<NodeMetadata> filterAll() {
 		
+		final group = clusterName
 		new Predicate<NodeMetadata>() {
 			boolean apply( NodeMetadata it ) {
-				return it.getGroup() == clusterName \
+				return it.getGroup() == group \
 				    && it.getState() == NodeState.RUNNING
 			}
 		}
@@ -871,18 +1477,74 @@ class BlowSession {
     def Predicate<NodeMetadata> filterByPublicAddress( String publicAddress ) {
         assert publicAddress
 
-        new Predicate<NodeMetadata>() {
-            boolean apply( NodeMetadata it ) {
-                return it.getGroup() == clusterName \
-                    && it.getState() == NodeState.RUNNING \
-                    && it.getPublicAddresses().find( {  it =~ publicAddress  } )
-            }
+        // compile the pattern once instead of for each node
+        def pattern = Pattern.compile(publicAddress)
+        final group = clusterName
+        new Predicate<NodeMetadata>() {
+            boolean apply( NodeMetadata it ) {
+                return it.getGroup() == group \
+                    && it.getState() == NodeState.RUNNING \
+                    && it.getPublicAddresses().find( { pattern.matcher(it).find() } )
+            }
+        }
+
+    }
+
+
+    /**
+     * Run a shell script on the nodes matching the specified criteria.
+     * <p>
+     * The script is executed in parallel on the nodes using the session SSH connections pool following the
+     * execution policy defined by the configuration property {@code execPolicy},
+     * see {@link #execOnNode(java.lang.String, blow.BlowSession.BlowNodeMetadata, boolean)}.
+     * When the configuration property {@code streamOutput} is enabled the nodes output is printed
+     * while it is produced
+     *
+     * @param script The script to be executed
+     * @param criteria The nodes on which run the script, either a {@link Predicate}, a node name, a role or a list of them.
+     *      When {@code null} the script runs on all the cluster nodes
+     * @param runAsRoot When {@code true} the script is executed with root permissions
+     * @return {@code true} when the script terminated successfully on all the nodes, {@code false} otherwise
+     */
+	def boolean runScriptOnNodes( String script, def criteria = null, boolean runAsRoot = false) {
+        runScriptOnNodes(script, criteria, runAsRoot, execPolicy())
+	}
+
+    /**
+     * Run a shell script on the nodes matching the specified criteria following the specified execution policy
+     *
+     * @param script The script to be executed
+     * @param criteria The nodes on which run the script, see {@link #runScriptOnNodes(java.lang.String, java.lang.Object, boolean)}
+     * @param runAsRoot When {@code true} the script is executed with root permissions
+     * @param policy The {@link ExecPolicy} defining how many nodes run the script at the same time, the timeouts, etc.
+     *      See {@link #execPolicy(java.util.Map)}
+     * @return {@code true} when the script terminated successfully on all the nodes, {@code false} otherwise
+     */
+    def boolean runScriptOnNodes( String script, def criteria, boolean runAsRoot, ExecPolicy policy ) {
+
+        if( !conf.streamOutput ) {
+            return runScriptOnNodes(script, criteria, runAsRoot, null, 0, policy)
         }
 
+        def printer = new ConsolePrinter()
+        def result = runScriptOnNodes(script, criteria, runAsRoot, printer, conf.outputTailLines, policy)
+        printer.printSummary()
+        return result
     }
 
-
-	def boolean runScriptOnNodes( String script, def criteria = null, boolean runAsRoot = false) {
+    /**
+     * Run a shell script on the nodes matching the specified criteria, passing the output to the
+     * specified listener while it is produced
+     *
+     * @param script The script to be executed
+     * @param criteria The nodes on which run the script, see {@link #runScriptOnNodes(java.lang.String, java.lang.Object, boolean)}
+     * @param runAsRoot When {@code true} the script is executed with root permissions
+     * @param listener The {@link OutputListener} receiving the output lines of all the nodes, it may be {@code null}
+     * @param tail The number of the last output lines of each node kept in the {@link ExecResponse}, {@code 0} to keep all of them
+     * @param policy The {@link ExecPolicy} to be used, when {@code null} the one defined by the configuration
+     * @return {@code true} when the script terminated successfully on all the nodes, {@code false} otherwise
+     */
+    def boolean runScriptOnNodes( String script, def criteria, boolean runAsRoot, OutputListener listener, int tail = 0, ExecPolicy policy = null ) {
 
         def filter
         if( criteria == null ) {
@@ -895,22 +1557,185 @@ class BlowSession {
             filter = filterByCriteria(criteria)
         }
 
-		/*
-		 * defines the credentials option
-		 */
-		def opt = TemplateOptions.Builder.overrideLoginCredentials(conf.credentials);
-		
-		/*
-		 * run as 'root' if required
-		 */
-		opt.runAsRoot(runAsRoot)
-		
-		def responses = context.getComputeService().runScriptOnNodesMatching(filter, script, opt)
+        def nodes = listNodes().findAll { BlowNodeMetadata node -> filter.apply(node) }
+
+        /*
+         * when resuming a provisioning skip the nodes on which the script has already completed
+         */
+        def done = nodes.findAll { BlowNodeMetadata node -> getJournal().isDone(script, node.getNodeName()) }
+        if( done ) {
+            log.info "Skipping script already completed on node(s): ${done.collect { nodeLabel(it) }.join(', ')}"
+            nodes.removeAll(done)
+        }
+
+        if( listener instanceof ConsolePrinter ) {
+            listener.width = nodes.collect { BlowNodeMetadata node -> nodeLabel(node).size() }.max() ?: 0
+        }
+
+        /*
+         * the timeout is enforced on the node by the 'timeout' command, which stops the script,
+         * the local one is only a backstop for the nodes not replying
+         */
+        def rules = policy ?: execPolicy()
+		def responses = invokeOnNodes( nodes, rules, REMOTE_TIMEOUT_GRACE ) { BlowNodeMetadata node ->
+            def response = execOnNode( script, node, runAsRoot, listener, tail, rules.timeout )
+            listener?.onComplete( nodeLabel(node), response )
+            return response
+        }
 
         logExecResponse(script, responses)
+        responses.each { BlowNodeMetadata node, ExecResponse response -> getJournal().record(script, node.getNodeName(), response.getExitCode()) }
 
 		return checkForValidResponse(responses)
-	}
+    }
+
+    /**
+     * Execute a shell script on a single node reusing a pooled SSH connection.
+     *
+     * @param script The script to be executed
+     * @param targetNode The node on which run the script
+     * @param runAsRoot When {@code true} the script is executed by using {@code sudo}
+     * @return The {@link ExecResponse} holding the script output, error and exit status
+     */
+    protected ExecResponse execOnNode( String script, BlowNodeMetadata targetNode, boolean runAsRoot = false ) {
+        execOnNode(script, targetNode, runAsRoot, null, 0, 0)
+    }
+
+    /**
+     * Execute a shell script on a single node reusing a pooled SSH connection.
+     * <p>
+     * When a listener or a tail size is specified the output is split in lines while it is read,
+     * each line is passed to the listener and only the last {@code tail} lines are kept in memory
+     *
+     * @param script The script to be executed
+     * @param targetNode The node on which run the script
+     * @param runAsRoot When {@code true} the script is executed by using {@code sudo}
+     * @param listener The {@link OutputListener} receiving the output lines, it may be {@code null}
+     * @param tail The number of the last output lines kept in the {@link ExecResponse}, {@code 0} to keep all of them
+     * @param timeout The seconds after which the script is stopped on the node, exiting with status {@code 124}, {@code 0} for no timeout
+     * @return The {@link ExecResponse} holding the script output, error and exit status
+     */
+    protected ExecResponse execOnNode( String script, BlowNodeMetadata targetNode, boolean runAsRoot, OutputListener listener, int tail, int timeout ) {
+        assert targetNode
+
+        def ip = targetNode.getNodeIp()
+        def label = nodeLabel(targetNode)
+        log.debug("[ssh] executing script on host: '${ip}'")
+
+        sshPool.withConnection( ip, conf.userName, conf.privateKey ) { SSHClient ssh ->
+            def timer = metricsTimer('ssh.exec').start()
+            Session session = null
+            try {
+                session = ssh.startSession()
+                def command = session.exec( wrapScript(script, runAsRoot, timeout) )
+
+                def streaming = listener != null || tail > 0
+                def outLines = streaming ? new TailLines(tail) : null
+                def errLines = streaming ? new TailLines(tail) : null
+                def output = streaming ? lineStream(label, outLines, listener, false) : new ByteArrayOutputStream()
+                def error = streaming ? lineStream(label, errLines, listener, true) : new ByteArrayOutputStream()
+
+                /*
+                 * consume the error stream in a separate thread, to avoid to block
+                 * the remote command when the channel window gets full
+                 */
+                def errorDone = new StreamCopier(command.getErrorStream(), error)
+                        .bufSize(8 * 1024)
+                        .spawnDaemon("ssh-stderr-${ip}")
+
+                new StreamCopier(command.getInputStream(), output).bufSize(8 * 1024).copy()
+                errorDone.await()
+                command.join()
+                output.close()
+                error.close()
+
+                def exitStatus = command.getExitStatus()
+                def exitCode = exitStatus != null ? exitStatus : -1
+                return streaming \
+                    ? new ExecResponse( outLines.toString(), errLines.toString(), exitCode ) \
+                    : new ExecResponse( output.toString(), error.toString(), exitCode )
+            }
+            finally {
+                session?.close()
+                timer.stop()
+            }
+        }
+    }
+
+    /**
+     * @return A {@link LineOutputStream} adding each line to the specified tail buffer and notifying it to the listener
+     */
+    static private OutputStream lineStream( String node, TailLines lines, OutputListener listener, boolean error ) {
+        new LineOutputStream( { String line ->
+            lines.add(line)
+            listener?.onLine(node, line, error)
+        } )
+    }
+
+    /**
+     * @return The name used to label the node output, the node name or its address when it has no name
+     */
+    static private String nodeLabel( BlowNodeMetadata node ) {
+        node.getNodeName() ?: node.getNodeIp()
+    }
+
+    /**
+     * Wrap a script so that it is interpreted by Bash, optionally as root and stopped after {@code timeout} seconds
+     */
+    static protected String wrapScript( String script, boolean runAsRoot, int timeout = 0 ) {
+        def result = "bash -c '${script.replace("'","'\\''")}'"
+        if( timeout > 0 ) {
+            // the 'timeout' command stops the script process group, killing it when it does not terminate in 10 seconds
+            result = "timeout -k 10 ${timeout} ${result}"
+        }
+        return runAsRoot ? "sudo ${result}" : result
+    }
+
+    /**
+     * Invoke the specified action in parallel on each of the nodes in the list
+     *
+     * @param nodes The nodes on which apply the action
+     * @param policy The {@link ExecPolicy} defining how many nodes run at the same time, the timeouts, etc.
+     *      When {@code null} the action is invoked on all the nodes at once
+     * @param action A closure receiving a {@link BlowNodeMetadata} and returning an {@link ExecResponse}
+     * @return A map holding the response for each node, an action raising an exception is reported
+     *      as a response with exit status {@code 1}
+     */
+    private Map<BlowNodeMetadata,ExecResponse> invokeOnNodes( Collection<BlowNodeMetadata> nodes, ExecPolicy policy = null, Closure<ExecResponse> action ) {
+        invokeOnNodes(nodes, policy, 0, action)
+    }
+
+    /**
+     * Invoke the specified action in parallel on each of the nodes in the list
+     *
+     * @param timeoutGrace The seconds waited after the policy timeout before reporting a node as timed out,
+     *      when the action enforces the timeout on the node, see {@link RollingExecutor#timeoutGrace}
+     */
+    private Map<BlowNodeMetadata,ExecResponse> invokeOnNodes( Collection<BlowNodeMetadata> nodes, ExecPolicy policy, int timeoutGrace, Closure<ExecResponse> action ) {
+
+        def executor = new RollingExecutor<BlowNodeMetadata>(scpExecutor, policy)
+        executor.timeoutGrace = timeoutGrace
+        return executor.invoke(nodes) { BlowNodeMetadata node ->
+            try {
+                return action.call(node)
+            }
+            catch( Exception e ) {
+                log.debug("Failed execution on node: ${node.getProviderId()}", e)
+                return new ExecResponse( "ERR", e.getMessage(), 1)
+            }
+        }
+    }
+
+    /**
+     * Create the execution policy for an operation
+     *
+     * @param values The policy attributes declared by the operation, they override the ones defined by the
+     *      {@code execPolicy} configuration property. It may be {@code null}
+     * @return The {@link ExecPolicy} to be used to run the operation scripts
+     */
+    def ExecPolicy execPolicy( Map values = null ) {
+        ExecPolicy.create(values, ExecPolicy.create(conf.execPolicy))
+    }
 
     def boolean runStatementOnNodes( Statement statement, def criteria = null, boolean runAsRoot = false ) {
 
@@ -925,6 +1750,22 @@ class BlowSession {
             filter = filterByCriteria(criteria)
         }
 
+        /*
+         * when resuming a provisioning skip the nodes on which the statement has already completed
+         */
+        def script = statement.render(OsFamily.UNIX)
+        def names = nodeIdToNameCopy()
+        if( getJournal().resuming ) {
+            def matching = filter
+            filter = new Predicate<NodeMetadata>() {
+                boolean apply( NodeMetadata node ) { matching.apply(node) && !getJournal().isDone(script, names.get(node.getId())) }
+            }
+            if( !listNodes().any { BlowNodeMetadata node -> filter.apply(node) } ) {
+                log.info "Skipping statement already completed on all the nodes"
+                return true
+            }
+        }
+
         /*
            * defines the credentials option
            */
@@ -938,6 +1779,7 @@ class BlowSession {
         def responses = context.getComputeService().runScriptOnNodesMatching(filter, statement, opt)
 
         logExecResponse(statement, responses)
+        responses.each { NodeMetadata node, ExecResponse response -> getJournal().record(script, names.get(node.getId()), response.getExitCode()) }
 
         return checkForValidResponse(responses)
     }
@@ -1013,9 +1855,9 @@ class BlowSession {
 	}
 
     /**
-     * Synchronize the access to the 'allNodes' map
+     * The 'allNodes' map is a copy-on-write {@link NodeMetadataCache}, it can be read without synchronization
      */
-    synchronized def getAllNodes() { allNodes }
+    def getAllNodes() { allNodes }
 
 	/**
 	 * @return the list of current available cluster names
@@ -1030,23 +1872,18 @@ class BlowSession {
 	/**
 	 * @return the list of availables nodes in the cluster specified 
 	 */
-	synchronized def Set<? extends BlowNodeMetadata> listNodes() {
-
-        def result =  new LinkedHashSet<BlowNodeMetadata>(allNodes.size())
-        allNodes.each {
-            if( it.value ) { result.add(it.value)  }
-        }
-
-        result
+	def Set<? extends BlowNodeMetadata> listNodes() {
+        // the set is created once for each change of the nodes metadata and cannot be modified
+        allNodes.getIndex().nodes
 	}
 
-    synchronized def Set<? extends BlowNodeMetadata> listNodes( def criteria )  {
+    def Set<? extends BlowNodeMetadata> listNodes( def criteria )  {
         assert criteria
 
         def result = new LinkedHashSet<BlowNodeMetadata>()
         def nodeList = findNodeIDs(criteria)
 
-        allNodes?.values(). each { BlowNodeMetadata node ->
+        allNodes.snapshot().values(). each { BlowNodeMetadata node ->
             if( node?.getId() in nodeList ) {
                 result.add(node)
             }
@@ -1062,15 +1899,16 @@ class BlowSession {
      */
     def Collection<String> listNodesNames( String whichRole = null ) {
         def result = []
+        def nodes = allNodes.snapshot()
 
         if( whichRole ) {
-            allNodes.keySet().each {
+            nodes.keySet().each {
                 if ( it.startsWith(whichRole) ) {
                 result.add(it)
             }}
         }
         else {
-            result.addAll(allNodes.keySet())
+            result.addAll(nodes.keySet())
         }
 
         result
@@ -1079,9 +1917,16 @@ class BlowSession {
 
 	def close() {
         log.trace('Closing session')
-		if( contextCreated ) context?.close()
-		if( scpExecutor ) scpExecutor.shutdown()
-        if( refreshTimer ) refreshTimer.cancel()
+        saveMetrics()
+		if( contextCreated ) {
+            manager ? manager.releaseContext(conf) : context?.close()
+            contextCreated = false
+        }
+		if( !manager && scpExecutor ) scpExecutor.shutdown()
+        if( eventBus instanceof AsyncOrderedEventBus ) eventBus.shutdown()
+        if( sshPoolCreated ) sshPool.close()
+        if( logWriterCreated ) logWriter.close()
+        refreshTask?.cancel(false)
 	}
 	
 	
@@ -1153,9 +1998,10 @@ class BlowSession {
 	 * @param payload a generic content, it could be an instance of {@link InputStream}, {@link byte[]}, {@link File}, {@link String} or {@link org.jclouds.io.Payload}
 	 * @param targetPath the path on the remote system where to save the payload content 
 	 * @param targetNode 
+	 * @param sync when {@code true} a {@link File} payload, or a directory, is copied sending only the changes, see {@link ScpClient#sync(java.io.File, java.lang.String)}
 	 * @return
 	 */
-	protected void copyToNode( def payload, String targetPath, BlowNodeMetadata targetNode ) {
+	protected void copyToNode( def payload, String targetPath, BlowNodeMetadata targetNode, boolean sync = false ) {
 		assert targetNode
 		assert targetPath 
 		
@@ -1163,12 +2009,14 @@ class BlowSession {
 
 		def ip = targetNode.getNodeIp()
 		log.debug("[scp] connecting host: '${ip}'")
-		def scp = new ScpClient()
-		
-		scp.connect( ip, conf.userName, conf.privateKey )
-		try {
-			def result
-			if( payload instanceof File ) {
+
+		sshPool.withConnection( ip, conf.userName, conf.privateKey ) { SSHClient ssh ->
+			def scp = new ScpClient(ssh)
+			if( sync && payload instanceof File ) {
+				def stats = scp.sync( payload, targetPath )
+				log.debug("[scp] sync to ${targetNode.getNodeName()}:${targetPath} -- ${stats}")
+			}
+			else if( payload instanceof File ) {
 				scp.uploadFile( payload, targetPath )
 			}
 			else if( payload instanceof String ) {
@@ -1177,58 +2025,163 @@ class BlowSession {
 			else {
 				throw new RuntimeException("[scp] unsupported payload type [${payload.getClass().getName()}]")
 			}
-			
-		} finally {
-			scp.close()
 		}
 	}
 	
 	
-	public boolean copyToNodes( def payload, String targetPath, def criteria = null ) {
+    /**
+     * Upload a payload to all the nodes matching the specified criteria.
+     * <p>
+     * A file larger than the configuration property {@code broadcastThreshold} is uploaded only to
+     * a few nodes, which forward it to the others, see {@link ClusterBroadcastCopy}
+     * <p>
+     * When {@code sync} is {@code true} the payload can be a file or a directory, the files already
+     * present on the nodes are skipped and only the changed blocks of the others are sent, see {@link blow.ssh.DeltaSync}
+     *
+     * @return {@code true} when the payload has been copied successfully to all the nodes, {@code false} otherwise
+     */
+	public boolean copyToNodes( def payload, String targetPath, def criteria = null, boolean sync = false ) {
 
 		def nodes = criteria ? listNodes(criteria) : this.listNodes()
-		
-		/* 
-		 * create a list with an upload job for each node 		
-		 */
-		def tasks = new ArrayList( nodes.size() )
-		
-		nodes.each { BlowNodeMetadata node ->
-			
-			tasks.add( new Callable<Object[]>() {
-					public Object[] call( ) {
-						def resp
-						try {
-							copyToNode( payload, targetPath, node )
-							resp = new ExecResponse( "OK", null, 0 )
-						}
-						catch( Exception e ) {
-							resp = new ExecResponse( "ERR", e.getMessage(), 1)
-						}
-						
-						return [ node, resp ]
-					}
-				})
-		} 
-		
-		/*
-		 * Start all tasks and wait for scp upload finishes
-		 */
-		def results = scpExecutor.invokeAll(tasks)
-		
-		/*
-		 * remap the list of futures to response map 
-		 */
-		def map = [:]
-		results.each { future ->
-				def ret = future.get()
-				map.put( ret[0], ret[1] )
+
+        if( !sync && isBroadcastCopy(payload, nodes) ) {
+            def copier = new ClusterBroadcastCopy(this, scpExecutor, payload as File, targetPath)
+            copier.seeds = conf.broadcastSeeds
+            copier.fanout = conf.broadcastFanout
+            return checkForValidResponse( copier.copy(nodes) as Map<BlowNodeMetadata,ExecResponse> )
+        }
+
+		def map = invokeOnNodes( nodes ) { BlowNodeMetadata node ->
+			copyToNode( payload, targetPath, node, sync )
+			new ExecResponse( "OK", null, 0 )
 		}
 		
 		checkForValidResponse(map)
 	}
 
 
+    /**
+     * Get the cluster-local URLs of the artifacts that have to be downloaded by all the nodes.
+     * <p>
+     * The artifacts are downloaded once by the master node, which serves them to the other nodes
+     * over the cluster internal network, see {@link ArtifactCache}. The artifacts downloaded only
+     * by the master do not need it.
+     *
+     * @param urls The URLs of the artifacts
+     * @return A map associating each URL to the one to be used by the nodes, the original URL is returned
+     *      when the cache is disabled or the artifact cannot be cached
+     */
+    def Map<String,String> cacheArtifacts( Collection<String> urls ) {
+        def cache = getArtifactCache()
+        if( cache ) {
+            return cache.resolve(urls)
+        }
+
+        def result = new LinkedHashMap<String,String>()
+        urls.each { def url -> result.put(url.toString(), url.toString()) }
+        return result
+    }
+
+    /**
+     * @return The cluster-local URL of an artifact, see {@link #cacheArtifacts(java.util.Collection)}
+     */
+    def String cacheArtifact( String url ) {
+        cacheArtifacts([url]).get(url)
+    }
+
+    synchronized protected ArtifactCache getArtifactCache() {
+        if( artifactCache || !conf.artifactCache ) {
+            return artifactCache
+        }
+
+        // there's nothing to share in a single node cluster
+        def master = conf.masterRole ? listNodes(conf.masterRole)?.find() : null
+        if( !master || listNodes().size() < 2 ) {
+            return null
+        }
+
+        def address = master.getPrivateAddresses()?.find() ?: master.getNodeIp()
+        // note: the cache is run by the login user, not by root, and the server listens only on the private address
+        artifactCache = new ArtifactCache(address, { String script -> execOnNode(script, master, false) })
+        artifactCache.port = conf.artifactCachePort
+        return artifactCache
+    }
+
+    /**
+     * @return {@code true} when the payload is large enough to be worth to be forwarded by the nodes
+     */
+    protected boolean isBroadcastCopy( def payload, Collection nodes ) {
+        conf.broadcastThreshold > 0 && nodes.size() > 2 && payload instanceof File && payload.length() >= conf.broadcastThreshold
+    }
+
+    /**
+     * Open an interactive terminal on each of the specified nodes, the keystrokes are sent to all of
+     * them, see {@link BroadcastConsole}. It returns when the user closes the terminals.
+     *
+     * @param targets The names, roles or IP addresses of the nodes
+     * @param tiled When {@code true} the output of each node is shown in its own pane, otherwise the output
+     *      lines of all the nodes are merged, prefixed by the node name
+     * @return The names of the nodes on which the terminal has been opened
+     */
+    def List<String> broadcastConsole( List<String> targets, boolean tiled ) {
+        assert targets
+
+        def nodes = new LinkedHashSet<BlowNodeMetadata>()
+        targets.each { String it ->
+            def found = findNodeIDs(it) ? listNodes(it) : [ findMatchingNode(it) ].findAll()
+            if( !found ) {
+                throw new BlowException("There isn't any running node with the provided name, role or IP: '${it}'")
+            }
+            nodes.addAll(found)
+        }
+
+        def names = nodes.collect { BlowNodeMetadata node -> nodeLabel(node) }
+        def reader = new jline.ConsoleReader()
+        def cols = reader.getTermwidth()
+        def rows = reader.getTermheight()
+        def view = tiled ? new TiledConsoleView(names) : new MergedConsoleView(names)
+
+        /*
+         * the terminals are opened on the pooled connections, at the same time on all the nodes
+         */
+        def connections = Collections.synchronizedMap(new LinkedHashMap<BroadcastConsole.Terminal,SSHClient>())
+        def tasks = nodes.collect { BlowNodeMetadata node ->
+            { ->
+                def ssh = sshPool.borrow(node.getNodeIp(), conf.userName, conf.privateKey)
+                try {
+                    def term = BroadcastConsole.openShell(nodeLabel(node), ssh, 'vt100', tiled ? cols : cols - names*.length().max() - 3, rows)
+                    connections.put(term, ssh)
+                    return term
+                }
+                catch( Exception e ) {
+                    sshPool.invalidate(ssh)
+                    throw e
+                }
+            } as Callable<BroadcastConsole.Terminal>
+        }
+
+        def terminals = []
+        def futures = scpExecutor.invokeAll(tasks)
+        try {
+            futures.each { terminals << it.get() }
+
+            def console = new BroadcastConsole(terminals, view)
+            console.console = reader
+            console.launch()
+        }
+        catch( ExecutionException e ) {
+            throw e.getCause()
+        }
+        finally {
+            connections.each { BroadcastConsole.Terminal term, SSHClient ssh ->
+                try { term.close?.call() } catch( Exception e ) { log.debug "Error closing terminal: ${term.name}" }
+                sshPool.release(ssh)
+            }
+        }
+
+        return names
+    }
+
     /**
      * Find all matching attributes in all run instances
      *
@@ -1241,34 +2194,25 @@ class BlowSession {
         * Find all available IP addresses
         */
         def result
-        if( !criteria ) {
-            result = listNodes() .collect { BlowNodeMetadata node  ->
+        def index = allNodes.getIndex()
+        if( !criteria && defAttribute == 'nodeName' ) {
+            result = index.complete(NodeIndex.Attribute.NAME, null)
+        }
+
+        else if( !criteria ) {
+            result = index.nodes .collect { BlowNodeMetadata node  ->
                 node[defAttribute]
             }
         }
 
         else {
-            result = listNodes() .collect { BlowNodeMetadata node ->
-                def entries = []
-
-                if( node.getNodeName()?.startsWith(criteria) ) {
-                    entries.add(node.getNodeName())
-                }
-
-                if( node.getNodeIp()?.startsWith(criteria) ) {
-                    entries.add(node.getNodeIp())
-                }
-
-                if( node.getProviderId()?.startsWith(criteria) ) {
-                    entries?.add(node.getProviderId())
-                }
-
-
-                return entries
-            }
+            // prefix lookup on the sorted index, see NodeIndex#complete
+            result = []
+            result.addAll( index.complete(NodeIndex.Attribute.NAME, criteria.toString()) )
+            result.addAll( index.complete(NodeIndex.Attribute.IP, criteria.toString()) )
+            result.addAll( index.complete(NodeIndex.Attribute.PROVIDER_ID, criteria.toString()) )
         }
 
-        result = result.flatten()
         return result?.sort();
 
     }
@@ -1285,14 +2229,8 @@ class BlowSession {
      */
     def NodeMetadata findMatchingNode( String value ) {
 
-        def list = listNodes().findAll() { BlowNodeMetadata node ->
-
-            return  node.getNodeName() == value \
-                    || node.getNodeIp() == value \
-                    || node.getHostname() == value \
-                    || node.getProviderId() == value
-
-        }
+        def index = allNodes.getIndex()
+        def list = index.find(value) .collect { String name -> index.get(name) }
 
         if( list?.size() > 1 ) {
             log.warn "The specified attribute '$value' cannot identify uniquely a node"
@@ -1312,13 +2250,20 @@ class BlowSession {
         }
 
         def num = conf.instanceNumFor(role)
-        if( num <= 1 ) {
+        if( num <= 1 && count == 0 ) {
             return role
         }
 
+        /*
+         * nodes can be added to and removed from a running cluster, so skip the names in use
+         */
         def len = num.toString().length()
+        def name = role + (count+1).toString().padLeft(len,'0')
+        while( nodeNamesMap?.containsKey(name) ) {
+            name = role + (++count+1).toString().padLeft(len,'0')
+        }
 
-        return role + (count+1).toString().padLeft(len,'0')
+        return name
     }
 
 
@@ -1366,7 +2311,7 @@ class BlowSession {
         }
     }
 
-    private void deleteDefaultSecurityGroup() {
+    protected void deleteDefaultSecurityGroup() {
         def securityToClear = "jclouds#${clusterName}#${conf.regionId}"
         log.debug "Clearing security group: '${securityToClear}'"
         try {
@@ -1380,6 +2325,19 @@ class BlowSession {
 
     private def instancesLogFiles = [:]
 
+    transient private boolean logWriterCreated
+
+    /*
+     * Write the nodes log files in background, see {@link #logExecResponse(java.lang.Object, org.jclouds.compute.domain.NodeMetadata, org.jclouds.compute.domain.ExecResponse)}
+     */
+    @Lazy
+    volatile transient private NodeLogWriter logWriter = {
+        def policy = NodeLogWriter.Policy.valueOf( (conf.logQueuePolicy ?: 'block').toString().toUpperCase() )
+        def writer = new NodeLogWriter( conf.logQueueSize, policy, conf.logMaxFileSize, conf.logMaxFiles )
+        logWriterCreated = true
+        return writer
+    } ()
+
 
     protected void logExecResponse( def script, Map<? extends NodeMetadata, ExecResponse> mapOfResponses ) {
          mapOfResponses ?. each { node, response -> logExecResponse(script,node,response) }
@@ -1388,6 +2346,9 @@ class BlowSession {
 
     /**
      * Create a separate log file for each node.
+     * <p>
+     * The record is appended by the session {@link NodeLogWriter}, so the file could not be updated
+     * when the method returns
      *
      * @param node
      * @param command
@@ -1400,46 +2361,51 @@ class BlowSession {
             script = (command as Statement) .render(OsFamily.UNIX)
         }
 
-        def name = "node-${node.getProviderId()}.log";
-        File file = instancesLogFiles[name]
-        if( file == null ) {
-            file = new File("logs", name)
-            instancesLogFiles[name] = file
-            if( !file.getParentFile().exists() ) {
-                file.getParentFile().mkdirs()
+        def record = new StringBuilder()
+        def name = "node-${node.getProviderId()}.log".toString()
+        File file
+        boolean created = false
+        synchronized (instancesLogFiles) {
+            file = instancesLogFiles[name]
+            if( file == null ) {
+                file = new File("logs", name)
+                instancesLogFiles[name] = file
+                created = true
             }
-
-            /*
-             * The very fist time, print out some node metadata information
-             */
-            file << '============================================================\n'
-            file << getNodeInfoString( node.getId() ) << '\n'
-            file << '============================================================\n'
-            file << '\n'
         }
 
+        /*
+         * The very fist time, print out some node metadata information
+         */
+        if( created ) {
+            record << '============================================================\n'
+            record << getNodeInfoString( node.getId() ) << '\n'
+            record << '============================================================\n'
+            record << '\n'
+        }
 
         /*
          * Save the executed command and the result in the log file
          */
 
-        file << '\n==(run)=='
-        file << '\n' << script
+        record << '\n==(run)=='
+        record << '\n' << script
 
         // print the exit code
-        file << "\n\n-- exit: ${response.exitCode}"
+        record << "\n\n-- exit: ${response.exitCode}"
 
         // the returned standard output
         if( response.output ) {
-            file << "\n-- out :\n${response.output}"
+            record << "\n-- out :\n${response.output}"
         }
 
         // the returned standard error
         if( response.error) {
-            file << "\n-- err :\n${response.error}"
+            record << "\n-- err :\n${response.error}"
         }
-        file << '\n//end\n'
+        record << '\n//end\n'
 
+        logWriter.append(file, record.toString())
     }
 
     /**
@@ -1449,19 +2415,97 @@ class BlowSession {
         new File(".blow_session.${clusterName}")
     }
 
+    /**
+     * Define the file where the provisioning steps are appended, see {@link ProvisioningJournal}
+     */
+    def private static File journalFile( String clusterName ) {
+        new File(".blow_journal.${clusterName}")
+    }
+
+    /**
+     * Define the file where the metrics of each run are appended, see {@link #saveMetrics()}
+     */
+    def private static File metricsFile( String clusterName ) {
+        new File(".blow_metrics.${clusterName}")
+    }
+
+    /**
+     * The session operations are timed in the {@link Metrics} registry with names prefixed by the cluster,
+     * see {@link #getMetricsPrefix()}, so that each of the sessions open in the same shell saves only its own
+     */
+    protected Timer metricsTimer( String name ) {
+        Metrics.timer( getMetricsPrefix() + name )
+    }
+
+    protected String getMetricsPrefix() {
+        "cluster.${clusterName}."
+    }
+
+    /**
+     * Append the metrics of this session to the cluster metrics file, one JSON object per line,
+     * so that the runs can be compared. The saved metrics are removed from the registry.
+     * <p>
+     * The SSH transfers, S3 requests and event handlers metrics are shared by all the sessions,
+     * they are shown by the 'stats' command
+     *
+     * @return The file where the metrics have been saved, or {@code null} if there are no metrics
+     */
+    protected File saveMetrics() {
+        if( !clusterName ) {
+            return null
+        }
+        def metrics = Metrics.snapshot( getMetricsPrefix() )
+        Metrics.remove( getMetricsPrefix() )
+        if( !metrics ) {
+            return null
+        }
+
+        def file = metricsFile(clusterName)
+        try {
+            // note: the groovy json builder does not handle sorted maps, copy them into a linked one
+            def json = new JsonBuilder([cluster: clusterName, timestamp: System.currentTimeMillis(), metrics: new LinkedHashMap(metrics)])
+            file.append( json.toString() + '\n' )
+            return file
+        }
+        catch( Exception e ) {
+            log.debug("Cannot save metrics to file: '${file}'", e)
+            return null
+        }
+    }
+
+    /**
+     * Reads the session files saved as XML by previous versions
+     */
+    @Lazy
+    transient private static XStream xStream = { createXStream() } ()
+
+    /**
+     * Saves the configuration in the session file, the references to the session are not saved
+     */
     @Lazy
-    transient private static XStream xStream = {
+    transient private static XStream confStream = {
+        def result = createXStream()
+        result.registerConverter( new SessionReferenceConverter() )
+        result
+    } ()
+
+    private static XStream createXStream() {
         def result = new XStream(new StaxDriver())
         result.registerConverter( new HashBiMapConverter(result.getMapper()) )
         result.registerConverter( new ArrayListMultimapConverter(result.getMapper()) )
+        result.registerConverter( new NodeMetadataCacheConverter(result.getMapper()) )
         result.alias( "session", BlowSession.class )
         result.alias( "hash-bimap", HashBiMap.class )
         result.alias( "arraylist-multimap", ArrayListMultimap.class )
+        result.alias( "node-cache", NodeMetadataCache.class )
         result
-    } ()
+    }
 
     /**
-     * Save the current session to a file
+     * Save the current session to a file, see {@link SessionFile}. The file contains the sections:
+     * <li>'session': the session attributes, the nodes name and role maps
+     * <li>'conf': the configuration, as XML
+     * <li>'nodes': the nodes metadata, see {@link NodeMetadataCodec}
      *
      * @return The file where the session has been persisted, of {@code null} in it cannot stored
      */
@@ -1491,10 +2535,7 @@ class BlowSession {
          * serialize and save the session
          */
         try {
-            FileWriter writer = new FileWriter(file)
-            xStream.marshal(this, new PrettyPrintWriter(writer))
-            writer.close()
-
+            SessionFile.write(file, encodeSections())
             return file
         }
         catch( Exception e ) {
@@ -1503,8 +2544,70 @@ class BlowSession {
 
     }
 
+    private Map<String,byte[]> encodeSections() {
+        def result = new LinkedHashMap<String,byte[]>()
+
+        def buffer = new ByteArrayOutputStream()
+        def output = new DataOutputStream(buffer)
+        output.writeUTF(clusterName)
+        output.writeInt(confHashCode)
+        output.writeBoolean(dirty)
+        output.writeBoolean(saveOnExit)
+        output.writeLong(refreshLastRun)
+        output.writeLong(nodesCacheDuration)
+
+        synchronized (devicesMap) {
+            output.writeInt(devicesMap.size())
+            devicesMap.each { String device, count -> output.writeUTF(device); output.writeInt(count as int) }
+        }
+
+        output.writeInt(nodeNamesMap.size())
+        nodeNamesMap.each { String name, String id -> output.writeUTF(name); output.writeUTF(id) }
+
+        def roles = nodeRolesMap.asMap()
+        output.writeInt(roles.size())
+        roles.each { String role, Collection<String> ids ->
+            output.writeUTF(role)
+            output.writeInt(ids.size())
+            ids.each { output.writeUTF(it) }
+        }
+
+        synchronized (instancesLogFiles) {
+            output.writeInt(instancesLogFiles.size())
+            instancesLogFiles.each { String name, File file -> output.writeUTF(name); output.writeUTF(file.path) }
+        }
+
+        // the names of all the nodes, including the ones without metadata
+        def nodes = allNodes.snapshot()
+        output.writeInt(nodes.size())
+        nodes.keySet().each { output.writeUTF(it) }
+        output.flush()
+        result.session = buffer.toByteArray()
+
+        def writer = new StringWriter()
+        confStream.marshal(conf, new CompactWriter(writer))
+        result.conf = writer.toString().getBytes('UTF-8')
+
+        buffer = new ByteArrayOutputStream()
+        output = new DataOutputStream(buffer)
+        def available = nodes.findAll { it.value != null }
+        output.writeInt(available.size())
+        available.each { String name, NodeMetadata node ->
+            def data = NodeMetadataCodec.encode(node)
+            output.writeUTF(name)
+            output.writeInt(data.length)
+            output.write(data)
+        }
+        output.flush()
+        result.nodes = buffer.toByteArray()
+
+        return result
+    }
+
     /**
      * Read a session object from a serialized object
+     * <p>
+     * Sessions saved as XML by previous versions are read by XStream and saved again in the current format
      *
      * @param clusterName The session name to restore
      * @return A {@code BlowSession} instance
@@ -1516,7 +2619,14 @@ class BlowSession {
         }
 
         try {
-            return (BlowSession)xStream.fromXML(file)
+            if( SessionFile.isBinary(file) ) {
+                return new BlowSession(SessionFile.open(file))
+            }
+
+            log.info("Converting session file '${file}' to the binary format")
+            def result = (BlowSession)xStream.fromXML(file)
+            result.persist(file)
+            return result
         }
         catch( Exception e ) {
             log.warn("Cannot read saved session: '${file}'", e)
@@ -1564,7 +2674,7 @@ class BlowSession {
         NodeMetadata node
 
         def String getNodeName( ) {
-            nodeNamesMap.inverse().get( this.getId() )
+            nodeNameOf( this.getId() )
         }
 
         def String getNodeIp( ) {
@@ -20,11 +20,22 @@
 package blow;
 
 
+import blow.ExtensionIndex.Entry
+import blow.ExtensionIndex.Kind
+import blow.operation.OperationHelper
+import com.google.common.base.Charsets
+import com.google.common.hash.Hashing
+import com.google.common.io.Files
 import groovy.util.logging.Slf4j
+import org.codehaus.groovy.control.CompilationUnit
+import org.codehaus.groovy.control.CompilerConfiguration
 
 import java.lang.reflect.Modifier;
 
-
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import java.util.zip.ZipInputStream
 import blow.shell.ShellCommand
 import java.lang.reflect.Method
@@ -33,7 +44,13 @@ import blow.operation.Operation
 
 /**
  * Load all the class defined dynamically 
- * 
+ * <p>
+ * When a {@link #cacheDir} is specified, the discovered extensions are saved in an index (see {@link ExtensionIndex})
+ * and the groovy sources are compiled to class files stored in the cache folder, one sub-folder for each source
+ * named by the source content hash and modification time. Sources not found in the cache are compiled in parallel.
+ * The following launches read the index, the extension classes are loaded only when used,
+ * see {@link #getIndex()} and {@link #loadClass(String)}
+ *
  * @author Paolo Di Tommaso
  *
  */
@@ -47,10 +64,19 @@ public class DynLoader {
 
 	protected URL jarLocation
 
+	/**
+	 * The folder where the extensions index and the compiled sources are stored, {@code null} to disable the cache
+	 */
+	protected File cacheDir
 
-    DynLoader( List<File> path, URL jarLocation = null ) {
+	/** The file containing the name of the main class compiled from a source, see {@link #compileSource} */
+	static private final String MAIN_CLASS_FILE = '.main-class'
+
+
+    DynLoader( List<File> path, URL jarLocation = null, File cacheDir = null ) {
 		this.roots = path ? new ArrayList(path) : []
 		this.jarLocation = jarLocation
+		this.cacheDir = cacheDir
 	}	
 	
 	/**
@@ -151,10 +177,24 @@ public class DynLoader {
 			log.trace "//Loaded class in jar"
 		}
 		
+		/*
+		 * the sources compiled in the cache folder
+		 */
+		if( foundGroovySources && cacheDir ) {
+			compiledSources.each { File source, String main ->
+				try {
+					result.add( sourcesLoader.loadClass(main) )
+				}
+				catch( Throwable e ) {
+					log.warn "Cannot add extension class: '$source'. Cause: " + e.getMessage()
+				}
+			}
+		}
+
 		/*
 		 * try to laod more classes for plugins in the extension classpath
 		 */
-		if( foundGroovySources ) {
+		else if( foundGroovySources ) {
 			log.trace "Loading groovy sources" 
 			GroovyClassLoader loader = new GroovyClassLoader()	
 			roots.each { loader.addClasspath(it.getAbsolutePath()) }
@@ -193,13 +233,18 @@ public class DynLoader {
 		folders.each { File path ->
 		   log.trace "Groovy load folder: '$path' "
 		   
+		   def files = []
 		   path.eachFileRecurse { file ->
 			   log.trace "Groovy load source file: '$file' "
 			   
 			   if( file.name.endsWith(".groovy") ) {
-				   result.add(file)
+				   files.add(file)
 			   }
-		   }}
+		   }
+
+		   // the order of the directory listing depends on the file system
+		   result.addAll( files.sort { it.path } )
+		}
 	
 		log.trace "// Groovy load folders $result"
 	   return result;
@@ -236,6 +281,218 @@ public class DynLoader {
 	}()
 	
 	
+	/**
+	 * The index of the available extensions. It is read from the cache folder when its fingerprint matches the
+	 * extension paths, otherwise it is created loading all the extension classes and saved for the next launches
+	 */
+	@Lazy
+	def ExtensionIndex index = {
+
+		def fingerprint = fingerprint()
+		def file = cacheDir ? new File(cacheDir, 'index') : null
+		def result = file ? ExtensionIndex.read(file) : null
+		if( result?.fingerprint == fingerprint ) {
+			log.debug "Using extensions index: '$file'"
+			return result
+		}
+
+		result = createIndex(fingerprint)
+		if( file ) {
+			try {
+				cacheDir.mkdirs()
+				result.save(file)
+			}
+			catch( Exception e ) {
+				log.debug("Cannot save extensions index: '$file'", e)
+			}
+		}
+		return result
+
+	}()
+
+	protected ExtensionIndex createIndex( String fingerprint ) {
+		log.debug "Creating extensions index"
+		def entries = []
+
+		/*
+		 * note: the classes and methods are sorted by name, since the order returned by 'Class.getMethods()'
+		 * is not defined and the index has to be the same on each run
+		 */
+		shellCommands.sort(false) { Class it -> it.getName() }.each { Class clazz ->
+			try {
+				ShellCommand command = clazz.newInstance()
+				entries << new Entry(kind: Kind.COMMAND, className: clazz.getName(), name: command.getName(), summary: command.getSummary())
+			}
+			catch( Throwable e ) {
+				log.error("Cannot add shell command defined by class: '${clazz?.getName()}'. Make sure that it defines a default constructor.", e)
+			}
+		}
+
+		shellMethods.sort(false) { Method it -> "${it.getDeclaringClass().getName()}#${it.getName()}".toString() }.each { Method method ->
+			Cmd cmd = method.getAnnotation(Cmd)
+			entries << new Entry(kind: Kind.METHOD, className: method.getDeclaringClass().getName(), methodName: method.getName(),
+					name: cmd.name() ?: method.getName(), summary: cmd.summary())
+		}
+
+		operationsClasses.sort(false) { Class it -> it.getName() }.each { Class clazz ->
+			entries << new Entry(kind: Kind.OPERATION, className: clazz.getName(), name: OperationHelper.opName(clazz))
+		}
+
+		new ExtensionIndex(fingerprint, entries)
+	}
+
+	/**
+	 * The extension paths fingerprint: the jar files and the groovy sources with their size and modification time
+	 */
+	protected String fingerprint() {
+		def result = new StringBuilder()
+		result << 'version:' << ExtensionIndex.VERSION << '\n'
+
+		def files = []
+		files.addAll( roots.findAll { File path -> path.getName().endsWith(".jar") } )
+		files.addAll( foundGroovySources )
+		if( jarLocation ) {
+			result << 'location:' << jarLocation << '\n'
+			// the application jar containing the extensions
+			def classpath = new File(System.getProperty('java.class.path'))
+			if( classpath.isFile() ) files.add(classpath)
+		}
+
+		files.each { File file ->
+			result << file.getAbsolutePath() << ':' << file.length() << ':' << file.lastModified() << '\n'
+		}
+
+		Hashing.sha1().hashString(result, Charsets.UTF_8).toString()
+	}
+
+	/**
+	 * Load an extension class by using the class loader that has discovered it
+	 */
+	Class loadClass( String className ) {
+		if( !cacheDir ) {
+			// the sources are loaded all together
+			def result = allClasses.find { it.getName() == className }
+			if( result ) return result
+		}
+		else if( compiledSources.containsValue(className) ) {
+			return sourcesLoader.loadClass(className)
+		}
+
+		Class.forName(className)
+	}
+
+	/**
+	 * @return The class implementing the operation with the specified name or {@code null} if it does not exist
+	 */
+	Class getOperationClass( String name ) {
+		def entry = index.operations.find { it.name == name }
+		entry ? loadClass(entry.className) : null
+	}
+
+	/**
+	 * @return The shell method for the specified index entry
+	 */
+	Method loadMethod( Entry entry ) {
+		assert entry.kind == Kind.METHOD
+		loadClass(entry.className).getMethods().find { Method method -> method.getName() == entry.methodName && method.getAnnotation(Cmd) }
+	}
+
+	/**
+	 * The groovy sources compiled in the cache folder, mapped to the name of their main class.
+	 * The sources not found in the cache are compiled in parallel
+	 */
+	@Lazy
+	private Map<File,String> compiledSources = {
+
+		def sources = foundGroovySources
+		def targets = sources.collect { File source -> sourceCacheDir(source) }
+		def pending = (0..<sources.size()).findAll { !new File(targets[it], MAIN_CLASS_FILE).exists() }
+
+		if( pending ) {
+			log.debug "Compiling ${pending.size()} extension source(s)"
+			def executor = Executors.newFixedThreadPool( Math.min(pending.size(), Runtime.getRuntime().availableProcessors()) )
+			try {
+				List<Future> futures = pending.collect { int i ->
+					executor.submit( { compileSource(sources[i], targets[i]) } as Callable )
+				}
+				futures.eachWithIndex { Future future, int i ->
+					try {
+						future.get()
+					}
+					catch( ExecutionException e ) {
+						log.warn "Cannot add extension class: '${sources[pending[i]]}'. Cause: " + e.getCause()?.getMessage()
+					}
+				}
+			}
+			finally {
+				executor.shutdown()
+			}
+
+			// remove the classes compiled for the sources that do not exist anymore
+			new File(cacheDir, 'classes').eachDir { File dir ->
+				if( !targets.contains(dir) && !dir.getName().endsWith('.tmp') ) dir.deleteDir()
+			}
+		}
+
+		def result = new LinkedHashMap<File,String>()
+		sources.eachWithIndex { File source, int i ->
+			def main = new File(targets[i], MAIN_CLASS_FILE)
+			if( main.exists() ) {
+				result.put(source, main.text)
+			}
+		}
+		return result
+
+	}()
+
+	/**
+	 * The class loader for the sources compiled in the cache folder
+	 */
+	@Lazy
+	private GroovyClassLoader sourcesLoader = {
+		def result = new GroovyClassLoader(DynLoader.class.getClassLoader())
+		compiledSources.keySet().each { File source -> result.addURL( sourceCacheDir(source).toURI().toURL() ) }
+		return result
+	}()
+
+	protected File sourceCacheDir( File source ) {
+		def hash = Files.hash(source, Hashing.sha1()).toString()
+		new File(cacheDir, "classes/${hash}-${source.lastModified()}")
+	}
+
+	/**
+	 * Compile a groovy source to the specified folder. The other sources in the extension paths
+	 * referenced by it are resolved by the compiler class loader, but only the source classes are saved
+	 *
+	 * @return The name of the main class defined by the source
+	 */
+	protected String compileSource( File source, File target ) {
+		log.trace "Compiling source: '$source' to: '$target'"
+
+		def temp = new File(target.getParentFile(), "${target.getName()}.${Thread.currentThread().getId()}.tmp")
+		temp.deleteDir()
+		temp.mkdirs()
+
+		def config = new CompilerConfiguration()
+		config.setTargetDirectory(temp)
+		def classLoader = new GroovyClassLoader(DynLoader.class.getClassLoader(), config)
+		roots.each { classLoader.addClasspath(it.getAbsolutePath()) }
+
+		def unit = new CompilationUnit(config, null, classLoader)
+		unit.addSource(source)
+		unit.compile()
+
+		// as for 'GroovyClassLoader#parseClass' the main class is the first one declared in the source
+		def main = unit.getAST().getModules()[0].getClasses()[0].getName()
+		new File(temp, MAIN_CLASS_FILE).text = main
+
+		// another process could have compiled the same source in the meanwhile
+		if( !temp.renameTo(target) ) {
+			temp.deleteDir()
+		}
+		return main
+	}
+
 	/**
 	 * Given a jar file, find all the classes names in the given package root 
 	 *  
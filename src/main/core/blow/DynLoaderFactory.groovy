@@ -102,9 +102,12 @@ class DynLoaderFactory {
 			defaultPaths.add(currentFolderScripts)
 		}
 
-		log.debug("Creating DynLoader using the following path(s): $defaultPaths")
+		// the extensions index and the compiled sources are cached in the blow home
+		File cacheDir = new File( BlowShell.homePathBlow, "extensions" )
+
+		log.debug("Creating DynLoader using the following path(s): $defaultPaths - cache: $cacheDir")
 	
-		return new DynLoader(defaultPaths, jarLocation)
+		return new DynLoader(defaultPaths, jarLocation, cacheDir)
 
 	} 
 					
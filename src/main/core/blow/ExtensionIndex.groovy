@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow
+
+import groovy.util.logging.Slf4j
+
+/**
+ * The extensions discovered by the {@link DynLoader}: shell commands, shell methods and operations.
+ * <p>
+ * The index holds only names, so that it can be saved and used by the following launches to create the shell
+ * commands without loading the extension classes. It is valid as long as its {@link #fingerprint} matches
+ * the one of the extension paths.
+ */
+@Slf4j
+class ExtensionIndex {
+
+    static final int VERSION = 1
+
+    static enum Kind { COMMAND, METHOD, OPERATION }
+
+    static class Entry {
+
+        Kind kind
+
+        /** The name of the class implementing the extension */
+        String className
+
+        /** The method name, only for {@link Kind#METHOD} entries */
+        String methodName
+
+        /** The command or operation name */
+        String name
+
+        /** The command summary, if any */
+        String summary
+
+        String toString() { "${kind}:${name}->${className}${methodName ? '#'+methodName : ''}" }
+    }
+
+    /** Identify the content of the extension paths from which the index has been created */
+    final String fingerprint
+
+    final List<Entry> entries
+
+    ExtensionIndex( String fingerprint, List<Entry> entries ) {
+        this.fingerprint = fingerprint
+        this.entries = Collections.unmodifiableList(new ArrayList<Entry>(entries))
+    }
+
+    List<Entry> getCommands() { entries.findAll { it.kind == Kind.COMMAND || it.kind == Kind.METHOD } }
+
+    List<Entry> getOperations() { entries.findAll { it.kind == Kind.OPERATION } }
+
+    void save( File file ) {
+        def temp = new File(file.parentFile, file.name + '.tmp')
+        temp.withDataOutputStream { DataOutputStream output ->
+            output.writeInt(VERSION)
+            output.writeUTF(fingerprint)
+            output.writeInt(entries.size())
+            entries.each { Entry entry ->
+                output.writeUTF(entry.kind.name())
+                output.writeUTF(entry.className)
+                output.writeUTF(entry.methodName ?: '')
+                output.writeUTF(entry.name ?: '')
+                output.writeUTF(entry.summary ?: '')
+            }
+        }
+
+        if( !temp.renameTo(file) && !(file.delete() && temp.renameTo(file)) ) {
+            temp.delete()
+            log.debug "Unable to save extensions index to file: '${file}'"
+        }
+    }
+
+    /**
+     * @return The index saved in the specified file or {@code null} if it does not exist or cannot be read
+     */
+    static ExtensionIndex read( File file ) {
+        if( !file.exists() ) {
+            return null
+        }
+
+        try {
+            file.withDataInputStream { DataInputStream input ->
+                if( input.readInt() != VERSION ) {
+                    return null
+                }
+
+                def fingerprint = input.readUTF()
+                int count = input.readInt()
+                def entries = new ArrayList<Entry>(count)
+                count.times {
+                    def entry = new Entry()
+                    entry.kind = Kind.valueOf(input.readUTF())
+                    entry.className = input.readUTF()
+                    entry.methodName = input.readUTF() ?: null
+                    entry.name = input.readUTF() ?: null
+                    entry.summary = input.readUTF() ?: null
+                    entries.add(entry)
+                }
+                new ExtensionIndex(fingerprint, entries)
+            }
+        }
+        catch( Exception e ) {
+            log.debug("Cannot read extensions index file: '${file}'", e)
+            return null
+        }
+    }
+
+}
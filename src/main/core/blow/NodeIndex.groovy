@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow
+
+import org.jclouds.compute.domain.NodeMetadata
+
+/**
+ * Immutable index of the nodes in a {@link NodeMetadataCache} snapshot.
+ * <p>
+ * Nodes are indexed by name, public IP address, hostname and provider id. Each attribute
+ * is kept in a sorted map, so that exact and prefix lookups do not require to scan all the nodes.
+ */
+class NodeIndex {
+
+    static enum Attribute { NAME, IP, HOSTNAME, PROVIDER_ID }
+
+    /** The snapshot from which the index has been created */
+    final Map<String,NodeMetadata> source
+
+    /** The available nodes i.e. the entries of the snapshot having a not null value */
+    final Set<NodeMetadata> nodes
+
+    final private Map<Attribute,NavigableMap<String,List<String>>> attributes = new EnumMap<Attribute, NavigableMap<String,List<String>>>(Attribute)
+
+    NodeIndex( Map<String,NodeMetadata> source ) {
+        this.source = source
+        Attribute.values().each { attributes.put(it, new TreeMap<String,List<String>>()) }
+
+        def set = new LinkedHashSet<NodeMetadata>(source.size())
+        source.each { String name, NodeMetadata node ->
+            if( node == null ) return
+            set.add(node)
+            add(Attribute.NAME, name, name)
+            add(Attribute.IP, node.getPublicAddresses()?.find(), name)
+            add(Attribute.HOSTNAME, node.getHostname(), name)
+            add(Attribute.PROVIDER_ID, node.getProviderId(), name)
+        }
+        this.nodes = Collections.unmodifiableSet(set)
+    }
+
+    private void add( Attribute attribute, String value, String name ) {
+        if( !value ) return
+
+        def map = attributes.get(attribute)
+        def names = map.get(value)
+        if( names == null ) {
+            map.put(value, [name])
+        }
+        else if( !names.contains(name) ) {
+            names.add(name)
+        }
+    }
+
+    /**
+     * @param value The value to look for
+     * @return The names of the nodes having at least an attribute equals to the specified value
+     */
+    List<String> find( String value ) {
+        def result = []
+        if( !value ) return result
+
+        attributes.values().each { NavigableMap<String,List<String>> map ->
+            def names = map.get(value)
+            if( names ) {
+                names.each { if( !result.contains(it) ) result.add(it) }
+            }
+        }
+        return result
+    }
+
+    /**
+     * @param attribute The attribute to look for
+     * @param prefix The prefix of the values to return
+     * @return The sorted list of the values of the specified attribute starting with the specified prefix
+     */
+    List<String> complete( Attribute attribute, String prefix ) {
+        def map = attributes.get(attribute)
+        if( !prefix ) {
+            return new ArrayList<String>(map.keySet())
+        }
+        // all the keys starting with the prefix are sorted between the prefix itself and the prefix followed by the highest char
+        new ArrayList<String>( map.subMap(prefix, true, prefix + Character.MAX_VALUE, false).keySet() )
+    }
+
+    /**
+     * @return The node having the specified name or {@code null} if it does not exist
+     */
+    NodeMetadata get( String name ) {
+        source.get(name)
+    }
+
+}
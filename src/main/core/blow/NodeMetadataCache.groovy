@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import groovy.util.logging.Slf4j
+import org.jclouds.compute.domain.NodeMetadata
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Cache the cluster nodes metadata indexed by the node name.
+ * <p>
+ * The entries are held by an immutable snapshot that is replaced on each change (copy-on-write),
+ * so readers never block, not even while the metadata is refreshed. Writers are serialized.
+ * <p>
+ * Each node has its own refresh interval: a node in a transitional state (e.g. pending)
+ * or whose status has just changed is checked every {@link #minInterval} millis, for the others
+ * the interval doubles at each check up to {@link #maxInterval} millis.
+ * See {@link #dueNames()} and {@link #getNextDue()}.
+ * <p>
+ * Nodes restored from a saved session can be added by {@link #defer(Map)}, their metadata
+ * is decoded only when the node value is read for the first time.
+ * <p>
+ * Note: being a {@code Map}, Groovy resolves the property syntax on instances of this class
+ * as map entries, use the getter and setter methods to access the cache attributes.
+ */
+@Slf4j
+class NodeMetadataCache implements Map<String,NodeMetadata> {
+
+    /** The single thread refreshing the metadata of all the sessions */
+    static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat('blow-metadata-%d').setDaemon(true).build() )
+
+    /** The refresh interval (millis) for nodes in a transitional state */
+    long minInterval = 10 * 1000
+
+    /** The max refresh interval (millis) for stable nodes */
+    long maxInterval = 4 * 60 * 1000
+
+    volatile private Map<String,NodeMetadata> nodes = Collections.emptyMap()
+
+    final private Map<String,Check> checks = new ConcurrentHashMap<String, Check>()
+
+    /** The loaders of the nodes whose metadata has not been read yet */
+    final private Map<String,Callable<NodeMetadata>> deferred = new ConcurrentHashMap<String, Callable<NodeMetadata>>()
+
+    /** The time when the first entry requires to be refreshed */
+    volatile private long nextDue = Long.MAX_VALUE
+
+    volatile private long lastUpdate
+
+    volatile private NodeIndex index
+
+    final private AtomicLong hits = new AtomicLong()
+
+    final private AtomicLong misses = new AtomicLong()
+
+    NodeMetadataCache() { }
+
+    NodeMetadataCache( Map<String,? extends NodeMetadata> entries ) {
+        putAll(entries)
+    }
+
+    /**
+     * @return The current entries. The returned map is never modified, following changes are
+     * applied to a new copy. The read is accounted as a hit when none of the nodes is due for refresh
+     */
+    Map<String,NodeMetadata> snapshot() {
+        loadDeferred()
+        def result = nodes
+        countRead()
+        return Collections.unmodifiableMap(result)
+    }
+
+    /**
+     * @return The index of the current entries, it is created again on the first request after a change.
+     * The read is accounted as for {@link #snapshot()}
+     */
+    NodeIndex getIndex() {
+        loadDeferred()
+        def current = nodes
+        def result = index
+        if( result == null || !result.source.is(current) ) {
+            result = new NodeIndex(current)
+            index = result
+        }
+        countRead()
+        return result
+    }
+
+    private void countRead() {
+        if( System.currentTimeMillis() <= nextDue ) {
+            hits.incrementAndGet()
+        }
+        else {
+            misses.incrementAndGet()
+        }
+    }
+
+    /**
+     * Replace the current entries with the specified names, all mapped to a {@code null} value
+     */
+    synchronized void reset( Collection<String> names ) {
+        def copy = new LinkedHashMap<String,NodeMetadata>(names.size())
+        for( String name : names ) {
+            copy.put(name, null)
+        }
+        checks.clear()
+        deferred.clear()
+        publish(copy)
+    }
+
+    /**
+     * Add the nodes whose metadata is read by the specified loaders when their value is accessed the first time.
+     * Until then the nodes are listed by {@link #keySet()} and they are refreshed as new nodes
+     */
+    synchronized void defer( Map<String,Callable<NodeMetadata>> loaders ) {
+        def copy = new LinkedHashMap<String,NodeMetadata>(nodes)
+        long next = System.currentTimeMillis() + minInterval
+        for( Map.Entry<String,Callable<NodeMetadata>> entry : loaders.entrySet() ) {
+            copy.put(entry.getKey(), null)
+            deferred.put(entry.getKey(), entry.getValue())
+            checks.put(entry.getKey(), new Check(interval: minInterval, next: next))
+        }
+        publish(copy)
+    }
+
+    /**
+     * @return The number of nodes whose metadata has not been read yet
+     */
+    int getDeferredCount() { deferred.size() }
+
+    /**
+     * @return The number of nodes having metadata, saved or not yet read. The deferred entries are not loaded
+     */
+    int getAvailableCount() {
+        int result = 0
+        for( Map.Entry<String,NodeMetadata> entry : nodes.entrySet() ) {
+            if( entry.getValue() != null || deferred.containsKey(entry.getKey()) ) result++
+        }
+        return result
+    }
+
+    private void loadDeferred() {
+        if( !deferred.isEmpty() ) {
+            loadDeferred( new ArrayList<String>(deferred.keySet()) )
+        }
+    }
+
+    private synchronized void loadDeferred( Collection<String> names ) {
+        Map<String,NodeMetadata> copy = null
+        for( String name : names ) {
+            def loader = deferred.remove(name)
+            if( loader == null ) continue
+
+            if( copy == null ) {
+                copy = new LinkedHashMap<String,NodeMetadata>(nodes)
+            }
+            try {
+                copy.put(name, loader.call())
+            }
+            catch( Exception e ) {
+                // the node stays without metadata until the next refresh
+                log.warn("Cannot read the saved metadata for node: '${name}'", e)
+            }
+        }
+
+        // the refresh checks are not affected, so there's no need to publish the changes
+        if( copy != null ) {
+            nodes = copy
+        }
+    }
+
+    @Override
+    synchronized NodeMetadata put( String name, NodeMetadata node ) {
+        def copy = new LinkedHashMap<String,NodeMetadata>(nodes)
+        def result = copy.put(name, node)
+        deferred.remove(name)
+        updateCheck(name, result, node)
+        publish(copy)
+        return result
+    }
+
+    @Override
+    synchronized void putAll( Map<? extends String, ? extends NodeMetadata> entries ) {
+        def copy = new LinkedHashMap<String,NodeMetadata>(nodes)
+        for( Map.Entry<? extends String, ? extends NodeMetadata> entry : entries.entrySet() ) {
+            deferred.remove(entry.getKey())
+            updateCheck(entry.getKey(), copy.put(entry.getKey(), entry.getValue()), entry.getValue())
+        }
+        publish(copy)
+    }
+
+    @Override
+    synchronized NodeMetadata remove( Object name ) {
+        if( !nodes.containsKey(name) ) return null
+        def copy = new LinkedHashMap<String,NodeMetadata>(nodes)
+        def result = copy.remove(name)
+        checks.remove(name)
+        deferred.remove(name)
+        publish(copy)
+        return result
+    }
+
+    @Override
+    synchronized void clear() {
+        checks.clear()
+        deferred.clear()
+        publish(new LinkedHashMap<String, NodeMetadata>())
+    }
+
+    @Override
+    NodeMetadata get( Object name ) {
+        if( name != null && !deferred.isEmpty() && deferred.containsKey(name) ) {
+            loadDeferred( [name as String] )
+        }
+        nodes.get(name)
+    }
+
+    @Override
+    boolean containsKey( Object name ) { nodes.containsKey(name) }
+
+    @Override
+    boolean containsValue( Object node ) { loadDeferred(); nodes.containsValue(node) }
+
+    @Override
+    int size() { nodes.size() }
+
+    @Override
+    boolean isEmpty() { nodes.isEmpty() }
+
+    @Override
+    Set<String> keySet() { Collections.unmodifiableSet(nodes.keySet()) }
+
+    @Override
+    Collection<NodeMetadata> values() { loadDeferred(); Collections.unmodifiableCollection(nodes.values()) }
+
+    @Override
+    Set<Map.Entry<String,NodeMetadata>> entrySet() { loadDeferred(); Collections.unmodifiableMap(nodes).entrySet() }
+
+    /**
+     * @return The names of the nodes whose metadata has to be refreshed
+     */
+    List<String> dueNames() {
+        def now = System.currentTimeMillis()
+        def result = []
+        for( String name : nodes.keySet() ) {
+            def check = checks.get(name)
+            if( check && check.next <= now ) result << name
+        }
+        return result
+    }
+
+    /**
+     * @return The time (millis) when the next node has to be refreshed, or {@code Long.MAX_VALUE} when there are no nodes
+     */
+    long getNextDue() { nextDue }
+
+    /**
+     * Mark all the nodes as requiring a refresh as soon as possible
+     */
+    synchronized void expireAll() {
+        for( String name : checks.keySet() ) {
+            checks.put(name, new Check(interval: minInterval, next: 0))
+        }
+        nextDue = checks ? 0 : Long.MAX_VALUE
+    }
+
+    /**
+     * Mark a node as requiring a refresh as soon as possible
+     */
+    synchronized void expire( String name ) {
+        if( checks.containsKey(name) ) {
+            checks.put(name, new Check(interval: minInterval, next: 0))
+            nextDue = 0
+        }
+    }
+
+    /**
+     * @return The time (millis) elapsed since the last update or -1 when it has never been updated
+     */
+    long getAge() {
+        lastUpdate ? System.currentTimeMillis() - lastUpdate : -1
+    }
+
+    long getHits() { hits.get() }
+
+    long getMisses() { misses.get() }
+
+    /**
+     * Nodes that are going to change their status soon
+     */
+    static boolean isTransitional( NodeMetadata node ) {
+        node.getStatus() == NodeMetadata.Status.PENDING || node.getStatus() == NodeMetadata.Status.UNRECOGNIZED
+    }
+
+    private void updateCheck( String name, NodeMetadata previous, NodeMetadata node ) {
+        if( node == null ) {
+            checks.remove(name)
+            return
+        }
+
+        def check = checks.get(name)
+        def stable = check && previous && !isTransitional(node) && previous.getStatus() == node.getStatus()
+        long interval = stable ? Math.min(check.interval * 2, maxInterval) : minInterval
+        checks.put(name, new Check(interval: interval, next: System.currentTimeMillis() + interval))
+    }
+
+    private void publish( Map<String,NodeMetadata> copy ) {
+        nodes = copy
+        long min = Long.MAX_VALUE
+        for( Check check : checks.values() ) {
+            min = Math.min(min, check.next)
+        }
+        nextDue = min
+        lastUpdate = System.currentTimeMillis()
+    }
+
+    @Override
+    boolean equals( Object other ) {
+        loadDeferred()
+        other instanceof Map && nodes.equals(other)
+    }
+
+    @Override
+    int hashCode() { loadDeferred(); nodes.hashCode() }
+
+    @Override
+    String toString() {
+        "NodeMetadataCache[size: ${size()}; age: ${getAge()}; hits: ${getHits()}; misses: ${getMisses()}]"
+    }
+
+    static class Check {
+        long interval
+        long next
+    }
+
+}
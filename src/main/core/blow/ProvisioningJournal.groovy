@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow
+
+import blow.eventbus.HandlerInterceptor
+import blow.events.OnNodeReadyEvent
+import blow.operation.OperationHelper
+import com.google.common.base.Charsets
+import com.google.common.hash.Hashing
+import groovy.json.JsonBuilder
+import groovy.json.JsonSlurper
+import groovy.util.logging.Slf4j
+
+import java.lang.reflect.Method
+
+/**
+ * Keep track of the provisioning steps completed on the cluster, so that a failed provisioning
+ * can be resumed running only the steps not yet completed.
+ * <p>
+ * A step is the invocation of an operation handler for an event. While a handler is running, each script
+ * executed by the session is recorded with the exit status on each node, see {@link #record(java.lang.String, java.lang.String, int)}.
+ * A step fails when the handler raises an exception or a script fails on any node.
+ * <p>
+ * The journal is a file appended with one JSON object per line. The steps are identified by the operation
+ * hash code, see {@link OperationHelper#opHashCode(java.lang.Object)}, so the steps of an operation whose
+ * configuration has changed are not considered completed. The steps handling a {@link OnNodeReadyEvent}
+ * are kept for each node.
+ */
+@Slf4j
+class ProvisioningJournal implements HandlerInterceptor {
+
+    static final String OK = 'ok'
+
+    static final String FAILED = 'failed'
+
+    static final String STARTED = 'started'
+
+    /**
+     * The invocation of an operation handler
+     */
+    static private class Step {
+        String op
+        int hash
+        String event
+        boolean failed
+        Step parent
+
+        String key( String script = null, String node = null ) {
+            [op, hash, event, script, node].findAll { it != null } .join(':')
+        }
+    }
+
+    final File file
+
+    /** The last status of each step and of each script executed on a node, by key */
+    final private Map<String,String> status = new HashMap<String,String>()
+
+    /** The step running in the current thread */
+    final private ThreadLocal<Step> current = new ThreadLocal<Step>()
+
+    /** When {@code true} the completed steps and scripts are skipped */
+    volatile boolean resuming
+
+    ProvisioningJournal( File file ) {
+        this.file = file
+    }
+
+    /**
+     * Load the entries saved in the journal file
+     *
+     * @return The journal itself
+     */
+    synchronized ProvisioningJournal load() {
+        status.clear()
+        if( !file.exists() ) {
+            return this
+        }
+
+        def json = new JsonSlurper()
+        file.eachLine { String line ->
+            if( !line.trim() ) return
+            try {
+                def entry = json.parseText(line) as Map
+                status.put( entry.key as String, entry.status as String )
+            }
+            catch( Exception e ) {
+                // the last line may be truncated when the process has been killed
+                log.debug "Invalid provisioning journal entry: ${line}"
+            }
+        }
+        return this
+    }
+
+    /**
+     * Delete the journal file and the loaded entries
+     */
+    synchronized void clear() {
+        status.clear()
+        file.delete()
+    }
+
+    /**
+     * @return The steps not completed in the journal, a list of strings in the form {@code operation:event}
+     */
+    synchronized List<String> incompleteSteps() {
+        def result = []
+        status.each { String key, String value ->
+            def items = key.split(':')
+            if( items.size() == 3 && value != OK ) {
+                result << "${items[0]}:${items[2]}".toString()
+            }
+        }
+        return result
+    }
+
+    @Override
+    boolean beforeHandler( Object target, Method method, Object event ) {
+        def step = new Step( op: target.getClass().getName(), hash: OperationHelper.opHashCode(target), event: eventName(event) )
+
+        if( resuming && statusOf(step.key()) == OK ) {
+            log.info "Skipping completed step: ${target.getClass().getSimpleName()}.${method.getName()}"
+            return false
+        }
+
+        step.parent = current.get()
+        current.set(step)
+        append(step.key(), STARTED)
+        return true
+    }
+
+    @Override
+    void afterHandler( Object target, Method method, Object event, Throwable error ) {
+        def step = current.get()
+        if( !step ) {
+            return
+        }
+
+        current.set(step.parent)
+        append(step.key(), error || step.failed ? FAILED : OK, error?.getMessage())
+    }
+
+    /**
+     * Check if a script has already completed successfully on a node, for the step running in the current thread
+     *
+     * @param script The script text
+     * @param node The node name
+     * @return {@code true} when the journal is resuming a provisioning and the script completed on the node
+     */
+    boolean isDone( String script, String node ) {
+        def step = current.get()
+        if( !resuming || !step ) {
+            return false
+        }
+        statusOf(step.key(scriptKey(script), node)) == OK
+    }
+
+    /**
+     * Record the exit status of a script executed on a node by the step running in the current thread.
+     * Nothing is recorded when no step is running
+     *
+     * @param script The script text
+     * @param node The node name
+     * @param exitCode The script exit status
+     */
+    void record( String script, String node, int exitCode ) {
+        def step = current.get()
+        if( !step ) {
+            return
+        }
+
+        if( exitCode ) {
+            step.failed = true
+        }
+        append(step.key(scriptKey(script), node), exitCode ? FAILED : OK)
+    }
+
+    synchronized private String statusOf( String key ) {
+        status.get(key)
+    }
+
+    synchronized private void append( String key, String value, String message = null ) {
+        status.put(key, value)
+
+        def entry = [time: System.currentTimeMillis(), key: key, status: value]
+        if( message ) {
+            entry.message = message
+        }
+        try {
+            file.append( new JsonBuilder(entry).toString() + '\n' )
+        }
+        catch( IOException e ) {
+            log.warn "Cannot write the provisioning journal: '${file}' -- ${e.getMessage()}"
+        }
+    }
+
+    /**
+     * @return The event name in the steps keys, the {@link OnNodeReadyEvent} includes the node name
+     *      so that the step is completed independently on each node
+     */
+    static private String eventName( Object event ) {
+        def name = event.getClass().getSimpleName()
+        event instanceof OnNodeReadyEvent ? "${name}@${event.name}".toString() : name
+    }
+
+    static private String scriptKey( String script ) {
+        Hashing.sha1().hashString(script, Charsets.UTF_8).toString().substring(0,12)
+    }
+
+}
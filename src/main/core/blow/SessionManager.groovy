@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow
+
+import groovy.util.logging.Slf4j
+import org.jclouds.compute.ComputeServiceContext
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keep open the sessions of several clusters at the same time.
+ * <p>
+ * The sessions opened by the manager share the cloud provider contexts, one for each set of
+ * credentials, and a single bounded thread pool for the SSH transfers and the remote commands,
+ * so opening a new cluster does not create a new pool of connections and threads.
+ */
+@Slf4j
+class SessionManager {
+
+    static final int DEFAULT_IO_THREADS = 40
+
+    /**
+     * A cloud provider context and the number of sessions using it
+     */
+    static private class SharedContext {
+        ComputeServiceContext context
+        int refs
+    }
+
+    /** The max number of threads used by all the sessions for the SSH transfers and remote commands */
+    final int ioThreads
+
+    final private Map<String,BlowSession> sessions = new LinkedHashMap<String, BlowSession>()
+
+    final private Map<String,SharedContext> contexts = new HashMap<String, SharedContext>()
+
+    private ExecutorService ioExecutor
+
+    SessionManager( int ioThreads = DEFAULT_IO_THREADS ) {
+        assert ioThreads > 0
+        this.ioThreads = ioThreads
+    }
+
+    /**
+     * Add a session to the open ones, replacing the session of the same cluster if any
+     *
+     * @return The session itself
+     */
+    synchronized BlowSession open( BlowSession session ) {
+        assert session
+
+        def previous = sessions.get(session.clusterName)
+        if( previous && !previous.is(session) ) {
+            closeQuietly(previous)
+        }
+
+        session.manager = this
+        sessions.put(session.clusterName, session)
+        return session
+    }
+
+    /**
+     * @return The open session for the specified cluster or {@code null} if it is not open
+     */
+    synchronized BlowSession get( String clusterName ) {
+        sessions.get(clusterName)
+    }
+
+    /**
+     * @return The open sessions, in the order they have been opened
+     */
+    synchronized List<BlowSession> getSessions() {
+        new ArrayList<BlowSession>(sessions.values())
+    }
+
+    /**
+     * Close the session of the specified cluster and save it when required
+     *
+     * @return The closed session or {@code null} if it was not open
+     */
+    synchronized BlowSession close( String clusterName ) {
+        def session = sessions.remove(clusterName)
+        if( session ) {
+            closeQuietly(session)
+            if( session.saveOnExit ) {
+                session.persist()
+            }
+        }
+        return session
+    }
+
+    static private void closeQuietly( BlowSession session ) {
+        try {
+            session.close()
+        }
+        catch( Exception e ) {
+            log.warn("Opps .. something wrong closing session: '${session.clusterName}'", e)
+        }
+    }
+
+    /**
+     * Save the open sessions of the clusters that are running
+     *
+     * @return The files to which the sessions have been saved
+     */
+    synchronized List<File> persist() {
+        def result = []
+        sessions.values().each { BlowSession session ->
+            if( !session.saveOnExit ) { return }
+            def file = session.persist()
+            if( file ) {
+                result << file
+            }
+        }
+        return result
+    }
+
+    /**
+     * Close all the open sessions and release the shared resources.
+     * <p>
+     * The sessions are kept in the list of the open ones, so that they can still be saved
+     * by {@link #persist()}
+     */
+    synchronized void close() {
+        sessions.values().each { BlowSession session -> closeQuietly(session) }
+
+        contexts.values().each { SharedContext it ->
+            log.debug "Closing context still in use by ${it.refs} session(s)"
+            it.context.close()
+        }
+        contexts.clear()
+
+        ioExecutor?.shutdown()
+        ioExecutor = null
+    }
+
+    /**
+     * @return The thread pool shared by the sessions for the SSH transfers and remote commands
+     */
+    synchronized ExecutorService getIoExecutor() {
+        if( !ioExecutor ) {
+            // core size equals to the max size, otherwise with an unbounded queue only one thread is used
+            def pool = new ThreadPoolExecutor(ioThreads, ioThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>())
+            pool.allowCoreThreadTimeOut(true)
+            ioExecutor = pool
+        }
+        return ioExecutor
+    }
+
+    /**
+     * Get the context for the credentials of the specified configuration, creating it on the first request.
+     * <p>
+     * The context is not bound to a region, the region of each cluster is applied by the session
+     * to the templates, so a single context serves all the regions of the same account
+     *
+     * @param conf The configuration of the session requesting the context
+     * @param factory The closure creating the context when it does not exist
+     * @return The shared context, it has to be returned by {@link #releaseContext(BlowConfig)}
+     */
+    synchronized ComputeServiceContext acquireContext( BlowConfig conf, Closure<ComputeServiceContext> factory ) {
+        def key = contextKey(conf)
+        def shared = contexts.get(key)
+        if( !shared ) {
+            log.debug "Creating context for access key: ${conf.accessKey}"
+            shared = new SharedContext(context: factory.call())
+            contexts.put(key, shared)
+        }
+        shared.refs++
+        return shared.context
+    }
+
+    /**
+     * Release a context acquired by {@link #acquireContext(BlowConfig,Closure)}, the context is closed when
+     * no session uses it anymore
+     */
+    synchronized void releaseContext( BlowConfig conf ) {
+        def key = contextKey(conf)
+        def shared = contexts.get(key)
+        if( !shared ) {
+            return
+        }
+
+        if( --shared.refs <= 0 ) {
+            log.debug "Closing context for access key: ${conf.accessKey}"
+            contexts.remove(key)
+            shared.context.close()
+        }
+    }
+
+    /**
+     * @return The number of contexts currently open
+     */
+    synchronized int getContextsCount() {
+        contexts.size()
+    }
+
+    static private String contextKey( BlowConfig conf ) {
+        "${conf.accessKey}:${conf.secretKey}".toString()
+    }
+
+}
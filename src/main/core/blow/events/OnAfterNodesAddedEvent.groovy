@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.events
+
+import blow.BlowSession
+
+/**
+ * Posted when nodes have been added to a running cluster, see {@link BlowSession#addNodes(java.lang.String, int)}.
+ * <p>
+ * The operations have to configure only the added nodes and update the nodes already running
+ * to include them, without re-applying the whole configuration. Each added node has already been
+ * notified by a {@link OnNodeReadyEvent}
+ */
+class OnAfterNodesAddedEvent {
+
+	def BlowSession session
+
+	/** The name of the cluster to which the nodes have been added */
+	def String clusterName
+
+	/** The role of the added nodes */
+	def String role
+
+	/** The added nodes, a list of {@link BlowSession.BlowNodeMetadata} instances ready to accept connections */
+	def List nodes
+
+}
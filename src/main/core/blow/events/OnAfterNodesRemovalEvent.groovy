@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.events
+
+import blow.BlowSession
+
+/**
+ * Posted after some nodes of a running cluster have been terminated
+ */
+class OnAfterNodesRemovalEvent {
+
+	def BlowSession session
+
+	/** The name of the cluster from which the nodes have been removed */
+	def String clusterName
+
+	/** The names of the removed nodes */
+	def List<String> names
+
+	/** The terminated instances */
+	def nodes
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.events
+
+import blow.BlowSession
+
+/**
+ * Posted, while the cluster is starting or nodes are added to it, as soon as a node accepts SSH connections.
+ * <p>
+ * The events of different nodes can be posted concurrently and before the other nodes are started,
+ * operations requiring the whole cluster have to handle the {@link OnAfterClusterStartedEvent}.
+ * The handlers annotated with {@link com.google.common.eventbus.AllowConcurrentEvents} configure
+ * the nodes in parallel, the other ones a node at time
+ */
+class OnNodeReadyEvent {
+
+	def BlowSession session
+
+	/** The cluster name that is going to be started */
+	def String clusterName
+
+	/** The role of the node in the cluster */
+	def String role
+
+	/** The node name in the cluster */
+	def String name
+
+	/** The node metadata, a {@link BlowSession.BlowNodeMetadata} instance */
+	def node
+
+}
@@ -22,7 +22,6 @@ package blow.operation
 import blow.DynLoader
 import groovy.util.logging.Slf4j
 
-import static blow.operation.OperationHelper.opName
 import blow.exception.UnknownOperationException
 
 /**
@@ -50,7 +49,7 @@ class OperationFactory {
 	public Object create( String name ) {
         assert name
 
-        Class clazz = loader.operationsClasses.find {  name == opName(it)  }
+        Class clazz = loader.getOperationClass(name)
         if( clazz == null ) {
             throw new UnknownOperationException("Cannot found the definition for operation named: '${name}'")
         }
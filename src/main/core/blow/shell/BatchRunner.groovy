@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.shell
+
+import blow.exception.BlowException
+import blow.exception.ShellExit
+import blow.util.CmdLine
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * Run the commands of a batch script without user interaction.
+ * <p>
+ * Each line of the script is a shell command, optionally prefixed by the clusters on which it has to be
+ * executed, for example:
+ * <pre>
+ *     # the lines starting with '#' are comments
+ *     &#64;hadoop,sge start
+ *     &#64;sge ssh master qstat -f
+ *     &#64;* nodes
+ *     conf
+ * </pre>
+ * The prefix {@code @*} stands for all the clusters defined in the configuration file, a command without prefix
+ * runs on the default cluster.
+ * <p>
+ * The commands of each cluster are executed in the order they appear in the script, the clusters run at the
+ * same time each one in its own shell. The commands of a cluster stop at the first failure, without affecting
+ * the other clusters.
+ */
+@Slf4j
+class BatchRunner {
+
+    static final String ALL_CLUSTERS = '*'
+
+    /**
+     * A command in the batch script
+     */
+    static class Line {
+
+        int number
+
+        /** The clusters specified by the line prefix, {@code null} for the default cluster */
+        List<String> clusters
+
+        String command
+
+        List<String> args
+
+        String toString() { ([command] + args).join(' ') }
+    }
+
+    /**
+     * The outcome of the commands run on a cluster
+     */
+    static class Result {
+
+        String cluster
+
+        /** The number of commands completed successfully */
+        int completed
+
+        /** The number of commands to run on the cluster */
+        int total
+
+        /** The command which has failed, if any */
+        Line failed
+
+        /** The error that has prevented to run the commands, if any */
+        String error
+
+        long elapsed
+
+        boolean isSuccess() { !failed && !error }
+    }
+
+    final private BlowShell shell
+
+    final private String defaultCluster
+
+    /**
+     * @param shell The main shell, the commands run in shells created from it
+     * @param defaultCluster The cluster on which run the commands without a prefix, it may be {@code null}
+     *  when the configuration defines only one cluster
+     */
+    BatchRunner( BlowShell shell, String defaultCluster ) {
+        this.shell = shell
+        this.defaultCluster = defaultCluster
+    }
+
+    /**
+     * Parse the batch script text
+     *
+     * @param text The script content
+     * @return The commands in the script
+     * @throws BlowException when a line does not specify any cluster after the {@code @} prefix or any command
+     */
+    static List<Line> parse( String text ) {
+
+        def result = []
+        text?.readLines()?.eachWithIndex { String it, int index ->
+            def line = it.trim()
+            if( !line || line.startsWith('#') ) { return }
+
+            def items = CmdLine.splitter(line) as List<String>
+            List<String> clusters = null
+            if( items[0].startsWith('@') ) {
+                clusters = items[0].substring(1).split(',').collect { it.trim() }.findAll { it }
+                items = items.tail()
+                if( !clusters ) {
+                    throw new BlowException("Missing cluster name at line ${index+1}: ${line}")
+                }
+            }
+
+            if( !items ) {
+                throw new BlowException("Missing command at line ${index+1}: ${line}")
+            }
+
+            result << new Line(number: index+1, clusters: clusters, command: items.head(), args: items.tail())
+        }
+
+        return result
+    }
+
+    /**
+     * Group the commands by the cluster on which they run
+     *
+     * @param lines The script commands
+     * @param allClusters The clusters defined in the configuration file
+     * @return A map associating each cluster name to its commands, in the order they appear in the script
+     */
+    Map<String,List<Line>> plan( List<Line> lines, List<String> allClusters ) {
+
+        def result = new LinkedHashMap<String,List<Line>>()
+        for( Line line : lines ) {
+            def targets = line.clusters ?: [ defaultClusterFor(line, allClusters) ]
+            if( ALL_CLUSTERS in targets ) {
+                targets = allClusters
+            }
+
+            for( String name : targets.unique() ) {
+                if( !result.containsKey(name) ) {
+                    result.put(name, [])
+                }
+                result.get(name).add(line)
+            }
+        }
+
+        return result
+    }
+
+    protected String defaultClusterFor( Line line, List<String> allClusters ) {
+        if( defaultCluster ) {
+            return defaultCluster
+        }
+        if( allClusters?.size() == 1 ) {
+            return allClusters[0]
+        }
+        throw new BlowException("Specify the cluster of the command at line ${line.number}: ${line} -- or the default one with the '--cluster' option")
+    }
+
+    /**
+     * Run the commands of the batch script
+     *
+     * @param text The script content
+     * @return The result for each cluster, in the order they appear in the script
+     */
+    Map<String,Result> run( String text ) {
+
+        def plan = plan( parse(text), shell.listClusters() )
+        if( !plan ) {
+            log.warn "The batch script does not contain any command"
+            return [:]
+        }
+
+        /*
+         * open the clusters sessions one at time, since it may require to read the configuration
+         * and the saved sessions files
+         */
+        def results = new LinkedHashMap<String,Result>()
+        def workers = new LinkedHashMap<String,BlowShell>()
+        for( String cluster : plan.keySet() ) {
+            def result = new Result(cluster: cluster, total: plan.get(cluster).size())
+            results.put(cluster, result)
+            try {
+                def worker = createShell()
+                worker.useCluster(cluster)
+                workers.put(cluster, worker)
+            }
+            catch( Exception e ) {
+                result.error = e.getMessage() ?: e.toString()
+                log.error("Cannot open cluster: '${cluster}' -- ${result.error}", e)
+            }
+        }
+
+        /*
+         * run the commands of each cluster in parallel
+         */
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, workers.size()))
+        try {
+            def futures = new LinkedHashMap<String,Future>()
+            for( String cluster : workers.keySet() ) {
+                futures.put(cluster, submit(executor, workers.get(cluster), plan.get(cluster), results.get(cluster)))
+            }
+
+            for( String cluster : futures.keySet() ) {
+                try {
+                    futures.get(cluster).get()
+                }
+                catch( Exception e ) {
+                    def result = results.get(cluster)
+                    result.error = e.getCause()?.getMessage() ?: e.toString()
+                    log.error("Cannot run the commands on cluster: '${cluster}' -- ${result.error}", e)
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow()
+            workers.values().each { BlowShell it -> it.close() }
+        }
+
+        return results
+    }
+
+    private Future submit( ExecutorService executor, BlowShell worker, List<Line> lines, Result result ) {
+        executor.submit( { runCommands(worker, lines, result) } as Callable )
+    }
+
+    protected BlowShell createShell() {
+        new BlowShell(shell)
+    }
+
+    /**
+     * Run the commands of a cluster in order, stopping at the first failure
+     */
+    protected void runCommands( BlowShell worker, List<Line> lines, Result result ) {
+
+        def start = System.currentTimeMillis()
+        try {
+            for( Line line : lines ) {
+                log.info "[${result.cluster}] ${line}"
+                if( !worker.execute(line.command, line.args) ) {
+                    result.failed = line
+                    break
+                }
+                result.completed++
+            }
+        }
+        catch( ShellExit e ) {
+            log.debug "Exit command on cluster: '${result.cluster}'"
+        }
+        finally {
+            result.elapsed = System.currentTimeMillis() - start
+        }
+    }
+
+    /**
+     * Print the outcome of each cluster
+     */
+    static void printSummary( Map<String,Result> results, PrintStream out = System.out ) {
+
+        if( !results ) { return }
+
+        def max = results.keySet().max { it.length() }.length()
+        out.println "\nBatch summary:"
+        results.values().each { Result it ->
+            def status = it.success ? 'OK' : 'FAILED'
+            def line = "  ${it.cluster.padRight(max)}  ${status.padRight(6)}  ${it.completed}/${it.total} commands  ${String.format('%.1f', it.elapsed / 1000d)}s"
+            if( it.failed ) {
+                line += " -- failed at line ${it.failed.number}: ${it.failed}"
+            }
+            else if( it.error ) {
+                line += " -- ${it.error}"
+            }
+            out.println line
+        }
+    }
+
+    /**
+     * @return The program exit status, {@code 0} when the commands have completed successfully on all the clusters
+     */
+    static int exitStatus( Map<String,Result> results ) {
+        results.values().every { Result it -> it.success } ? 0 : 1
+    }
+
+}
@@ -19,7 +19,10 @@
 
 package blow.shell
 
+import blow.ExtensionIndex.Entry
+import blow.ExtensionIndex.Kind
 import blow.builder.BlowConfigBuilder
+import blow.metrics.Metrics
 import blow.util.CmdLine
 import blow.util.InjectorHelper
 import blow.util.KeyPairBuilder
@@ -47,8 +50,24 @@ class BlowShell {
      */
 	static ConsoleReader console
 
+    /**
+     * When {@code true} the shell is executing a batch script, so the console is never read
+     * and the prompts are answered without user interaction
+     */
+    static volatile boolean batchMode
+
 	private BlowSession session;
 
+    /**
+     * The sessions of the clusters used in this shell, they are kept open switching from a cluster to another
+     */
+    private SessionManager sessions = new SessionManager()
+
+    /**
+     * The shell which created this one to run the commands of a cluster in a batch script, {@code null} for the main shell
+     */
+    private BlowShell parent
+
 	private DynLoader loader;
 
     static final homePathBlow = new File(System.getProperty("user.home"), ".blow")
@@ -185,10 +204,7 @@ class BlowShell {
 	protected BlowShell() {
 
 		loader = DynLoaderFactory.get()
-		
-		loader.shellCommands.each { clazz -> addCommand(clazz) }
-        
-        loader.shellMethods.each {  method -> addCommand( new ShellMethodAdapter(this, method) ) }
+        registerCommands()
 		
 		/*
 		 * create the console reader 
@@ -208,19 +224,42 @@ class BlowShell {
 	}
 
     /**
-     * Create an instance of the specified {@link ShellCommand} and add it to the list
-     * of the {@link #availableCommands}
+     * Create a shell sharing the configuration and the open sessions of the specified one, but
+     * having its own commands instances. It is used to run the commands of a batch script on
+     * many clusters at the same time, see {@link BatchRunner}
      *
-     * @param clazz
+     * @param parent The main shell
      */
-	private void addCommand( Class<ShellCommand> clazz ) {
-		try {
-			addCommand(clazz.newInstance())
-		}
-		catch( Throwable e ) {
-			log.error("Cannot add shell command defined by class: '${clazz?.getName()}'. Make sure that it defines a default constructor.", e)
-		}
-	}
+    protected BlowShell( BlowShell parent ) {
+        this.parent = parent
+        this.loader = parent.loader
+        this.sessions = parent.sessions
+        this.userConfigFile = parent.userConfigFile
+        this.configBuilder = parent.getConfigBuilder()
+        registerCommands()
+    }
+
+    /**
+     * The commands are created by the extensions index, the classes are loaded on the first command use
+     */
+    private void registerCommands() {
+        loader.index.commands.each { Entry entry -> addCommand( new LazyShellCommand(entry.name, entry.summary, commandFactory(entry)) ) }
+    }
+
+    /**
+     * @return The closure creating the {@link ShellCommand} defined by the specified extensions index entry
+     */
+    protected Closure<ShellCommand> commandFactory( Entry entry ) {
+        // note: the closures use a local copy of the private 'loader' field, which cannot be resolved in sub-classes
+        def loader = this.loader
+        def shell = this
+        if( entry.kind == Kind.METHOD ) {
+            return { new ShellMethodAdapter(shell, loader.loadMethod(entry)) }
+        }
+        else {
+            return { (ShellCommand) loader.loadClass(entry.className).newInstance() }
+        }
+    }
 
     
 
@@ -358,6 +397,16 @@ class BlowShell {
             }
         }
 
+        /*
+         * switching to a cluster already used in this shell, its session is still open
+         */
+        def opened = sessions.get(clusterName)
+        if( opened && !opened.is(session) ) {
+            session = opened
+            currentCluster = clusterName
+            return session
+        }
+
 
         /*
          * try to reload from disk
@@ -438,16 +487,13 @@ class BlowShell {
 
 
 		/*
-		 * if OK, close the previous instance 
-		 * and create a new one for this cluster instance
+		 * if OK, open a new session for this cluster instance, the previous one
+		 * is kept open unless it is the same cluster being reloaded
 		 */
-		if( session ) {
-            try { session.close() } catch( Exception e ) { log.warn("Opps .. something wrong closing session: '${session.clusterName}'", e) }
-            if( session.saveOnExit ) {
-                session.persist()
-            }
+		if( session?.clusterName == clusterName ) {
+            sessions.close(clusterName)
         }
-		session = serialized ?: new BlowSession(config, clusterName)
+		session = sessions.open( serialized ?: new BlowSession(config, clusterName) )
 		
 		// set the current cluster name 
 		currentCluster = clusterName
@@ -461,11 +507,14 @@ class BlowShell {
 
 	/**
 	 * Execute the requested command
+     *
+     * @return {@code true} when the command has completed successfully, {@code false} otherwise
 	 */
-	def void execute( String command, def args ) {
+	def boolean execute( String command, def args ) {
         log.debug("** ${command} ${args}")
 
         def message
+        def result = false
 
         def cmdObj = availableCommands[command]
         if( cmdObj ) {
@@ -476,6 +525,7 @@ class BlowShell {
 
                 cmdObj.parse(args)
                 cmdObj.invoke()
+                result = true
             }
 
             /*
@@ -492,7 +542,7 @@ class BlowShell {
                 println show.join('\n\n')
             }
             catch( OperationAbortException e ) {
-                message = "Operation aborted: '${cmdObj.getName()}'"
+                message = "Operation aborted: '${cmdObj.getName()}'" + (e.getMessage() ? " -- ${e.getMessage()}" : '')
                 log.warn(message)
             }
             catch( IllegalShellOptionException e ) {
@@ -520,6 +570,7 @@ class BlowShell {
 
         }
 
+        return result
 	}
 
 	/**
@@ -574,9 +625,39 @@ class BlowShell {
 		println "Bye"
 	}
 
+    /**
+     * Run the commands of a batch script without user interaction, see {@link BatchRunner}
+     *
+     * @param script The batch script file
+     * @return The program exit status, {@code 0} when all the commands have completed successfully
+     */
+    def int runBatch( File script ) {
+
+        if( !script.exists() ) {
+            println "The specified batch script does not exist: '${script}'"
+            return 1
+        }
+
+        batchMode = true
+        def results
+        try {
+            results = new BatchRunner(this, clusterNameRequested).run(script.text)
+        }
+        catch( BlowException e ) {
+            println e.getMessage()
+            return 1
+        }
+
+        BatchRunner.printSummary(results)
+        return BatchRunner.exitStatus(results)
+    }
+
     private void injectProperties( ShellCommand cmd ) {
 
         def props = [ this, this.session ]
+        if( cmd instanceof LazyShellCommand ) {
+            cmd = (cmd as LazyShellCommand).getTarget()
+        }
         def target = ( cmd instanceof ShellMethodAdapter ) ? (cmd as ShellMethodAdapter).targetObj : cmd
         injectFields(target, props)
     }
@@ -599,12 +680,17 @@ class BlowShell {
     }
 
 	def void close() {
-		// close the 'blow' session
+		// close the 'blow' sessions, the shells running a batch script share them with the main one
         freeCommands()
-		if( session ) session.close()
+		if( !parent ) sessions.close()
         log.trace 'After close session'
 	} 
 
+    /**
+     * @return The manager of the sessions opened in this shell
+     */
+    def SessionManager getSessions() { sessions }
+
     /**
      * Add the command to the command line history
      */
@@ -628,6 +714,10 @@ class BlowShell {
         // format the prompt nicely
         prompt = (!prompt) ? "${Project.name} ${cluster}\$ " : prompt + " "
 
+        if( batchMode ) {
+            return batchAnswer(prompt, accept)
+        }
+
         def line
         while( true ) {
             line = console.readLine(prompt)
@@ -639,6 +729,19 @@ class BlowShell {
         return line
 	}
 
+    /**
+     * Running a batch script the commands are confirmed by the script itself, so the 'yes' answer is
+     * given when accepted, any other question aborts the command
+     */
+    static private String batchAnswer( String prompt, Closure<String> accept ) {
+        if( accept && accept.call('y') ) {
+            log.debug "Batch mode answer 'y' to: ${prompt}"
+            return 'y'
+        }
+
+        throw new OperationAbortException("Cannot answer in batch mode: ${prompt?.trim()}")
+    }
+
     /**
      * Wait for an the user console input. Only the entries specified as the second
      * parameters will be accepted as valid.
@@ -666,6 +769,9 @@ class BlowShell {
      * @param config The current {@link BlowConfig} object
      */
     def void promptForAccessCredentials(BlowConfig config) {
+        if( batchMode ) {
+            throw new OperationAbortException("Missing AWS credentials -- they cannot be entered in batch mode")
+        }
 
         def defAccessKey = config.accessKey
         def defSecretKey = config.secretKey
@@ -889,6 +995,7 @@ class BlowShell {
         cli._( longOpt: "trace", "Print trace level information", args:1, optionalArg:true, argName: 'package(s)')
         cli._( longOpt: "conf", "Specify a configuration file other than 'blow.conf'", args: 1, optionalArg: false, argName:  'file name')
         cli.c( longOpt: "cluster", "Specify the cluster name to be used", args:1, optionalArg: false, argName: 'clusterName')
+        cli._( longOpt: "batch", "Run the commands in the specified script file on one or more clusters, then exit", args: 1, optionalArg: false, argName: 'file name')
         cli.h( longOpt: "help", "Show this help")
 
         options = cli.parse(args)
@@ -900,6 +1007,7 @@ class BlowShell {
          * Initialize Guice and create a shell instance
          */
         Guice.createInjector();
+        Metrics.registerMBean()
 		BlowShell shell = new BlowShell();
         // trace the command line
         log.debug "++++ Launching ${Project.name} - ver ${Project.version} ++++"
@@ -909,11 +1017,8 @@ class BlowShell {
          * Shutdown runtime
          */
         Runtime.getRuntime().addShutdownHook {
-            if( shell?.session?.saveOnExit ) {
-                def file = shell.session.persist()
-                if( file ) {
-                    log.info "Session saved to file: $file"
-                }
+            shell?.sessions?.persist()?.each { File file ->
+                log.info "Session saved to file: $file"
             }
             log.debug "===== Terminated ${Project.name} ====="
         }
@@ -931,6 +1036,11 @@ class BlowShell {
          */
         try {
             shell.init(options.arguments(), confFileName, clusterName);
+            if( options?.batch ) {
+                def status = shell.runBatch( new File(options.batch as String) )
+                shell.close()
+                System.exit(status)
+            }
             shell.run();
             shell.close()
         }
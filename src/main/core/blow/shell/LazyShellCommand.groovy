@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.shell
+
+import groovy.util.logging.Slf4j
+
+/**
+ * A shell command whose implementation is created the first time it is used.
+ * <p>
+ * The command name and summary come from the extensions index, see {@link blow.ExtensionIndex},
+ * so listing the commands does not require to load the extension classes.
+ */
+@Slf4j
+class LazyShellCommand implements ShellCommand, CommandCompletor {
+
+    final private String name
+
+    final private String summary
+
+    final private Closure<ShellCommand> factory
+
+    volatile private ShellCommand target
+
+    LazyShellCommand( String name, String summary, Closure<ShellCommand> factory ) {
+        this.name = name
+        this.summary = summary
+        this.factory = factory
+    }
+
+    /**
+     * @return The command implementation, it is created on the first invocation
+     */
+    ShellCommand getTarget() {
+        def result = target
+        if( result == null ) {
+            synchronized (this) {
+                result = target
+                if( result == null ) {
+                    log.debug "Loading command: '${name}'"
+                    result = target = factory.call()
+                }
+            }
+        }
+        return result
+    }
+
+    boolean isLoaded() { target != null }
+
+    @Override
+    String getName() { name }
+
+    @Override
+    String getSummary() { summary }
+
+    @Override
+    void parse(List<String> args) { getTarget().parse(args) }
+
+    @Override
+    void invoke() { getTarget().invoke() }
+
+    @Override
+    String getHelp() { getTarget().getHelp() }
+
+    @Override
+    void free() {
+        // nothing to release if the command has never been used
+        target?.free()
+    }
+
+    @Override
+    List<String> findOptions(String cmdline) {
+        def command = getTarget()
+        command instanceof CommandCompletor ? ((CommandCompletor)command).findOptions(cmdline) : null
+    }
+
+}
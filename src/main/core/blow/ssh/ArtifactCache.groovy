@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import com.google.common.base.Charsets
+import com.google.common.hash.Hashing
+import groovy.util.logging.Slf4j
+import org.jclouds.compute.domain.ExecResponse
+
+/**
+ * Download the artifacts required by the operations only once, on a node of the cluster, and make the other
+ * nodes download them from it over the cluster internal network.
+ * <p>
+ * The cache node stores each artifact under a directory named by the SHA-256 of its content, so the same
+ * content downloaded from different URLs is kept once, and serves the cache directory with the Python
+ * HTTP server. The cached URL keeps the file name of the original one, so the scripts
+ * using the downloaded file name do not need to be changed.
+ * <p>
+ * The scripts are meant to be run by an unprivileged user, the HTTP server listens only on the
+ * cache node address, which should be the cluster internal one.
+ * <p>
+ * When an artifact cannot be downloaded by the cache node the original URL is used.
+ */
+@Slf4j
+class ArtifactCache {
+
+    final private String address
+
+    final private Closure<ExecResponse> exec
+
+    /** The cached URL for each original URL */
+    final private Map<String,String> urls = new HashMap<String, String>()
+
+    /** The directory on the cache node where the artifacts are stored, by default {@code $HOME/.blow/artifacts} */
+    String dir
+
+    /** The port of the HTTP server on the cache node */
+    int port = 8642
+
+    /**
+     * @param address The cache node address used by the other nodes, the HTTP server is bound to it
+     * @param exec A closure running a script on the cache node and returning its {@link ExecResponse}
+     */
+    ArtifactCache( String address, Closure<ExecResponse> exec ) {
+        this.address = address
+        this.exec = exec
+    }
+
+    /**
+     * Get the cluster-local URL of an artifact
+     *
+     * @param url The artifact URL
+     * @return The URL of the cached artifact, or the original URL when it cannot be cached
+     */
+    String resolve( String url ) {
+        resolve([url]).get(url)
+    }
+
+    /**
+     * Get the cluster-local URLs of the artifacts, downloading the ones not yet cached
+     *
+     * @param list The artifacts URL
+     * @return A map associating each URL to the cached one, or to itself when it cannot be cached
+     */
+    synchronized Map<String,String> resolve( Collection<String> list ) {
+
+        def missing = list.collect { it.toString() }.findAll { String url -> !urls.containsKey(url) } .unique()
+        def cacheable = missing.findAll { String url -> fileName(url) }
+        if( cacheable ) {
+            fetch(cacheable)
+        }
+        missing.each { String url -> if( !urls.containsKey(url) ) urls.put(url, url) }
+
+        def result = new LinkedHashMap<String,String>()
+        list.each { def url -> result.put(url.toString(), urls.get(url.toString())) }
+        return result
+    }
+
+    /**
+     * Download the artifacts on the cache node and start the HTTP server when it is not running
+     */
+    protected void fetch( List<String> list ) {
+
+        def keys = [:]
+        def script = new StringBuilder()
+        script << fetchFunction()
+        list.each { String url ->
+            def key = key(url)
+            keys.put(key, url)
+            script << "fetch ${key} ${quote(fileName(url))} ${quote(url)}\n"
+        }
+        script << serverStart()
+
+        log.debug "Caching artifacts: ${list}"
+        ExecResponse response
+        try {
+            response = exec.call(script.toString())
+        }
+        catch( Exception e ) {
+            log.warn "Cannot cache artifacts -- ${e.getMessage() ?: e}"
+            return
+        }
+
+        if( response.getExitCode() ) {
+            log.warn "Cannot cache artifacts -- ${response.getError()?.trim()}"
+            return
+        }
+
+        response.getOutput()?.readLines()?.each { String line ->
+            def items = line.trim().split(' ')
+            def url = items.size() == 2 ? keys.get(items[0]) : null
+            if( !url ) {
+                return
+            }
+            if( items[1] == '-' ) {
+                log.warn "Cannot cache artifact: ${url}"
+                return
+            }
+            urls.put(url, "http://${address}:${port}/${items[1]}/${fileName(url)}".toString())
+        }
+    }
+
+    private String fetchFunction() {
+        """\
+        set -e
+        dir=${dir ? quote(dir) : '"$HOME/.blow/artifacts"'}
+        mkdir -p "\$dir/urls"
+        fetch() {
+          local sum
+          if [ -f "\$dir/urls/\$1" ]; then
+            sum=\$(cat "\$dir/urls/\$1")
+            if [ -f "\$dir/\$sum/\$2" ]; then echo "\$1 \$sum"; return; fi
+          fi
+          local tmp=\$(mktemp "\$dir/.part.XXXXXX")
+          if wget -q -O "\$tmp" "\$3"; then
+            sum=\$(sha256sum < "\$tmp" | cut -c1-64)
+            mkdir -p "\$dir/\$sum"
+            chmod 644 "\$tmp"
+            mv -f "\$tmp" "\$dir/\$sum/\$2"
+            echo \$sum > "\$dir/urls/\$1"
+            echo "\$1 \$sum"
+          else
+            rm -f "\$tmp"
+            echo "\$1 -"
+          fi
+        }
+        """
+        .stripIndent()
+    }
+
+    private String serverStart() {
+        """\
+        if ! { [ -f "\$dir/.pid" ] && kill -0 \$(cat "\$dir/.pid") 2>/dev/null; }; then
+          cd "\$dir"
+          if command -v python3 >/dev/null 2>&1; then
+            nohup python3 -c 'import sys, http.server as h; h.HTTPServer((sys.argv[1], int(sys.argv[2])), h.SimpleHTTPRequestHandler).serve_forever()' ${quote(address)} ${port} >/dev/null 2>&1 </dev/null &
+          else
+            nohup python -c 'import sys, BaseHTTPServer as b, SimpleHTTPServer as s; b.HTTPServer((sys.argv[1], int(sys.argv[2])), s.SimpleHTTPRequestHandler).serve_forever()' ${quote(address)} ${port} >/dev/null 2>&1 </dev/null &
+          fi
+          echo \$! > "\$dir/.pid"
+        fi
+        """
+        .stripIndent()
+    }
+
+    /**
+     * @return The name of the file downloaded from the specified URL, {@code null} when it cannot be cached
+     */
+    static protected String fileName( String url ) {
+        URI uri
+        try {
+            uri = new URI(url)
+        }
+        catch( URISyntaxException e ) {
+            return null
+        }
+
+        if( !(uri.getScheme()?.toLowerCase() in ['http','https','ftp']) || !uri.getRawPath() ) {
+            return null
+        }
+
+        def path = uri.getRawPath()
+        def name = path.substring(path.lastIndexOf('/')+1)
+        name ==~ /[A-Za-z0-9._+\-]+/ ? name : null
+    }
+
+    static private String key( String url ) {
+        Hashing.sha1().hashString(url, Charsets.UTF_8).toString()
+    }
+
+    static private String quote( String str ) {
+        "'${str.replace("'","'\\''")}'"
+    }
+
+}
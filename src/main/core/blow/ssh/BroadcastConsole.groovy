@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import groovy.util.logging.Slf4j
+import net.schmizz.sshj.SSHClient
+import net.schmizz.sshj.connection.channel.direct.PTYMode
+import net.schmizz.sshj.connection.channel.direct.Session
+import sun.misc.Signal
+import sun.misc.SignalHandler
+
+/**
+ * An interactive console on many nodes at the same time, in the cluster-ssh style: each keystroke
+ * is sent to the terminals of all the nodes and their output is shown by a {@link ConsoleView}.
+ * <p>
+ * The output of all the terminals is read by a fixed number of {@link #ioThreads}, each one serving
+ * a share of the terminals, instead of a couple of threads for each of them. The keyboard is read
+ * by the thread launching the console, which also follows the local terminal size.
+ * <p>
+ * As in the OpenSSH client, the sequence {@code ~.} entered at the beginning of a line closes the console
+ */
+@Slf4j
+class BroadcastConsole {
+
+    static final private int TILDE = 0x7E
+
+    static final private int DOT = 0x2E
+
+    static final private int LF = 0xA
+
+    static final private int CR = 0xD
+
+    /**
+     * The terminal opened on a node
+     */
+    static class Terminal {
+
+        String name
+
+        /** The terminal output */
+        InputStream output
+
+        /** The terminal error stream, it may be {@code null} */
+        InputStream error
+
+        /** The terminal input, where the keystrokes are written */
+        OutputStream input
+
+        /** Returns {@code true} while the remote terminal is open */
+        Closure<Boolean> isOpen
+
+        /** Change the remote terminal size, receiving the number of columns and rows, it may be {@code null} */
+        Closure resize
+
+        /** Close the remote terminal, it may be {@code null} */
+        Closure close
+
+        private volatile boolean closed
+
+        private long lastOutput = System.currentTimeMillis()
+    }
+
+    final private List<Terminal> terminals
+
+    final private ConsoleView view
+
+    /** The number of threads reading the output of the terminals */
+    int ioThreads = 2
+
+    /** The max time in millis an output thread waits when none of its terminals has something to read */
+    long maxIdleWait = 20
+
+    /** How often in millis the keyboard is checked for input when it is idle */
+    long keyboardPoll = 10
+
+    /** The keyboard input stream */
+    InputStream keyboard = System.in
+
+    /** The local console, used to follow the terminal size. It may be {@code null} */
+    jline.ConsoleReader console
+
+    private volatile boolean running
+
+    private int cols = 80
+
+    private int rows = 24
+
+    BroadcastConsole( List<Terminal> terminals, ConsoleView view ) {
+        assert terminals
+        assert view
+        this.terminals = terminals
+        this.view = view
+    }
+
+    /**
+     * Open a remote shell on a node
+     *
+     * @param name The node name, shown by the {@link ConsoleView}
+     * @param ssh A connected and authenticated client
+     * @param term The terminal type e.g. {@code vt100}
+     * @return The terminal to be used by the console
+     */
+    static Terminal openShell( String name, SSHClient ssh, String term, int cols, int rows ) {
+        Session session = ssh.startSession()
+        session.allocatePTY(term, cols, rows, 0, 0, Collections.<PTYMode, Integer>emptyMap())
+        Session.Shell shell = session.startShell()
+
+        new Terminal(
+                name: name,
+                output: shell.getInputStream(),
+                error: shell.getErrorStream(),
+                input: shell.getOutputStream(),
+                isOpen: { shell.isOpen() },
+                resize: { int c, int r -> shell.changeWindowDimensions(c, r, 0, 0) },
+                close: { if( session.isOpen() ) session.close() } )
+    }
+
+    /**
+     * Start the console, it returns when all the terminals have been closed or the user enters {@code ~.}
+     */
+    void launch() {
+
+        checkSize()
+        running = true
+
+        def threads = []
+        def count = Math.min(ioThreads, terminals.size())
+        count.times { int index ->
+            def share = (0..<terminals.size()).findAll { int it -> it % count == index } .collect { int it -> terminals[it] }
+            def thread = new Thread( { pumpOutput(share) } as Runnable, "console-output-${index}" )
+            thread.setDaemon(true)
+            thread.start()
+            threads << thread
+        }
+
+        def prevSigInt = installSignalHandler('INT', 3)
+        def prevSigStop = SshConsole.isWindowsOS ? null : installSignalHandler('TSTP', 0x1A)
+        try {
+            readKeyboard()
+        }
+        finally {
+            running = false
+            threads.each { Thread it -> it.join(1000) }
+            terminals.each { Terminal it -> closeQuietly(it) }
+            if( prevSigStop ) Signal.handle(new Signal("TSTP"), prevSigStop)
+            if( prevSigInt ) Signal.handle(new Signal("INT"), prevSigInt)
+        }
+    }
+
+    /**
+     * Send the keystrokes to all the open terminals
+     */
+    protected void readKeyboard() {
+
+        def buffer = new byte[1024]
+        boolean lineStart = true
+        boolean tilde = false
+
+        while( isAnyOpen() ) {
+
+            if( keyboard.available() <= 0 ) {
+                checkSize()
+                view.refresh(cols, rows)
+                Thread.sleep(keyboardPoll)
+                continue
+            }
+
+            int len = keyboard.read(buffer, 0, Math.min(buffer.length, keyboard.available()))
+            if( len == -1 ) {
+                log.debug "Keyboard input terminated"
+                break
+            }
+
+            def data = new ByteArrayOutputStream(len+1)
+            for( int i=0; i<len; i++ ) {
+                int ch = buffer[i] & 0xFF
+
+                // the escape sequence '~.' at the beginning of a line closes the console
+                if( tilde ) {
+                    tilde = false
+                    if( ch == DOT ) {
+                        log.debug "Console closed by the user"
+                        if( data.size() ) broadcast(data.toByteArray())
+                        return
+                    }
+                    data.write(TILDE)
+                }
+                else if( lineStart && ch == TILDE ) {
+                    tilde = true
+                    continue
+                }
+
+                // Java returns 0xA (line feed) pressing the enter key, but the remote terminal expects 0xD (carriage return)
+                if( ch == LF ) { ch = CR }
+                lineStart = ch == CR
+                data.write(ch)
+            }
+
+            if( data.size() ) {
+                broadcast(data.toByteArray())
+            }
+        }
+    }
+
+    /**
+     * Write the specified bytes to all the open terminals
+     */
+    protected void broadcast( byte[] data ) {
+        terminals.each { Terminal term ->
+            if( term.closed ) { return }
+            try {
+                term.input.write(data)
+                term.input.flush()
+            }
+            catch( IOException e ) {
+                log.debug "Cannot write to terminal: ${term.name} -- ${e.getMessage()}"
+                markClosed(term)
+            }
+        }
+    }
+
+    /**
+     * Read the output of the specified terminals until the console is running
+     */
+    protected void pumpOutput( List<Terminal> share ) {
+
+        def buffer = new byte[8 * 1024]
+        long wait = 1
+        try {
+            while( running ) {
+                boolean received = false
+                for( Terminal term : share ) {
+                    if( term.closed ) { continue }
+
+                    if( pump(term, term.output, buffer) | pump(term, term.error, buffer) ) {
+                        received = true
+                    }
+                    else {
+                        view.onIdle(term.name, System.currentTimeMillis() - term.lastOutput)
+                    }
+
+                    if( !term.closed && !term.isOpen.call() && !available(term) ) {
+                        markClosed(term)
+                    }
+                }
+
+                if( received ) {
+                    wait = 1
+                }
+                else if( share.every { Terminal it -> it.closed } ) {
+                    break
+                }
+                else {
+                    Thread.sleep(wait)
+                    wait = Math.min(wait * 2, maxIdleWait)
+                }
+            }
+        }
+        catch( InterruptedException e ) {
+            log.debug "Console output thread interrupted"
+        }
+    }
+
+    /**
+     * Read the output available on the stream without blocking
+     *
+     * @return {@code true} when some bytes have been read
+     */
+    private boolean pump( Terminal term, InputStream stream, byte[] buffer ) {
+        if( stream == null ) {
+            return false
+        }
+
+        try {
+            int available = stream.available()
+            if( available <= 0 ) {
+                return false
+            }
+
+            int len = stream.read(buffer, 0, Math.min(available, buffer.length))
+            if( len == -1 ) {
+                markClosed(term)
+                return false
+            }
+
+            term.lastOutput = System.currentTimeMillis()
+            view.onOutput(term.name, buffer, len)
+            return true
+        }
+        catch( IOException e ) {
+            log.debug "Cannot read from terminal: ${term.name} -- ${e.getMessage()}"
+            markClosed(term)
+            return false
+        }
+    }
+
+    static private boolean available( Terminal term ) {
+        try {
+            return term.output.available() > 0 || (term.error && term.error.available() > 0)
+        }
+        catch( IOException e ) {
+            return false
+        }
+    }
+
+    private void markClosed( Terminal term ) {
+        synchronized (term) {
+            if( term.closed ) { return }
+            term.closed = true
+        }
+        view.onClose(term.name)
+    }
+
+    private boolean isAnyOpen() {
+        terminals.any { Terminal it -> !it.closed }
+    }
+
+    /**
+     * Resize the remote terminals as the local one changes
+     */
+    private void checkSize() {
+        if( !console ) { return }
+
+        int _rows = console.getTermheight()
+        int _cols = console.getTermwidth()
+        if( _rows == rows && _cols == cols ) {
+            return
+        }
+
+        rows = _rows; cols = _cols
+        terminals.each { Terminal term ->
+            if( term.closed || !term.resize ) { return }
+            try {
+                term.resize.call(cols, rows)
+            }
+            catch( Exception e ) {
+                log.debug "Cannot resize terminal: ${term.name} -- ${e.getMessage()}"
+            }
+        }
+    }
+
+    private installSignalHandler( String name, int code ) {
+        try {
+            Signal.handle(new Signal(name), new SignalHandler() { @Override void handle(Signal signal) {
+                broadcast([code] as byte[])
+            }} )
+        }
+        catch( Exception e ) {
+            log.warn("Cannot install term signal handler '${name}'", e)
+            return null
+        }
+    }
+
+    static private void closeQuietly( Terminal term ) {
+        try {
+            term.close?.call()
+        }
+        catch( Exception e ) {
+            log.debug "Error closing terminal: ${term.name} -- ${e.getMessage()}"
+        }
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import com.google.common.hash.Hashing
+import com.google.common.io.ByteStreams
+import com.google.common.io.Files
+import groovy.util.logging.Slf4j
+import org.jclouds.compute.domain.ExecResponse
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.ExecutorService
+
+/**
+ * Copy a file to many nodes uploading it only to a few 'seed' nodes, the nodes having a copy forward it
+ * to the others, so that the copies spread as a tree inside the cluster network.
+ * <p>
+ * The transfer is checked by comparing the SHA-1 of each chunk of the file. The bad chunks are sent again,
+ * a target whose relays keep failing is copied directly from the client and a relay node that keeps failing
+ * is not used any more.
+ * <p>
+ * This class implements only the scheduling of the transfers, the transfers are implemented by the subclasses,
+ * see {@link #seed(java.lang.Object)}, {@link #relay(java.lang.Object, java.lang.Object)} and {@link #direct(java.lang.Object)}
+ */
+@Slf4j
+abstract class BroadcastCopy {
+
+    /** The number of nodes to which the file is uploaded by the client */
+    int seeds = 1
+
+    /** The number of the copies a node can forward at the same time */
+    int fanout = 2
+
+    /** The number of relays tried for each node before copying it directly */
+    int maxAttempts = 2
+
+    /** The number of failed relays after which a node is not used to forward the copies */
+    int maxRelayFailures = 2
+
+    final protected ExecutorService executor
+
+    BroadcastCopy( ExecutorService executor ) {
+        this.executor = executor
+    }
+
+    /** Upload the file from the client to the specified node */
+    abstract protected boolean seed( def node )
+
+    /** Forward the file from the node {@code source} to the node {@code target} */
+    abstract protected boolean relay( def source, def target )
+
+    /** Copy the file from the client, when relaying it failed */
+    protected boolean direct( def node ) { seed(node) }
+
+    /**
+     * Copy the file to all the specified nodes
+     *
+     * @return The response for each node, the exit status is not zero for the nodes on which the copy failed
+     */
+    Map<Object,ExecResponse> copy( Collection nodes ) {
+
+        def result = new LinkedHashMap<Object,ExecResponse>()
+        def pending = new LinkedList(nodes)
+        def slots = new LinkedHashMap<Object,Integer>()
+        def attempts = [:]
+        def failures = [:]
+        def tried = [:]
+        def service = new ExecutorCompletionService<Map>(executor)
+        int running = 0
+
+        def submit = { String kind, def source, def target ->
+            running++
+            service.submit( {
+                boolean ok
+                try {
+                    ok = kind == 'relay' ? relay(source, target) : (kind == 'seed' ? seed(target) : direct(target))
+                }
+                catch( Exception e ) {
+                    log.debug("Failed ${kind} copy to node: ${target}", e)
+                    ok = false
+                }
+                [kind: kind, source: source, target: target, ok: ok]
+            } as Callable<Map> )
+        }
+
+        // the client uploads the file to the seeds
+        Math.min(Math.max(seeds,1), pending.size()).times { submit('seed', null, pending.poll()) }
+
+        while( running > 0 ) {
+            def done = service.take().get()
+            running--
+
+            def target = done.target
+            if( done.source != null ) {
+                // the relay node can forward another copy, unless it failed too many times
+                def source = done.source
+                if( !done.ok && (failures[source] = (failures[source] ?: 0) + 1) >= maxRelayFailures ) {
+                    log.debug "Node ${source} excluded from relays"
+                    slots.remove(source)
+                }
+                else if( slots.containsKey(source) ) {
+                    slots[source] = slots[source] + 1
+                }
+            }
+
+            if( done.ok ) {
+                result[target] = new ExecResponse("OK", null, 0)
+                slots[target] = fanout
+            }
+            else if( done.kind == 'relay' && (attempts[target] = (attempts[target] ?: 0) + 1) < maxAttempts ) {
+                pending.addFirst(target)
+            }
+            else if( done.kind == 'relay' ) {
+                log.debug "Relays to node ${target} failed, copying it directly"
+                submit('direct', null, target)
+            }
+            else {
+                result[target] = new ExecResponse("ERR", "Cannot copy file to node: ${target}", 1)
+            }
+
+            /*
+             * each node having a copy forwards it to the pending ones
+             */
+            def sources = slots.keySet().toList()
+            for( def source : sources ) {
+                while( pending && slots[source] > 0 ) {
+                    // a failed copy is tried again from a different node
+                    def next = pending.find { !(source in (tried[it] ?: [])) }
+                    if( next == null ) break
+                    pending.remove(next)
+                    tried.get(next, []).add(source)
+                    slots[source] = slots[source] - 1
+                    submit('relay', source, next)
+                }
+            }
+
+            // no node can forward the copy, the client has to upload it
+            if( running == 0 && pending ) {
+                def next = pending.poll()
+                submit(tried[next] ? 'direct' : 'seed', null, next)
+            }
+        }
+
+        return result
+    }
+
+    /**
+     * Describe the chunks of a file
+     */
+    static class Manifest {
+
+        long size
+
+        int chunkSize
+
+        List<String> checksums
+
+        int getChunks() { checksums.size() }
+
+        static Manifest create( File file, int chunkSize ) {
+            assert chunkSize > 0
+            def result = new Manifest(size: file.length(), chunkSize: chunkSize, checksums: [])
+            long offset = 0
+            while( offset < result.size || offset == 0 ) {
+                def chunk = ByteStreams.slice(Files.newInputStreamSupplier(file), offset, chunkSize)
+                result.checksums << ByteStreams.hash(chunk, Hashing.sha1()).toString()
+                offset += chunkSize
+            }
+            return result
+        }
+
+        /**
+         * @return The shell script printing the SHA-1 of each chunk of the specified file
+         */
+        String checksumScript( String path ) {
+            def file = "'${path.replace("'","'\\''")}'"
+            "[ \$(stat -c %s ${file}) = ${size} ] || exit 1; " +
+            "for ((i=0;i<${chunks};i++)); do dd if=${file} bs=${chunkSize} skip=\$i count=1 2>/dev/null | sha1sum | cut -c1-40; done"
+        }
+
+        /**
+         * @return The index of the chunks whose checksum does not match, all of them when the
+         *  file size does not match
+         */
+        List<Integer> badChunks( ExecResponse response ) {
+            if( response.getExitCode() ) {
+                return (0..<chunks).toList()
+            }
+            def lines = response.getOutput()?.readLines()?.findAll { it.trim() } ?: []
+            def result = []
+            for( int i=0; i<chunks; i++ ) {
+                if( i >= lines.size() || lines[i].trim() != checksums[i] ) {
+                    result << i
+                }
+            }
+            return result
+        }
+    }
+
+}
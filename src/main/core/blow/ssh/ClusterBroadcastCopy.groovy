@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import blow.BlowSession
+import blow.BlowSession.BlowNodeMetadata
+import com.jcraft.jsch.JSch
+import com.jcraft.jsch.KeyPair
+import groovy.util.logging.Slf4j
+import org.jclouds.compute.domain.ExecResponse
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+
+/**
+ * Copy a file to the cluster nodes by using the nodes as relays, see {@link BroadcastCopy}.
+ * <p>
+ * The nodes forward the file to each other by using {@code scp} over their private addresses. To do that a
+ * temporary key pair is created: the public key is authorized on all the target nodes and the private key
+ * is copied on them, both are removed when the copy completes.
+ */
+@Slf4j
+class ClusterBroadcastCopy extends BroadcastCopy {
+
+    static final int DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024
+
+    final private BlowSession session
+
+    final private File file
+
+    final private String targetPath
+
+    final private String partPath
+
+    final private String keyName
+
+    final private String user
+
+    @Lazy
+    private Manifest manifest = Manifest.create(file, chunkSize)
+
+    int chunkSize = DEFAULT_CHUNK_SIZE
+
+    ClusterBroadcastCopy( BlowSession session, ExecutorService executor, File file, String targetPath ) {
+        super(executor)
+        this.session = session
+        this.file = file
+        this.targetPath = targetPath
+        this.partPath = "${targetPath}.blow-part"
+        this.keyName = "blow-relay-${Long.toHexString(System.nanoTime())}"
+        this.user = session.conf.userName
+    }
+
+    @Override
+    Map<Object,ExecResponse> copy( Collection nodes ) {
+        // compute the checksums before starting
+        log.debug "Broadcasting file: '${file}' (${file.length()} bytes, ${manifest.chunks} chunks) to ${nodes.size()} nodes"
+
+        def ready = installKeys(nodes)
+        try {
+            def result = super.copy(ready)
+            // the nodes that cannot take part to the relays are copied from the client
+            result.putAll( copyDirect(nodes.findAll { !(it in ready) }) )
+            return result
+        }
+        finally {
+            removeKeys(nodes)
+        }
+    }
+
+    @Override
+    protected boolean seed( def node ) {
+        session.copyToNode(file, partPath, node as BlowNodeMetadata)
+        return verify(null, node as BlowNodeMetadata)
+    }
+
+    @Override
+    protected boolean relay( def source, def target ) {
+        def from = source as BlowNodeMetadata
+        def to = target as BlowNodeMetadata
+
+        def response = exec(from, "scp -q ${sshOptions()} ${quote(targetPath)} ${user}@${address(to)}:${quote(partPath)}")
+        if( response.getExitCode() ) {
+            log.debug "Relay ${from.getNodeName()} -> ${to.getNodeName()} failed -- ${response.getError()}"
+            return false
+        }
+
+        return verify(from, to)
+    }
+
+    /**
+     * Check the chunks received by the node, the bad chunks are sent again one time.
+     * When all of them are good the file is renamed to the target path
+     *
+     * @param source The node from which the file has been received, {@code null} for the client
+     * @param target The node to check
+     */
+    protected boolean verify( BlowNodeMetadata source, BlowNodeMetadata target ) {
+        def bad = manifest.badChunks( exec(target, manifest.checksumScript(partPath)) )
+        if( bad && bad.size() < manifest.chunks && source ) {
+            log.debug "Node ${target.getNodeName()} received ${bad.size()} bad chunk(s), sending them again"
+            bad.each { int index -> repair(source, target, index) }
+            bad = manifest.badChunks( exec(target, manifest.checksumScript(partPath)) )
+        }
+
+        if( bad ) {
+            log.debug "Node ${target.getNodeName()} has ${bad.size()} bad chunk(s) after the copy"
+            return false
+        }
+
+        exec(target, "mv -f ${quote(partPath)} ${quote(targetPath)}").getExitCode() == 0
+    }
+
+    private void repair( BlowNodeMetadata source, BlowNodeMetadata target, int index ) {
+        def read = "dd if=${quote(targetPath)} bs=${manifest.chunkSize} skip=${index} count=1 2>/dev/null"
+        def write = "dd of=${quote(partPath)} bs=${manifest.chunkSize} seek=${index} conv=notrunc 2>/dev/null"
+        exec(source, "${read} | ssh ${sshOptions()} ${user}@${address(target)} ${quote(write)}")
+    }
+
+    /**
+     * Authorize the temporary key on the nodes
+     *
+     * @return The nodes on which the key has been installed
+     */
+    private List installKeys( Collection nodes ) {
+        def pair = KeyPair.genKeyPair(new JSch(), KeyPair.RSA, 2048)
+        def privateKey = new ByteArrayOutputStream()
+        def publicKey = new ByteArrayOutputStream()
+        pair.writePrivateKey(privateKey)
+        pair.writePublicKey(publicKey, keyName)
+        pair.dispose()
+
+        def script = new StringBuilder()
+        script << "mkdir -p ~/.ssh && chmod 700 ~/.ssh\n"
+        script << "echo '${publicKey.toString().trim()}' >> ~/.ssh/authorized_keys\n"
+        script << "cat > ~/.ssh/${keyName} <<'EOF'\n" << privateKey.toString().trim() << "\nEOF\n"
+        script << "chmod 600 ~/.ssh/${keyName}\n"
+
+        def responses = execOnAll(nodes, script.toString())
+        def result = []
+        responses.each { BlowNodeMetadata node, ExecResponse response ->
+            if( response.getExitCode() == 0 ) {
+                result << node
+            }
+            else {
+                log.warn "Cannot prepare node ${node.getNodeName()} for the broadcast copy"
+            }
+        }
+        return result
+    }
+
+    /**
+     * Copy the file from the client to the specified nodes in parallel
+     *
+     * @return The response for each node, as {@link BroadcastCopy#copy(java.util.Collection)}
+     */
+    private Map<Object,ExecResponse> copyDirect( Collection nodes ) {
+        def tasks = nodes.collect { node -> { -> directCopy(node) } as Callable<ExecResponse> }
+        def futures = executor.invokeAll(tasks)
+
+        def result = new LinkedHashMap<Object,ExecResponse>()
+        nodes.eachWithIndex { node, int i -> result.put(node, futures[i].get()) }
+        return result
+    }
+
+    private ExecResponse directCopy( def node ) {
+        try {
+            if( direct(node) ) {
+                return new ExecResponse("OK", null, 0)
+            }
+        }
+        catch( Exception e ) {
+            log.debug("Failed direct copy to node: ${node}", e)
+        }
+        return new ExecResponse("ERR", "Cannot copy file to node: ${node}", 1)
+    }
+
+    private void removeKeys( Collection nodes ) {
+        execOnAll(nodes, "sed -i '/ ${keyName}\$/d' ~/.ssh/authorized_keys; rm -f ~/.ssh/${keyName} ${quote(partPath)}")
+    }
+
+    /**
+     * Run the same script on all the nodes in parallel
+     */
+    private Map<BlowNodeMetadata,ExecResponse> execOnAll( Collection nodes, String script ) {
+        def tasks = nodes.collect { BlowNodeMetadata node -> { -> exec(node, script) } as Callable<ExecResponse> }
+        def futures = executor.invokeAll(tasks)
+
+        def result = new LinkedHashMap<BlowNodeMetadata,ExecResponse>()
+        nodes.eachWithIndex { BlowNodeMetadata node, int i -> result.put(node, futures[i].get()) }
+        return result
+    }
+
+    private ExecResponse exec( BlowNodeMetadata node, String script ) {
+        try {
+            return session.execOnNode(script, node, false)
+        }
+        catch( Exception e ) {
+            log.debug("Failed execution on node: ${node.getNodeName()}", e)
+            return new ExecResponse("ERR", e.getMessage(), 1)
+        }
+    }
+
+    private String sshOptions() {
+        "-i ~/.ssh/${keyName} -o BatchMode=yes -o StrictHostKeyChecking=no -o UserKnownHostsFile=/dev/null"
+    }
+
+    /**
+     * @return The node private address, the copies between the nodes use the cluster internal network
+     */
+    static private String address( BlowNodeMetadata node ) {
+        node.getPrivateAddresses()?.find() ?: node.getNodeIp()
+    }
+
+    static private String quote( String str ) {
+        "'${str.replace("'","'\\''")}'"
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import org.jclouds.compute.domain.ExecResponse
+
+/**
+ * Print the output of the nodes as it arrives, each line prefixed by the node name.
+ * <p>
+ * A node failure is reported as soon as the node terminates, {@link #printSummary()} prints
+ * the failed nodes in the order they terminated
+ */
+class ConsolePrinter implements OutputListener {
+
+    final private PrintStream out
+
+    final private PrintStream err
+
+    final private List<String> failed = []
+
+    final private List<String> completed = []
+
+    /** The padding of the node names, so that the output of the nodes is aligned */
+    int width
+
+    ConsolePrinter( PrintStream out = System.out, PrintStream err = System.err ) {
+        this.out = out
+        this.err = err
+    }
+
+    @Override
+    void onLine( String node, String line, boolean error ) {
+        def text = "[${node.padRight(width)}] ${line}".toString()
+        // the same lock for both streams, so that the lines of different nodes are not mixed
+        synchronized (this) {
+            if( error ) {
+                out.flush()
+                err.println(text)
+                err.flush()
+            }
+            else {
+                out.println(text)
+            }
+        }
+    }
+
+    @Override
+    synchronized void onComplete( String node, ExecResponse response ) {
+        completed << node
+        if( response.getExitCode() ) {
+            failed << node
+            out.println "** Node '${node}' failed with exit status ${response.getExitCode()}" + (failed.size() == 1 ? " (first failure)" : '')
+            out.flush()
+        }
+    }
+
+    /**
+     * @return The nodes that failed, in the order they terminated
+     */
+    synchronized List<String> getFailed() { new ArrayList<String>(failed) }
+
+    synchronized void printSummary() {
+        if( failed ) {
+            out.println "** ${failed.size()} of ${completed.size()} node(s) failed: ${failed.join(', ')}"
+        }
+        out.flush()
+    }
+
+}
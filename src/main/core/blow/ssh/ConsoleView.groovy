@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+/**
+ * Show the output of the terminals opened by a {@link BroadcastConsole}.
+ * <p>
+ * The methods are invoked concurrently by the console threads, but never at the same time for the same node
+ */
+interface ConsoleView {
+
+    /**
+     * Some output has been received from a node
+     *
+     * @param node The name of the node
+     * @param buffer The received bytes
+     * @param len The number of bytes in the buffer
+     */
+    void onOutput( String node, byte[] buffer, int len )
+
+    /**
+     * A node has no more output available at the moment, so a partial line can be shown
+     *
+     * @param node The name of the node
+     * @param idleMillis The time elapsed since the last output of the node
+     */
+    void onIdle( String node, long idleMillis )
+
+    /**
+     * The terminal of a node has been closed
+     */
+    void onClose( String node )
+
+    /**
+     * Called periodically by the thread reading the keyboard, to update the screen when required
+     *
+     * @param cols The number of columns of the local terminal
+     * @param rows The number of rows of the local terminal
+     */
+    void refresh( int cols, int rows )
+
+}
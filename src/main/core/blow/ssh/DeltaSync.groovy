@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import blow.util.RollingCksum
+import com.google.common.hash.Hashing
+import com.google.common.io.Files
+import groovy.util.logging.Slf4j
+
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Copy files to a remote host sending only what is changed.
+ * <p>
+ * A remote file with the same size and modification time of the local one is skipped. Otherwise the remote host
+ * computes the {@code cksum} and the MD5 of each block of its copy, the local file is scanned with a rolling
+ * checksum to find the blocks it still contains at any offset, and only the remaining data is uploaded together
+ * with a script that rebuilds the file from the old blocks and the new data.
+ * <p>
+ * The remote host requires only {@code bash} and the coreutils commands.
+ */
+@Slf4j
+class DeltaSync {
+
+    /**
+     * The transfer statistics
+     */
+    static class Stats {
+        int files
+        int skipped
+        int delta
+        int full
+        long bytes
+        long sent
+
+        String toString() { "files: ${files}; skipped: ${skipped}; delta: ${delta}; full: ${full}; sent ${sent} of ${bytes} bytes" }
+    }
+
+    static private class Block {
+        int index
+        String md5
+    }
+
+    final private RemoteFiles remote
+
+    /** When the size and time are different but the size matches, compare the MD5 before copying */
+    boolean checksum = true
+
+    /** Remote files smaller than this are always copied entirely */
+    long minDeltaSize = 64 * 1024
+
+    /** Remote files having more blocks than this are always copied entirely */
+    int maxBlocks = 16 * 1024
+
+    final Stats stats = new Stats()
+
+    DeltaSync( RemoteFiles remote ) {
+        this.remote = remote
+    }
+
+    /**
+     * Sync a file or a directory tree to the remote path
+     */
+    Stats sync( File local, String remotePath ) {
+        if( local.isDirectory() ) {
+            syncTree(local, remotePath)
+        }
+        else {
+            syncFile(local, remotePath)
+        }
+        return stats
+    }
+
+    protected void syncTree( File dir, String remoteDir ) {
+        remote.mkdirs(remoteDir)
+        dir.listFiles().sort { it.name }.each { File file ->
+            def target = "${remoteDir}/${file.name}".toString()
+            if( file.isDirectory() ) {
+                syncTree(file, target)
+            }
+            else {
+                syncFile(file, target)
+            }
+        }
+    }
+
+    protected void syncFile( File file, String remotePath ) {
+        stats.files++
+        stats.bytes += file.length()
+
+        def mtime = file.lastModified().intdiv(1000) as long
+        def current = remote.stat(remotePath)
+        if( current && current.size == file.length() && current.mtime == mtime ) {
+            log.trace "Skipping unchanged file: '${remotePath}'"
+            stats.skipped++
+            return
+        }
+
+        if( current && current.size == file.length() && checksum && md5(file) == remoteMd5(remotePath) ) {
+            log.trace "Skipping file with same content: '${remotePath}'"
+            remote.setMtime(remotePath, mtime)
+            stats.skipped++
+            return
+        }
+
+        if( !current || current.size < minDeltaSize || file.length() > Integer.MAX_VALUE || !delta(file, remotePath, current.size as long) ) {
+            log.trace "Uploading file: '${remotePath}'"
+            remote.upload(file, remotePath)
+            stats.full++
+            stats.sent += file.length()
+        }
+
+        remote.setMtime(remotePath, mtime)
+    }
+
+    /**
+     * Update the remote file sending only the data not found in the remote copy
+     *
+     * @return {@code false} when the remote file has not been updated
+     */
+    protected boolean delta( File file, String remotePath, long remoteSize ) {
+        int blockSize = blockSize(remoteSize)
+        def blocks = signature(remotePath, remoteSize, blockSize)
+        if( blocks == null ) {
+            return false
+        }
+
+        def literals = File.createTempFile('blow-delta', '.dat')
+        def script = new StringBuilder()
+        try {
+            long literalSize = 0
+            def output = new BufferedOutputStream(new FileOutputStream(literals))
+            try {
+                literalSize = match(file, blockSize, blocks, output, script, remotePath)
+            }
+            finally {
+                output.close()
+            }
+
+            if( literalSize > file.length() / 2 ) {
+                // not worth
+                return false
+            }
+
+            def literalsPath = "${remotePath}.blow-lit"
+            def scriptPath = "${remotePath}.blow-sh"
+            def rebuild = new StringBuilder()
+            rebuild << "set -e\n"
+            rebuild << "exec 3< ${quote(literalsPath)}\n"
+            rebuild << "{\n" << script << "} > ${quote(remotePath + '.blow-part')}\n"
+            rebuild << "exec 3<&-\n"
+            rebuild << "[ \$(md5sum < ${quote(remotePath + '.blow-part')} | cut -c1-32) = ${md5(file)} ]\n"
+            rebuild << "chmod --reference=${quote(remotePath)} ${quote(remotePath + '.blow-part')}\n"
+            rebuild << "mv -f ${quote(remotePath + '.blow-part')} ${quote(remotePath)}\n"
+
+            def scriptFile = File.createTempFile('blow-delta', '.sh')
+            try {
+                scriptFile.text = rebuild.toString()
+                remote.upload(literals, literalsPath)
+                remote.upload(scriptFile, scriptPath)
+            }
+            finally {
+                scriptFile.delete()
+            }
+
+            def result = remote.exec("bash ${quote(scriptPath)}; ret=\$?; rm -f ${quote(scriptPath)} ${quote(literalsPath)} ${quote(remotePath + '.blow-part')}; exit \$ret")
+            if( result.getExitCode() ) {
+                log.debug "Delta update failed for file: '${remotePath}' -- ${result.getError()}"
+                return false
+            }
+
+            stats.delta++
+            stats.sent += literalSize
+            return true
+        }
+        finally {
+            literals.delete()
+        }
+    }
+
+    /**
+     * Get the checksums of the remote file blocks. The file is read once and split in a temporary directory
+     * next to it, so that a single {@code cksum} and a single {@code md5sum} process handle all the blocks
+     *
+     * @return A map associating the {@code cksum} of each block to the blocks having it, {@code null} on error
+     * or when the file has more than {@link #maxBlocks} blocks
+     */
+    protected Map<Long,List<Block>> signature( String remotePath, long remoteSize, int blockSize ) {
+        int count = remoteSize.intdiv(blockSize) as int
+        if( count > maxBlocks ) {
+            log.trace "Too many blocks (${count}) to delta update file: '${remotePath}'"
+            return null
+        }
+
+        def script = "f=${quote(remotePath)}; d=\$(mktemp -d \"\$f.blow-sig.XXXXXX\") || exit 1; trap 'rm -rf \"\$d\"' EXIT; " +
+                "head -c ${(long)count * blockSize} \"\$f\" | split -a 8 -d -b ${blockSize} - \"\$d/b.\" && " +
+                "( cd \"\$d\" && cksum b.* | cut -d' ' -f1 > crc && md5sum b.* | cut -c1-32 > md5 && paste -d' ' crc md5 )"
+
+        def response = remote.exec(script)
+        def lines = response.getOutput()?.readLines()?.findAll { it.trim() }
+        if( response.getExitCode() || lines?.size() != count ) {
+            log.debug "Cannot get the signature of file: '${remotePath}' -- ${response.getError()}"
+            return null
+        }
+
+        def result = new HashMap<Long,List<Block>>()
+        lines.eachWithIndex { String line, int index ->
+            def items = line.trim().split(' ')
+            result.get(items[0] as long, []).add(new Block(index: index, md5: items[1]))
+        }
+        return result
+    }
+
+    /**
+     * Scan the local file looking for the remote blocks. The data not found is written to {@code literals},
+     * the commands to rebuild the file are appended to {@code script}
+     *
+     * @return The number of bytes written to {@code literals}
+     */
+    protected long match( File file, int blockSize, Map<Long,List<Block>> blocks, OutputStream literals, StringBuilder script, String remotePath ) {
+
+        def channel = new RandomAccessFile(file, 'r').getChannel()
+        try {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, file.length())
+            int length = (int)file.length()
+            def roller = new RollingCksum(blockSize)
+            def window = new byte[blockSize]
+
+            long literalSize = 0
+            int literalStart = 0
+            int copyFirst = -1
+            int copyCount = 0
+
+            int pos = 0
+            while( pos + blockSize <= length ) {
+                if( !roller.isFull() ) {
+                    for( int i=pos; i<pos+blockSize; i++ ) roller.roll(data.get(i))
+                }
+
+                Block found = null
+                def candidates = blocks.get(roller.getValue())
+                if( candidates ) {
+                    // the weak checksum matches, confirm it with the MD5
+                    data.position(pos)
+                    data.get(window, 0, blockSize)
+                    def md5 = Hashing.md5().hashBytes(window).toString()
+                    found = candidates.find { it.md5 == md5 }
+                }
+
+                if( found ) {
+                    if( pos > literalStart ) {
+                        flushCopy(script, remotePath, blockSize, copyFirst, copyCount)
+                        copyFirst = -1
+                        literalSize += writeLiteral(data, literalStart, pos, literals, script)
+                    }
+                    if( copyFirst >= 0 && copyFirst + copyCount == found.index ) {
+                        copyCount++
+                    }
+                    else {
+                        flushCopy(script, remotePath, blockSize, copyFirst, copyCount)
+                        copyFirst = found.index
+                        copyCount = 1
+                    }
+                    pos += blockSize
+                    literalStart = pos
+                    roller.reset()
+                }
+                else if( pos + blockSize < length ) {
+                    // move the window one byte forward
+                    roller.roll(data.get(pos + blockSize))
+                    pos++
+                }
+                else {
+                    break
+                }
+            }
+
+            flushCopy(script, remotePath, blockSize, copyFirst, copyCount)
+            if( length > literalStart ) {
+                literalSize += writeLiteral(data, literalStart, length, literals, script)
+            }
+            return literalSize
+        }
+        finally {
+            channel.close()
+        }
+    }
+
+    static private void flushCopy( StringBuilder script, String remotePath, int blockSize, int first, int count ) {
+        if( first >= 0 && count > 0 ) {
+            script << "dd if=${quote(remotePath)} bs=${blockSize} skip=${first} count=${count} 2>/dev/null\n"
+        }
+    }
+
+    static private long writeLiteral( MappedByteBuffer data, int from, int to, OutputStream literals, StringBuilder script ) {
+        def buffer = new byte[ Math.min(to - from, 64 * 1024) ]
+        int pos = from
+        while( pos < to ) {
+            int len = Math.min(buffer.length, to - pos)
+            data.position(pos)
+            data.get(buffer, 0, len)
+            literals.write(buffer, 0, len)
+            pos += len
+        }
+        script << "head -c ${to - from} <&3\n"
+        return to - from
+    }
+
+    /**
+     * The block size grows with the square root of the file size, as in rsync
+     */
+    static protected int blockSize( long size ) {
+        int result = 1024
+        while( result < 1024 * 1024 && (long)result * result < size ) {
+            result *= 2
+        }
+        return result
+    }
+
+    protected String remoteMd5( String remotePath ) {
+        def response = remote.exec("md5sum < ${quote(remotePath)} | cut -c1-32")
+        response.getExitCode() ? null : response.getOutput()?.trim()
+    }
+
+    static protected String md5( File file ) {
+        Files.hash(file, Hashing.md5()).toString()
+    }
+
+    static private String quote( String str ) {
+        "'${str.replace("'","'\\''")}'"
+    }
+
+}
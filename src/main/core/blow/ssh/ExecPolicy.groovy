@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import blow.exception.BlowConfigException
+
+/**
+ * Define how a script is executed on a set of nodes, see {@link RollingExecutor}.
+ * <p>
+ * A policy is declared in the cluster configuration as a map, for example:
+ * <pre>
+ *     execPolicy (maxInFlight: 20, wave: 25, failFast: 3, timeout: 600, speculative: 2)
+ * </pre>
+ * The attributes not specified, or equals to {@code 0}, do not put any limit.
+ */
+class ExecPolicy {
+
+    static final ExecPolicy DEFAULT = new ExecPolicy()
+
+    /** The max number of nodes on which the script is running at the same time */
+    int maxInFlight
+
+    /**
+     * The percentage of the nodes in each wave, a wave starts only when all the nodes
+     * of the previous one have completed
+     */
+    int wave
+
+    /** The number of failed nodes after which the script is not started on the remaining ones */
+    int failFast
+
+    /** The max number of seconds the script can run on each node, after that it is stopped and exits with status 124 */
+    int timeout
+
+    /**
+     * The script is started a second time on the nodes running longer than this factor
+     * multiplied by the median time of the nodes already completed. The first execution to complete wins,
+     * so it has to be used only for scripts that can be run twice at the same time
+     */
+    double speculative
+
+    /**
+     * Create a policy from the map declared in the configuration
+     *
+     * @param values The policy attributes, it may be {@code null}
+     * @param defaults The policy providing the value of the attributes not specified, it may be {@code null}
+     * @throws BlowConfigException when the map contains an unknown attribute or a negative value
+     */
+    static ExecPolicy create( Map values, ExecPolicy defaults = null ) {
+
+        def result = new ExecPolicy()
+        if( defaults ) {
+            result.maxInFlight = defaults.maxInFlight
+            result.wave = defaults.wave
+            result.failFast = defaults.failFast
+            result.timeout = defaults.timeout
+            result.speculative = defaults.speculative
+        }
+
+        values?.each { key, value ->
+            if( !result.hasProperty(key as String) || key == 'class' ) {
+                throw new BlowConfigException("Unknown execution policy attribute: '${key}'")
+            }
+            if( !(value instanceof Number) || value < 0 ) {
+                throw new BlowConfigException("Invalid value for execution policy attribute '${key}': ${value}")
+            }
+            result.setProperty(key as String, value)
+        }
+
+        if( result.wave > 100 ) {
+            throw new BlowConfigException("The execution policy 'wave' attribute must be a percentage: ${result.wave}")
+        }
+
+        return result
+    }
+
+    /**
+     * @return The number of nodes in each wave, out of the specified total
+     */
+    int waveSize( int total ) {
+        if( !wave ) {
+            return total
+        }
+        Math.max(1, Math.ceil(total * wave / 100d) as int)
+    }
+
+    /**
+     * @return The max number of nodes running at the same time
+     */
+    int inFlight( int total ) {
+        maxInFlight ? Math.min(maxInFlight, total) : total
+    }
+
+    String toString() {
+        "maxInFlight: ${maxInFlight}; wave: ${wave}%; failFast: ${failFast}; timeout: ${timeout}s; speculative: ${speculative}"
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+/**
+ * An output stream splitting the written bytes in lines, each line is passed to the specified closure.
+ * <p>
+ * The memory used is bounded: a line longer than {@link #maxLineLength} bytes is split in more lines.
+ * The last line, if not terminated, is passed by {@link #close()}
+ */
+class LineOutputStream extends OutputStream {
+
+    static final int DEFAULT_MAX_LINE_LENGTH = 8 * 1024
+
+    final private Closure onLine
+
+    final private int maxLineLength
+
+    final private String charset
+
+    private byte[] buffer
+
+    private int count
+
+    private boolean closed
+
+    LineOutputStream( Closure onLine, int maxLineLength = DEFAULT_MAX_LINE_LENGTH, String charset = 'UTF-8' ) {
+        assert onLine
+        assert maxLineLength > 0
+        this.onLine = onLine
+        this.maxLineLength = maxLineLength
+        this.charset = charset
+        this.buffer = new byte[ Math.min(256, maxLineLength) ]
+    }
+
+    @Override
+    void write( int b ) {
+        if( b == '\n' as char ) {
+            emit()
+        }
+        else {
+            append( (byte)b )
+        }
+    }
+
+    @Override
+    void write( byte[] bytes, int off, int len ) {
+        int end = off + len
+        for( int i=off; i<end; i++ ) {
+            byte b = bytes[i]
+            if( b == (byte)10 ) {
+                emit()
+            }
+            else {
+                append(b)
+            }
+        }
+    }
+
+    @Override
+    void close() {
+        if( closed ) return
+        closed = true
+        if( count > 0 ) {
+            emit()
+        }
+    }
+
+    private void append( byte b ) {
+        if( count == maxLineLength ) {
+            emit()
+        }
+        if( count == buffer.length ) {
+            def copy = new byte[ Math.min(buffer.length * 2, maxLineLength) ]
+            System.arraycopy(buffer, 0, copy, 0, count)
+            buffer = copy
+        }
+        buffer[count++] = b
+    }
+
+    private void emit() {
+        // drop the carriage return of the DOS line terminator
+        int len = count > 0 && buffer[count-1] == (byte)13 ? count-1 : count
+        def line = new String(buffer, 0, len, charset)
+        count = 0
+        onLine.call(line)
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Show the output of all the nodes in the same stream, each line prefixed by the node name.
+ * <p>
+ * A line not yet terminated, like the shell prompt, is shown when the node does not send any more
+ * output for {@link #partialDelay} millis
+ */
+class MergedConsoleView implements ConsoleView {
+
+    final private ConsolePrinter printer
+
+    final private Map<String,ByteArrayOutputStream> partials = new ConcurrentHashMap<String, ByteArrayOutputStream>()
+
+    /** The millis after which a line not terminated is shown */
+    long partialDelay = 500
+
+    /** The max length of a line, longer lines are split */
+    int maxLineLength = LineOutputStream.DEFAULT_MAX_LINE_LENGTH
+
+    MergedConsoleView( Collection<String> nodes, PrintStream out = System.out ) {
+        printer = new ConsolePrinter(out, out)
+        printer.width = nodes ? nodes*.length().max() : 0
+        nodes?.each { String it -> partials.put(it, new ByteArrayOutputStream()) }
+    }
+
+    @Override
+    void onOutput( String node, byte[] buffer, int len ) {
+        def line = partial(node)
+        for( int i=0; i<len; i++ ) {
+            byte b = buffer[i]
+            if( b == (byte)10 ) {
+                emit(node, line)
+            }
+            else if( b != (byte)13 ) {
+                line.write(b)
+                if( line.size() >= maxLineLength ) {
+                    emit(node, line)
+                }
+            }
+        }
+    }
+
+    @Override
+    void onIdle( String node, long idleMillis ) {
+        def line = partials.get(node)
+        if( line?.size() && idleMillis >= partialDelay ) {
+            emit(node, line)
+        }
+    }
+
+    @Override
+    void onClose( String node ) {
+        def line = partials.get(node)
+        if( line?.size() ) {
+            emit(node, line)
+        }
+        printer.onLine(node, "** terminal closed", false)
+    }
+
+    @Override
+    void refresh( int cols, int rows ) { }
+
+    private ByteArrayOutputStream partial( String node ) {
+        def result = partials.get(node)
+        if( result == null ) {
+            result = new ByteArrayOutputStream()
+            partials.put(node, result)
+        }
+        return result
+    }
+
+    private void emit( String node, ByteArrayOutputStream line ) {
+        printer.onLine(node, line.toString('UTF-8'), false)
+        line.reset()
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import org.jclouds.compute.domain.ExecResponse
+
+/**
+ * Receive the output of a script running on the cluster nodes while it is produced.
+ * <p>
+ * The methods are invoked concurrently by the threads reading the output of the different nodes,
+ * implementations have to be thread safe
+ */
+interface OutputListener {
+
+    /**
+     * A line printed by the script
+     *
+     * @param node The name of the node
+     * @param line The line, without the line terminator
+     * @param error {@code true} when the line has been printed on the standard error
+     */
+    void onLine( String node, String line, boolean error )
+
+    /**
+     * The script terminated on a node
+     *
+     * @param node The name of the node
+     * @param response The script response, see {@link TailLines} about the output it holds
+     */
+    void onComplete( String node, ExecResponse response )
+
+}
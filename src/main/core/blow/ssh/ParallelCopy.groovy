@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import blow.exception.BlowException
+import com.google.common.hash.Hashing
+import com.google.common.io.Files
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingDeque
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Copy files to or from a remote host using many channels at the same time.
+ * <p>
+ * Large files are split in ranges and each range is written at its own offset by any of the channels, small
+ * files are copied entirely by the first free channel, so that many of them are in flight at the same time.
+ * <p>
+ * The completed ranges of each file are recorded in a checkpoint file, when a copy is interrupted running it again
+ * copies only the missing ranges. The checkpoint is discarded when the source file changes.
+ */
+@Slf4j
+class ParallelCopy {
+
+    /**
+     * The copy progress, see {@link #progress}
+     */
+    static class Progress {
+        int files
+        int completed
+        long total
+        long done
+        long resumed
+        long elapsed
+
+        /** The transfer rate in bytes per second */
+        long getRate() { elapsed ? ((done - resumed) * 1000).intdiv(elapsed) as long : 0 }
+
+        String toString() {
+            def perc = total ? (done * 100).intdiv(total) : 100
+            "${perc}% - ${completed} of ${files} file(s) - ${toMB(done)} of ${toMB(total)} MB - ${toMB(rate)} MB/s"
+        }
+
+        static private String toMB( long bytes ) { String.format('%.1f', bytes / (1024 * 1024)) }
+    }
+
+    static private class Item {
+        String source
+        String target
+        long size
+        Checkpoint checkpoint
+        AtomicInteger pending
+    }
+
+    static private class Range {
+        Item item
+        long offset
+        long length
+        int attempts
+        boolean whole
+    }
+
+    /** The number of channels used at the same time */
+    int streams = 4
+
+    /** The max size of a range of a large file */
+    long rangeSize = 16 * 1024 * 1024
+
+    /** The min size of a range, a file smaller than twice this value is never split */
+    long minRangeSize = 1024 * 1024
+
+    /** The number of times a range is tried before giving up */
+    int maxAttempts = 3
+
+    /** Check the MD5 of each file when copied */
+    boolean verify
+
+    /** The directory where the checkpoint files are saved */
+    File checkpointDir = new File(System.getProperty('java.io.tmpdir'), 'blow-fcp')
+
+    /** Invoked with a {@link Progress} instance every {@link #progressInterval} millis and when the copy completes */
+    Closure progress
+
+    long progressInterval = 1000
+
+    /** The name of the remote host, it identifies the checkpoints */
+    final String host
+
+    final private Closure<TransferChannel> connect
+
+    final private AtomicLong done = new AtomicLong()
+
+    final private AtomicInteger completed = new AtomicInteger()
+
+    final private List<String> errors = Collections.synchronizedList([])
+
+    /**
+     * @param host The name of the remote host
+     * @param connect A closure opening a new {@link TransferChannel} to the remote host
+     */
+    ParallelCopy( String host, Closure<TransferChannel> connect ) {
+        this.host = host
+        this.connect = connect
+    }
+
+    /**
+     * Copy local files or directories to a remote directory
+     *
+     * @return The final progress
+     */
+    Progress upload( List<File> sources, String targetDir ) {
+        def channel = connect.call()
+        def items = []
+        try {
+            channel.mkdirs(targetDir)
+            sources.each { File file ->
+                if( !file.exists() ) throw new BlowException("The specified file path does not exist: ${file}")
+                collectLocal(file, targetDir, items, channel)
+            }
+
+            // allocate the files split in more ranges, unless they are resumed
+            items.each { Item item ->
+                if( ranges(item).size() == 1 ) return
+                if( !item.checkpoint.resumed || channel.stat(item.target)?.size != item.size ) {
+                    item.checkpoint.clear()
+                    channel.allocate(item.target, item.size)
+                }
+            }
+        }
+        catch( Exception e ) {
+            channel.close()
+            throw e
+        }
+
+        run(items, channel, true)
+    }
+
+    /**
+     * Copy remote files or directories to a local directory
+     *
+     * @return The final progress
+     */
+    Progress download( List<String> sources, File targetDir ) {
+        def channel = connect.call()
+        def items = []
+        try {
+            targetDir.mkdirs()
+            sources.each { String path -> collectRemote(path, targetDir, items, channel) }
+
+            items.each { Item item ->
+                def file = new File(item.target)
+                if( !item.checkpoint.resumed || file.length() != item.size ) {
+                    item.checkpoint.clear()
+                    def raf = new RandomAccessFile(file, 'rw')
+                    try { raf.setLength(item.size) } finally { raf.close() }
+                }
+            }
+        }
+        catch( Exception e ) {
+            channel.close()
+            throw e
+        }
+
+        run(items, channel, false)
+    }
+
+    private void collectLocal( File file, String targetDir, List<Item> items, TransferChannel channel ) {
+        def target = "${targetDir}/${file.name}".toString()
+        if( file.isDirectory() ) {
+            channel.mkdirs(target)
+            file.listFiles().sort { it.name }.each { collectLocal(it, target, items, channel) }
+        }
+        else {
+            def key = "upload|${host}|${file.absolutePath}|${target}|${file.length()}|${file.lastModified()}|${rangeSize}"
+            items << new Item(source: file.absolutePath, target: target, size: file.length(), checkpoint: new Checkpoint(checkpointDir, key))
+        }
+    }
+
+    private void collectRemote( String path, File targetDir, List<Item> items, TransferChannel channel ) {
+        def stat = channel.stat(path)
+        if( stat == null ) throw new BlowException("The specified remote path does not exist: ${path}")
+
+        def target = new File(targetDir, path.tokenize('/').last())
+        if( stat.dir ) {
+            target.mkdirs()
+            channel.list(path).sort().each { String name -> collectRemote("${path}/${name}".toString(), target, items, channel) }
+        }
+        else {
+            def key = "download|${host}|${path}|${target.absolutePath}|${stat.size}|${stat.mtime}|${rangeSize}"
+            items << new Item(source: path, target: target.absolutePath, size: stat.size as long, checkpoint: new Checkpoint(checkpointDir, key))
+        }
+    }
+
+    /**
+     * @return The ranges in which the file is split
+     */
+    protected List<Range> ranges( Item item ) {
+        long size = item.size
+        if( size < minRangeSize * 2 ) {
+            return [ new Range(item: item, offset: 0, length: size, whole: true) ]
+        }
+
+        // split the file at least in as many ranges as the streams
+        long len = Math.max( Math.min(rangeSize, (long)Math.ceil(size / streams)), minRangeSize )
+        def result = []
+        for( long offset=0; offset<size; offset+=len ) {
+            result << new Range(item: item, offset: offset, length: Math.min(len, size-offset))
+        }
+        return result
+    }
+
+    private Progress run( List<Item> items, TransferChannel first, boolean upload ) {
+
+        def queue = new LinkedBlockingDeque<Range>()
+        def progress = new Progress(files: items.size(), total: items.sum(0) { it.size } as long)
+
+        // the large ranges first, the small files fill the gaps at the end
+        def pending = []
+        items.each { Item item ->
+            def all = ranges(item)
+            def todo = all.findAll { Range range -> !item.checkpoint.isDone(range.offset, range.length) }
+            progress.resumed += all.sum(0) { it.length } - todo.sum(0) { it.length }
+            item.pending = new AtomicInteger(todo.size())
+            pending.addAll(todo)
+            if( !todo ) complete(item, first, upload)
+        }
+        pending.sort { -it.length }.each { queue.add(it) }
+        done.set(progress.resumed)
+
+        log.debug "Copying ${items.size()} file(s) (${progress.total} bytes) in ${pending.size()} range(s) using ${streams} streams"
+
+        def start = System.currentTimeMillis()
+        def reporter = Executors.newSingleThreadScheduledExecutor( new ThreadFactoryBuilder().setNameFormat('fcp-progress').setDaemon(true).build() )
+        if( this.progress ) {
+            reporter.scheduleAtFixedRate( { report(progress, start) } as Runnable, progressInterval, progressInterval, TimeUnit.MILLISECONDS )
+        }
+
+        int count = Math.max(1, Math.min(streams, pending.size()))
+        ExecutorService workers = Executors.newFixedThreadPool(count, new ThreadFactoryBuilder().setNameFormat('fcp-stream-%d').build())
+        try {
+            count.times { int index ->
+                workers.submit( { transfer(queue, index == 0 ? first : null, upload) } as Runnable )
+            }
+            workers.shutdown()
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+        }
+        finally {
+            workers.shutdownNow()
+            reporter.shutdownNow()
+        }
+
+        report(progress, start)
+        if( errors ) {
+            throw new BlowException("Copy failed for ${errors.size()} file(s), run it again to resume it:\n${errors.join('\n')}")
+        }
+        return progress
+    }
+
+    private void report( Progress progress, long start ) {
+        progress.done = done.get()
+        progress.completed = completed.get()
+        progress.elapsed = System.currentTimeMillis() - start
+        this.progress?.call(progress)
+    }
+
+    /**
+     * The loop run by each stream, it takes the ranges from the queue until it is empty
+     */
+    private void transfer( LinkedBlockingDeque<Range> queue, TransferChannel channel, boolean upload ) {
+        try {
+            Range range
+            while( (range = queue.poll()) != null ) {
+                long count = 0
+                def counter = { int n -> count += n; done.addAndGet(n) }
+                try {
+                    if( channel == null ) channel = connect.call()
+
+                    def item = range.item
+                    if( upload ) {
+                        channel.upload(new File(item.source), item.target, range.offset, range.length, range.whole, counter)
+                    }
+                    else {
+                        channel.download(item.source, new File(item.target), range.offset, range.length, counter)
+                    }
+
+                    item.checkpoint.add(range.offset, range.length)
+                    if( item.pending.decrementAndGet() == 0 ) {
+                        complete(item, channel, upload)
+                    }
+                }
+                catch( Exception e ) {
+                    done.addAndGet(-count)
+                    log.debug("Failed copying range ${range.offset}+${range.length} of file: '${range.item.source}' -- ${e.getMessage() ?: e}")
+                    if( ++range.attempts < maxAttempts ) {
+                        queue.addLast(range)
+                    }
+                    else {
+                        errors << "${range.item.source}: ${e.getMessage() ?: e.toString()}".toString()
+                    }
+
+                    // open a new channel for the next range
+                    closeQuietly(channel)
+                    channel = null
+                }
+            }
+        }
+        finally {
+            closeQuietly(channel)
+        }
+    }
+
+    private void complete( Item item, TransferChannel channel, boolean upload ) {
+        if( verify ) {
+            def local = Files.hash(new File(upload ? item.source : item.target), Hashing.md5()).toString()
+            def remote = channel.md5(upload ? item.target : item.source)
+            if( local != remote ) {
+                item.checkpoint.clear()
+                errors << "${item.source}: MD5 checksum does not match".toString()
+                return
+            }
+        }
+
+        item.checkpoint.delete()
+        completed.incrementAndGet()
+    }
+
+    static private void closeQuietly( Closeable channel ) {
+        try {
+            channel?.close()
+        }
+        catch( Exception e ) {
+            log.trace("Error closing channel", e)
+        }
+    }
+
+    /**
+     * The offset and length of the completed ranges of a file, saved one per line as {@code offset:length}.
+     * <p>
+     * The length of the ranges depends on the number of streams, so a range is done only when a completed
+     * range starting at the same offset is at least as long
+     */
+    static class Checkpoint {
+
+        final File file
+
+        final private Map<Long,Long> ranges = new HashMap<Long,Long>()
+
+        final boolean resumed
+
+        Checkpoint( File dir, String key ) {
+            this.file = new File(dir, Hashing.sha1().hashString(key).toString())
+            this.resumed = file.exists()
+            if( resumed ) {
+                file.eachLine { String line ->
+                    def items = line.trim().tokenize(':')
+                    ranges.put(items[0] as long, items[1] as long)
+                }
+            }
+        }
+
+        synchronized boolean isDone( long offset, long length ) {
+            def done = ranges.get(offset)
+            done != null && done >= length
+        }
+
+        synchronized void add( long offset, long length ) {
+            ranges.put(offset, length)
+            file.parentFile.mkdirs()
+            file.append("${offset}:${length}\n")
+        }
+
+        synchronized void clear() {
+            ranges.clear()
+            file.delete()
+        }
+
+        synchronized void delete() { file.delete() }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import org.jclouds.compute.domain.ExecResponse
+
+/**
+ * The operations on a remote file system used by {@link DeltaSync}
+ */
+interface RemoteFiles {
+
+    /**
+     * @return A map with the entries {@code size} and {@code mtime} (seconds) or {@code null} if the path does not exist
+     */
+    Map stat( String path )
+
+    /**
+     * Run a shell script on the remote host
+     */
+    ExecResponse exec( String script )
+
+    void upload( File file, String path )
+
+    void mkdirs( String path )
+
+    /**
+     * Set the last modified time of a file in seconds
+     */
+    void setMtime( String path, long seconds )
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import blow.metrics.Metrics
+import groovy.util.logging.Slf4j
+import org.jclouds.compute.domain.ExecResponse
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+
+/**
+ * Invoke an action on a set of nodes following an {@link ExecPolicy}.
+ * <p>
+ * The nodes are split in waves, the nodes of a wave are started as soon as there is a free slot
+ * and the next wave starts when all of them have completed. After {@link ExecPolicy#failFast} failures
+ * no more nodes are started and the remaining ones are reported as skipped. The nodes running longer than
+ * the timeout are reported as failed with exit code {@code 124}, and the nodes much slower than the others are
+ * started again, keeping the first response.
+ * <p>
+ * The timeout only cancels the local execution, the actions able to stop the work on the node have to
+ * enforce the timeout by themselves, and set a {@link #timeoutGrace} so that the local one is only a backstop.
+ * <p>
+ * The scheduling is done in the calling thread, the actions run in the specified executor.
+ */
+@Slf4j
+class RollingExecutor<T> {
+
+    /** The exit code reported for a node which has not completed in time, as the {@code timeout} command */
+    static final int TIMEOUT_EXIT_CODE = 124
+
+    /** The exit code reported for a node on which the action has not been started */
+    static final int SKIPPED_EXIT_CODE = -1
+
+    /**
+     * A single execution of the action on a node
+     */
+    static private class Attempt<T> implements Callable<Attempt<T>> {
+        T node
+        Closure<ExecResponse> action
+        volatile long started
+        long elapsed
+        ExecResponse response
+        Future future
+
+        Attempt<T> call() {
+            started = System.currentTimeMillis()
+            try {
+                response = action.call(node)
+            }
+            catch( Exception e ) {
+                response = new ExecResponse("ERR", e.getMessage(), 1)
+            }
+            elapsed = System.currentTimeMillis() - started
+            return this
+        }
+    }
+
+    final private ExecutorService executor
+
+    final private ExecPolicy policy
+
+    /** The number of completed nodes required before starting speculative executions */
+    int speculativeMin = 3
+
+    /** How often in millis the running nodes are checked for timeouts and stragglers */
+    long pollInterval = 250
+
+    /** The seconds waited after the timeout before a node is reported as timed out, when the action enforces the timeout on the node */
+    int timeoutGrace = 0
+
+    RollingExecutor( ExecutorService executor, ExecPolicy policy ) {
+        this.executor = executor
+        this.policy = policy ?: ExecPolicy.DEFAULT
+    }
+
+    /**
+     * Invoke the action on the nodes
+     *
+     * @param nodes The nodes on which apply the action
+     * @param action A closure receiving a node and returning an {@link ExecResponse}
+     * @return A map holding the response for each node, in the same order of the nodes collection. An action raising an
+     *      exception is reported as a response with exit status {@code 1}
+     */
+    Map<T,ExecResponse> invoke( Collection<T> nodes, Closure<ExecResponse> action ) {
+
+        def result = new LinkedHashMap<T,ExecResponse>()
+        def pending = new LinkedList<T>(nodes)
+        def running = new LinkedHashMap<T,List<Attempt<T>>>()
+        def service = new ExecutorCompletionService<Attempt<T>>(executor)
+        def durations = new ArrayList<Long>()
+
+        int waveSize = policy.waveSize(nodes.size())
+        int inFlight = policy.inFlight(nodes.size())
+        int launched = 0
+        int failures = 0
+        boolean stopped = false
+
+        try {
+            while( true ) {
+
+                /*
+                 * start the nodes of the current wave, as long as there are free slots
+                 */
+                while( !stopped && pending && running.size() < inFlight && launched < waveSize ) {
+                    def node = pending.poll()
+                    running.put(node, [ submit(service, node, action) ])
+                    launched++
+                }
+
+                if( !running ) {
+                    if( stopped || !pending ) {
+                        break
+                    }
+                    log.debug "Starting the next execution wave; pending nodes: ${pending.size()}"
+                    launched = 0
+                    continue
+                }
+
+                /*
+                 * wait for a node to complete
+                 */
+                def future = service.poll(pollInterval, TimeUnit.MILLISECONDS)
+                if( future ) {
+                    Attempt<T> attempt
+                    try {
+                        attempt = future.get()
+                    }
+                    catch( CancellationException e ) {
+                        continue
+                    }
+                    catch( ExecutionException e ) {
+                        // it should never happen since 'Attempt' catches the action exceptions
+                        throw e.getCause()
+                    }
+
+                    if( !running.containsKey(attempt.node) ) {
+                        // this node is already done
+                        continue
+                    }
+
+                    complete(attempt.node, attempt.response, running, result)
+                    if( attempt.response.getExitCode() ) {
+                        log.debug "Failed execution on node: ${attempt.node} -- ${attempt.response.getError()}"
+                        failures++
+                    }
+                    else {
+                        durations.add(attempt.elapsed)
+                    }
+                }
+
+                /*
+                 * check the running nodes for timeouts and stragglers
+                 */
+                def now = System.currentTimeMillis()
+                def straggler = speculativeThreshold(durations)
+                new ArrayList<T>(running.keySet()).each { T node ->
+                    def attempts = running.get(node)
+                    def started = attempts[0].started
+                    if( !started ) {
+                        return
+                    }
+
+                    if( policy.timeout && now - started > (policy.timeout + timeoutGrace) * 1000L ) {
+                        log.debug "Execution timed out on node: ${node}"
+                        Metrics.counter('exec.timeouts').inc()
+                        complete(node, new ExecResponse("", "Timed out after ${policy.timeout} seconds".toString(), TIMEOUT_EXIT_CODE), running, result)
+                        failures++
+                    }
+                    else if( straggler && attempts.size() == 1 && now - started > straggler ) {
+                        log.debug "Starting speculative execution on node: ${node}"
+                        Metrics.counter('exec.speculative').inc()
+                        attempts.add( submit(service, node, action) )
+                    }
+                }
+
+                if( !stopped && policy.failFast && failures >= policy.failFast ) {
+                    log.debug "Stopping execution after ${failures} failures; skipped nodes: ${pending.size()}"
+                    stopped = true
+                }
+            }
+        }
+        finally {
+            running.values().flatten().each { Attempt it -> it.future?.cancel(true) }
+        }
+
+        pending.each { T node ->
+            result.put(node, new ExecResponse("", "Not executed after ${failures} failures".toString(), SKIPPED_EXIT_CODE))
+        }
+
+        /*
+         * return the responses in the same order of the nodes
+         */
+        def ordered = new LinkedHashMap<T,ExecResponse>()
+        nodes.each { T node -> ordered.put(node, result.get(node)) }
+        return ordered
+    }
+
+    private Attempt<T> submit( ExecutorCompletionService<Attempt<T>> service, T node, Closure<ExecResponse> action ) {
+        def attempt = new Attempt<T>(node: node, action: action)
+        attempt.future = service.submit(attempt)
+        return attempt
+    }
+
+    /**
+     * Set the response of a node and cancel its other executions still running
+     */
+    static private void complete( def node, ExecResponse response, Map running, Map result ) {
+        result.put(node, response)
+        running.remove(node)?.each { Attempt it -> if( it.response == null ) it.future?.cancel(true) }
+    }
+
+    /**
+     * @return The time in millis after which a node is considered a straggler, {@code 0} when the
+     *      speculative execution is disabled or there are not enough completed nodes
+     */
+    protected long speculativeThreshold( List<Long> durations ) {
+        if( !policy.speculative || durations.size() < speculativeMin ) {
+            return 0
+        }
+        def sorted = new ArrayList<Long>(durations).sort()
+        Math.max(1, (sorted[ sorted.size().intdiv(2) ] * policy.speculative) as long)
+    }
+
+}
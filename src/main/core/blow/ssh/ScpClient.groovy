@@ -19,6 +19,8 @@
 
 package blow.ssh
 
+import blow.metrics.Metrics
+import blow.metrics.Timer
 import net.schmizz.sshj.SSHClient
 import net.schmizz.sshj.transport.verification.HostKeyVerifier
 import net.schmizz.sshj.xfer.FileSystemFile
@@ -33,6 +35,10 @@ import java.security.PublicKey
  */
 class ScpClient {
 
+	static final private Timer UPLOAD_TIMER = Metrics.timer('scp.upload')
+
+	static final private Timer DOWNLOAD_TIMER = Metrics.timer('scp.download')
+
 	String host
 	
 	int port = 22;
@@ -44,6 +50,11 @@ class ScpClient {
 
 	
 	final private SSHClient ssh 
+
+	/**
+	 * Whenever the connection has been provided by the caller, in this case it is not closed by {@link #close()}
+	 */
+	final private boolean shared
 	
 	/**
 	 * Client constructor. To specify a remote host or override default ssh port 
@@ -65,6 +76,17 @@ class ScpClient {
 
 	}
 
+	/**
+	 * Create a client using an already connected {@link SSHClient} instance e.g. borrowed from a {@link SshConnectionPool}.
+	 * <p>
+	 * The connection is owned by the caller, so invoking {@link #close()} will not disconnect it.
+	 */
+	ScpClient( SSHClient ssh ) {
+		assert ssh, "Argument 'ssh' cannot be null"
+		this.ssh = ssh
+		this.shared = true
+	}
+
 	/**
 	 * Connect to a remote ssh server 
 	 * 
@@ -167,7 +189,13 @@ class ScpClient {
 		assert str, "Argument 'str' cannot be null"
 		assert ssh?.isConnected(), "Cannot upload without a connection. Did you connect() before this?"
 		
-		ssh.newSCPFileTransfer().upload( new InMemoryPayload(str), normalizeRemotePath(remotePath) )
+		def timer = UPLOAD_TIMER.start()
+		try {
+			ssh.newSCPFileTransfer().upload( new InMemoryPayload(str), normalizeRemotePath(remotePath) )
+		}
+		finally {
+			timer.stop()
+		}
 	}
 	
 	def void uploadData( byte[] data, String remotePath  )  {
@@ -175,7 +203,14 @@ class ScpClient {
 		assert data, "Argument 'data' cannot be null"
 		assert ssh?.isConnected(), "Cannot upload without a connection. Did you connect() before this?"
 
-		ssh.newSCPFileTransfer() .upload( new InMemoryPayload(data), normalizeRemotePath(remotePath) )
+		def timer = UPLOAD_TIMER.start()
+		try {
+			ssh.newSCPFileTransfer() .upload( new InMemoryPayload(data), normalizeRemotePath(remotePath) )
+		}
+		finally {
+			timer.stop()
+		}
+		Metrics.counter('scp.upload.bytes').add(data.length)
 	}
 	
 	def void uploadFile( String localPath, String remotePath )  {
@@ -188,11 +223,38 @@ class ScpClient {
 		assert localPath.isFile(), "The specified path is not a file: ${localPath}" 
 		assert ssh?.isConnected(), "Cannot upload without a connection. Did you connect() before this?" 
 		
-		ssh.newSCPFileTransfer().upload( new FileSystemFile(localPath), normalizeRemotePath(remotePath) )		
+		def timer = UPLOAD_TIMER.start()
+		try {
+			ssh.newSCPFileTransfer().upload( new FileSystemFile(localPath), normalizeRemotePath(remotePath) )
+		}
+		finally {
+			timer.stop()
+		}
+		Metrics.counter('scp.upload.bytes').add(localPath.length())
 
 	}
 	
 	
+	/**
+	 * Copy a file or a directory tree to the remote host, skipping the files that did not change and
+	 * sending only the changed blocks of the others, see {@link DeltaSync}
+	 *
+	 * @return The transfer statistics
+	 */
+	DeltaSync.Stats sync( File localPath, String remotePath ) {
+
+		assert localPath.exists(), "The specified file path does not exist: ${localPath}"
+		assert ssh?.isConnected(), "Cannot upload without a connection. Did you connect() before this?"
+
+		def remote = new SftpRemoteFiles(ssh)
+		try {
+			return new DeltaSync(remote).sync( localPath, normalizeRemotePath(remotePath) )
+		}
+		finally {
+			remote.close()
+		}
+	}
+
 	def void download( String remotePath, String localPath = null )  {
 		assert ssh?.isConnected(), "Cannot upload without a connection. Did you connect() before this?"
 		
@@ -201,11 +263,19 @@ class ScpClient {
 			localPath = "./${remoteFile.getName()}"
 		}
 
-		ssh.newSCPFileTransfer().download(remotePath, localPath)
+		def timer = DOWNLOAD_TIMER.start()
+		try {
+			ssh.newSCPFileTransfer().download(remotePath, localPath)
+		}
+		finally {
+			timer.stop()
+		}
 	}
 	
 	def void close() {
-		ssh.disconnect()
+		if( !shared ) {
+			ssh.disconnect()
+		}
 	} 
 	
 }
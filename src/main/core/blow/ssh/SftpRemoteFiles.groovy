@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import net.schmizz.sshj.SSHClient
+import net.schmizz.sshj.common.IOUtils
+import net.schmizz.sshj.sftp.FileAttributes
+import net.schmizz.sshj.sftp.SFTPClient
+import net.schmizz.sshj.xfer.FileSystemFile
+import org.jclouds.compute.domain.ExecResponse
+
+/**
+ * Access the remote file system by SFTP, the scripts are run in a separate session of the same connection
+ */
+class SftpRemoteFiles implements RemoteFiles, Closeable {
+
+    final private SSHClient ssh
+
+    final private SFTPClient sftp
+
+    SftpRemoteFiles( SSHClient ssh ) {
+        this.ssh = ssh
+        this.sftp = ssh.newSFTPClient()
+    }
+
+    @Override
+    Map stat( String path ) {
+        def attrs = sftp.statExistence(path)
+        attrs ? [size: attrs.getSize(), mtime: attrs.getMtime()] : null
+    }
+
+    @Override
+    ExecResponse exec( String script ) {
+        def session = ssh.startSession()
+        try {
+            def command = session.exec(script)
+            def output = IOUtils.readFully(command.getInputStream()).toString()
+            def error = IOUtils.readFully(command.getErrorStream()).toString()
+            command.join()
+            def exitStatus = command.getExitStatus()
+            return new ExecResponse(output, error, exitStatus != null ? exitStatus : -1)
+        }
+        finally {
+            session.close()
+        }
+    }
+
+    @Override
+    void upload( File file, String path ) {
+        sftp.put(new FileSystemFile(file), path)
+    }
+
+    @Override
+    void mkdirs( String path ) {
+        sftp.mkdirs(path)
+    }
+
+    @Override
+    void setMtime( String path, long seconds ) {
+        sftp.setattr(path, new FileAttributes.Builder().withAtimeMtime(seconds, seconds).build())
+    }
+
+    @Override
+    void close() {
+        sftp.close()
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import net.schmizz.sshj.SSHClient
+import net.schmizz.sshj.common.IOUtils
+import net.schmizz.sshj.sftp.FileMode
+import net.schmizz.sshj.sftp.OpenMode
+import net.schmizz.sshj.sftp.SFTPClient
+import net.schmizz.sshj.transport.verification.HostKeyVerifier
+
+import java.security.PublicKey
+
+/**
+ * A {@link TransferChannel} using its own SSH connection and a SFTP session on it.
+ * <p>
+ * The file ranges are streamed through {@code dd} running on an exec channel, so the data flow is bound only by
+ * the SSH window instead of waiting the reply of each SFTP request. The remote host requires coreutils 8.16 or later
+ */
+class SftpTransferChannel implements TransferChannel {
+
+    /** The size of the buffer used to stream the file ranges */
+    static final int BUFFER_SIZE = 32 * 1024
+
+    final private SSHClient ssh
+
+    final private SFTPClient sftp
+
+    SftpTransferChannel( SSHClient ssh ) {
+        this.ssh = ssh
+        this.sftp = ssh.newSFTPClient()
+    }
+
+    /**
+     * Open a new connection to the remote host
+     */
+    static SftpTransferChannel connect( String host, String user, File privateKey, int connectTimeout = 30000 ) {
+        def ssh = new SSHClient()
+        ssh.setConnectTimeout(connectTimeout)
+        // don't bother verifying
+        ssh.addHostKeyVerifier( new HostKeyVerifier() {
+            public boolean verify(String arg0, int arg1, PublicKey arg2) { return true }
+        } )
+
+        try {
+            ssh.connect(host)
+            ssh.authPublickey(user, privateKey.toString())
+            return new SftpTransferChannel(ssh)
+        }
+        catch( Exception e ) {
+            ssh.disconnect()
+            throw e
+        }
+    }
+
+    @Override
+    Map stat( String path ) {
+        def attrs = sftp.statExistence(path)
+        attrs ? [size: attrs.getSize(), mtime: attrs.getMtime(), dir: attrs.getType() == FileMode.Type.DIRECTORY] : null
+    }
+
+    @Override
+    List<String> list( String path ) {
+        sftp.ls(path).collect { it.getName() }.findAll { it != '.' && it != '..' }
+    }
+
+    @Override
+    void mkdirs( String path ) {
+        sftp.mkdirs(path)
+    }
+
+    @Override
+    void allocate( String path, long size ) {
+        def file = sftp.open(path, EnumSet.of(OpenMode.WRITE, OpenMode.CREAT, OpenMode.TRUNC))
+        try {
+            if( size ) file.setLength(size)
+        }
+        finally {
+            file.close()
+        }
+    }
+
+    @Override
+    void upload( File local, String path, long offset, long length, boolean create, Closure counter ) {
+        def input = new RandomAccessFile(local, 'r')
+        def session = ssh.startSession()
+        try {
+            def command = session.exec(uploadCommand(path, offset, create))
+            send(input, command.getOutputStream(), offset, length, counter)
+            def error = IOUtils.readFully(command.getErrorStream()).toString()
+            command.join()
+            if( command.getExitStatus() != 0 ) throw new IOException("Cannot write file: ${path} at offset ${offset} -- ${error.trim()}")
+        }
+        finally {
+            session.close()
+            input.close()
+        }
+    }
+
+    @Override
+    void download( String path, File local, long offset, long length, Closure counter ) {
+        def output = new RandomAccessFile(local, 'rw')
+        def session = ssh.startSession()
+        try {
+            def command = session.exec(downloadCommand(path, offset, length))
+            receive(command.getInputStream(), output, offset, length, counter)
+            def error = IOUtils.readFully(command.getErrorStream()).toString()
+            command.join()
+            if( command.getExitStatus() != 0 ) throw new IOException("Cannot read file: ${path} at offset ${offset} -- ${error.trim()}")
+        }
+        finally {
+            session.close()
+            output.close()
+        }
+    }
+
+    /**
+     * @return The command writing its standard input to the remote file at the specified offset
+     */
+    static String uploadCommand( String path, long offset, boolean create ) {
+        "dd of=${quote(path)} bs=${BUFFER_SIZE} seek=${offset} oflag=seek_bytes${create ? '' : ' conv=notrunc'}"
+    }
+
+    /**
+     * @return The command writing a range of the remote file to its standard output
+     */
+    static String downloadCommand( String path, long offset, long length ) {
+        "dd if=${quote(path)} bs=${BUFFER_SIZE} skip=${offset} count=${length} iflag=skip_bytes,count_bytes"
+    }
+
+    /**
+     * Write a range of the local file to the stream, which is closed at the end
+     */
+    static void send( RandomAccessFile input, OutputStream output, long offset, long length, Closure counter ) {
+        try {
+            def buffer = new byte[BUFFER_SIZE]
+            input.seek(offset)
+            long pos = offset
+            long end = offset + length
+            while( pos < end ) {
+                int len = input.read(buffer, 0, (int)Math.min(buffer.length, end - pos))
+                if( len == -1 ) throw new EOFException("Unexpected end of file at offset ${pos}")
+                output.write(buffer, 0, len)
+                pos += len
+                counter?.call(len)
+            }
+        }
+        finally {
+            output.close()
+        }
+    }
+
+    /**
+     * Write the data read from the stream at the specified offset of the local file
+     */
+    static void receive( InputStream input, RandomAccessFile output, long offset, long length, Closure counter ) {
+        def buffer = new byte[BUFFER_SIZE]
+        output.seek(offset)
+        long pos = offset
+        long end = offset + length
+        while( pos < end ) {
+            int len = input.read(buffer, 0, (int)Math.min(buffer.length, end - pos))
+            if( len == -1 ) throw new EOFException("Unexpected end of file at offset ${pos}")
+            output.write(buffer, 0, len)
+            pos += len
+            counter?.call(len)
+        }
+    }
+
+    @Override
+    String md5( String path ) {
+        def session = ssh.startSession()
+        try {
+            def command = session.exec("md5sum < ${quote(path)} | cut -c1-32")
+            def result = IOUtils.readFully(command.getInputStream()).toString().trim()
+            command.join()
+            return command.getExitStatus() == 0 ? result : null
+        }
+        finally {
+            session.close()
+        }
+    }
+
+    static private String quote( String str ) {
+        "'${str.replace("'","'\\''")}'"
+    }
+
+    @Override
+    void close() {
+        try {
+            sftp.close()
+        }
+        finally {
+            ssh.disconnect()
+        }
+    }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import blow.exception.BlowException
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import groovy.util.logging.Slf4j
+import net.schmizz.sshj.SSHClient
+import net.schmizz.sshj.transport.verification.HostKeyVerifier
+
+import java.security.PublicKey
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Keeps authenticated SSH connections open so that they can be reused across
+ * multiple uploads and remote command executions on the same node.
+ * <p>
+ * Connections are grouped by user, host and port. Each group is capped to {@link #maxPerHost}
+ * connections in use at the same time, idle connections are validated before being handed out
+ * and closed when they have not been used for more than {@link #idleTimeout} millis.
+ * <p>
+ * Usage:
+ * <pre>
+ * pool.withConnection( host, user, keyFile ) { SSHClient ssh ->
+ *     new ScpClient(ssh).uploadString( "Hello", "hello.txt" )
+ * }
+ * </pre>
+ */
+@Slf4j
+class SshConnectionPool {
+
+    /** Max number of connections that can be borrowed at the same time for the same node */
+    int maxPerHost = 4
+
+    /** Time (millis) after which an unused connection is closed */
+    long idleTimeout = 5 * 60 * 1000
+
+    /** Max time (millis) to wait for a free connection slot */
+    long borrowTimeout = 10 * 60 * 1000
+
+    /** Interval (seconds) between keep alive messages sent on open connections, zero to disable */
+    int keepAliveInterval = 30
+
+    /** Connection timeout (millis) */
+    int connectTimeout = 30000
+
+    final private Map<String,HostPool> pools = new ConcurrentHashMap<String,HostPool>()
+
+    /** Connections currently borrowed, mapped to the key of the pool they belong to */
+    final private Map<SSHClient,String> leased = new IdentityHashMap<SSHClient,String>()
+
+    final private AtomicLong createdCount = new AtomicLong()
+
+    final private AtomicLong reusedCount = new AtomicLong()
+
+    private ScheduledExecutorService evictor
+
+    private volatile boolean closed
+
+    SshConnectionPool() {
+        evictor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat('ssh-pool-evictor').setDaemon(true).build() )
+        evictor.scheduleWithFixedDelay( { evictIdle() } as Runnable, 30, 30, TimeUnit.SECONDS )
+    }
+
+    /**
+     * Get a connection for the specified node, reusing an idle one when available.
+     * <p>
+     * The connection MUST be given back by invoking {@link #release(SSHClient)} or {@link #invalidate(SSHClient)}
+     *
+     * @param host The remote host name or IP address
+     * @param port The remote SSH port
+     * @param user The user name used to authenticate
+     * @param privateKey The private key file used to authenticate, when {@code null} the default one is used
+     * @return A connected and authenticated {@link SSHClient} instance
+     */
+    SSHClient borrow( String host, int port, String user, File privateKey = null ) {
+        assert host
+        assert user
+
+        if( closed ) {
+            throw new IllegalStateException("SSH connection pool is closed")
+        }
+
+        def key = "${user}@${host}:${port}".toString()
+        HostPool pool = getHostPool(key)
+
+        if( !pool.permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS) ) {
+            throw new BlowException("Timeout waiting for a free SSH connection to: ${key}")
+        }
+
+        try {
+            SSHClient ssh
+            while( (ssh=pool.poll()) != null ) {
+                if( isValid(ssh) ) {
+                    log.trace "[ssh] reusing connection to: ${key}"
+                    reusedCount.incrementAndGet()
+                    break
+                }
+                log.debug "[ssh] discarding stale connection to: ${key}"
+                disconnect(ssh)
+            }
+
+            if( ssh == null ) {
+                log.debug "[ssh] opening new connection to: ${key}"
+                ssh = connect(host, port, user, privateKey)
+                createdCount.incrementAndGet()
+            }
+
+            synchronized (leased) { leased.put(ssh, key) }
+            return ssh
+        }
+        catch( Throwable e ) {
+            pool.permits.release()
+            throw e
+        }
+    }
+
+    SSHClient borrow( String host, String user, File privateKey = null ) {
+        borrow(host, 22, user, privateKey)
+    }
+
+    /**
+     * Give back a connection to the pool, so that it can be reused later
+     *
+     * @param ssh A connection obtained by {@link #borrow(String,int,String,File)}
+     */
+    void release( SSHClient ssh ) {
+        def key = removeLease(ssh)
+        if( !key ) {
+            log.warn "[ssh] releasing a connection not owned by the pool"
+            return
+        }
+
+        HostPool pool = pools.get(key)
+        if( closed || !isValid(ssh) ) {
+            disconnect(ssh)
+        }
+        else {
+            pool.offer(ssh)
+        }
+        pool.permits.release()
+    }
+
+    /**
+     * Close a connection that cannot be used anymore e.g. after a communication error
+     *
+     * @param ssh A connection obtained by {@link #borrow(String,int,String,File)}
+     */
+    void invalidate( SSHClient ssh ) {
+        def key = removeLease(ssh)
+        disconnect(ssh)
+        if( key ) {
+            pools.get(key).permits.release()
+        }
+    }
+
+    /**
+     * Borrow a connection for the specified node, pass it to the closure and release it when done.
+     * If the closure raises an exception the connection is closed and not reused.
+     *
+     * @return The value returned by the closure
+     */
+    def withConnection( String host, int port, String user, File privateKey, Closure closure ) {
+        def ssh = borrow(host, port, user, privateKey)
+        def result
+        try {
+            result = closure.call(ssh)
+        }
+        catch( Throwable e ) {
+            invalidate(ssh)
+            throw e
+        }
+
+        release(ssh)
+        return result
+    }
+
+    def withConnection( String host, String user, File privateKey, Closure closure ) {
+        withConnection(host, 22, user, privateKey, closure)
+    }
+
+    /**
+     * Close all the idle connection that have not been used for more than {@link #idleTimeout} millis
+     *
+     * @return The number of closed connections
+     */
+    int evictIdle() {
+        int count = 0
+        try {
+            def threshold = System.currentTimeMillis() - idleTimeout
+            pools.values().each { HostPool pool ->
+                pool.removeOlderThan(threshold).each { SSHClient ssh ->
+                    disconnect(ssh)
+                    count++
+                }
+            }
+            if( count ) {
+                log.debug "[ssh] evicted ${count} idle connection(s)"
+            }
+        }
+        catch( Exception e ) {
+            log.warn "[ssh] unable to evict idle connections", e
+        }
+        return count
+    }
+
+    /** @return The number of idle connections hold by the pool */
+    int getIdleCount() {
+        int result = 0
+        pools.values().each { HostPool pool -> result += pool.size() }
+        return result
+    }
+
+    /** @return The number of connections currently borrowed */
+    int getLeasedCount() {
+        synchronized (leased) { leased.size() }
+    }
+
+    /** @return The number of connections opened since the pool has been created */
+    long getCreatedCount() { createdCount.get() }
+
+    /** @return The number of times an idle connection has been reused */
+    long getReusedCount() { reusedCount.get() }
+
+    /**
+     * Close all the idle connections and stop the eviction thread. Connections currently borrowed
+     * will be closed as soon as they are released
+     */
+    void close() {
+        if( closed ) return
+        log.trace "[ssh] closing connection pool"
+        closed = true
+        evictor.shutdownNow()
+        pools.values().each { HostPool pool ->
+            pool.removeOlderThan(Long.MAX_VALUE).each { SSHClient ssh -> disconnect(ssh) }
+        }
+    }
+
+    /**
+     * Open and authenticate a new connection
+     */
+    protected SSHClient connect( String host, int port, String user, File privateKey ) {
+
+        def ssh = new SSHClient()
+        ssh.useCompression()
+        ssh.setConnectTimeout(connectTimeout)
+
+        // don't bother verifying
+        ssh.addHostKeyVerifier(
+            new HostKeyVerifier() {
+                public boolean verify(String arg0, int arg1, PublicKey arg2) { return true }
+            }
+        );
+
+        try {
+            ssh.connect(host, port)
+            if( privateKey ) {
+                ssh.authPublickey(user, privateKey.toString())
+            }
+            else {
+                ssh.authPublickey(user)
+            }
+
+            if( keepAliveInterval > 0 ) {
+                ssh.getTransport().setHeartbeatInterval(keepAliveInterval)
+            }
+        }
+        catch( Exception e ) {
+            disconnect(ssh)
+            throw e
+        }
+
+        return ssh
+    }
+
+    protected boolean isValid( SSHClient ssh ) {
+        try {
+            return ssh.isConnected() && ssh.isAuthenticated()
+        }
+        catch( Exception e ) {
+            log.trace "[ssh] connection check failed", e
+            return false
+        }
+    }
+
+    protected void disconnect( SSHClient ssh ) {
+        try {
+            ssh.disconnect()
+        }
+        catch( Exception e ) {
+            log.trace "[ssh] error closing connection", e
+        }
+    }
+
+    private String removeLease( SSHClient ssh ) {
+        synchronized (leased) { leased.remove(ssh) }
+    }
+
+    private synchronized HostPool getHostPool( String key ) {
+        def result = pools.get(key)
+        if( result == null ) {
+            result = new HostPool(maxPerHost)
+            pools.put(key, result)
+        }
+        return result
+    }
+
+
+    /**
+     * Hold the idle connections for a single node
+     */
+    static class HostPool {
+
+        final Semaphore permits
+
+        final private LinkedList<Object[]> idle = new LinkedList<Object[]>()
+
+        HostPool( int max ) {
+            permits = new Semaphore(max, true)
+        }
+
+        /** Get the most recently used connection */
+        synchronized SSHClient poll() {
+            def entry = idle.pollFirst()
+            return entry ? (SSHClient)entry[0] : null
+        }
+
+        synchronized void offer( SSHClient ssh ) {
+            idle.addFirst( [ssh, System.currentTimeMillis()] as Object[] )
+        }
+
+        synchronized int size() { idle.size() }
+
+        synchronized List<SSHClient> removeOlderThan( long timestamp ) {
+            def result = []
+            def itr = idle.iterator()
+            while( itr.hasNext() ) {
+                def entry = itr.next()
+                if( (entry[1] as long) < timestamp ) {
+                    result << entry[0]
+                    itr.remove()
+                }
+            }
+            return result
+        }
+    }
+
+}
@@ -19,27 +19,53 @@
 
 package blow.ssh
 
+import groovy.util.logging.Slf4j
 import net.schmizz.concurrent.Event
 import net.schmizz.concurrent.ExceptionChainer
+import net.schmizz.sshj.common.StreamCopier
+
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
 
 /**
  * This class copy a source input stream to a target output stream
+ * <p>
+ * When {@link #keepFlushing} is enabled the target stream is flushed only when
+ * the source has no more data immediately available, so that interactive output
+ * is shown promptly while bulk transfers are not slowed down by a flush on each read.
+ * <p>
+ * When the source or the target is a file, the copy uses {@link FileChannel#transferTo}
+ * or {@link FileChannel#transferFrom} to avoid moving the data through a user-space buffer.
  *
  * @author Paolo Di Tommaso <paolo.ditommaso@gmail.com>
  * Date: 4/23/12 6:23 PM
  */
 
-
+@Slf4j
 class StreamPump {
 
+    static final int DEFAULT_BUFFER_SIZE = 32 * 1024
+
+    /** Max number of bytes moved by a single channel transfer call */
+    static final long CHANNEL_CHUNK_SIZE = 8 * 1024 * 1024
+
     private InputStream input;
     private OutputStream output;
 
-    private int bufSize = 1;
+    private int bufSize = DEFAULT_BUFFER_SIZE;
     private boolean keepFlushing = true;
+    private boolean useChannels = true;
     private long length = -1;
     private boolean abort;
 
+    private StreamCopier.Listener listener
+
+    private volatile long count
+
+    private volatile long startTime
+
+    private volatile long endTime
+
     private Thread thread
 
     public StreamPump( InputStream source, OutputStream target ) {
@@ -48,14 +74,14 @@ class StreamPump {
     }
 
     public Event<IOException> spawn(String name) {
-        return spawn(name, false);
+        return startThread(name, false);
     }
 
     public Event<IOException> spawnDaemon(String name) {
-        return spawn(name, true);
+        return startThread(name, true);
     }
 
-    private Event<IOException> spawn(String name, boolean daemon) {
+    private Event<IOException> startThread(String name, boolean daemon) {
         final Event<IOException> doneEvent =
             new Event<IOException>("copyDone", new ExceptionChainer<IOException>() {
                 @Override
@@ -73,12 +99,9 @@ class StreamPump {
             @Override
             public void run() {
                 try {
-                    //log.debug("Will copy from {} to {}", in, output);
                     copy();
-                    //log.debug("Done copying from {}", in);
                     doneEvent.set();
                 } catch (IOException ioe) {
-                    //log.error("In pipe from {} to {}: " + ioe.toString(), in, output);
                     doneEvent.deliverError(ioe);
                 }
             }
@@ -91,31 +114,94 @@ class StreamPump {
 
     public long copy()
     throws IOException {
+
+        count = 0
+        startTime = System.currentTimeMillis()
+        endTime = 0
+
+        try {
+            if( useChannels && input instanceof FileInputStream ) {
+                copyWithTransferTo( ((FileInputStream)input).getChannel() )
+            }
+            else if( useChannels && output instanceof FileOutputStream ) {
+                copyWithTransferFrom( ((FileOutputStream)output).getChannel() )
+            }
+            else {
+                copyWithBuffer()
+            }
+        }
+        finally {
+            endTime = System.currentTimeMillis()
+        }
+
+        if( log.isTraceEnabled() ) {
+            log.trace( "${count} bytes transferred in ${getElapsedMillis()} ms (${getBytesPerSecond()} bytes/s)" )
+        }
+
+        return count;
+    }
+
+    private void copyWithBuffer() {
         final byte[] buf = new byte[bufSize];
-        long count = 0;
         int read = 0;
 
-        final long startTime = System.currentTimeMillis();
-
         if (length == -1) {
-            while( !abort() && (read = input.read(buf)) != -1 )
-            count = write(buf, count, read);
+            while( !abort() && (read = input.read(buf)) != -1 ) {
+                write(buf, read);
+            }
         } else {
-            while( !abort() && count < length && (read = input.read(buf, 0, (int) Math.min(bufSize, length - count))) != -1)
-            count = write(buf, count, read);
+            while( !abort() && count < length && (read = input.read(buf, 0, (int) Math.min(bufSize, length - count))) != -1) {
+                write(buf, read);
+            }
         }
 
-        if (!keepFlushing)
-            output.flush();
-
-        //final double timeSeconds = (System.currentTimeMillis() - startTime) / 1000.0;
-        //final double sizeKiB = count / 1024.0;
-        //log.info(sizeKiB + " KiB transferred  in {} seconds ({} KiB/s)", timeSeconds, (sizeKiB / timeSeconds));
+        output.flush();
 
         if (length != -1 && read == -1)
             throw new IOException("Encountered EOF, could not transfer " + length + " bytes");
 
-        return count;
+    }
+
+    /*
+     * Copy from a file source, the data is moved by the channel to the target stream without an intermediate buffer
+     */
+    private void copyWithTransferTo( FileChannel source ) {
+
+        final long position = source.position()
+        final long total = length != -1 ? length : source.size() - position
+        final target = Channels.newChannel(output)
+
+        while( !abort() && count < total ) {
+            long done = source.transferTo( position + count, Math.min(CHANNEL_CHUNK_SIZE, total-count), target )
+            if( done <= 0 ) break
+            progress(done)
+        }
+        source.position( position + count )
+        output.flush()
+
+        if( length != -1 && count < length )
+            throw new IOException("Encountered EOF, could not transfer " + length + " bytes");
+    }
+
+    /*
+     * Copy to a file target, the data is written directly into the file channel
+     */
+    private void copyWithTransferFrom( FileChannel target ) {
+
+        final long position = target.position()
+        final source = Channels.newChannel(input)
+
+        while( !abort() && (length == -1 || count < length) ) {
+            long chunk = length != -1 ? Math.min(CHANNEL_CHUNK_SIZE, length-count) : CHANNEL_CHUNK_SIZE
+            long done = target.transferFrom( source, position + count, chunk )
+            // zero bytes transferred means the source reached the EOF
+            if( done <= 0 ) break
+            progress(done)
+        }
+        target.position( position + count )
+
+        if( length != -1 && count < length )
+            throw new IOException("Encountered EOF, could not transfer " + length + " bytes");
     }
 
     public StreamPump bufSize(int bufSize) {
@@ -133,20 +219,53 @@ class StreamPump {
         return this;
     }
 
-    protected long write(byte[] buf, long count, int read)
+    /**
+     * @param value When {@code false} file channels transfer is disabled and data is always copied through a buffer
+     */
+    public StreamPump useChannels(boolean value) {
+        this.useChannels = value
+        return this
+    }
+
+    public StreamPump listener(StreamCopier.Listener listener) {
+        this.listener = listener
+        return this
+    }
+
+    protected void write(byte[] buf, int read)
     throws IOException {
         output.write(buf, 0, read);
-        count += read;
-        if (keepFlushing)
+        // flush only when the input stalls, i.e. there is nothing more to read without blocking
+        if (keepFlushing && input.available() <= 0)
             output.flush();
-        //listener.reportProgress(count);
-        return count;
+        progress(read)
     }
 
+    private void progress( long read ) {
+        count += read
+        if( listener ) {
+            listener.reportProgress(count);
+        }
+    }
+
+    /** @return The number of bytes copied so far */
+    public long getBytesTransferred() { count }
+
+    /** @return The time (millis) spent copying, up to now if the copy is still running */
+    public long getElapsedMillis() {
+        if( !startTime ) return 0
+        return (endTime ?: System.currentTimeMillis()) - startTime
+    }
+
+    /** @return The average transfer speed as bytes per second */
+    public long getBytesPerSecond() {
+        def elapsed = getElapsedMillis()
+        return elapsed > 0 ? (long)(count * 1000 / elapsed) : count
+    }
 
     public void abort(boolean value) {
         this.abort = value;
     }
 
     public boolean abort() { return abort; }
-}
\ No newline at end of file
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+/**
+ * Keep the last lines of an output. When the max number of lines is not positive all the lines are kept
+ */
+class TailLines {
+
+    final int max
+
+    final private LinkedList<String> lines = new LinkedList<String>()
+
+    private long total
+
+    TailLines( int max = 0 ) {
+        this.max = max
+    }
+
+    synchronized void add( String line ) {
+        lines.add(line)
+        total++
+        if( max > 0 && lines.size() > max ) {
+            lines.removeFirst()
+        }
+    }
+
+    /**
+     * @return The number of the lines added, including the discarded ones
+     */
+    synchronized long getTotal() { total }
+
+    /**
+     * @return The number of lines discarded
+     */
+    synchronized long getDropped() { total - lines.size() }
+
+    synchronized List<String> getLines() { new ArrayList<String>(lines) }
+
+    /**
+     * @return The kept lines, each followed by a new line. When some lines have been dropped
+     * the text starts with a line reporting how many
+     */
+    synchronized String toString() {
+        def result = new StringBuilder()
+        def dropped = total - lines.size()
+        if( dropped > 0 ) {
+            result.append("[... ${dropped} line(s) omitted]\n")
+        }
+        for( String line : lines ) {
+            result.append(line).append('\n')
+        }
+        result.toString()
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+/**
+ * Split the screen in a pane for each node, showing the last lines of its output.
+ * <p>
+ * The terminal control sequences sent by the nodes are removed, so full screen programs
+ * cannot be used in this view. When the screen has not enough rows, each node is shown on
+ * a single row holding its last line
+ */
+class TiledConsoleView implements ConsoleView {
+
+    static final String CLEAR_SCREEN = '\u001B[H\u001B[2J'
+
+    /** Match the ANSI escape sequences and the control chars other than the tab */
+    static final private String CONTROL_CHARS = /\u001B\[[0-9;?]*[ -\/]*[@-~]|\u001B\][^\u0007]*\u0007|\u001B[()][0-9A-Za-z]|\u001B[@-_]|[\u0000-\u0008\u000B-\u001F\u007F]/
+
+    /**
+     * The output of a node
+     */
+    static private class Pane {
+        String name
+        LinkedList<String> lines = new LinkedList<String>()
+        ByteArrayOutputStream current = new ByteArrayOutputStream()
+        boolean closed
+    }
+
+    final private Map<String,Pane> panes = new LinkedHashMap<String, Pane>()
+
+    final private PrintStream out
+
+    /** The number of lines kept for each node */
+    int historyLines = 100
+
+    private volatile boolean dirty = true
+
+    private int lastCols
+
+    private int lastRows
+
+    TiledConsoleView( Collection<String> nodes, PrintStream out = System.out ) {
+        assert nodes
+        this.out = out
+        nodes.each { String it -> panes.put(it, new Pane(name: it)) }
+    }
+
+    @Override
+    void onOutput( String node, byte[] buffer, int len ) {
+        def pane = panes.get(node)
+        if( !pane ) { return }
+
+        synchronized (pane) {
+            for( int i=0; i<len; i++ ) {
+                byte b = buffer[i]
+                if( b == (byte)10 ) {
+                    pane.lines.add( text(pane.current) )
+                    pane.current.reset()
+                    if( pane.lines.size() > historyLines ) pane.lines.removeFirst()
+                }
+                else if( b == (byte)8 ) {
+                    // the echo of a backspace removes the last char
+                    backspace(pane.current)
+                }
+                else if( b != (byte)13 ) {
+                    pane.current.write(b)
+                }
+            }
+        }
+        dirty = true
+    }
+
+    @Override
+    void onIdle( String node, long idleMillis ) { }
+
+    @Override
+    void onClose( String node ) {
+        def pane = panes.get(node)
+        if( pane ) {
+            synchronized (pane) { pane.closed = true }
+            dirty = true
+        }
+    }
+
+    @Override
+    void refresh( int cols, int rows ) {
+        if( !dirty && cols == lastCols && rows == lastRows ) {
+            return
+        }
+
+        dirty = false
+        lastCols = cols
+        lastRows = rows
+        out.print( CLEAR_SCREEN + render(cols, rows).join('\n') )
+        out.flush()
+    }
+
+    /**
+     * @return The lines of the screen
+     */
+    protected List<String> render( int cols, int rows ) {
+
+        def result = []
+        def list = new ArrayList<Pane>(panes.values())
+        int height = rows.intdiv(list.size())
+
+        /*
+         * not enough room for a header and a line for each node, show a row for each node
+         */
+        if( height < 2 ) {
+            def width = list*.name*.length().max()
+            int visible = list.size() > rows ? rows-1 : list.size()
+            list.subList(0, visible).each { Pane pane ->
+                def lines = snapshot(pane, 1)
+                result << clip("${pane.name.padRight(width)}${pane.closed ? 'x' : '|'} ${lines ? lines[0] : ''}", cols)
+            }
+            if( visible < list.size() ) {
+                result << "(${list.size()-visible} more nodes not shown)"
+            }
+            return result
+        }
+
+        list.each { Pane pane ->
+            def header = "-- ${pane.name}${pane.closed ? ' (closed)' : ''} "
+            result << clip( header.padRight(cols, '-'), cols )
+            def lines = snapshot(pane, height-1)
+            lines.each { String it -> result << clip(it, cols) }
+            (height - 1 - lines.size()).times { result << '' }
+        }
+        return result
+    }
+
+    /**
+     * @return The last lines of a node, including the line not yet terminated
+     */
+    private List<String> snapshot( Pane pane, int count ) {
+        synchronized (pane) {
+            def all = new ArrayList<String>(pane.lines)
+            if( pane.current.size() ) {
+                all << text(pane.current)
+            }
+            all.size() > count ? all.subList(all.size()-count, all.size()) : all
+        }
+    }
+
+    static protected String text( ByteArrayOutputStream bytes ) {
+        bytes.toString('UTF-8').replaceAll(CONTROL_CHARS, '').replace('\t', '    ')
+    }
+
+    static private void backspace( ByteArrayOutputStream bytes ) {
+        if( !bytes.size() ) { return }
+        def data = bytes.toByteArray()
+        bytes.reset()
+        bytes.write(data, 0, data.length-1)
+    }
+
+    static private String clip( String str, int cols ) {
+        cols > 0 && str.length() > cols ? str.substring(0, cols) : str
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+/**
+ * A connection to a remote host used by {@link ParallelCopy}, each stream of the copy uses its own channel
+ */
+interface TransferChannel extends Closeable {
+
+    /**
+     * @return A map with the entries {@code size}, {@code mtime} (in seconds) and {@code dir} or {@code null} if the path does not exist
+     */
+    Map stat( String path )
+
+    /**
+     * @return The names of the entries in the remote directory
+     */
+    List<String> list( String path )
+
+    void mkdirs( String path )
+
+    /**
+     * Create the remote file, or truncate it, to the specified size
+     */
+    void allocate( String path, long size )
+
+    /**
+     * Write a range of a local file at the same offset of a remote file
+     *
+     * @param create When {@code true} the remote file is created or truncated before writing
+     * @param counter Invoked with the number of bytes written after each write
+     */
+    void upload( File file, String path, long offset, long length, boolean create, Closure counter )
+
+    /**
+     * Read a range of a remote file and write it at the same offset of a local file
+     *
+     * @param counter Invoked with the number of bytes read after each read
+     */
+    void download( String path, File file, long offset, long length, Closure counter )
+
+    /**
+     * @return The MD5 of the remote file
+     */
+    String md5( String path )
+
+}
@@ -20,6 +20,7 @@
 package blow.storage
 
 import blow.BlowConfig
+import com.google.common.util.concurrent.Futures
 import groovy.util.logging.Slf4j
 import org.jclouds.aws.AWSResponseException
 import org.jclouds.compute.ComputeServiceContext
@@ -30,6 +31,8 @@ import org.jclouds.ec2.options.CreateSnapshotOptions
 import org.jclouds.ec2.options.DescribeSnapshotsOptions
 import org.jclouds.ec2.services.ElasticBlockStoreClient
 
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
 import java.util.concurrent.TimeoutException
 
 /**
@@ -42,7 +45,6 @@ import java.util.concurrent.TimeoutException
 @Slf4j
 class BlockStorage {
 
-    final static private long DEFAULT_DELAY = 15000
 
 	final ComputeServiceContext context;
 	
@@ -50,6 +52,10 @@ class BlockStorage {
 	
 	@Lazy
 	private ElasticBlockStoreClient ebs = context.getProviderSpecificContext().getApi() .getElasticBlockStoreServices()
+
+    /** Wait for the status of all the volumes and snapshots, see {@link EbsStatusPoller} */
+    @Lazy
+    private EbsStatusPoller poller = new EbsStatusPoller(ebs, conf.regionId)
 	
 	/**
 	 * Block store handler constructor
@@ -77,24 +83,13 @@ class BlockStorage {
        log.debug "Attaching vol: $volumeId to instance: $nodeId"
 	   Attachment attachment = ebs.attachVolumeInRegion(conf.regionId, volumeId, nodeId, device)
 
-	   Volume vol
 	   def status = attachment.getStatus()
-	   // TODO add a timeout constraint
-	   while( status != Attachment.Status.ATTACHED ) {
-		   log.debug "Waiting the volume to be attached ($status)"
-		   sleep(DEFAULT_DELAY)
-		   // query for the attachment status
-		   vol = ebs.describeVolumesInRegion(conf.regionId, volumeId).find({true})
-		   attachment = vol.getAttachments().find( { it.getDevice() == device } )
-		   // TODO handle for null
-		   status = attachment.getStatus()
-	   }
-	   
-	   if( !vol ) { 
-		   vol = vol.getAttachments().find( { it.getDevice() == device } )
-	   }
-	   
-	   return vol
+       log.debug "Waiting the volume to be attached ($status)"
+       def attached = poller.watchVolume( volumeId, 10 * 60 * 1000 ) { Volume vol ->
+           vol.getAttachments().find { it.getDevice() == device } ?.getStatus() == Attachment.Status.ATTACHED
+       }
+
+	   return waitFor(attached)
    }
    
    /**
@@ -266,45 +261,55 @@ class BlockStorage {
 
    
    def waitForVolumeAvail( Volume vol, long timeout = 5 * 60 * 1000 ) {
-	   
-	  /*
-	   * check for a valid status
-	   */
-	  def startTime = System.currentTimeMillis();
-	  while( vol.getStatus() != Volume.Status.AVAILABLE && (System.currentTimeMillis()-startTime < timeout) ) {
-		  log.debug "Vol status: ${vol.getStatus()}"
-		  sleep(DEFAULT_DELAY)
-		  vol = ebs.describeVolumesInRegion(conf.regionId, vol.getId()).find({true})
-	  }
-	  
-	  if( vol.getStatus() != Volume.Status.AVAILABLE ) {
-		  def message = "Volume: '${vol.getId()}' is in a inconsistent status: '${vol.getStatus()}' (expected '${Volume.Status.AVAILABLE}')"
-		  throw new TimeoutException(message)
-	  }
-	  
-	  return vol
+       waitFor( waitForVolumeAvailAsync(vol, timeout) )
    }
 
+    /**
+     * Wait for the volume to become {@link Volume.Status#AVAILABLE} without blocking the caller,
+     * so that many volumes can be waited at the same time
+     *
+     * @return A future holding the available {@link Volume}, it fails with a {@link TimeoutException}
+     *      if the volume is not available within the specified timeout
+     */
+    def Future<Volume> waitForVolumeAvailAsync( Volume vol, long timeout = 5 * 60 * 1000 ) {
+        if( vol.getStatus() == Volume.Status.AVAILABLE ) {
+            return Futures.immediateFuture(vol)
+        }
+
+        log.debug "Vol status: ${vol.getStatus()}"
+        poller.watchVolume( vol.getId(), timeout ) { Volume it -> it.getStatus() == Volume.Status.AVAILABLE }
+    }
+
 
     def waitForSnapshotCompleted( Snapshot snap, long timeout = 5 * 60 * 1000 ) {
+        waitFor( waitForSnapshotCompletedAsync(snap, timeout) )
+    }
 
-        /*
-         * check for a valid status
-         */
-        def startTime = System.currentTimeMillis();
-        while( snap.getStatus() != Snapshot.Status.COMPLETED && (System.currentTimeMillis()-startTime < timeout) ) {
-            log.debug "Snapshot status: ${snap.getStatus()}"
-            sleep(DEFAULT_DELAY)
-            def opt = DescribeSnapshotsOptions.Builder.snapshotIds(snap.getId())
-            snap = ebs.describeSnapshotsInRegion(conf.regionId, opt).find()
+    /**
+     * Wait for the snapshot to become {@link Snapshot.Status#COMPLETED} without blocking the caller
+     *
+     * @return A future holding the completed {@link Snapshot}, it fails with a {@link TimeoutException}
+     *      if the snapshot is not completed within the specified timeout
+     */
+    def Future<Snapshot> waitForSnapshotCompletedAsync( Snapshot snap, long timeout = 5 * 60 * 1000 ) {
+        if( snap.getStatus() == Snapshot.Status.COMPLETED ) {
+            return Futures.immediateFuture(snap)
         }
 
-        if( snap?.getStatus() != Snapshot.Status.COMPLETED ) {
-            def message = "Waiting for COMPLETED status for snapshot '${snap.getId()}' but it is in a unexpected status: '${snap.getStatus()}'"
-            throw new TimeoutException(message)
-        }
+        log.debug "Snapshot status: ${snap.getStatus()}"
+        poller.watchSnapshot( snap.getId(), timeout ) { Snapshot it -> it.getStatus() == Snapshot.Status.COMPLETED }
+    }
 
-        return snap
+    /**
+     * Wait for the result of a status poll, re-throwing the {@link TimeoutException} when it expires
+     */
+    static private <T> T waitFor( Future<T> future ) {
+        try {
+            return future.get()
+        }
+        catch( ExecutionException e ) {
+            throw e.getCause()
+        }
     }
 
     /**
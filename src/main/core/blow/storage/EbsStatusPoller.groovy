@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.storage
+
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.SettableFuture
+import groovy.util.logging.Slf4j
+import org.jclouds.aws.AWSResponseException
+import org.jclouds.ec2.domain.Snapshot
+import org.jclouds.ec2.domain.Volume
+import org.jclouds.ec2.options.DescribeSnapshotsOptions
+import org.jclouds.ec2.services.ElasticBlockStoreClient
+
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * Wait for EBS volumes and snapshots to reach a status, polling all of them with a single background thread.
+ * <p>
+ * At each round the ids of all the pending volumes are requested with a single {@code describeVolumesInRegion}
+ * call and the ids of the pending snapshots with a single {@code describeSnapshotsInRegion} call.
+ * The delay between the rounds starts from {@link #minDelay}, it is doubled when nothing changes or when the
+ * requests are throttled, up to {@link #maxDelay}, and it is reset as soon as any resource changes status.
+ */
+@Slf4j
+class EbsStatusPoller {
+
+    static private class Watch<T> {
+        String id
+        Closure<Boolean> condition
+        long deadline
+        SettableFuture<T> future = SettableFuture.create()
+        def lastStatus
+    }
+
+    final ElasticBlockStoreClient ebs
+
+    final String regionId
+
+    long minDelay = 2000
+
+    long maxDelay = 30000
+
+    final private List<Watch<Volume>> volumes = []
+
+    final private List<Watch<Snapshot>> snapshots = []
+
+    private ScheduledExecutorService scheduler
+
+    private long delay
+
+    private boolean scheduled
+
+    EbsStatusPoller( ElasticBlockStoreClient ebs, String regionId ) {
+        this.ebs = ebs
+        this.regionId = regionId
+    }
+
+    /**
+     * Wait for a volume to satisfy the specified condition
+     *
+     * @param volumeId The volume to watch
+     * @param condition A closure receiving the {@link Volume} and returning {@code true} when the wait is over
+     * @param timeout The max time to wait in millis, the future fails with a {@link TimeoutException} when it expires
+     * @return A future completed with the {@link Volume} satisfying the condition
+     */
+    ListenableFuture<Volume> watchVolume( String volumeId, long timeout, Closure<Boolean> condition ) {
+        assert volumeId
+        def watch = new Watch<Volume>(id: volumeId, condition: condition, deadline: System.currentTimeMillis() + timeout)
+        add(volumes, watch)
+        return watch.future
+    }
+
+    /**
+     * Wait for a snapshot to satisfy the specified condition
+     *
+     * @param snapshotId The snapshot to watch
+     * @param condition A closure receiving the {@link Snapshot} and returning {@code true} when the wait is over
+     * @param timeout The max time to wait in millis, the future fails with a {@link TimeoutException} when it expires
+     * @return A future completed with the {@link Snapshot} satisfying the condition
+     */
+    ListenableFuture<Snapshot> watchSnapshot( String snapshotId, long timeout, Closure<Boolean> condition ) {
+        assert snapshotId
+        def watch = new Watch<Snapshot>(id: snapshotId, condition: condition, deadline: System.currentTimeMillis() + timeout)
+        add(snapshots, watch)
+        return watch.future
+    }
+
+    /**
+     * @return The number of resources still waited
+     */
+    synchronized int getPendingCount() { volumes.size() + snapshots.size() }
+
+    synchronized void close() {
+        scheduler?.shutdownNow()
+        scheduler = null
+        (volumes + snapshots).each { Watch watch -> watch.future.cancel(false) }
+        volumes.clear()
+        snapshots.clear()
+    }
+
+    synchronized private void add( List list, Watch watch ) {
+        list.add(watch)
+        // a new resource resets the delay, so that the next rounds are the shortest
+        delay = minDelay
+        if( !scheduled ) {
+            schedule()
+        }
+    }
+
+    private void schedule() {
+        if( scheduler == null ) {
+            scheduler = Executors.newSingleThreadScheduledExecutor( { Runnable r ->
+                def thread = new Thread(r, 'ebs-status-poller')
+                thread.setDaemon(true)
+                return thread
+            } as ThreadFactory )
+        }
+        scheduler.schedule( { poll() } as Runnable, delay, TimeUnit.MILLISECONDS )
+        scheduled = true
+    }
+
+    /**
+     * Check the status of all the pending resources
+     */
+    protected void poll() {
+        List<Watch<Volume>> pendingVolumes
+        List<Watch<Snapshot>> pendingSnapshots
+        synchronized (this) {
+            pendingVolumes = new ArrayList(volumes)
+            pendingSnapshots = new ArrayList(snapshots)
+        }
+
+        boolean changed = false
+        boolean throttled = false
+        try {
+            if( pendingVolumes ) {
+                changed |= update(pendingVolumes, describeVolumes(pendingVolumes*.id))
+            }
+            if( pendingSnapshots ) {
+                changed |= update(pendingSnapshots, describeSnapshots(pendingSnapshots*.id))
+            }
+        }
+        catch( AWSResponseException e ) {
+            throttled = isThrottling(e)
+            log.debug "Error polling EBS status -- ${e.getError()?.getCode()}"
+        }
+        catch( Exception e ) {
+            log.debug("Error polling EBS status", e)
+        }
+
+        expire(pendingVolumes)
+        expire(pendingSnapshots)
+
+        synchronized (this) {
+            volumes.removeAll { Watch watch -> watch.future.isDone() }
+            snapshots.removeAll { Watch watch -> watch.future.isDone() }
+            scheduled = false
+            if( scheduler == null || (!volumes && !snapshots) ) {
+                return
+            }
+
+            delay = changed && !throttled ? minDelay : Math.min(delay * 2, maxDelay)
+            schedule()
+        }
+    }
+
+    private Map<String,Volume> describeVolumes( List<String> ids ) {
+        try {
+            return ebs.describeVolumesInRegion(regionId, ids as String[]).collectEntries { Volume vol -> [vol.getId(), vol] }
+        }
+        catch( AWSResponseException e ) {
+            if( isThrottling(e) || ids.size() == 1 ) throw e
+            // a single missing volume makes fail the whole request, so fall back on one request for each of them
+            log.debug "Cannot describe volumes ${ids} -- ${e.getError()?.getCode()}"
+            return describeEach(ids) { String id -> describeVolumes([id]) }
+        }
+    }
+
+    private Map<String,Snapshot> describeSnapshots( List<String> ids ) {
+        try {
+            def opt = DescribeSnapshotsOptions.Builder.snapshotIds(ids as String[])
+            return ebs.describeSnapshotsInRegion(regionId, opt).collectEntries { Snapshot snap -> [snap.getId(), snap] }
+        }
+        catch( AWSResponseException e ) {
+            if( isThrottling(e) || ids.size() == 1 ) throw e
+            log.debug "Cannot describe snapshots ${ids} -- ${e.getError()?.getCode()}"
+            return describeEach(ids) { String id -> describeSnapshots([id]) }
+        }
+    }
+
+    /**
+     * Describe the resources one by one, skipping the ones that cannot be described
+     */
+    static private Map describeEach( List<String> ids, Closure<Map> describe ) {
+        def result = [:]
+        ids.each { String id ->
+            try {
+                result.putAll( describe.call(id) )
+            }
+            catch( AWSResponseException e ) {
+                if( isThrottling(e) ) throw e
+                log.debug "Cannot describe resource: '${id}' -- ${e.getError()?.getCode()}"
+            }
+        }
+        return result
+    }
+
+    /**
+     * Complete the watches whose resource satisfies the condition
+     *
+     * @return {@code true} when the status of any resource has changed
+     */
+    private boolean update( List<Watch> watches, Map resources ) {
+        boolean changed = false
+        watches.each { Watch watch ->
+            def resource = resources.get(watch.id)
+            if( resource == null ) {
+                // the resource could be not visible yet
+                return
+            }
+
+            def status = resource.getStatus()
+            if( status != watch.lastStatus ) {
+                changed = true
+                watch.lastStatus = status
+            }
+
+            try {
+                if( watch.condition.call(resource) ) {
+                    watch.future.set(resource)
+                    changed = true
+                }
+            }
+            catch( Exception e ) {
+                watch.future.setException(e)
+            }
+        }
+        return changed
+    }
+
+    private void expire( List<Watch> watches ) {
+        def now = System.currentTimeMillis()
+        watches.each { Watch watch ->
+            if( !watch.future.isDone() && now > watch.deadline ) {
+                def message = "Resource: '${watch.id}' is in a inconsistent status: '${watch.lastStatus}'"
+                watch.future.setException(new TimeoutException(message))
+            }
+        }
+    }
+
+    static private boolean isThrottling( AWSResponseException e ) {
+        def code = e.getError()?.getCode()
+        code == 'RequestLimitExceeded' || code == 'Throttling'
+    }
+
+}
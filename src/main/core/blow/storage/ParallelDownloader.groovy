@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.storage
+
+import blow.exception.BlowException
+import blow.metrics.Metrics
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import groovy.util.logging.Slf4j
+import org.jclouds.blobstore.BlobStore
+import org.jclouds.blobstore.domain.BlobMetadata
+import org.jclouds.blobstore.options.GetOptions
+
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Download a blob splitting it in many ranged GET requests that are fetched concurrently.
+ * <p>
+ * Each part is written straight to its position in the target file, which is preallocated
+ * to the blob length before the download starts. A part that fails is downloaded again up to
+ * {@link #maxRetries} times. When the download completes the file length is checked against the
+ * blob content length and, if the blob ETag is a plain MD5 digest, the file checksum is verified.
+ */
+@Slf4j
+class ParallelDownloader {
+
+    final BlobStore store
+
+    /** Number of parts downloaded at the same time */
+    int parallelism = 4
+
+    /** Size of each ranged request (bytes) */
+    long partSize = 16 * 1024 * 1024
+
+    /** Number of times a failed part is downloaded again before giving up */
+    int maxRetries = 3
+
+    /** Delay (millis) before retrying a failed part, it grows linearly with the number of attempts */
+    long retryDelay = 1000
+
+    /** Verify the downloaded file against the blob ETag when it is a MD5 digest */
+    boolean verifyETag = true
+
+    final private AtomicLong bytesDownloaded = new AtomicLong()
+
+    ParallelDownloader( BlobStore store ) {
+        assert store
+        this.store = store
+    }
+
+    /** @return The number of bytes downloaded so far */
+    long getBytesDownloaded() { bytesDownloaded.get() }
+
+    /**
+     * Download a blob to a local file
+     *
+     * @param container The container (bucket) name
+     * @param name The blob name
+     * @param target The local file where the blob is stored, if exists it is overwritten
+     * @return The number of bytes downloaded
+     */
+    long download( String container, String name, File target ) {
+        assert container
+        assert name
+        assert target
+
+        BlobMetadata meta = store.blobMetadata(container, name)
+        if( meta == null ) {
+            throw new BlowException("Cannot find S3 object: ${container}/${name}")
+        }
+
+        Long length = meta.getContentMetadata()?.getContentLength()
+        if( length == null ) {
+            throw new BlowException("Unknown content length for S3 object: ${container}/${name}")
+        }
+
+        bytesDownloaded.set(0)
+        def file = new RandomAccessFile(target, 'rw')
+        try {
+            file.setLength(length)
+            def channel = file.getChannel()
+
+            def parts = split(length, partSize)
+            log.debug "Downloading '${container}/${name}' (${length} bytes) in ${parts.size()} part(s) using ${parallelism} stream(s)"
+
+            def executor = Executors.newFixedThreadPool( Math.max(1, Math.min(parallelism, parts.size())),
+                    new ThreadFactoryBuilder().setNameFormat('s3-download-%d').setDaemon(true).build() )
+            try {
+                def tasks = parts.collect { long[] range ->
+                    { -> downloadPart(container, name, channel, range[0], range[1]) } as Callable<Long>
+                }
+
+                executor.invokeAll(tasks).each { future ->
+                    try {
+                        future.get()
+                    }
+                    catch( ExecutionException e ) {
+                        throw e.getCause()
+                    }
+                }
+            }
+            finally {
+                executor.shutdownNow()
+            }
+
+            channel.force(false)
+        }
+        finally {
+            file.close()
+        }
+
+        /*
+         * check the result
+         */
+        if( target.length() != length ) {
+            throw new BlowException("Downloaded file length (${target.length()}) does not match expected length (${length}) for S3 object: ${container}/${name}")
+        }
+
+        def etag = meta.getETag()?.replace('"','')
+        if( verifyETag && etag ==~ /[0-9a-fA-F]{32}/ ) {
+            def md5 = md5(target)
+            if( !md5.equalsIgnoreCase(etag) ) {
+                throw new BlowException("Downloaded file checksum (${md5}) does not match ETag (${etag}) for S3 object: ${container}/${name}")
+            }
+        }
+        else {
+            // multipart uploaded objects have an ETag that is not the content MD5
+            log.debug "Skipping checksum for S3 object: ${container}/${name}; etag: ${etag}"
+        }
+
+        return length
+    }
+
+    /**
+     * Split a length in a list of ranges
+     *
+     * @return A list of pairs holding the first and the last (inclusive) byte position of each range
+     */
+    static List<long[]> split( long length, long partSize ) {
+        assert partSize > 0
+
+        def result = []
+        long start = 0
+        while( start < length ) {
+            long end = Math.min(start + partSize, length) - 1
+            result << ([start, end] as long[])
+            start = end + 1
+        }
+        return result
+    }
+
+    /*
+     * Download a single part, retrying it on failure
+     */
+    private long downloadPart( String container, String name, FileChannel channel, long start, long end ) {
+
+        int attempt = 0
+        while( true ) {
+            try {
+                def timer = Metrics.timer('s3.get').start()
+                def result = fetchRange(container, name, channel, start, end)
+                timer.stop()
+                Metrics.counter('s3.get.bytes').add(result)
+                return result
+            }
+            catch( Exception e ) {
+                if( ++attempt > maxRetries ) {
+                    throw new BlowException("Failed to download range ${start}-${end} of S3 object: ${container}/${name}", e)
+                }
+                log.debug "Retrying (${attempt}) range ${start}-${end} of S3 object: ${container}/${name} -- cause: ${e.getMessage()}"
+                sleep( retryDelay * attempt )
+            }
+        }
+    }
+
+    private long fetchRange( String container, String name, FileChannel channel, long start, long end ) {
+
+        def blob = store.getBlob(container, name, GetOptions.Builder.range(start, end))
+        if( blob == null ) {
+            throw new IOException("Missing S3 object: ${container}/${name}")
+        }
+
+        long expected = end - start + 1
+        long position = start
+        def buffer = new byte[64 * 1024]
+        def input = blob.getPayload().getInput()
+        try {
+            int read
+            while( position <= end && (read=input.read(buffer, 0, (int)Math.min(buffer.length, end-position+1))) != -1 ) {
+                def bb = ByteBuffer.wrap(buffer, 0, read)
+                while( bb.hasRemaining() ) {
+                    position += channel.write(bb, position)
+                }
+                bytesDownloaded.addAndGet(read)
+            }
+        }
+        catch( Exception e ) {
+            // discard the partial progress, the range is going to be written again from the start
+            bytesDownloaded.addAndGet(start - position)
+            throw e
+        }
+        finally {
+            input.close()
+        }
+
+        long count = position - start
+        if( count != expected ) {
+            bytesDownloaded.addAndGet(-count)
+            throw new IOException("Range ${start}-${end} truncated: received ${count} of ${expected} bytes")
+        }
+
+        return count
+    }
+
+    static String md5( File file ) {
+        def digest = MessageDigest.getInstance('MD5')
+        def buffer = new byte[64 * 1024]
+        def input = new FileInputStream(file)
+        try {
+            int read
+            while( (read=input.read(buffer)) != -1 ) {
+                digest.update(buffer, 0, read)
+            }
+        }
+        finally {
+            input.close()
+        }
+
+        return new BigInteger(1, digest.digest()).toString(16).padLeft(32,'0')
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.storage
+
+/**
+ * Keep track of the files copied from/to S3 storage.
+ * <p>
+ * For each copied object it saves the size and the last modified timestamp of the local file
+ * and the ETag of the remote object.
+ */
+class S3Manifest {
+
+    static final String FILE_NAME = '.s3manifest'
+
+    final File file
+
+    final private Properties entries = new Properties()
+
+    private boolean changed
+
+    S3Manifest( File file ) {
+        this.file = file
+    }
+
+    static S3Manifest load( File dir ) {
+        def result = new S3Manifest(new File(dir, FILE_NAME))
+        if( result.file.exists() ) {
+            result.file.withInputStream { result.entries.load(it) }
+        }
+        return result
+    }
+
+    synchronized Entry get( String container, String key ) {
+        def value = entries.getProperty("${container}/${key}".toString())
+        if( !value ) return null
+
+        def items = value.split(':', 3)
+        new Entry( size: items[0] as long, lastModified: items[1] as long, etag: items[2] )
+    }
+
+    synchronized void put( String container, String key, File file, String etag ) {
+        entries.setProperty( "${container}/${key}".toString(), "${file.length()}:${file.lastModified()}:${cleanETag(etag) ?: ''}".toString() )
+        changed = true
+    }
+
+    synchronized void save() {
+        if( !changed ) return
+        def temp = new File(file.getParentFile(), FILE_NAME + '.tmp')
+        temp.withOutputStream { entries.store(it, null) }
+        file.delete()
+        temp.renameTo(file)
+        changed = false
+    }
+
+    static String cleanETag( String etag ) {
+        etag?.replace('"','')?.toLowerCase()
+    }
+
+    static class Entry {
+        long size
+        long lastModified
+        String etag
+
+        boolean isSame( File file ) {
+            file.length() == size && file.lastModified() == lastModified
+        }
+    }
+}
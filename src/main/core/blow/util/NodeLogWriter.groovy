@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.util
+
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReadWriteLock
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.util.zip.GZIPOutputStream
+
+/**
+ * Append text records to the node log files using a single background thread.
+ * <p>
+ * The records are queued in a bounded queue, when it is full the caller is blocked or the record is dropped
+ * depending on the {@link Policy}. Each file is kept open while the writer is running and each record is written with
+ * a single write operation, so that the records of concurrent callers are never interleaved.
+ * <p>
+ * When a file grows over {@link #maxFileSize} bytes it is compressed to {@code <name>.1.gz}, the previous
+ * archives are shifted by one and only the last {@link #maxFiles} are kept.
+ */
+@Slf4j
+class NodeLogWriter implements Closeable {
+
+    /** What to do when a record is appended and the queue is full */
+    static enum Policy { BLOCK, DROP }
+
+    static private class Record {
+        File file
+        byte[] data
+        CountDownLatch done
+    }
+
+    static private class Target {
+        OutputStream stream
+        long size
+    }
+
+    static private final Record STOP = new Record()
+
+    final int queueSize
+
+    final Policy policy
+
+    /** Rotate a log file when its size exceeds this number of bytes, {@code 0} to never rotate */
+    final long maxFileSize
+
+    /** The number of the compressed archives to keep for each log file */
+    final int maxFiles
+
+    final private BlockingQueue<Record> queue
+
+    final private Thread writer
+
+    final private Map<File,Target> targets = new HashMap<File,Target>()
+
+    final private AtomicLong dropped = new AtomicLong()
+
+    private volatile boolean closed
+
+    /*
+     * The callers check the 'closed' flag and queue their records holding the read lock, while the writer
+     * is closed holding the write lock, so no record can be queued after the 'STOP' one
+     */
+    final private ReadWriteLock closing = new ReentrantReadWriteLock()
+
+    NodeLogWriter( int queueSize = 1024, Policy policy = Policy.BLOCK, long maxFileSize = 0, int maxFiles = 5 ) {
+        assert queueSize > 0
+        this.queueSize = queueSize
+        this.policy = policy ?: Policy.BLOCK
+        this.maxFileSize = maxFileSize
+        this.maxFiles = maxFiles
+        this.queue = new ArrayBlockingQueue<Record>(queueSize)
+
+        writer = new Thread( { processQueue() } as Runnable, 'node-log-writer' )
+        writer.setDaemon(true)
+        writer.start()
+    }
+
+    /**
+     * Queue a text to be appended to the specified file
+     *
+     * @return {@code true} when the text has been queued, {@code false} when it has been dropped
+     */
+    boolean append( File file, String text ) {
+        assert file
+
+        def record = new Record(file: file, data: text.getBytes('UTF-8'))
+        closing.readLock().lock()
+        try {
+            if( closed ) {
+                log.debug "Log writer closed, discarding record for file: '${file}'"
+                dropped.incrementAndGet()
+                return false
+            }
+
+            if( policy == Policy.BLOCK ) {
+                queue.put(record)
+                return true
+            }
+
+            if( !queue.offer(record) ) {
+                if( dropped.incrementAndGet() == 1 ) {
+                    log.warn "Log queue is full, node log records will be discarded"
+                }
+                return false
+            }
+            return true
+        }
+        finally {
+            closing.readLock().unlock()
+        }
+    }
+
+    /**
+     * @return The number of records discarded because the queue was full or the writer closed
+     */
+    long getDropped() { dropped.get() }
+
+    /**
+     * Wait for all the records queued so far to be written to the files
+     */
+    void flush() {
+        def record = new Record(done: new CountDownLatch(1))
+        closing.readLock().lock()
+        try {
+            if( closed ) return
+            queue.put(record)
+        }
+        finally {
+            closing.readLock().unlock()
+        }
+
+        // stop waiting if the writer thread has terminated without processing the record
+        while( !record.done.await(1, TimeUnit.SECONDS) ) {
+            if( !writer.isAlive() ) return
+        }
+    }
+
+    /**
+     * Write all the pending records and close the files
+     */
+    @Override
+    void close() {
+        closing.writeLock().lock()
+        try {
+            if( closed ) return
+            closed = true
+            // note: the writer thread does not take the lock, so the queue is drained and the put cannot block forever
+            queue.put(STOP)
+        }
+        finally {
+            closing.writeLock().unlock()
+        }
+        writer.join()
+    }
+
+    private void processQueue() {
+        def batch = new ArrayList<Record>(queueSize)
+        try {
+            while( true ) {
+                batch.add( queue.take() )
+                queue.drainTo(batch)
+
+                for( Record record : batch ) {
+                    if( record.is(STOP) ) {
+                        return
+                    }
+                    if( record.done ) {
+                        flushAll()
+                        record.done.countDown()
+                        continue
+                    }
+                    write(record)
+                }
+                batch.clear()
+
+                // the queue is empty, push the buffered data to the files
+                if( queue.isEmpty() ) {
+                    flushAll()
+                }
+            }
+        }
+        catch( InterruptedException e ) {
+            log.debug "Log writer interrupted"
+        }
+        finally {
+            // release the callers waiting for a flush and the ones blocked on the full queue
+            closed = true
+            queue.drainTo(batch)
+            batch.each { Record record -> record.done?.countDown() }
+            targets.values().each { Target target -> closeQuietly(target.stream) }
+            targets.clear()
+        }
+    }
+
+    private void write( Record record ) {
+        try {
+            def target = targets.get(record.file)
+            if( target == null ) {
+                target = open(record.file)
+            }
+            else if( maxFileSize > 0 && target.size > 0 && target.size + record.data.length > maxFileSize ) {
+                closeQuietly(target.stream)
+                rotate(record.file)
+                target = open(record.file)
+            }
+
+            target.stream.write(record.data)
+            target.size += record.data.length
+        }
+        catch( Exception e ) {
+            log.warn("Cannot write log file: '${record.file}'", e)
+            def target = targets.remove(record.file)
+            if( target ) closeQuietly(target.stream)
+        }
+    }
+
+    private Target open( File file ) {
+        if( file.parentFile && !file.parentFile.exists() ) {
+            file.parentFile.mkdirs()
+        }
+
+        def target = new Target( stream: new BufferedOutputStream(new FileOutputStream(file, true), 32 * 1024), size: file.length() )
+        targets.put(file, target)
+        return target
+    }
+
+    private void flushAll() {
+        targets.each { File file, Target target ->
+            try {
+                target.stream.flush()
+            }
+            catch( IOException e ) {
+                log.warn("Cannot flush log file: '${file}'", e)
+            }
+        }
+    }
+
+    /**
+     * Compress the file to {@code <name>.1.gz} shifting the existing archives
+     */
+    protected void rotate( File file ) {
+        targets.remove(file)
+
+        if( maxFiles <= 0 ) {
+            file.delete()
+            return
+        }
+
+        new File(file.parentFile, "${file.name}.${maxFiles}.gz").delete()
+        for( int i=maxFiles-1; i>0; i-- ) {
+            def archive = new File(file.parentFile, "${file.name}.${i}.gz")
+            if( archive.exists() ) {
+                archive.renameTo( new File(file.parentFile, "${file.name}.${i+1}.gz") )
+            }
+        }
+
+        def archive = new File(file.parentFile, "${file.name}.1.gz")
+        def output = new GZIPOutputStream(new FileOutputStream(archive))
+        try {
+            file.withInputStream { InputStream input -> output << input }
+        }
+        finally {
+            output.close()
+        }
+        file.delete()
+    }
+
+    static private void closeQuietly( Closeable stream ) {
+        try {
+            stream?.close()
+        }
+        catch( IOException e ) {
+            log.debug("Error closing log file", e)
+        }
+    }
+
+}
@@ -19,6 +19,7 @@
 
 package blow.util
 
+import blow.exception.OperationAbortException
 import blow.shell.BlowShell
 
 /**
@@ -34,6 +35,11 @@ class PromptHelper {
      */
     def String prompt( String prompt = "", Closure<String> accept = null ) {
 
+        // there's nobody to answer running a batch script, so the operation cannot continue
+        if( BlowShell.batchMode ) {
+            throw new OperationAbortException("Cannot answer in batch mode: ${prompt?.trim()}")
+        }
+
         def line
         while( true ) {
             line = BlowShell.console.readLine(prompt)
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.util
+
+import blow.BlowSession
+import com.thoughtworks.xstream.converters.Converter
+import com.thoughtworks.xstream.converters.MarshallingContext
+import com.thoughtworks.xstream.converters.UnmarshallingContext
+import com.thoughtworks.xstream.io.HierarchicalStreamReader
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter
+
+/**
+ * XStream converter for the references to the {@link BlowSession} held by the configuration operations.
+ * <p>
+ * The session is saved on its own, so a reference is written as an empty element and it is
+ * resolved to the session being read, see {@link #withSession(BlowSession, Closure)}
+ */
+class SessionReferenceConverter implements Converter {
+
+    static final private ThreadLocal<BlowSession> current = new ThreadLocal<BlowSession>()
+
+    /**
+     * Invoke the closure resolving the session references to the specified instance
+     */
+    static def withSession( BlowSession session, Closure closure ) {
+        def previous = current.get()
+        current.set(session)
+        try {
+            closure.call()
+        }
+        finally {
+            current.set(previous)
+        }
+    }
+
+    @Override
+    boolean canConvert(Class type) {
+        BlowSession.isAssignableFrom(type)
+    }
+
+    @Override
+    void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+        // nothing to write
+    }
+
+    @Override
+    Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+        current.get()
+    }
+}
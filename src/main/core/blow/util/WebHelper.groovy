@@ -22,25 +22,48 @@ package blow.util
 import groovy.util.logging.Slf4j
 
 /**
+ * Helper methods to access the web.
+ * <p>
+ * The URLs successfully verified by {@link #checkURLExists(java.lang.String)} are saved in the file
+ * {@link #urlCacheFile} and are not verified again for {@link #urlCacheTtl} millis, so that validating
+ * the configuration does not send the same requests every time.
  *
  *  @author Paolo Di Tommaso <paolo.ditommaso@gmail.com>
  */
 @Slf4j
 class WebHelper {
 
+    /** The file where the verified URLs are saved, {@code null} to keep them only in memory */
+    static File urlCacheFile = new File(System.getProperty("user.home"), ".blow/urls.cache")
+
+    /** The number of millis a verified URL is not checked again */
+    static long urlCacheTtl = 24 * 60 * 60 * 1000
+
+    /** The time when each URL has been verified */
+    static private Properties verified
+
     /**
      * Check if the specified URL exists
      *
      * @param sUrl The URL string to check
      */
     static boolean checkURLExists( String sUrl ) {
+        if( isVerified(sUrl) ) {
+            log.trace "URL verified recently: '${sUrl}'"
+            return true
+        }
+
         try {
             //HttpURLConnection.setFollowRedirects(false);
             // note : you may also need
             //        HttpURLConnection.setInstanceFollowRedirects(false)
             def con = new URL(sUrl).openConnection() as HttpURLConnection;
             con.setRequestMethod("HEAD");
-            return con.getResponseCode() == HttpURLConnection.HTTP_OK;
+            def result = con.getResponseCode() == HttpURLConnection.HTTP_OK
+            if( result ) {
+                setVerified(sUrl)
+            }
+            return result
         }
         catch (Exception e) {
             log.warn "Cannot verify URL: '${sUrl}' -- ${e.getMessage()}"
@@ -48,4 +71,57 @@ class WebHelper {
         }
     }
 
+    static synchronized private boolean isVerified( String url ) {
+        def time = verifiedUrls().getProperty(url)
+        time?.isLong() && System.currentTimeMillis() - time.toLong() < urlCacheTtl
+    }
+
+    static synchronized private void setVerified( String url ) {
+        def now = System.currentTimeMillis()
+        def urls = verifiedUrls()
+        urls.setProperty(url, now.toString())
+
+        // remove the expired entries
+        new ArrayList(urls.stringPropertyNames()).each { String key ->
+            def time = urls.getProperty(key)
+            if( !time.isLong() || now - time.toLong() >= urlCacheTtl ) urls.remove(key)
+        }
+
+        if( !urlCacheFile ) {
+            return
+        }
+
+        try {
+            urlCacheFile.parentFile?.mkdirs()
+            urlCacheFile.withOutputStream { OutputStream out -> urls.store(out, null) }
+        }
+        catch( IOException e ) {
+            log.debug "Cannot save the verified URLs to file: '${urlCacheFile}'", e
+        }
+    }
+
+    static private Properties verifiedUrls() {
+        if( verified != null ) {
+            return verified
+        }
+
+        verified = new Properties()
+        if( urlCacheFile?.exists() ) {
+            try {
+                urlCacheFile.withInputStream { InputStream input -> verified.load(input) }
+            }
+            catch( IOException e ) {
+                log.debug "Cannot read the verified URLs from file: '${urlCacheFile}'", e
+            }
+        }
+        return verified
+    }
+
+    /**
+     * Forget the verified URLs held in memory, they are read again from {@link #urlCacheFile}
+     */
+    static synchronized void resetUrlCache() {
+        verified = null
+    }
+
 }
@@ -20,8 +20,12 @@
 package blow.command
 
 import blow.BlowSession
+import blow.exception.CommandSyntaxException
 import blow.shell.BlowShell
 import blow.shell.Cmd
+import blow.shell.CmdParams
+import blow.shell.Completion
+import com.beust.jcommander.Parameter
 import groovy.util.logging.Slf4j
 
 /**
@@ -55,6 +59,18 @@ class ClusterCommands {
 
 
 
+    @Cmd(summary="Resume the configuration of the current cluster, only the steps not completed are executed again")
+    public void resume() {
+
+        def answer = shell.promptYesOrNo("Please confirm that you want to resume the configuration of cluster ${session.clusterName}")
+        if( answer != 'y' ) { return }
+
+        def steps = session.resumeCluster()
+        if( !steps ) {
+            println "(no failed steps in the provisioning journal)"
+        }
+    }
+
     @Cmd(summary="Terminate the current cluster")
     public void terminate() {
 
@@ -67,6 +83,62 @@ class ClusterCommands {
         }
     }
 
+    /**
+     * Parameters holder for the 'addnodes' command
+     */
+    static class AddNodesParams extends CmdParams {
+
+        @Parameter(names=['-r','--role'], description='The role of the nodes to add (default: the workers role)')
+        String role
+
+        @Parameter
+        List<String> count
+    }
+
+    @Cmd( name="addnodes",
+          summary="Add nodes to the running cluster, only the new nodes are configured",
+          usage="addnodes [options] <number of nodes>")
+    def void addNodes( AddNodesParams params ) {
+
+        def count = params.count ? params.count[0] : null
+        if( !count?.isInteger() || count.toInteger() < 1 ) {
+            throw new CommandSyntaxException('Provide on the command line the number of nodes to add')
+        }
+
+        def role = params.role ?: session.conf.workersRole
+        def answer = shell.promptYesOrNo("Please confirm that you want to add ${count} '${role}' node(s) to cluster ${session.clusterName}")
+        if( answer != 'y' ) { return }
+
+        def names = session.addNodes(role, count.toInteger())
+        println "Added node(s): ${names.join(', ')}"
+    }
+
+    /**
+     * Parameters holder for the 'removenodes' command
+     */
+    static class RemoveNodesParams extends CmdParams {
+
+        @Parameter
+        List<String> nodes
+    }
+
+    @Cmd( name="removenodes",
+          summary="Drain and terminate the specified nodes of the running cluster",
+          usage="removenodes <node name> [node name ..]")
+    @Completion({ cmdline -> session.findMatchingAttributes(cmdline) })
+    def void removeNodes( RemoveNodesParams params ) {
+
+        if( !params.nodes ) {
+            throw new CommandSyntaxException('Provide on the command line the name of the nodes to remove')
+        }
+
+        def answer = shell.promptYesOrNo("Please confirm that you want to terminate the node(s): ${params.nodes.join(', ')}")
+        if( answer != 'y' ) { return }
+
+        def names = session.removeNodes(params.nodes)
+        println "Removed node(s): ${names.join(', ')}"
+    }
+
     @Cmd(summary="Shows the list of the current running clusters")
     def listclusters() {
 
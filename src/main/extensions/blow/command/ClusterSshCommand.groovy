@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.command
+
+import blow.BlowSession
+import blow.exception.CommandSyntaxException
+import blow.shell.Cmd
+import blow.shell.CmdParams
+import blow.shell.Completion
+import com.beust.jcommander.Parameter
+
+/**
+ * Open an interactive terminal on many nodes at the same time
+ */
+class ClusterSshCommand {
+
+    BlowSession session
+
+    /**
+     * Parameters holder for the 'cssh' command
+     */
+    static class ClusterSshParams extends CmdParams {
+
+        @Parameter(names=['-t','--tile'], description='Show the output of each node in its own pane, instead of merging the lines of all the nodes')
+        boolean tile
+
+        @Parameter
+        List<String> targets
+    }
+
+    @Cmd( name="cssh",
+          summary="Open a terminal on many nodes, the keystrokes are sent to all of them",
+          usage="cssh [options] <node name|role|IP> [..]  (enter '~.' at the beginning of a line to exit)")
+    @Completion({ cmdline -> session.findMatchingAttributes(cmdline) })
+    def void clusterSsh( ClusterSshParams params ) {
+
+        if( !params.targets ) {
+            throw new CommandSyntaxException('Specify the nodes names, roles or IP addresses to which connect')
+        }
+
+        def names = session.broadcastConsole(params.targets, params.tile)
+        println "Closed terminal(s) on: ${names.join(', ')}"
+    }
+
+}
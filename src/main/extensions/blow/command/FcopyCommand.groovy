@@ -20,18 +20,19 @@
 package blow.command
 
 import blow.BlowSession
-import blow.shell.Cmd
-import groovy.util.logging.Slf4j
-import lia.util.net.copy.FDT
-import org.apache.commons.io.IOUtils
 import blow.exception.CommandSyntaxException
-import com.beust.jcommander.Parameter
+import blow.shell.Cmd
 import blow.shell.CmdParams
+import blow.ssh.ParallelCopy
+import blow.ssh.ScpClient
+import blow.ssh.SftpTransferChannel
+import com.beust.jcommander.Parameter
+import groovy.util.logging.Slf4j
 
 /**
  *  Fast copy file(s) to/from a remote host.
  *
- *  It is based on the Fast Data Transfer (FDT) protocol - http://monalisa.cern.ch/FDT/
+ *  The files are copied by many SFTP channels at the same time, see {@link ParallelCopy}
  *
  *  @author Paolo Di Tommaso <paolo.ditommaso@gmail.com>
  */
@@ -41,9 +42,6 @@ class FcopyCommand {
 
     def BlowSession session
 
-
-    def nodeFound
-
     public static final String CMD_DESCRIPTION = ''
 
     /**
@@ -51,29 +49,14 @@ class FcopyCommand {
      */
     static class FastCopyParams extends CmdParams {
 
-        @Parameter(names='-bio', description='Blocking I/O mode')
-        boolean blockingMode;
-
-        @Parameter(names='-iof', description='Non-blocking I/O retry factor')
-        boolean retryFactor;
-
-        @Parameter(names='-limit', description='Restrict the transfer speed at the specified rate' )
-        String limit;
-
         @Parameter(names='-md5', description='Enables MD5 checksum for every file involved in the transfer')
         Boolean md5;
 
-        @Parameter(names='-printStats', description='Various statistics about buffer pools, sessions, etc will be printed')
-        Boolean printStats;
-
-        @Parameter(names='-bs', description='Size for the I/O buffers')
-        Integer bufferSize;
-
-        @Parameter(names='-N', description='Disable Nagle algorithm')
-        boolean disableNagle;
+        @Parameter(names='-bs', description='Size in MB of the ranges in which the large files are split')
+        Integer rangeSize;
 
-        @Parameter(names='-ss', description='Set the TCP SO_SND_BUFFER size')
-        Integer windowSize;
+        @Parameter(names='-q', description='Do not print the transfer progress')
+        boolean quiet;
 
         @Parameter(names='-P', description='Number of paralel streams to use')
         int numOfStreams = 4;
@@ -88,7 +71,7 @@ fcp copies files between the local file system and a remote host. Source and tar
 
 The source path can be a file or a directory specification, if a directory is specified all its content will be copied recursively. The target path MUST specify the target folder that will contain the copied file.
 
-This command uses the Fast Data Transfer (FDT) protocol. Please referer to the following link for information and options details: http://monalisa.cern.ch/FDT/
+The files are copied using many SSH connections at the same time, large files are split in ranges copied in parallel. When a copy is interrupted, running the same command again copies only the missing ranges.
 
 EXAMPLES
   fcp /user/local/archive.tar.gz 10.1.1.1:/tmp
@@ -109,104 +92,78 @@ EXAMPLES
             throw new CommandSyntaxException('Please specify the source path and the target path of the file(s) to copy')
         }
 
-        nodeFound = false
-        for( int i=0; i<params.files.size(); i++ ) {
-            params.files[i] = resolveHostName(params.files[i])
-        }
+        def paths = params.files.collect { splitPath(it) }
+        def sources = paths[0..-2]
+        def target = paths[-1]
 
-        if( !nodeFound ) {
+        if( !paths.any { it.host } ) {
             throw new CommandSyntaxException("Please specify a remote host using the syntax 'host:path'")
         }
 
-        /*
-         * Compose the cmd line to invoke the FDT tool
-         *
-         *
-         */
-        def cmdline = 'java'
-        cmdline += ' -jar ' + fdtJarFile.toString()
-        cmdline += ' -p ' + session.conf.fdtPort.toString()
-        cmdline += ' -noupdates'
-        cmdline += ' -sshKey ' + session.conf.privateKey.absolutePath
-        cmdline += ' -remote ' + '\'FDT_JAR="${FDT_HOME:-$HOME}/fdt.jar"; [ ! -e $FDT_JAR ] && wget -q http://s3-eu-west-1.amazonaws.com/cbcrg-eu/fdt.jar -O $FDT_JAR; java -jar $FDT_JAR\''
-
-        // some optional parameter
-        if( params.blockingMode ) cmdline += ' -bio'
-        if( params.retryFactor ) cmdline += "-iof ${params.retryFactor}"
-        if( params.limit ) cmdline += " -limit ${params.limit}"
-        if( params.md5 ) cmdline += " -md5"
-        if( params.printStats ) cmdline += ' -printStats'
-        if( params.bufferSize ) cmdline += ' -bs ' + params.bufferSize
-        if( params.disableNagle ) cmdline += ' -N'
-        if( params.windowSize ) cmdline += ' -ss ' + params.windowSize
-        if( params.numOfStreams ) cmdline += ' -P ' + params.numOfStreams
-
-        // always use the recursive mode
-        cmdline += ' -r'
-
-        // append the list of files to upload
-        params.files.each {
-            cmdline += ' ' + it
+        boolean upload = target.host != null
+        if( upload && sources.any { it.host } ) {
+            throw new CommandSyntaxException("Cannot copy between remote hosts, the source paths must be local when the target is remote")
+        }
+        if( !upload && sources*.host.unique().size() > 1 ) {
+            throw new CommandSyntaxException("The source paths must be on the same remote host")
         }
 
+        def address = resolveHostName( upload ? target.host : sources[0].host )
+        def user = session.conf.userName
+        def key = session.conf.privateKey
 
-        log.debug("FDT cmdline: $cmdline" )
-        def isWindows = System.properties['os.name']?.startsWith('Windows')
-        def builder = isWindows ? new ProcessBuilder('cmd', '/c', 'start', cmdline) : new ProcessBuilder('sh', '-c', cmdline)
-        builder.redirectErrorStream(true)
+        def copier = new ParallelCopy( address, { SftpTransferChannel.connect(address, user, key) } )
+        copier.streams = Math.max(1, params.numOfStreams)
+        copier.verify = params.md5 as boolean
+        if( params.rangeSize ) copier.rangeSize = params.rangeSize * 1024L * 1024L
+        if( !params.quiet ) {
+            copier.progress = { ParallelCopy.Progress progress -> print "\r${progress}    " }
+        }
 
-        /**
-         * Run it as an external java process
-         */
-        def proc = builder.start()
-        Thread.start('fdt') { System.out << proc.inputStream }
-        def result = proc.waitFor()
-        log.debug("FDT exitcode: " + result)
+        def result
+        try {
+            if( upload ) {
+                result = copier.upload( sources.collect { new File(it.path) }, ScpClient.normalizeRemotePath(target.path) )
+            }
+            else {
+                result = copier.download( sources.collect { ScpClient.normalizeRemotePath(it.path) }, new File(target.path) )
+            }
+        }
+        finally {
+            if( !params.quiet ) println ''
+        }
 
+        log.debug "fcp completed: ${result}"
     }
 
-
-    def String resolveHostName( String path ) {
+    /**
+     * Split a path in the form {@code host:path}
+     *
+     * @return A map with the entries {@code host}, {@code null} for local paths, and {@code path}
+     */
+    static protected Map splitPath( String path ) {
 
         def pos = path.indexOf(':')
         if( pos == -1 ) {
-            // directory names, must end with a wild card symbol
-            return new File(path)
+            return [host: null, path: path]
         }
 
-        nodeFound = true
         def host = path.substring(0,pos)
         def directory = path.substring(pos+1)
+        return [host: host, path: directory ?: '~']
+    }
+
+    /**
+     * @return The public address of the node matching the specified name or address
+     */
+    def String resolveHostName( String host ) {
 
         def node = session.findMatchingNode( host );
         if( !node ) {
             throw new CommandSyntaxException("Unknown remote host name or address: '$host'")
         }
 
-
-        "${session.conf.userName}@${node.getPublicAddresses()?.find()}:${directory}"
-
+        node.getPublicAddresses()?.find()
     }
 
-    /** Use the local fdt.jat library or extract it is packed in the distribution package */
-    @Lazy
-    private File fdtJarFile = {
-
-        URL loc = FDT.class.getProtectionDomain()?.getCodeSource()?.getLocation()
-
-        // if is already available as file on the file system, just us it
-        if( loc.toString().startsWith('file:') ) {
-            return new File( loc.toString().substring(5) )
-        }
-
-        // otherwise we have to extract to a temporary file
-        File temp = File.createTempFile('fdt','.jar')
-        temp.deleteOnExit()
-        OutputStream out = new FileOutputStream(temp)
-        IOUtils.copy( loc.openStream(), out )
-        out.flush()
-
-        return temp
-
-    } ()
 }
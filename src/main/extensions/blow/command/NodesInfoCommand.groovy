@@ -142,6 +142,10 @@ class NodesInfoCommand  {
 
         }
 
+        if( params.showDetails == true && session.allNodes.getAge() >= 0 ) {
+            println "(metadata updated ${session.allNodes.getAge() / 1000 as long} secs ago)"
+        }
+
     }
 
     /**
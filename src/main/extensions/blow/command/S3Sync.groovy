@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.command
+
+import blow.ssh.StreamPump
+import blow.storage.ParallelDownloader
+import blow.storage.S3Manifest
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import groovy.io.FileType
+import groovy.util.logging.Slf4j
+import org.jclouds.blobstore.BlobStoreContext
+import org.jclouds.blobstore.domain.BlobMetadata
+import org.jclouds.blobstore.domain.StorageType
+import org.jclouds.domain.Location
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Copy recursively a local directory to a S3 path and vice-versa.
+ * <p>
+ * Files are transferred concurrently by a pool of {@link #numOfStreams} threads fed by a bounded queue.
+ * Small files are grouped in batches transferred by the same job, large files are uploaded with a
+ * multipart upload and downloaded with parallel ranged requests.
+ * <p>
+ * The size, last modified time and ETag of each copied file are saved in a manifest file
+ * stored in the local directory, so that files not changed since the last copy are skipped.
+ */
+@Slf4j
+class S3Sync {
+
+    /** Files smaller than this size (bytes) are grouped together in the same transfer job */
+    static final long SMALL_FILE_SIZE = 1024 * 1024
+
+    /** Max number of small files in the same transfer job */
+    static final int BATCH_SIZE = 32
+
+    final BlobStoreContext context
+
+    /** Number of transfers running at the same time */
+    int numOfStreams = 4
+
+    /** The region where the container is created, when it does not exist */
+    Location location
+
+    final AtomicInteger copied = new AtomicInteger()
+
+    final AtomicInteger skipped = new AtomicInteger()
+
+    final AtomicInteger failed = new AtomicInteger()
+
+    final AtomicLong bytes = new AtomicLong()
+
+    private long startTime
+
+    private ThreadPoolExecutor executor
+
+    private List<Closure<Long>> batch
+
+    S3Sync( BlobStoreContext context ) {
+        assert context
+        this.context = context
+    }
+
+    /**
+     * Upload the content of a local directory
+     *
+     * @param dir The local directory to upload
+     * @param path The target S3 path e.g. {@code bucket/some/dir}
+     */
+    void upload( File dir, String path ) {
+        assert dir?.isDirectory()
+        def loc = S3Path.split(path)
+        assert loc.container, "Missing S3 container in path: $path"
+
+        def manifest = S3Manifest.load(dir)
+        def store = context.getAsyncBlobStore()
+        store.createContainerInLocation(location, loc.container).get()
+
+        def remote = listBlobs(loc)
+        start()
+        try {
+            dir.eachFileRecurse(FileType.FILES) { File file ->
+                if( file.name == S3Manifest.FILE_NAME ) return
+
+                def key = loc.directory ? "${loc.directory}/${relativePath(dir,file)}".toString() : relativePath(dir,file)
+                def entry = manifest.get(loc.container, key)
+                def meta = remote[key]
+
+                if( entry && entry.isSame(file) && entry.etag == S3Manifest.cleanETag(meta?.getETag()) ) {
+                    skipped.incrementAndGet()
+                    return
+                }
+
+                // there's no entry in the manifest, check it by the content checksum
+                if( !entry && meta && sizeOf(meta) == file.length() && S3Manifest.cleanETag(meta.getETag()) == ParallelDownloader.md5(file) ) {
+                    manifest.put(loc.container, key, file, meta.getETag())
+                    skipped.incrementAndGet()
+                    return
+                }
+
+                submit( file.length() ) {
+                    def etag = S3commands.putFile(store, loc.container, key, file)
+                    manifest.put(loc.container, key, file, etag)
+                    file.length()
+                }
+            }
+        }
+        finally {
+            finish()
+            manifest.save()
+        }
+    }
+
+    /**
+     * Download the content of a S3 path into a local directory
+     *
+     * @param path The source S3 path e.g. {@code bucket/some/dir}
+     * @param dir The local directory where the files are stored
+     */
+    void download( String path, File dir ) {
+        def loc = S3Path.split(path)
+        assert loc.container, "Missing S3 container in path: $path"
+
+        if( !dir.exists() ) dir.mkdirs()
+        def manifest = S3Manifest.load(dir)
+        def store = context.getBlobStore()
+
+        def remote = listBlobs(loc)
+        start()
+        try {
+            remote.each { String key, BlobMetadata meta ->
+                def rel = loc.directory ? key.substring(loc.directory.length()+1) : key
+                def file = targetFile(dir, rel)
+                if( file == null ) {
+                    log.warn "Skipping S3 object '${key}' -- its path is outside the target directory"
+                    failed.incrementAndGet()
+                    return
+                }
+
+                def entry = manifest.get(loc.container, key)
+
+                if( file.exists() && entry && entry.isSame(file) && entry.etag == S3Manifest.cleanETag(meta.getETag()) ) {
+                    skipped.incrementAndGet()
+                    return
+                }
+
+                long size = sizeOf(meta)
+                submit( size ) {
+                    if( !file.getParentFile().exists() ) file.getParentFile().mkdirs()
+
+                    if( size < SMALL_FILE_SIZE ) {
+                        // small file, save the round trip required by the parallel download
+                        def input = store.getBlob(loc.container, key).getPayload().getInput()
+                        def output = new FileOutputStream(file)
+                        try {
+                            new StreamPump(input, output).copy()
+                        }
+                        finally {
+                            input.close()
+                            output.close()
+                        }
+                    }
+                    else {
+                        def downloader = new ParallelDownloader(store)
+                        downloader.parallelism = numOfStreams
+                        downloader.download(loc.container, key, file)
+                    }
+
+                    manifest.put(loc.container, key, file, meta.getETag())
+                    size
+                }
+            }
+        }
+        finally {
+            finish()
+            manifest.save()
+        }
+    }
+
+    /**
+     * @return The map of the blobs in the specified path, indexed by their key
+     */
+    protected Map<String,BlobMetadata> listBlobs( S3Path loc ) {
+        def result = [:]
+        def prefix = loc.directory ? loc.directory + '/' : ''
+        if( !context.getBlobStore().containerExists(loc.container) ) {
+            return result
+        }
+
+        S3commands.listObjects(context.getBlobStore(), loc.format(null), true, Integer.MAX_VALUE).each { S3Object it ->
+            if( it.getType() == StorageType.BLOB && it.getName().startsWith(prefix) ) {
+                result[it.getName()] = it.metadata
+            }
+        }
+        return result
+    }
+
+    static long sizeOf( def meta ) {
+        meta instanceof BlobMetadata ? (meta.getContentMetadata()?.getContentLength() ?: 0) : 0
+    }
+
+    /**
+     * @return The local file for the specified object path relative to the target directory, or {@code null}
+     * when the path refers to a file outside the directory, e.g. by using '..'. Absolute paths are resolved
+     * against the directory
+     */
+    static File targetFile( File dir, String rel ) {
+        def base = dir.getCanonicalFile()
+        def result = new File(base, rel).getCanonicalFile()
+        result.getPath().startsWith(base.getPath() + File.separator) ? result : null
+    }
+
+    static String relativePath( File dir, File file ) {
+        dir.toURI().relativize(file.toURI()).getPath()
+    }
+
+    private void start() {
+        startTime = System.currentTimeMillis()
+        batch = []
+        // the bounded queue with the 'caller-runs' policy makes the directory walk wait when all the threads are busy
+        executor = new ThreadPoolExecutor(numOfStreams, numOfStreams, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(numOfStreams * 2),
+                new ThreadFactoryBuilder().setNameFormat('s3-sync-%d').setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy() )
+    }
+
+    /*
+     * Submit a transfer job, small files are batched together
+     */
+    private void submit( long size, Closure<Long> transfer ) {
+        if( size >= SMALL_FILE_SIZE ) {
+            execute( [transfer] )
+            return
+        }
+
+        batch.add(transfer)
+        if( batch.size() >= BATCH_SIZE ) {
+            execute( batch )
+            batch = []
+        }
+    }
+
+    private void execute( List<Closure<Long>> jobs ) {
+        executor.execute( {
+            jobs.each { Closure<Long> job ->
+                try {
+                    bytes.addAndGet( job.call() )
+                    copied.incrementAndGet()
+                }
+                catch( Exception e ) {
+                    log.warn "S3 transfer failed -- cause: ${e.getMessage() ?: e.toString()}"
+                    log.debug "S3 transfer error", e
+                    failed.incrementAndGet()
+                }
+            }
+        } as Runnable )
+    }
+
+    private void finish() {
+        if( batch ) {
+            execute( batch )
+            batch = []
+        }
+        executor.shutdown()
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+    }
+
+    /** @return The time spent by the last copy (millis) */
+    long getElapsedMillis() {
+        startTime ? System.currentTimeMillis() - startTime : 0
+    }
+
+    /**
+     * @return A string summarizing the number of files transferred and the aggregate throughput
+     */
+    String getSummary() {
+        def elapsed = getElapsedMillis()
+        def speed = elapsed ? (long)(bytes.get() * 1000 / elapsed) : bytes.get()
+        def result = "Copied ${copied.get()} file(s), ${S3commands.fmt(bytes.get())} bytes in ${S3commands.fmt(elapsed / 1000)} sec (${S3commands.getSpeed(speed)})"
+        if( skipped.get() ) result += "; ${skipped.get()} unchanged file(s) skipped"
+        if( failed.get() ) result += "; ${failed.get()} file(s) failed"
+        return result
+    }
+
+}
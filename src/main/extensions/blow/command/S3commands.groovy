@@ -21,15 +21,16 @@ package blow.command
 
 import blow.BlowSession
 import blow.exception.CommandSyntaxException
+import blow.metrics.Metrics
 import blow.shell.BlowShell
 import blow.shell.Cmd
 import blow.shell.CmdFree
+import blow.storage.ParallelDownloader
 import blow.util.PromptHelper
 import com.google.common.collect.ImmutableSet
 import com.google.inject.Module
 import groovy.util.logging.Slf4j
 import org.apache.commons.io.FilenameUtils
-import org.apache.commons.io.IOUtils
 import org.jclouds.aws.s3.blobstore.strategy.internal.MultipartUploadSlicingAlgorithm
 import org.jclouds.blobstore.AsyncBlobStore
 import org.jclouds.blobstore.BlobStore
@@ -166,9 +167,11 @@ class S3commands {
     }
 
     private list( String path, boolean recursive=false, int maxCount = 1000, List<S3Object> resultSet = new LinkedList<S3Object>() ) {
-        log.debug "S3 List path: $path; recursive: $recursive; maxCount: $maxCount"
+        listObjects( ctx().getBlobStore(), path, recursive, maxCount, resultSet )
+    }
 
-        def store = ctx().getBlobStore()
+    static List<S3Object> listObjects( BlobStore store, String path, boolean recursive=false, int maxCount = 1000, List<S3Object> resultSet = new LinkedList<S3Object>() ) {
+        log.debug "S3 List path: $path; recursive: $recursive; maxCount: $maxCount"
 
         /*
          * List only the bucket
@@ -188,7 +191,7 @@ class S3commands {
             for( StorageMetadata it : containers ) {
                 if( resultSet.size() > maxCount ) { break }
                 resultSet.add( new S3Object(it.getName(), it))
-                list(it.getName(), true, maxCount, resultSet )
+                listObjects(store, it.getName(), true, maxCount, resultSet )
             }
             return resultSet
         }
@@ -209,9 +212,16 @@ class S3commands {
             def entries = store.list(loc.container, opt )
 
             int count = resultSet.size()
-            for( StorageMetadata it : entries ) {
-                if( count++ > maxCount ) { break }
-                resultSet.add( new S3Object(loc.format(it.getName()), it))
+            while( true ) {
+                for( StorageMetadata it : entries ) {
+                    if( count++ > maxCount ) { break }
+                    resultSet.add( new S3Object(loc.format(it.getName()), it))
+                }
+
+                // fetch the next page, if any
+                def marker = entries.getNextMarker()
+                if( !marker || count > maxCount ) { break }
+                entries = store.list(loc.container, opt.afterMarker(marker))
             }
 
         }
@@ -228,6 +238,12 @@ class S3commands {
         @Parameter(names='--region', description='When copying to a new bucket, specify the region where it have to be created')
         String regionId;
 
+        @Parameter(names='-P', description='Number of parallel streams to use downloading a file')
+        int numOfStreams = 4;
+
+        @Parameter(names='-r', description='Copy directories recursively, skipping the files not changed since the last copy')
+        Boolean recursive;
+
         @Parameter
         List<String> files
 
@@ -254,7 +270,12 @@ class S3commands {
 
             def targetFile = strToFile(target)
 
-            def result = getFromS3(source, targetFile)
+            if( params.recursive ) {
+                syncFromS3(source, targetFile, params.numOfStreams)
+                return
+            }
+
+            def result = getFromS3(source, targetFile, params.numOfStreams)
             if( result != targetFile ) {
                 println "Stored location: " + result.canonicalPath
             }
@@ -274,8 +295,13 @@ class S3commands {
                return
             }
 
+            if( file.isDirectory() && params.recursive ) {
+                syncToS3(file, target, params.regionId, params.numOfStreams)
+                return
+            }
+
             if( !file.isFile() ) {
-               println "The source item must be a file: '$file'"
+               println "The source item must be a file (use -r to copy a directory): '$file'"
                return
             }
 
@@ -316,12 +342,25 @@ class S3commands {
 
         store.createContainerInLocation(loc, containerName).get()  // note: the get is required to wait for the creation of the bucket
 
+        putFile(store, containerName, objectName, input)
+        long length = input.length()
+
+        printSpeed("\rComplete!", start, length);
+    }
+
+    /*
+     * Put a file into a container, multipart upload is used for files bigger than the upload part size
+     *
+     * @return The ETag of the uploaded object
+     */
+    static protected String putFile( AsyncBlobStore store, String containerName, String objectName, File input ) {
+
         // Add a Blob
         Blob blob = store
                     .blobBuilder(objectName)
                     .payload(input)
                     .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .contentDisposition(objectName)
+                    .contentDisposition(FilenameUtils.getName(objectName))
                     .build();
 
         def opt
@@ -337,10 +376,11 @@ class S3commands {
         }
 
         // Upload a file
-        def result = store.putBlob(containerName, blob, opt);
-        result.get()
-
-        printSpeed("\rComplete!", start, length);
+        def timer = Metrics.timer('s3.put').start()
+        def result = store.putBlob(containerName, blob, opt).get()
+        timer.stop()
+        Metrics.counter('s3.put.bytes').add(length)
+        return result
     }
 
     /*
@@ -348,9 +388,10 @@ class S3commands {
      *
      * @param path A fully qualified S3 location e.g. /bucket/directory/to/file
      * @param target A local file where to save the downloaded file
+     * @param numOfStreams The number of parts downloaded concurrently
      * @return The file where the download has been file (it may change if the 'target' parameter was a directory)
      */
-    private File getFromS3( String path, File target ) {
+    private File getFromS3( String path, File target, int numOfStreams = 4 ) {
         assert path
         log.debug "S3 download: $path to: $target "
 
@@ -372,11 +413,9 @@ class S3commands {
         BlobStore store = ctx().getBlobStore();
 
         def location = S3Path.split(path)
-        Blob blob = store.getBlob(location.container, location.directory)
-
-        def out = new FileOutputStream(target)
-        IOUtils.copyLarge(blob.getPayload().getInput(), out)
-        out.close()
+        def downloader = new ParallelDownloader(store)
+        downloader.parallelism = numOfStreams
+        downloader.download(location.container, location.directory, target)
 
         printSpeed("\rComplete!", start, target.size())
 
@@ -384,6 +423,37 @@ class S3commands {
 
     }
 
+    /*
+     * Upload recursively a local directory to the S3 storage
+     */
+    private void syncToS3( File dir, String path, String regionId = null, int numOfStreams = 4 ) {
+        if( path.startsWith('s3://') ) {
+            path = path.substring('s3://'.length())
+        }
+
+        print "Uploading directory '${dir.getName()}' ..."
+        def sync = new S3Sync(ctx())
+        sync.numOfStreams = numOfStreams
+        sync.location = defaultLocation(regionId)
+        sync.upload(dir, path)
+        println "\rComplete! ${sync.summary}"
+    }
+
+    /*
+     * Download recursively a S3 path to a local directory
+     */
+    private void syncFromS3( String path, File dir, int numOfStreams = 4 ) {
+        if( path.startsWith('s3://') ) {
+            path = path.substring('s3://'.length())
+        }
+
+        print "Downloading '${path}' ..."
+        def sync = new S3Sync(ctx())
+        sync.numOfStreams = numOfStreams
+        sync.download(path, dir)
+        println "\rComplete! ${sync.summary}"
+    }
+
     private Location defaultLocation( String regionId = null ) {
 
         if( !regionId && session ) {
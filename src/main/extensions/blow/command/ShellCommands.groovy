@@ -19,6 +19,7 @@
 
 package blow.command
 
+import blow.BlowSession
 import blow.Project
 import blow.exception.ShellExit
 import blow.shell.BlowShell
@@ -74,6 +75,23 @@ class ShellCommands {
         shell.listClusters().findAll { it?.startsWith(cmdline) }
     }
 
+    /**
+     * The clusters switched by the 'use' command are kept open, list them marking the current one
+     */
+    @Cmd(summary="Shows the clusters open in this shell")
+    def void sessions() {
+        def list = shell.sessions.getSessions()
+        if( !list ) {
+            println "(no clusters open)"
+            return
+        }
+
+        list.each { BlowSession it ->
+            def current = it.clusterName == shell.currentCluster ? '*' : ' '
+            println "${current} ${it.clusterName}${it.dirty ? ' (running)' : ''}"
+        }
+    }
+
     /**
      * Print the Blow version
      */
@@ -20,9 +20,11 @@
 package blow.command
 
 import blow.BlowSession
+import blow.exception.BlowException
 import blow.exception.CommandSyntaxException
 import blow.shell.AbstractShellCommand
 import blow.shell.CommandCompletor
+import blow.ssh.ConsolePrinter
 import blow.ssh.SshConsole
 import groovy.util.logging.Slf4j
 import org.jclouds.compute.domain.ExecResponse
@@ -45,6 +47,12 @@ class SshCommand extends AbstractShellCommand implements CommandCompletor {
 
     private boolean showHelp
 
+    /** Print the output of the nodes while it is produced */
+    private boolean stream
+
+    /** The number of the last output lines of each node to keep, {@code 0} to keep all of them */
+    private int tail
+
     @Override
     def String getName() { "ssh" }
 
@@ -58,7 +66,7 @@ class SshCommand extends AbstractShellCommand implements CommandCompletor {
      * <p>
      * It follows this syntax:
      * <pre>
-     * host [command to execute on the remote host(s)]
+     * [-s|--stream] [--tail N] host [command to execute on the remote host(s)]
      * </pre>
      *
      * @param args
@@ -66,6 +74,20 @@ class SshCommand extends AbstractShellCommand implements CommandCompletor {
     @Override
     def void parse( List<String> args ) {
 
+        stream = false
+        tail = 0
+        args = args ? new ArrayList<String>(args) : []
+        while( args && args[0] in ['-s','--stream','--tail'] ) {
+            def opt = args.remove(0)
+            if( opt == '--tail' ) {
+                if( !args || !args[0].isInteger() ) {
+                    throw new CommandSyntaxException("Option '--tail' requires the number of lines to show")
+                }
+                tail = args.remove(0).toInteger()
+            }
+            stream = true
+        }
+
         if( args ) {
             targetHost = args.head()
             targetCommand = args.size()>1 ? args.tail().join(' ') : null
@@ -114,22 +136,39 @@ class SshCommand extends AbstractShellCommand implements CommandCompletor {
          * Execute the SSH on the remote node
          */
 
+        if( stream || session.conf.streamOutput ) {
+            invokeStreaming()
+            return
+        }
+
         def result = session.runScriptOnNodes( targetCommand, targetHost );
         if( !result ) {
-            println "Remote execution terminated with error(s)"
             printResponse(session.errors)
+            throw new BlowException("Remote execution terminated with error(s)")
         }
         else {
             printResponse(session.response)
         }
     }
 
+    /**
+     * Print the output of the nodes while it arrives, followed by the list of the failed nodes
+     */
+    private void invokeStreaming() {
+        def printer = new ConsolePrinter()
+        def result = session.runScriptOnNodes( targetCommand, targetHost, false, printer, tail ?: session.conf.outputTailLines )
+        printer.printSummary()
+        if( !result ) {
+            throw new BlowException("Remote execution terminated with error(s)")
+        }
+    }
+
     static void printResponse( Map<String,ExecResponse> response ) {
 
         int count = 0
         response.each { String node, ExecResponse resp ->
-            // ask if he/she want to see all responses
-            if( count == 1 ) {
+            // ask if he/she want to see all responses, when there isn't any console (batch mode) print all of them
+            if( count == 1 && System.console() ) {
                 print "\nPrint all remaining ${response.size()-1} response(s) [y/n]? "
                 String answer
                 while( (answer=System.console().readLine()) != 'y' && answer != 'n' ) {  }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.command
+
+import blow.metrics.Metrics
+import blow.shell.Cmd
+import blow.shell.CmdParams
+import com.beust.jcommander.Parameter
+import groovy.json.JsonBuilder
+
+/**
+ * Print the metrics collected by the current process, see {@link Metrics}
+ */
+class StatsCommand {
+
+    static class StatsParams extends CmdParams {
+
+        @Parameter(names='-json', description='Print the metrics in JSON format')
+        boolean json
+
+        @Parameter(names='-reset', description='Clear the metrics after printing them')
+        boolean reset
+
+        @Parameter(description='Print only the metrics whose name starts with the specified prefix(es)')
+        List<String> prefixes
+    }
+
+    @Cmd(name='stats', summary='Shows the time spent by the main operations', usage='stats [options] [prefix ..]',
+         description='''\
+Prints the number of calls and the durations, in milliseconds, of the session operations, the SSH commands and
+transfers, the S3 requests and the event handlers executed since Blow has been launched.
+
+The session operations and SSH commands are named with the prefix 'cluster.<cluster>.', they are appended
+to the file '.blow_metrics.<cluster>' when the session is closed.
+
+The same values are available by JMX as the 'blow:type=Metrics' bean.
+''')
+    def void stats( StatsParams params ) {
+
+        def metrics = Metrics.snapshot().findAll { String name, Map values ->
+            !params.prefixes || params.prefixes.any { name.startsWith(it) }
+        }
+
+        if( params.json ) {
+            println new JsonBuilder(metrics).toPrettyString()
+        }
+        else if( metrics ) {
+            print format(metrics)
+        }
+        else {
+            println "(no metrics)"
+        }
+
+        if( params.reset ) {
+            Metrics.reset()
+        }
+    }
+
+    /**
+     * Format the metrics as a table, the counters show only the count
+     */
+    static String format( Map<String,Map> metrics ) {
+        def columns = ['count','total','mean','p50','p90','p99','max']
+        def width = Math.max( 'metric'.size(), metrics.keySet()*.size().max() as int )
+
+        def result = new StringBuilder()
+        result << 'metric'.padRight(width)
+        columns.each { result << it.padLeft(12) }
+        result << '\n'
+
+        metrics.each { String name, Map values ->
+            result << name.padRight(width)
+            columns.each { String col ->
+                def value = values[col]
+                result << (value == null ? '' : (value instanceof Double ? String.format('%.1f', value) : value.toString())).padLeft(12)
+            }
+            result << '\n'
+        }
+
+        return result.toString()
+    }
+
+}
@@ -20,8 +20,10 @@
 package blow.operation
 
 import blow.BlowSession
-import blow.events.OnAfterClusterStartedEvent
+import blow.eventbus.DependsOn
+import blow.events.OnNodeReadyEvent
 import blow.util.TraceHelper
+import com.google.common.eventbus.AllowConcurrentEvents
 import com.google.common.eventbus.Subscribe
 import groovy.util.logging.Slf4j
 import org.jclouds.scriptbuilder.domain.Statements
@@ -39,6 +41,7 @@ import org.jclouds.scriptbuilder.domain.Statements
 
 @Slf4j
 @Operation("append")
+@DependsOn(DefaultOp)
 class AppendTextOp {
 
     @Conf def String text;
@@ -52,26 +55,41 @@ class AppendTextOp {
 
     private File sourceFile;
 
+    /**
+     * Append the text on each node matching the {@code applyTo} attribute as soon as it is ready
+     *
+     * @param event The {@link OnNodeReadyEvent} notified when a node accepts connections
+     */
     @Subscribe
-    public void append( OnAfterClusterStartedEvent event ) {
+    @AllowConcurrentEvents
+    public void append( OnNodeReadyEvent event ) {
 
-        if( text == null ) {
-            text = ""
+        if( applyTo && !session.filterByCriteria(applyTo).apply(event.node) ) {
+            return
         }
 
-        if( sourceFile && sourceFile.exists() ) {
-            log.debug("Reading file: '$sourceFile'")
-            text += "\n" + sourceFile.text
-        }
+        TraceHelper.debugTime("Appending to '${to}' at node: ${event.name} ") {
 
-        TraceHelper.debugTime("Appending to '${to}' at nodes: ${applyTo?:'(all)'} ") {
+            def appender = Statements.appendFile(to, getLines())
+            session.runStatementOnNodes(appender,event.name,root)
 
-            def lines = []
-            text.eachLine {  lines.add(it?.toString()) }
-            def appender = Statements.appendFile(to, lines)
-            session.runStatementOnNodes(appender,applyTo,root)
+        }
+    }
 
+    /**
+     * @return The lines to append, the {@code text} attribute followed by the content of the {@code file} one
+     */
+    protected List<String> getLines() {
+
+        def content = text ?: ""
+        if( sourceFile && sourceFile.exists() ) {
+            log.debug("Reading file: '$sourceFile'")
+            content += "\n" + sourceFile.text
         }
+
+        def lines = []
+        content.eachLine {  lines.add(it?.toString()) }
+        return lines
     }
 
     /**
@@ -21,9 +21,13 @@ package blow.operation
 
 import blow.BlowSession
 import blow.events.OnAfterClusterStartedEvent
+import blow.events.OnAfterNodesAddedEvent
+import blow.events.OnNodeReadyEvent
 import blow.util.TraceHelper
+import com.google.common.eventbus.AllowConcurrentEvents
 import com.google.common.eventbus.Subscribe
 import groovy.util.logging.Slf4j
+import org.jclouds.scriptbuilder.domain.Statement
 import org.jclouds.scriptbuilder.domain.Statements
 
 /**
@@ -48,6 +52,22 @@ class DefaultOp {
     private BlowSession session
 
 
+    /**
+     * Configure each node as soon as it is ready, while the other nodes are still starting.
+     * The host names are configured when all the nodes are available, see {@link #configureHostsFile(blow.events.OnAfterClusterStartedEvent)}
+     *
+     * @param event The {@link OnNodeReadyEvent} notified when a node accepts connections
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void configureNode( OnNodeReadyEvent event ) {
+        log.debug "Configuring node: ${event.name}"
+
+        TraceHelper.debugTime( "Configure node '${event.name}'") {
+            session.runStatementOnNodes( nodeStatements(), event.name, true )
+        }
+    }
+
 	@Subscribe
 	public void configureHostsFile( OnAfterClusterStartedEvent event ) {
         log.info "Configuring cluster hostname(s)"
@@ -56,6 +76,29 @@ class DefaultOp {
             configureHostsTask()
         }
 	}
+
+    /**
+     * Configure the nodes added to the running cluster. The new nodes, already configured when ready, receive the hosts
+     * entries for the whole cluster, while the nodes already running are only updated with the new entries
+     *
+     * @param event The {@link OnAfterNodesAddedEvent} notified by {@link BlowSession#addNodes(java.lang.String, int)}
+     */
+    @Subscribe
+    public void configureAddedNodes( OnAfterNodesAddedEvent event ) {
+        def names = event.nodes.collect { BlowSession.BlowNodeMetadata node -> node.getNodeName() }
+        log.info "Configuring hostname(s) for node(s): ${names.join(', ')}"
+
+        TraceHelper.debugTime( "Configure '/etc/hosts' file on added nodes") {
+            session.runStatementOnNodes( hostsStatements(hostsEntries(session.listNodes())), names, true )
+
+            def others = session.listNodes()
+                    .collect { BlowSession.BlowNodeMetadata node -> node.getNodeName() }
+                    .findAll { String name -> !(name in names) }
+            if( others ) {
+                session.runStatementOnNodes( Statements.appendFile("/etc/hosts", hostsEntries(event.nodes)), others, true )
+            }
+        }
+    }
 	
 	/**
 	 * Creates the /etc/hosts files containing a reference for all the nodes in the cluster
@@ -65,6 +108,49 @@ class DefaultOp {
 	 * 
 	 */
 	protected void configureHostsTask( ) {
+        session.runStatementOnNodes(hostsStatements(hostsEntries(session.listNodes())), null, true)
+    }
+
+    /**
+     * Make a list containing for each node a pair (IP address - Node name)
+     * to be appended to the node 'hosts' file
+     *
+     * @param nodes A collection of {@link BlowSession.BlowNodeMetadata}
+     */
+    protected List<String> hostsEntries( Collection nodes ) {
+        List<String> hostnameList = []
+        nodes.each { BlowSession.BlowNodeMetadata node ->
+            hostnameList.add( String.format("%s\t%s", node.getPrivateAddresses().find(), node.getNodeName()) )
+        }
+        return hostnameList
+    }
+
+    /**
+     * @param hostnameList The entries to be appended to the node 'hosts' file
+     * @return The statements configuring the node host name
+     */
+    protected Statement hostsStatements( List<String> hostnameList ) {
+
+        /*
+         * This script using the node public
+         */
+        def setHostname = """\
+        HOSTIP=`wget -q -O - http://169.254.169.254/latest/meta-data/local-ipv4`
+        HOSTNAME=`cat /etc/hosts | grep -F \$HOSTIP | cut -f 2`
+        hostname \$HOSTNAME
+        """
+        .stripIndent()
+
+        Statements.newStatementList(
+               Statements.appendFile("/etc/hosts", hostnameList),
+               Statements.exec(setHostname)
+        )
+    }
+
+    /**
+     * @return The statements configuring a node of the cluster, they do not depend on the other nodes
+     */
+    protected Statement nodeStatements() {
 
         /*
          * Create a link named 'blow_pkg' to the platform package manager
@@ -94,24 +180,8 @@ class DefaultOp {
         '''
         .stripIndent()
 
-	    /*
-	     * Make a list containing each node a pair (IP address - Node name)
-	     * to be appended to the node 'hosts' file
-	     */
-	    List<String> hostnameList = []
-	    session.listNodes().each { BlowSession.BlowNodeMetadata node ->
-		   hostnameList.add( String.format("%s\t%s", node.getPrivateAddresses().find(), node.getNodeName()) )
-	    }
-			   
-
-        /*
-         * This script using the node public
-         */
-        def setHostname = """\
+        def installTools = """\
         blowpkg install -y wget unzip
-        HOSTIP=`wget -q -O - http://169.254.169.254/latest/meta-data/local-ipv4`
-        HOSTNAME=`cat /etc/hosts | grep -F \$HOSTIP | cut -f 2`
-        hostname \$HOSTNAME
         """
         .stripIndent()
 
@@ -142,19 +212,14 @@ class DefaultOp {
         """
         .stripIndent()
 
-        def statementsToRun = Statements.newStatementList(
+        Statements.newStatementList(
                Statements.exec(createPackageManagerAlias),
-               Statements.appendFile("/etc/hosts", hostnameList),
-               Statements.exec(setHostname),
+               Statements.exec(installTools),
                Statements.exec(disableFirewall),
                Statements.exec(disableSELinux),
                Statements.exec(disableStrictHostChecking()),
                Statements.exec(installPrivateKey())
         )
-
-        session.runStatementOnNodes(statementsToRun, null, true)
-
-
 	}
 
     /**
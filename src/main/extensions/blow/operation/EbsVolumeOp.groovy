@@ -21,6 +21,7 @@ package blow.operation
 
 import blow.BlowConfig
 import blow.BlowSession
+import blow.eventbus.DependsOn
 import blow.exception.BlowConfigException
 import blow.util.PromptHelper
 import blow.util.TraceHelper
@@ -47,6 +48,7 @@ import blow.events.*
 @Slf4j
 @Mixin(PromptHelper)
 @Operation('volume')
+@DependsOn(DefaultOp)
 class EbsVolumeOp {
 
     /**
@@ -390,7 +392,9 @@ class EbsVolumeOp {
 
         if( listOfVolumes ) {
             log.debug "Creating snapshots for the following volumes: $listOfVolumes"
-            listOfVolumes .each  { String volumeId -> makeSnapshot( volumeId ) }
+            // request all the snapshots before waiting for any of them, so they are created in parallel
+            def pending = listOfVolumes .collect  { String volumeId -> makeSnapshot( volumeId ) }
+            pending .each { Snapshot snapshot -> waitSnapshot(snapshot) }
         }
 
     }
@@ -415,15 +419,21 @@ class EbsVolumeOp {
     }
 
 
-    private void makeSnapshot( String volumeId ) {
+    private Snapshot makeSnapshot( String volumeId ) {
         log.debug("Creating a snapshot for volume: ${volumeId} as requested by configuration")
 
         def message = "Blow - Snapshot for volume: ${volumeId}; cluster: ${session.clusterName}"
-        def waitFlag = deleteOnTermination  // wait only if we need to delete the 'volume'
-        def snapshot = session.blockStore.createSnapshot(volumeId, message, waitFlag)
+        def snapshot = session.blockStore.createSnapshot(volumeId, message, false)
 
         log.info("Created snapshot: '${snapshot.getId()}' for volume: '${volumeId}'")
+        return snapshot
+    }
 
+    private void waitSnapshot( Snapshot snapshot ) {
+        // wait only if we need to delete the 'volume'
+        if( deleteOnTermination ) {
+            session.blockStore.waitForSnapshotCompleted(snapshot)
+        }
     }
 
 
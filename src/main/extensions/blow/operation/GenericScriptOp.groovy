@@ -20,6 +20,7 @@
 package blow.operation
 
 import blow.BlowSession
+import blow.eventbus.DependsOn
 import blow.events.OnAfterClusterStartedEvent
 import com.google.common.eventbus.Subscribe
 
@@ -28,6 +29,7 @@ import com.google.common.eventbus.Subscribe
  *
  *  @author Paolo Di Tommaso <paolo.ditommaso@gmail.com>
  */
+@DependsOn(DefaultOp)
 abstract public class GenericScriptOp {
 
     @Conf
@@ -21,8 +21,10 @@ package blow.operation
 
 import blow.BlowConfig
 import blow.BlowSession
+import blow.eventbus.DependsOn
 import blow.events.OnAfterClusterStartedEvent
 import blow.events.OnBeforeClusterStartEvent
+import blow.ssh.ExecPolicy
 import blow.util.PromptHelper
 import blow.util.TraceHelper
 import com.google.common.eventbus.Subscribe
@@ -38,6 +40,7 @@ import blow.exception.BlowConfigException
 @Slf4j
 @Mixin(PromptHelper)
 @Operation("glusterfs")
+@DependsOn(DefaultOp)
 class GlusterFSOp  {
 
     private static final RUN_AS_ROOT = true
@@ -59,6 +62,9 @@ class GlusterFSOp  {
     def List<String> bricks = []
 	
 
+    /** How the RPMs are installed on the nodes, see {@link blow.ssh.ExecPolicy} */
+    Map execPolicy
+
     // -------------------- private declarations --------------------
 
     private BlowSession session
@@ -75,6 +81,7 @@ class GlusterFSOp  {
         assert path, "The attribute 'path' must be defined in the cluster configuration file"
         assert path.startsWith("/"), "Make sure the 'path' attribute starts with a '/' character"
         assert volumeName, "The attribute 'volume-name' have to be entered in the configuration file"
+        ExecPolicy.create(execPolicy)
 
         if( !serverName ) {
             if( conf.instanceNumFor(conf.masterRole) == 1 ) {
@@ -149,7 +156,8 @@ class GlusterFSOp  {
 
 
     protected void downloadAndInstall() {
-        session.runScriptOnNodes( getInstallScript(), null, RUN_AS_ROOT )
+        def urls = session.cacheArtifacts(rpm).values() as List
+        session.runScriptOnNodes( getInstallScript(urls), null, RUN_AS_ROOT, session.execPolicy(execPolicy) )
     }
 
 
@@ -219,7 +227,7 @@ class GlusterFSOp  {
      * Configure the Gluster client on each node(s)
      */
 	protected void configureClients() {
-		session.runScriptOnNodes(getConfClient(), null, RUN_AS_ROOT)
+		session.runScriptOnNodes(getConfClient(), null, RUN_AS_ROOT, session.execPolicy(execPolicy))
 	}
 
 
@@ -228,15 +236,16 @@ class GlusterFSOp  {
      * <p>
      * http://download.gluster.com/pub/gluster/glusterfs/3.2/Documentation/IG/html/chap-Installation_Guide-Installing.html
      *
+     * @param urls The URLs from where the RPMs are downloaded, by default the ones specified by the {@code rpm} attribute
      * @return The BASH script to download and install the GlusterFS RPM
      */
-    protected String getInstallScript() {
+    protected String getInstallScript( List urls = rpm ) {
 
         /*
          * script fragment to download the RPMs
          */
         def download = ""
-        rpm.each {
+        urls.each {
             download += "wget -q ${it}\n"
         }
 
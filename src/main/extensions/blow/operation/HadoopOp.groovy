@@ -21,8 +21,12 @@ package blow.operation
 
 import blow.BlowConfig
 import blow.BlowSession
+import blow.eventbus.DependsOn
 import blow.events.OnAfterClusterStartedEvent
+import blow.events.OnAfterNodesAddedEvent
 import blow.events.OnBeforeClusterStartEvent
+import blow.events.OnBeforeNodesRemovalEvent
+import blow.ssh.ExecPolicy
 import com.google.common.eventbus.Subscribe
 import groovy.util.logging.Slf4j
 import org.jclouds.scriptbuilder.domain.Statement
@@ -59,6 +63,7 @@ import blow.exception.BlowConfigException
  */
 @Slf4j
 @Operation('hadoop')
+@DependsOn(DefaultOp)
 class HadoopOp {
 
     static final defVersion = "hadoop-1.0.4"
@@ -110,6 +115,16 @@ class HadoopOp {
 
 
 
+    /**
+     * The execution policy used to deploy Hadoop on the slave nodes, e.g. {@code execPolicy: [wave: 20, failFast: 2]}
+     */
+    Map execPolicy
+
+    /**
+     * The max number of seconds to wait for the HDFS blocks of the nodes removed from the cluster to be replicated
+     */
+    int decommissionTimeout = 1800
+
     // ---------------- private section ---------------------------------------
 
     private BlowSession session
@@ -157,6 +172,8 @@ class HadoopOp {
     @Validate
     void validate(BlowConfig config) {
 
+        ExecPolicy.create(execPolicy)
+
         assert config.instanceNumFor(config.masterRole) >0, "The Hadoop op requires ar least one node for the '${config.masterRole}' role"
         assert config.instanceNumFor(config.workersRole) >0, "The Hadoop op requires ar least one node for the '${config.masterRole}' role"
 
@@ -268,6 +285,7 @@ class HadoopOp {
                 Statements.exec(download()),
                 Statements.exec(confMaster()),
                 Statements.exec(confSlaves()),
+                Statements.exec("touch ${path}/conf/excludes".toString()),
                 Statements.exec(xmlCoreSite()),
                 Statements.exec(xmlHdfsSite()),
                 Statements.exec(xmlMapredSite()),
@@ -292,7 +310,7 @@ class HadoopOp {
         /*
          * Deploy Hadoop on all remaining nodes
          */
-        session.runScriptOnNodes( syncNodes(), deployNodesList )
+        session.runScriptOnNodes( syncNodes(), deployNodesList, false, session.execPolicy(execPolicy) )
 
         /*
          * Format HDFS
@@ -330,6 +348,44 @@ class HadoopOp {
         log.info message
     }
 
+    /**
+     * Deploy Hadoop on the nodes added to the running cluster and start the DataNode and TaskTracker daemons on them.
+     * The primary node only needs to list them as slaves
+     *
+     * @param event The {@link OnAfterNodesAddedEvent} notified when nodes are added to the cluster
+     */
+    @Subscribe
+    def void afterNodesAdded( OnAfterNodesAddedEvent event ) {
+        def names = event.nodes.collect { BlowSession.BlowNodeMetadata node -> node.getNodeName() }
+        log.info "Adding node(s) ${names.join(', ')} to Hadoop cluster"
+
+        session.runScriptOnNodes( scriptAddSlaves(names), primaryNode )
+        session.runStatementOnNodes( Statements.newStatementList(Statements.exec(syncNodes()), updateBinPath()), names )
+        session.runScriptOnNodes( scriptStartSlave(), names, false, session.execPolicy(execPolicy) )
+
+        slaveNodes.addAll( names.findAll { !slaveNodes.contains(it) } )
+    }
+
+    /**
+     * Decommission the nodes that are going to be removed, so that their HDFS blocks are
+     * replicated on the other nodes before they are terminated
+     *
+     * @param event The {@link OnBeforeNodesRemovalEvent} notified before the nodes are terminated
+     */
+    @Subscribe
+    def void beforeNodesRemoval( OnBeforeNodesRemovalEvent event ) {
+        def names = event.nodes.collect { BlowSession.BlowNodeMetadata node -> node.getNodeName() }
+        def services = names.findAll { it in [primaryNode, secondaryNode, jobTrackerNode] }
+        if( services ) {
+            log.warn "Removing the Hadoop service node(s): ${services.join(', ')} -- the Hadoop cluster will not be available"
+        }
+
+        log.info "Decommissioning Hadoop node(s): ${names.join(', ')}"
+        session.runScriptOnNodes( scriptDecommission(names), primaryNode )
+
+        slaveNodes.removeAll(names)
+    }
+
     @Subscribe
     def void terminate(OnBeforeClusterTerminationEvent event ) {
 
@@ -454,6 +510,62 @@ class HadoopOp {
         .stripIndent()
     }
 
+    /**
+     * @param names The names of the nodes added to the cluster
+     * @return The script run on the primary node to add the nodes to the 'conf/slaves' file
+     */
+    protected String scriptAddSlaves( List<String> names ) {
+        assert path
+
+        """\
+        for HOST in ${names.join(' ')}; do
+          sed -i "/^\$HOST\$/d" ${path}/conf/excludes
+          echo \$HOST >> ${path}/conf/slaves
+        done
+        ${path}/bin/hadoop dfsadmin -refreshNodes
+        ${path}/bin/hadoop mradmin -refreshNodes
+        """
+        .stripIndent()
+    }
+
+    /**
+     * @return The script starting the slave daemons on a node added to the cluster
+     */
+    protected String scriptStartSlave() {
+        assert path
+
+        """\
+        ${path}/bin/hadoop-daemon.sh start datanode
+        ${path}/bin/hadoop-daemon.sh start tasktracker
+        """
+        .stripIndent()
+    }
+
+    /**
+     * The nodes are added to the 'conf/excludes' file and the primary node waits for their blocks
+     * to be replicated, at most {@link #decommissionTimeout} seconds
+     *
+     * @param names The names of the nodes to be removed from the cluster
+     * @return The script run on the primary node to decommission the nodes
+     */
+    protected String scriptDecommission( List<String> names ) {
+        assert path
+
+        """\
+        for HOST in ${names.join(' ')}; do
+          echo \$HOST >> ${path}/conf/excludes
+          sed -i "/^\$HOST\$/d" ${path}/conf/slaves
+        done
+        ${path}/bin/hadoop dfsadmin -refreshNodes
+        ${path}/bin/hadoop mradmin -refreshNodes
+
+        MAX=\$(( `date +%s` + ${decommissionTimeout} ))
+        while ${path}/bin/hadoop dfsadmin -report | grep -q 'Decommission in progress' && [ `date +%s` -lt \$MAX ]; do sleep 10; done
+        exit 0
+        """
+        .stripIndent()
+    }
+
     private String saveTextTo( String text, String fileName ) {
         assert fileName
 
@@ -534,6 +646,10 @@ class HadoopOp {
           <name>mapred.job.tracker</name>
           <value>${jobTrackerNode}:${jobTrackerNodePort}</value>
         </property>
+        <property>
+          <name>mapred.hosts.exclude</name>
+          <value>\${hadoop.home.dir}/conf/excludes</value>
+        </property>
         </configuration>
         EOF
         """
@@ -557,6 +673,10 @@ class HadoopOp {
           <name>dfs.replication</name>
           <value>${replication}</value>
         </property>
+        <property>
+          <name>dfs.hosts.exclude</name>
+          <value>\${hadoop.home.dir}/conf/excludes</value>
+        </property>
         </configuration>
         EOF
         """
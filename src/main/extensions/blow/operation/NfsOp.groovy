@@ -21,11 +21,14 @@ package blow.operation
 
 import blow.BlowConfig
 import blow.BlowSession
+import blow.eventbus.DependsOn
 import blow.events.OnAfterClusterStartedEvent
 import blow.events.OnAfterClusterTerminationEvent
+import blow.events.OnAfterNodesAddedEvent
 import blow.events.OnBeforeClusterStartEvent
 import blow.events.OnBeforeClusterTerminationEvent
 import blow.events.OnBeforeNodeLaunchEvent
+import blow.events.OnBeforeNodesRemovalEvent
 import blow.util.PromptHelper
 import blow.util.TraceHelper
 import com.google.common.eventbus.Subscribe
@@ -40,6 +43,7 @@ import groovy.util.logging.Slf4j
 @Slf4j
 @Mixin(PromptHelper)
 @Operation("nfs")
+@DependsOn([DefaultOp, EbsVolumeOp])
 class NfsOp  {
 
     /**
@@ -188,6 +192,33 @@ class NfsOp  {
     }
 
 
+    /**
+     * Mount the shared path on the nodes added to the running cluster. The path is exported to any host,
+     * so the master node configuration does not change
+     *
+     * @param event The {@link OnAfterNodesAddedEvent} notified when nodes are added to the cluster
+     */
+    @Subscribe
+    public void afterNodesAdded( OnAfterNodesAddedEvent event ) {
+        def names = event.nodes.collect { BlowSession.BlowNodeMetadata node -> node.getNodeName() }
+
+        log.info "Mounting NFS shared path '${path}' on node(s): ${names.join(', ')}"
+        TraceHelper.debugTime( "NFS configuring node(s) ${names}", { session.runScriptOnNodes(scriptWorker(), names, true) } )
+    }
+
+    /**
+     * Unmount the shared path from the nodes that are going to be removed
+     *
+     * @param event The {@link OnBeforeNodesRemovalEvent} notified before the nodes are terminated
+     */
+    @Subscribe
+    public void beforeNodesRemoval( OnBeforeNodesRemovalEvent event ) {
+        def names = event.nodes.collect { BlowSession.BlowNodeMetadata node -> node.getNodeName() }
+
+        log.debug "Unmounting NFS shared path '${path}' from node(s): ${names.join(', ')}"
+        session.runScriptOnNodes( "umount -l ${path} || true", names, true )
+    }
+
     @Subscribe
     public void beforeClusterTerminate( OnBeforeClusterTerminationEvent event ) {
         if( volume ) {
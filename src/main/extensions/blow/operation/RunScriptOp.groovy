@@ -19,6 +19,7 @@
 
 package blow.operation
 
+import blow.eventbus.DependsOn
 import blow.events.OnAfterClusterStartedEvent
 import blow.util.TraceHelper
 import com.google.common.eventbus.Subscribe
@@ -31,6 +32,7 @@ import blow.BlowSession
  */
 
 @Operation("runScript")
+@DependsOn([DefaultOp, EbsVolumeOp, NfsOp, SgeOp, HadoopOp, GlusterFSOp, AppendTextOp, S3cmdOp, GenericScriptOp])
 class RunScriptOp  {
 
     /** The file containing the shell script to run on the remote nodes */
@@ -19,8 +19,10 @@
 
 package blow.operation
 
-import blow.events.OnAfterClusterStartedEvent
+import blow.eventbus.DependsOn
+import blow.events.OnNodeReadyEvent
 import blow.util.TraceHelper
+import com.google.common.eventbus.AllowConcurrentEvents
 import com.google.common.eventbus.Subscribe
 import groovy.util.logging.Slf4j
 import org.jclouds.scriptbuilder.domain.StatementList
@@ -38,6 +40,7 @@ import blow.BlowSession
  */
 @Slf4j
 @Operation("s3cmd")
+@DependsOn(DefaultOp)
 class S3cmdOp  {
 
     @Conf String accessKey
@@ -55,15 +58,24 @@ class S3cmdOp  {
     }
 
 
+    /**
+     * Install the tools on each node as soon as it is ready
+     *
+     * @param event The {@link OnNodeReadyEvent} notified when a node accepts connections
+     */
     @Subscribe
-    public void installS3cmd( OnAfterClusterStartedEvent event ) {
-        log.info "Configuring s3cmd"
+    @AllowConcurrentEvents
+    public void installS3cmd( OnNodeReadyEvent event ) {
+        log.debug "Configuring s3cmd on node: ${event.name}"
 
-        TraceHelper.debugTime ("Install S3Cmd") { execute() }
+        TraceHelper.debugTime ("Install S3Cmd on node '${event.name}'") { execute(event.name) }
 
     }
 
-	public void execute() {
+    /**
+     * @param criteria The nodes on which install the tools, all the nodes by default
+     */
+	public void execute( def criteria = null ) {
         assert version
 
         if( !accessKey ) accessKey = session.conf.accessKey
@@ -113,7 +125,7 @@ class S3cmdOp  {
                 Statements.appendFile( "~/.bash_profile", [ export ] )
         )
 
-        session.runStatementOnNodes(recipe)
+        session.runStatementOnNodes(recipe, criteria)
 	}
 
     /**
@@ -21,7 +21,11 @@ package blow.operation
 
 import blow.BlowConfig
 import blow.BlowSession
+import blow.eventbus.DependsOn
 import blow.events.OnAfterClusterStartedEvent
+import blow.events.OnAfterNodesAddedEvent
+import blow.events.OnBeforeNodesRemovalEvent
+import blow.ssh.ExecPolicy
 import blow.util.TraceHelper
 import com.google.common.eventbus.Subscribe
 import groovy.util.logging.Slf4j
@@ -35,6 +39,7 @@ import blow.util.WebHelper
  */
 @Slf4j
 @Operation("sge")
+@DependsOn([DefaultOp, NfsOp])
 class SgeOp {
 
 	@Conf
@@ -86,6 +91,18 @@ class SgeOp {
     String scheduler = 'normal'
 
 
+    /**
+     * The policy used to run the SGE installation scripts on the nodes, for example {@code execPolicy: [maxInFlight: 20, timeout: 900]},
+     * see {@link blow.ssh.ExecPolicy}. It overrides the cluster {@code execPolicy} property
+     */
+    Map execPolicy
+
+    /**
+     * The max number of seconds to wait for the jobs running on a node that is going to be removed from the cluster
+     * to complete. When it expires the node is removed anyway and its jobs are rescheduled
+     */
+    int drainTimeout = 600
+
     /** The current {@link BlowSession} */
     private BlowSession session
 
@@ -113,6 +130,7 @@ class SgeOp {
         assert execdPort.isInteger()
         assert cell
         assert scheduler in SCHED_VALUES.keySet()
+        ExecPolicy.create(execPolicy)
 
         /*
          * Make sure that the 'roles' defined matches the component 'topology'
@@ -142,6 +160,35 @@ class SgeOp {
 
     }
 	
+    /**
+     * Install the execution daemon only on the nodes added to the running cluster, and register them
+     * on the master node. The nodes already running are not touched
+     *
+     * @param event The {@link OnAfterNodesAddedEvent} notified when nodes are added to the cluster
+     */
+    @Subscribe
+    public void afterNodesAdded( OnAfterNodesAddedEvent event ) {
+        def names = event.nodes.collect { BlowSession.BlowNodeMetadata node -> node.getNodeName() }
+        log.info "Adding node(s) ${names.join(', ')} to OpenGridEngine (SGE)"
+
+        TraceHelper.debugTime("SGE registering node(s) ${names}", { session.runScriptOnNodes(scriptAddHosts(names), master, true) })
+        TraceHelper.debugTime("SGE installing node(s) ${names}", { session.runScriptOnNodes(scriptInstallAddedWorker(), names, true, session.execPolicy(execPolicy)) })
+    }
+
+    /**
+     * Disable the queues on the nodes that are going to be removed, wait for their running jobs
+     * to complete, then remove the nodes from the SGE configuration
+     *
+     * @param event The {@link OnBeforeNodesRemovalEvent} notified before the nodes are terminated
+     */
+    @Subscribe
+    public void beforeNodesRemoval( OnBeforeNodesRemovalEvent event ) {
+        def names = event.nodes.collect { BlowSession.BlowNodeMetadata node -> node.getNodeName() }
+        log.info "Draining SGE node(s): ${names.join(', ')}"
+
+        TraceHelper.debugTime("SGE removing node(s) ${names}", { session.runScriptOnNodes(scriptRemoveHosts(names), master, true) })
+    }
+
 	protected void configureTask() {
 
         user = session.conf.userName
@@ -195,7 +242,7 @@ class SgeOp {
         script += "\n" + scriptInstallMaster();
 
 
-        session.runScriptOnNodes(script, master, true)
+        session.runScriptOnNodes(script, master, true, session.execPolicy(execPolicy))
 
 	}  
 
@@ -210,7 +257,7 @@ class SgeOp {
             return
         }
 
-		session.runScriptOnNodes(scriptInstallWorker(), worker, true)
+		session.runScriptOnNodes(scriptInstallWorker(), worker, true, session.execPolicy(execPolicy))
 	}
 	
 	
@@ -335,7 +382,7 @@ class SgeOp {
 	} 
 	
 	
-	protected String scriptInstallWorker() {
+	protected String scriptInstallWorker( String confFile = "${path}/sge.conf" ) {
 		
 		assert path, "Variable 'root' cannot be empty"
 		assert cell, "Variable 'cell' cannot be empty"
@@ -355,7 +402,7 @@ class SgeOp {
 		#
 		export SGE_ROOT="${path}"
 		cd "${path}"
-		./inst_sge -x -auto ${path}/sge.conf
+		./inst_sge -x -auto ${confFile}
 		sleep 1
 
 		#
@@ -368,6 +415,72 @@ class SgeOp {
 		
 	} 
 	
+    /**
+     * @return The script installing the execution daemon on a node added to the running cluster. The installation
+     *      configuration lists only the node itself as execution host, so the other nodes are not re-installed
+     */
+    protected String scriptInstallAddedWorker() {
+        assert path
+        assert temp
+
+        def confFile = "${temp}/sge-exec.conf"
+        def result = "sed -e \"s/^EXEC_HOST_LIST=.*/EXEC_HOST_LIST=\\\"`hostname`\\\"/\" ${path}/sge.conf > ${confFile}\n"
+        result += scriptInstallWorker(confFile)
+        return result
+    }
+
+    /**
+     * @param hosts The names of the nodes added to the cluster
+     * @return The script run on the master node to declare the added nodes as admin and submit hosts
+     */
+    protected String scriptAddHosts( List<String> hosts ) {
+        assert path
+        assert cell
+
+        """\
+        source ${path}/${cell}/common/settings.sh
+        for HOST in ${hosts.join(' ')}; do
+          qconf -ah \$HOST
+          qconf -as \$HOST
+        done
+        """
+        .stripIndent()
+    }
+
+    /**
+     * @param hosts The names of the nodes to be removed from the cluster
+     * @return The script run on the master node to drain the nodes and remove them from the SGE configuration
+     */
+    protected String scriptRemoveHosts( List<String> hosts ) {
+        assert path
+        assert cell
+
+        """\
+        source ${path}/${cell}/common/settings.sh
+        HOSTS="${hosts.join(' ')}"
+
+        # no new jobs are scheduled on the nodes
+        for HOST in \$HOSTS; do qmod -d "*@\$HOST"; done
+
+        # wait for the running jobs to complete
+        MAX=\$(( `date +%s` + ${drainTimeout} ))
+        for HOST in \$HOSTS; do
+          while [ `qstat -u '*' -s r -q "*@\$HOST" | tail -n +3 | wc -l` -gt 0 ] && [ `date +%s` -lt \$MAX ]; do sleep 5; done
+        done
+
+        for HOST in \$HOSTS; do
+          qconf -dattr hostgroup hostlist \$HOST @allhosts
+          qconf -purge queue '*' "all.q@\$HOST"
+          qconf -ke \$HOST
+          qconf -de \$HOST
+          qconf -ds \$HOST
+          qconf -dh \$HOST
+        done
+        exit 0
+        """
+        .stripIndent()
+    }
+
 	protected String confTemplate()  {
 		assert clusterName, "Provide a valid 'cluster-name' in the SGE configuration"
 		assert path, "Provide a valid install 'root' path in the SGE configuration"
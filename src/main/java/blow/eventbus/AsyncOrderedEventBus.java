@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.eventbus;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.DeadEvent;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An {@link OrderedEventBus} invoking the event handlers in parallel by using an executor.
+ *
+ * <p>The handlers of the same event run concurrently, unless the handler class declares
+ * with the {@link DependsOn} annotation the classes whose handlers have to complete before it starts.
+ * When a handler fails, the handlers depending on it are not invoked.
+ *
+ * <p>Each handler receives the events in the same order they have been posted (per-handler FIFO), except
+ * the handlers annotated with {@link AllowConcurrentEvents}, which receive the events as soon as they are posted,
+ * also while the previous ones are still handled.
+ *
+ * <p>{@link #post(Object)} returns when all the handlers have completed, use
+ * {@link #postAsync(Object)} to get a {@link Completion} object and wait for the handlers later.
+ * Events posted by a handler are dispatched synchronously by the same thread.
+ */
+public class AsyncOrderedEventBus extends OrderedEventBus {
+
+  /** Executor used to invoke the handlers */
+  private final ExecutorService executor;
+
+  /** The completion of the last event dispatched to each handler, used to preserve the per-handler FIFO order */
+  private final Map<EventHandler, ListenableFuture<Void>> lastDispatch = Maps.newHashMap();
+
+  /** true if the current thread is running an event handler */
+  private final ThreadLocal<Boolean> isHandling = new ThreadLocal<Boolean>() {
+    @Override protected Boolean initialValue() {
+      return false;
+    }
+  };
+
+  /**
+   * Creates a new AsyncOrderedEventBus named "default" using a cached thread pool.
+   */
+  public AsyncOrderedEventBus() {
+    this("default", Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("event-dispatcher-%d").setDaemon(true).build()));
+  }
+
+  /**
+   * Creates a new AsyncOrderedEventBus with the given {@code identifier}.
+   *
+   * @param identifier  a brief name for this bus, for logging purposes.
+   * @param executor  the executor used to invoke the handlers.
+   */
+  public AsyncOrderedEventBus(String identifier, ExecutorService executor) {
+    super(identifier);
+    this.executor = executor;
+  }
+
+  /**
+   * Posts an event to all registered handlers, and waits for all of them to complete.
+   *
+   * @param event  event to post.
+   * @throws InvocationTargetException  the exception raised by the first failed handler
+   */
+  @Override
+  public void post(Object event) throws InvocationTargetException {
+    if (isHandling.get()) {
+      // nested post from a handler, waiting for other handlers would risk a deadlock
+      super.post(event);
+      return;
+    }
+
+    postAsync(event).await();
+  }
+
+  /**
+   * Posts an event to all registered handlers without waiting for them.
+   *
+   * @param event  event to post.
+   * @return a {@link Completion} object that can be used to wait for the handlers to complete.
+   */
+  public Completion postAsync(final Object event) {
+    final List<EventHandler> handlers = Arrays.asList(getHandlersForEventClass(event.getClass()));
+
+    if (handlers.isEmpty() && !(event instanceof DeadEvent)) {
+      return postAsync(new DeadEvent(this, event));
+    }
+
+    checkCircularDependencies(handlers);
+
+    final Map<EventHandler, SettableFuture<Void>> results = Maps.newLinkedHashMap();
+    for (EventHandler handler : handlers) {
+      results.put(handler, SettableFuture.<Void>create());
+    }
+
+    synchronized (lastDispatch) {
+      for (EventHandler handler : handlers) {
+        List<ListenableFuture<Void>> dependencies = Lists.newArrayList();
+        for (EventHandler other : handlers) {
+          if (other != handler && dependsOn(handler, other)) {
+            dependencies.add(results.get(other));
+          }
+        }
+
+        SettableFuture<Void> result = results.get(handler);
+        ListenableFuture<Void> previous = handler instanceof SynchronizedEventHandler ? lastDispatch.get(handler) : null;
+        schedule(event, handler, previous, dependencies, result);
+        lastDispatch.put(handler, result);
+      }
+    }
+
+    return new Completion(Lists.newArrayList(results.values()));
+  }
+
+  /**
+   * Invokes the handler when the previous event for the same handler and all the dependencies have completed.
+   */
+  private void schedule(final Object event, final EventHandler handler, ListenableFuture<Void> previous,
+      final List<ListenableFuture<Void>> dependencies, final SettableFuture<Void> result) {
+
+    List<ListenableFuture<Void>> waitFor = Lists.newArrayList(dependencies);
+    if (previous != null) {
+      waitFor.add(previous);
+    }
+
+    final Runnable task = new Runnable() {
+      @Override public void run() {
+        for (ListenableFuture<Void> dependency : dependencies) {
+          try {
+            Uninterruptibles.getUninterruptibly(dependency);
+          } catch (ExecutionException e) {
+            result.setException(new DependencyFailedException(
+                "Event " + event + " not dispatched to " + handler + " because a dependency failed", e.getCause()));
+            return;
+          }
+        }
+
+        isHandling.set(true);
+        try {
+          invokeHandler(event, handler);
+          result.set(null);
+        } catch (Throwable e) {
+          result.setException(e);
+        } finally {
+          isHandling.set(false);
+        }
+      }
+    };
+
+    Futures.successfulAsList(waitFor).addListener(task, executor);
+  }
+
+  /**
+   * @return {@code true} when the {@code handler} has to run after the {@code other} one
+   */
+  static boolean dependsOn(EventHandler handler, EventHandler other) {
+    DependsOn annotation = handler.getTarget().getClass().getAnnotation(DependsOn.class);
+    if (annotation == null) {
+      return false;
+    }
+
+    for (Class<?> clazz : annotation.value()) {
+      if (clazz.isInstance(other.getTarget())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void checkCircularDependencies(List<EventHandler> handlers) {
+    Map<EventHandler, Boolean> visited = Maps.newHashMap();
+    for (EventHandler handler : handlers) {
+      visit(handler, handlers, visited);
+    }
+  }
+
+  /*
+   * Depth first visit, a node is marked 'false' while its dependencies are visited and 'true' when done
+   */
+  private static void visit(EventHandler handler, List<EventHandler> handlers, Map<EventHandler, Boolean> visited) {
+    Boolean status = visited.get(handler);
+    if (status == Boolean.TRUE) {
+      return;
+    }
+    if (status == Boolean.FALSE) {
+      throw new IllegalStateException("Circular dependency declared by handler " + handler);
+    }
+
+    visited.put(handler, false);
+    for (EventHandler other : handlers) {
+      if (other != handler && dependsOn(handler, other)) {
+        visit(other, handlers, visited);
+      }
+    }
+    visited.put(handler, true);
+  }
+
+  /**
+   * Stops the executor, the handlers already scheduled are completed.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Reports a handler not invoked because one of its dependencies failed
+   */
+  static class DependencyFailedException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    DependencyFailedException(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+
+  /**
+   * Tracks the handlers invoked for a posted event.
+   */
+  public static class Completion {
+
+    private final List<SettableFuture<Void>> results;
+
+    Completion(List<SettableFuture<Void>> results) {
+      this.results = Collections.unmodifiableList(results);
+    }
+
+    /**
+     * @return {@code true} when all the handlers have completed.
+     */
+    public boolean isDone() {
+      for (SettableFuture<Void> result : results) {
+        if (!result.isDone()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Waits for all the handlers to complete.
+     *
+     * @throws InvocationTargetException  the exception raised by the first failed handler,
+     *   in the handlers registration order ({@code Error}s are propagated as-is).
+     */
+    public void await() throws InvocationTargetException {
+      Throwable failure = null;
+      for (SettableFuture<Void> result : results) {
+        try {
+          Uninterruptibles.getUninterruptibly(result);
+        } catch (ExecutionException e) {
+          // report the failed handler instead of the ones skipped because of it
+          if (failure == null || failure instanceof DependencyFailedException) {
+            failure = e.getCause();
+          }
+        }
+      }
+
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      if (failure instanceof InvocationTargetException) {
+        throw (InvocationTargetException) failure;
+      }
+      if (failure != null) {
+        throw new InvocationTargetException(failure);
+      }
+    }
+  }
+
+}
@@ -19,6 +19,8 @@
 
 package blow.eventbus;
 
+import blow.metrics.Metrics;
+import blow.metrics.Timer;
 import com.google.common.base.Preconditions;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -36,6 +38,9 @@ import java.lang.reflect.Method;
  * same object (not class).   This property is used to ensure that no handler
  * method is registered more than once.
  *
+ * <p>When possible the method is called through a {@link HandlerInvoker} generated
+ * by {@link InvokerGenerator}, otherwise by reflection.
+ *
  * @author Cliff Biffle
  */
 class EventHandler {
@@ -44,6 +49,10 @@ class EventHandler {
   private final Object target;
   /** Handler method. */
   private final Method method;
+  /** Direct invoker of the handler method, {@code null} when it is invoked by reflection. */
+  private final HandlerInvoker invoker;
+  /** The duration of each invocation, named {@code eventbus.<target class>.<method>} */
+  private final Timer timer;
 
   /**
    * Creates a new EventHandler to wrap {@code method} on @{code target}.
@@ -52,6 +61,17 @@ class EventHandler {
    * @param method  handler method.
    */
   EventHandler(Object target, Method method) {
+    this(target, method, true);
+  }
+
+  /**
+   * Creates a new EventHandler to wrap {@code method} on @{code target}.
+   *
+   * @param target  object to which the method applies.
+   * @param method  handler method.
+   * @param generateInvoker  when {@code false} the method is always invoked by reflection.
+   */
+  EventHandler(Object target, Method method, boolean generateInvoker) {
     Preconditions.checkNotNull(target,
         "EventHandler target cannot be null.");
     Preconditions.checkNotNull(method, "EventHandler method cannot be null.");
@@ -59,6 +79,8 @@ class EventHandler {
     this.target = target;
     this.method = method;
     method.setAccessible(true);
+    this.invoker = generateInvoker ? InvokerGenerator.generate(method) : null;
+    this.timer = Metrics.timer("eventbus." + target.getClass().getName() + "." + method.getName());
   }
 
   /**
@@ -70,6 +92,26 @@ class EventHandler {
    *   propagated as-is).
    */
   public void handleEvent(Object event) throws InvocationTargetException {
+    long start = System.nanoTime();
+    try {
+      invoke(event);
+    } finally {
+      timer.update(System.nanoTime() - start);
+    }
+  }
+
+  private void invoke(Object event) throws InvocationTargetException {
+    if (invoker != null) {
+      try {
+        invoker.invoke(target, event);
+        return;
+      } catch (Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new InvocationTargetException(e);
+      }
+    }
+
     try {
       method.invoke(target, new Object[] { event });
     } catch (IllegalArgumentException e) {
@@ -84,6 +126,27 @@ class EventHandler {
     }
   }
 
+  /**
+   * @return the object sporting the handler method.
+   */
+  Object getTarget() {
+    return target;
+  }
+
+  /**
+   * @return the handler method.
+   */
+  Method getMethod() {
+    return method;
+  }
+
+  /**
+   * @return {@code true} when the handler method is called by a generated invoker instead of reflection.
+   */
+  boolean isDirect() {
+    return invoker != null;
+  }
+
   @Override public String toString() {
     return "[wrapper " + method + "]";
   }
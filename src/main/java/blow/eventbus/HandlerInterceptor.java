@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.eventbus;
+
+import java.lang.reflect.Method;
+
+/**
+ * Observe and control the invocation of the event handlers, see {@link OrderedEventBus#setInterceptor(HandlerInterceptor)}.
+ *
+ * <p>The methods are invoked by the thread running the handler, so with an {@link AsyncOrderedEventBus}
+ * they can be invoked concurrently.
+ */
+public interface HandlerInterceptor {
+
+  /**
+   * Invoked before a handler receives an event.
+   *
+   * @param target  the object sporting the handler method.
+   * @param method  the handler method.
+   * @param event  the event to handle.
+   * @return {@code false} to skip the handler, it is reported as completed successfully.
+   */
+  boolean beforeHandler(Object target, Method method, Object event);
+
+  /**
+   * Invoked when a handler has completed, it is not invoked for the skipped handlers.
+   *
+   * @param target  the object sporting the handler method.
+   * @param method  the handler method.
+   * @param event  the handled event.
+   * @param error  the exception raised by the handler, {@code null} when it completed successfully.
+   */
+  void afterHandler(Object target, Method method, Object event, Throwable error);
+
+}
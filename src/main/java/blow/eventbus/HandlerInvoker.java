@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.eventbus;
+
+/**
+ * Invokes a handler method with a direct call, without using reflection.
+ *
+ * <p>Implementations are generated at runtime by {@link InvokerGenerator}, for this reason
+ * this interface has to be public, but it is not meant to be used outside this package.
+ */
+public interface HandlerInvoker {
+
+  /**
+   * Invokes the handler method.
+   *
+   * @param target  object sporting the handler method ({@code null} for static methods).
+   * @param event  event to handle.
+   * @throws Throwable  any exception raised by the handler method.
+   */
+  void invoke(Object target, Object event) throws Throwable;
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.eventbus;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import groovyjarjarasm.asm.ClassWriter;
+import groovyjarjarasm.asm.MethodVisitor;
+import groovyjarjarasm.asm.Opcodes;
+import groovyjarjarasm.asm.Type;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates at runtime the bytecode of a {@link HandlerInvoker} calling a handler method
+ * directly, so that the dispatch of an event costs the same as a plain (virtual) method call.
+ *
+ * <p>The generated class is defined by a class loader child of the one that loaded the handler class.
+ * Since it lives in a different runtime package, only public methods of public classes can be
+ * called this way, for all the others {@link #generate(Method)} returns {@code null} and
+ * the handler is invoked by reflection.
+ *
+ * <p>The invokers are shared by all the handlers of the same method, so that the call site
+ * dispatching the events stays monomorphic when many instances of the same class are registered.
+ */
+final class InvokerGenerator implements Opcodes {
+
+  private static final Logger logger = Logger.getLogger(InvokerGenerator.class.getName());
+
+  private static final String INVOKER = Type.getInternalName(HandlerInvoker.class);
+
+  private static final AtomicInteger count = new AtomicInteger();
+
+  /** The invokers already generated, released when no handler is using them anymore */
+  private static final Cache<Method, HandlerInvoker> invokers = CacheBuilder.newBuilder().weakValues().build();
+
+  private InvokerGenerator() {}
+
+  /**
+   * Creates the invoker for the specified handler method.
+   *
+   * @param method  the handler method, it must declare a single parameter.
+   * @return the generated invoker or {@code null} when the method cannot be called directly.
+   */
+  static HandlerInvoker generate(Method method) {
+    Class<?> owner = method.getDeclaringClass();
+    Class<?> param = method.getParameterTypes()[0];
+    if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(owner.getModifiers())
+        || !Modifier.isPublic(param.getModifiers()) || param.isPrimitive()) {
+      return null;
+    }
+
+    HandlerInvoker result = invokers.getIfPresent(method);
+    if (result == null) {
+      result = create(method);
+      if (result != null) {
+        invokers.put(method, result);
+      }
+    }
+    return result;
+  }
+
+  private static HandlerInvoker create(Method method) {
+    Class<?> owner = method.getDeclaringClass();
+    String name = HandlerInvoker.class.getName() + "$" + owner.getSimpleName() + "$" + method.getName()
+        + "$" + count.incrementAndGet();
+
+    try {
+      ClassLoader parent = owner.getClassLoader() != null ? owner.getClassLoader() : InvokerGenerator.class.getClassLoader();
+      Class<?> clazz = new InvokerLoader(parent).define(name, bytecode(name.replace('.', '/'), method));
+      return (HandlerInvoker) clazz.newInstance();
+    } catch (Throwable e) {
+      logger.log(Level.FINE, "Unable to generate invoker for method " + method + " -- using reflection", e);
+      return null;
+    }
+  }
+
+  /*
+   * public final class <name> implements HandlerInvoker {
+   *   public void invoke(Object target, Object event) { ((Owner) target).method((Param) event); }
+   * }
+   */
+  private static byte[] bytecode(String name, Method method) {
+    String owner = Type.getInternalName(method.getDeclaringClass());
+    boolean isStatic = Modifier.isStatic(method.getModifiers());
+    boolean isInterface = method.getDeclaringClass().isInterface();
+
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, name, null, "java/lang/Object", new String[] { INVOKER });
+
+    MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+    mv.visitCode();
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+
+    mv = cw.visitMethod(ACC_PUBLIC, "invoke", "(Ljava/lang/Object;Ljava/lang/Object;)V", null, new String[] { "java/lang/Throwable" });
+    mv.visitCode();
+    if (!isStatic) {
+      mv.visitVarInsn(ALOAD, 1);
+      mv.visitTypeInsn(CHECKCAST, owner);
+    }
+    mv.visitVarInsn(ALOAD, 2);
+    mv.visitTypeInsn(CHECKCAST, Type.getInternalName(method.getParameterTypes()[0]));
+    int opcode = isStatic ? INVOKESTATIC : (isInterface ? INVOKEINTERFACE : INVOKEVIRTUAL);
+    mv.visitMethodInsn(opcode, owner, method.getName(), Type.getMethodDescriptor(method));
+
+    // discard the value returned by the handler, if any
+    Type result = Type.getReturnType(method);
+    if (result.getSort() == Type.LONG || result.getSort() == Type.DOUBLE) {
+      mv.visitInsn(POP2);
+    } else if (result.getSort() != Type.VOID) {
+      mv.visitInsn(POP);
+    }
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  /**
+   * Defines the generated class, making the {@link HandlerInvoker} interface visible to it
+   * even when the handler class has been loaded by an unrelated class loader.
+   */
+  private static class InvokerLoader extends ClassLoader {
+
+    InvokerLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (HandlerInvoker.class.getName().equals(name)) {
+        return HandlerInvoker.class;
+      }
+      return super.loadClass(name, resolve);
+    }
+
+    Class<?> define(String name, byte[] bytecode) {
+      return defineClass(name, bytecode, 0, bytecode.length);
+    }
+  }
+
+}
@@ -35,6 +35,7 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
@@ -62,6 +63,15 @@ public class OrderedEventBus {
             }
           });
 
+  /**
+   * The handlers of each concrete event class, including the ones registered for its
+   * super-types. It is replaced by an empty map when a handler is registered or unregistered.
+   */
+  private volatile ConcurrentMap<Class<?>, EventHandler[]> handlersByEventClass =
+      new ConcurrentHashMap<Class<?>, EventHandler[]>();
+
+  private static final EventHandler[] NO_HANDLERS = new EventHandler[0];
+
   /**
    * Logger for event dispatch failures.  Named by the fully-qualified name of
    * this class, followed by the identifier provided at construction.
@@ -75,12 +85,15 @@ public class OrderedEventBus {
    */
   private final HandlerFindingStrategy finder = new AnnotatedHandlerFinder();
 
+  /** Observes the handlers invocation, it may be {@code null} */
+  private volatile HandlerInterceptor interceptor;
+
   /** queues of events for the current thread to dispatch */
-  private final ThreadLocal<ConcurrentLinkedQueue<EventWithHandler>>
+  private final ThreadLocal<ConcurrentLinkedQueue<EventWithHandlers>>
       eventsToDispatch =
-      new ThreadLocal<ConcurrentLinkedQueue<EventWithHandler>>() {
-    @Override protected ConcurrentLinkedQueue<EventWithHandler> initialValue() {
-      return new ConcurrentLinkedQueue<EventWithHandler>();
+      new ThreadLocal<ConcurrentLinkedQueue<EventWithHandlers>>() {
+    @Override protected ConcurrentLinkedQueue<EventWithHandlers> initialValue() {
+      return new ConcurrentLinkedQueue<EventWithHandlers>();
     }
   };
 
@@ -150,6 +163,16 @@ public class OrderedEventBus {
    */
   public void register(Object object) {
     handlersByType.putAll(finder.findAllHandlers(object));
+    handlersByEventClass = new ConcurrentHashMap<Class<?>, EventHandler[]>();
+  }
+
+  /**
+   * Sets the interceptor notified before and after each handler invocation.
+   *
+   * @param interceptor  the interceptor, or {@code null} to remove it.
+   */
+  public void setInterceptor(HandlerInterceptor interceptor) {
+    this.interceptor = interceptor;
   }
 
   /**
@@ -170,6 +193,7 @@ public class OrderedEventBus {
       }
       currentHandlers.removeAll(eventMethodsInListener);
     }
+    handlersByEventClass = new ConcurrentHashMap<Class<?>, EventHandler[]>();
   }
 
   /**
@@ -184,21 +208,11 @@ public class OrderedEventBus {
    * @param event  event to post.
    */
   public void post(Object event) throws InvocationTargetException {
-    Set<Class<?>> dispatchTypes = flattenHierarchy(event.getClass());
-
-    boolean dispatched = false;
-    for (Class<?> eventType : dispatchTypes) {
-      List<EventHandler> wrappers = getHandlersForEventType(eventType);
+    EventHandler[] handlers = getHandlersForEventClass(event.getClass());
 
-      if (wrappers != null && !wrappers.isEmpty()) {
-        dispatched = true;
-        for (EventHandler wrapper : wrappers) {
-          enqueueEvent(event, wrapper);
-        }
-      }
-    }
-
-    if (!dispatched && !(event instanceof DeadEvent)) {
+    if (handlers.length > 0) {
+      enqueueEvent(event, handlers);
+    } else if (!(event instanceof DeadEvent)) {
       post(new DeadEvent(this, event));
     }
 
@@ -210,8 +224,8 @@ public class OrderedEventBus {
    * {@link #dispatchQueuedEvents()}. Events are queued in-order of occurrence
    * so they can be dispatched in the same order.
    */
-  protected void enqueueEvent(Object event, EventHandler handler) {
-    eventsToDispatch.get().offer(new EventWithHandler(event, handler));
+  protected void enqueueEvent(Object event, EventHandler[] handlers) {
+    eventsToDispatch.get().offer(new EventWithHandlers(event, handlers));
   }
 
   /**
@@ -229,12 +243,14 @@ public class OrderedEventBus {
     isDispatching.set(true);
     try {
       while (true) {
-        EventWithHandler eventWithHandler = eventsToDispatch.get().poll();
-        if (eventWithHandler == null) {
+        EventWithHandlers eventWithHandlers = eventsToDispatch.get().poll();
+        if (eventWithHandlers == null) {
           break;
         }
 
-        dispatch(eventWithHandler.event, eventWithHandler.handler);
+        for (EventHandler handler : eventWithHandlers.handlers) {
+          dispatch(eventWithHandlers.event, handler);
+        }
       }
     } finally {
       isDispatching.set(false);
@@ -250,7 +266,41 @@ public class OrderedEventBus {
    * @param wrapper  wrapper that will call the handler.
    */
   protected void dispatch(Object event, EventHandler wrapper) throws InvocationTargetException {
+      invokeHandler(event, wrapper);
+  }
+
+  /**
+   * Invokes the handler through the {@link HandlerInterceptor}, when it is defined.
+   *
+   * @param event  event to dispatch.
+   * @param wrapper  wrapper that will call the handler.
+   */
+  protected void invokeHandler(Object event, EventHandler wrapper) throws InvocationTargetException {
+    HandlerInterceptor current = interceptor;
+    if (current == null) {
       wrapper.handleEvent(event);
+      return;
+    }
+
+    if (!current.beforeHandler(wrapper.getTarget(), wrapper.getMethod(), event)) {
+      return;
+    }
+
+    Throwable error = null;
+    try {
+      wrapper.handleEvent(event);
+    } catch (InvocationTargetException e) {
+      error = e.getCause() != null ? e.getCause() : e;
+      throw e;
+    } catch (RuntimeException e) {
+      error = e;
+      throw e;
+    } catch (Error e) {
+      error = e;
+      throw e;
+    } finally {
+      current.afterHandler(wrapper.getTarget(), wrapper.getMethod(), event, error);
+    }
   }
 
   /**
@@ -265,6 +315,35 @@ public class OrderedEventBus {
     return handlersByType.get(type);
   }
 
+  /**
+   * Retrieves all the handlers that have to receive an event of the specified
+   * class, including the ones registered for its super-classes and interfaces.
+   * The result is computed once and cached until a handler is registered or unregistered.
+   *
+   * @param eventClass  the concrete class of the event.
+   * @return the handlers, the array must not be modified.
+   */
+  EventHandler[] getHandlersForEventClass(Class<?> eventClass) {
+    ConcurrentMap<Class<?>, EventHandler[]> cache = handlersByEventClass;
+    EventHandler[] result = cache.get(eventClass);
+    if (result != null) {
+      return result;
+    }
+
+    List<EventHandler> handlers = Lists.newArrayList();
+    for (Class<?> eventType : flattenHierarchy(eventClass)) {
+      List<EventHandler> wrappers = getHandlersForEventType(eventType);
+      if (wrappers != null) {
+        handlers.addAll(wrappers);
+      }
+    }
+
+    result = handlers.isEmpty() ? NO_HANDLERS : handlers.toArray(new EventHandler[handlers.size()]);
+    // when the cache has been replaced in the meantime the result is not stored in the new one
+    cache.putIfAbsent(eventClass, result);
+    return result;
+  }
+
   /**
    * Creates a new Set for insertion into the handler map.  This is provided
    * as an override point for subclasses. The returned set should support
@@ -293,13 +372,13 @@ public class OrderedEventBus {
     }
   }
 
-  /** simple struct representing an event and it's handler */
-  static class EventWithHandler {
+  /** simple struct representing an event and it's handlers */
+  static class EventWithHandlers {
     final Object event;
-    final EventHandler handler;
-    public EventWithHandler(Object event, EventHandler handler) {
+    final EventHandler[] handlers;
+    public EventWithHandlers(Object event, EventHandler[] handlers) {
       this.event = event;
-      this.handler = handler;
+      this.handlers = handlers;
     }
   }
 }
\ No newline at end of file
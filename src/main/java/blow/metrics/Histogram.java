@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the distribution of non-negative values with a fixed amount of memory and without locks.
+ *
+ * <p>As in HDR histograms the buckets are log-linear: each power of two range is split in
+ * {@value #SUB_BUCKETS} buckets of the same width, so that the values are recorded with a relative
+ * error lower than 1/{@value #SUB_BUCKETS} over the whole {@code long} range.
+ */
+public final class Histogram {
+
+  static final int SUB_BITS = 5;
+
+  static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+
+  private final AtomicLong count = new AtomicLong();
+
+  private final AtomicLong sum = new AtomicLong();
+
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+  private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+  public void update(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    buckets.incrementAndGet(index(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+
+    long current;
+    while (value < (current = min.get()) && !min.compareAndSet(current, value)) { }
+    while (value > (current = max.get()) && !max.compareAndSet(current, value)) { }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getSum() {
+    return sum.get();
+  }
+
+  public long getMin() {
+    return count.get() > 0 ? min.get() : 0;
+  }
+
+  public long getMax() {
+    return count.get() > 0 ? max.get() : 0;
+  }
+
+  public double getMean() {
+    long n = count.get();
+    return n > 0 ? (double) sum.get() / n : 0;
+  }
+
+  /**
+   * @param quantile A value between 0 and 1, e.g. 0.99 for the 99th percentile
+   * @return The value at the specified quantile, with the precision of the bucket containing it
+   */
+  public long getPercentile(double quantile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(quantile * n);
+    if (rank < 1) {
+      rank = 1;
+    }
+    long seen = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        // the bucket middle value, but never outside the recorded range
+        long value = lowerBound(i) + (width(i) - 1) / 2;
+        return Math.max(getMin(), Math.min(value, getMax()));
+      }
+    }
+    return getMax();
+  }
+
+  void reset() {
+    for (int i = 0; i < buckets.length(); i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    min.set(Long.MAX_VALUE);
+    max.set(Long.MIN_VALUE);
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  static long lowerBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+    long sub = index % SUB_BUCKETS;
+    return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+  }
+
+  static long width(int index) {
+    return index < SUB_BUCKETS ? 1 : 1L << (index / SUB_BUCKETS - 1);
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The registry of the application counters, timers and histograms.
+ *
+ * <p>The metrics are created on first use and identified by a dotted name, e.g. {@code scp.upload}.
+ * Callers on hot paths should keep the returned instance instead of looking it up each time.
+ */
+public final class Metrics {
+
+  /** The JMX name under which the metrics are published, see {@link #registerMBean()} */
+  public static final String OBJECT_NAME = "blow:type=Metrics";
+
+  private static final ConcurrentMap<String, Object> METRICS = new ConcurrentHashMap<String, Object>();
+
+  private Metrics() { }
+
+  public static Counter counter(String name) {
+    return get(name, Counter.class);
+  }
+
+  public static Timer timer(String name) {
+    return get(name, Timer.class);
+  }
+
+  public static Histogram histogram(String name) {
+    return get(name, Histogram.class);
+  }
+
+  private static <T> T get(String name, Class<T> type) {
+    Object result = METRICS.get(name);
+    if (result == null) {
+      try {
+        Object metric = type.newInstance();
+        result = METRICS.putIfAbsent(name, metric);
+        if (result == null) {
+          result = metric;
+        }
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    if (!type.isInstance(result)) {
+      throw new IllegalArgumentException("Metric '" + name + "' is not a " + type.getSimpleName());
+    }
+    return type.cast(result);
+  }
+
+  /**
+   * @return The current values of all the metrics, sorted by name. Each one is a map of the
+   *     statistics, the durations are in milliseconds
+   */
+  public static Map<String, Map<String, Object>> snapshot() {
+    return snapshot("");
+  }
+
+  /**
+   * @return The current values of the metrics whose name starts with the specified prefix, the prefix
+   *     is removed from the returned names, see {@link #snapshot()}
+   */
+  public static Map<String, Map<String, Object>> snapshot(String prefix) {
+    Map<String, Map<String, Object>> result = new TreeMap<String, Map<String, Object>>();
+    for (Map.Entry<String, Object> entry : METRICS.entrySet()) {
+      if (!entry.getKey().startsWith(prefix)) {
+        continue;
+      }
+      Object metric = entry.getValue();
+      Map<String, Object> values = new LinkedHashMap<String, Object>();
+      if (metric instanceof Counter) {
+        values.put("type", "counter");
+        values.put("count", ((Counter) metric).getCount());
+      } else if (metric instanceof Timer) {
+        values.put("type", "timer");
+        describe(((Timer) metric).getHistogram(), 1e-6, values);
+      } else {
+        values.put("type", "histogram");
+        describe((Histogram) metric, 1, values);
+      }
+      result.put(entry.getKey().substring(prefix.length()), values);
+    }
+    return result;
+  }
+
+  private static void describe(Histogram histogram, double scale, Map<String, Object> values) {
+    values.put("count", histogram.getCount());
+    values.put("total", round(histogram.getSum() * scale));
+    values.put("mean", round(histogram.getMean() * scale));
+    values.put("min", round(histogram.getMin() * scale));
+    values.put("p50", round(histogram.getPercentile(0.50) * scale));
+    values.put("p90", round(histogram.getPercentile(0.90) * scale));
+    values.put("p99", round(histogram.getPercentile(0.99) * scale));
+    values.put("max", round(histogram.getMax() * scale));
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 1000) / 1000.0;
+  }
+
+  /**
+   * Clear the values of all the metrics
+   */
+  public static void reset() {
+    for (Object metric : METRICS.values()) {
+      if (metric instanceof Counter) {
+        ((Counter) metric).reset();
+      } else if (metric instanceof Timer) {
+        ((Timer) metric).reset();
+      } else {
+        ((Histogram) metric).reset();
+      }
+    }
+  }
+
+  /**
+   * Remove the metrics whose name starts with the specified prefix, e.g. the ones of a closed session.
+   * The instances kept by the callers are not registered anymore
+   */
+  public static void remove(String prefix) {
+    for (String name : METRICS.keySet()) {
+      if (name.startsWith(prefix)) {
+        METRICS.remove(name);
+      }
+    }
+  }
+
+  /**
+   * Publish the metrics on the platform MBean server, see {@link MetricsMBean}
+   *
+   * @return {@code true} when registered, {@code false} if it was already registered
+   */
+  public static synchronized boolean registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+        return false;
+      }
+      server.registerMBean(new MetricsMBean(), name);
+      return true;
+    } catch (Exception e) {
+      throw new IllegalStateException("Cannot register metrics MBean", e);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+
+/**
+ * Exposes the {@link Metrics} through JMX. Each statistic of each metric is a read-only attribute
+ * named {@code <metric>.<statistic>}, e.g. {@code scp.upload.p99}. The attributes are computed when
+ * read, so new metrics appear without registering the bean again.
+ */
+class MetricsMBean implements DynamicMBean {
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    int pos = attribute.lastIndexOf('.');
+    Map<String, Object> values = pos > 0 ? Metrics.snapshot().get(attribute.substring(0, pos)) : null;
+    if (values == null || !values.containsKey(attribute.substring(pos + 1))) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    return values.get(attribute.substring(pos + 1));
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics attributes are read-only: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    AttributeList result = new AttributeList();
+    for (String name : attributes) {
+      try {
+        result.add(new Attribute(name, getAttribute(name)));
+      } catch (AttributeNotFoundException e) {
+        // skip it as required by the DynamicMBean contract
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) {
+    if ("reset".equals(actionName)) {
+      Metrics.reset();
+      return null;
+    }
+    throw new UnsupportedOperationException(actionName);
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+    for (Map.Entry<String, Map<String, Object>> metric : Metrics.snapshot().entrySet()) {
+      for (Map.Entry<String, Object> value : metric.getValue().entrySet()) {
+        String type = value.getValue() == null ? String.class.getName() : value.getValue().getClass().getName();
+        attributes.add(new MBeanAttributeInfo(metric.getKey() + "." + value.getKey(), type,
+            metric.getKey() + " " + value.getKey(), true, false, false));
+      }
+    }
+
+    MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clear all the metrics",
+        new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+
+    return new MBeanInfo(getClass().getName(), "Blow metrics",
+        attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+        new MBeanOperationInfo[] { reset }, null);
+  }
+}
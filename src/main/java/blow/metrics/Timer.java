@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.metrics;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the duration of an operation in a {@link Histogram} of nanoseconds.
+ *
+ * <pre>
+ * Timer.Context ctx = timer.start();
+ * try {
+ *   ...
+ * } finally {
+ *   ctx.stop();
+ * }
+ * </pre>
+ */
+public final class Timer {
+
+  private final Histogram histogram = new Histogram();
+
+  /**
+   * A started measure, see {@link Timer#start()}
+   */
+  public final class Context {
+
+    private final long start = System.nanoTime();
+
+    /**
+     * @return The elapsed nanoseconds
+     */
+    public long stop() {
+      long elapsed = System.nanoTime() - start;
+      histogram.update(elapsed);
+      return elapsed;
+    }
+  }
+
+  public Context start() {
+    return new Context();
+  }
+
+  public <T> T time(Callable<T> task) throws Exception {
+    long start = System.nanoTime();
+    try {
+      return task.call();
+    } finally {
+      histogram.update(System.nanoTime() - start);
+    }
+  }
+
+  public void update(long duration, TimeUnit unit) {
+    histogram.update(unit.toNanos(duration));
+  }
+
+  public void update(long nanos) {
+    histogram.update(nanos);
+  }
+
+  public long getCount() {
+    return histogram.getCount();
+  }
+
+  /**
+   * @return The durations histogram, the values are nanoseconds
+   */
+  public Histogram getHistogram() {
+    return histogram;
+  }
+
+  void reset() {
+    histogram.reset();
+  }
+}
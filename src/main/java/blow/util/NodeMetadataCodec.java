@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.util;
+
+import org.jclouds.compute.domain.Hardware;
+import org.jclouds.compute.domain.HardwareBuilder;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.jclouds.compute.domain.OperatingSystem;
+import org.jclouds.compute.domain.OsFamily;
+import org.jclouds.compute.domain.Processor;
+import org.jclouds.compute.domain.Volume;
+import org.jclouds.compute.domain.VolumeBuilder;
+import org.jclouds.domain.Location;
+import org.jclouds.domain.LocationBuilder;
+import org.jclouds.domain.LocationScope;
+import org.jclouds.domain.LoginCredentials;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binary encoding of the jclouds {@link NodeMetadata}, used to save the nodes in the {@link SessionFile}.
+ *
+ * <p>All the attributes of the node, its location, hardware, operating system and credentials are saved.
+ * The hardware {@code supportsImage} predicate cannot be saved, the decoded node uses the builder default.
+ * Location metadata values are saved as strings.
+ */
+public final class NodeMetadataCodec {
+
+  private NodeMetadataCodec() {}
+
+  public static byte[] encode(NodeMetadata node) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+    DataOutputStream output = new DataOutputStream(buffer);
+    write(output, node);
+    output.flush();
+    return buffer.toByteArray();
+  }
+
+  public static NodeMetadata decode(byte[] data) throws IOException {
+    return read(new DataInputStream(new ByteArrayInputStream(data)));
+  }
+
+  public static void write(DataOutput out, NodeMetadata node) throws IOException {
+    writeString(out, node.getId());
+    writeString(out, node.getProviderId());
+    writeString(out, node.getName());
+    writeString(out, node.getUri() != null ? node.getUri().toString() : null);
+    writeLocation(out, node.getLocation());
+    writeMap(out, node.getUserMetadata());
+    writeStrings(out, node.getTags());
+    writeString(out, node.getGroup());
+    writeHardware(out, node.getHardware());
+    writeString(out, node.getImageId());
+    writeOperatingSystem(out, node.getOperatingSystem());
+    writeString(out, node.getStatus() != null ? node.getStatus().name() : null);
+    writeString(out, node.getBackendStatus());
+    out.writeInt(node.getLoginPort());
+    writeStrings(out, node.getPublicAddresses());
+    writeStrings(out, node.getPrivateAddresses());
+    writeCredentials(out, node.getCredentials());
+    writeString(out, node.getHostname());
+  }
+
+  public static NodeMetadata read(DataInput in) throws IOException {
+    NodeMetadataBuilder builder = new NodeMetadataBuilder();
+    builder.id(readString(in));
+    builder.providerId(readString(in));
+    builder.name(readString(in));
+    String uri = readString(in);
+    builder.uri(uri != null ? URI.create(uri) : null);
+    builder.location(readLocation(in));
+    builder.userMetadata(readMap(in));
+    builder.tags(readStrings(in));
+    builder.group(readString(in));
+    builder.hardware(readHardware(in));
+    builder.imageId(readString(in));
+    builder.operatingSystem(readOperatingSystem(in));
+    String status = readString(in);
+    builder.status(status != null ? NodeMetadata.Status.valueOf(status) : null);
+    builder.backendStatus(readString(in));
+    builder.loginPort(in.readInt());
+    builder.publicAddresses(readStrings(in));
+    builder.privateAddresses(readStrings(in));
+    builder.credentials(readCredentials(in));
+    builder.hostname(readString(in));
+    return builder.build();
+  }
+
+  private static void writeLocation(DataOutput out, Location location) throws IOException {
+    out.writeBoolean(location != null);
+    if (location == null) {
+      return;
+    }
+
+    writeString(out, location.getScope() != null ? location.getScope().name() : null);
+    writeString(out, location.getId());
+    writeString(out, location.getDescription());
+    writeStrings(out, location.getIso3166Codes());
+    Map<String, String> metadata = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, Object> entry : location.getMetadata().entrySet()) {
+      if (entry.getValue() != null) {
+        metadata.put(entry.getKey(), entry.getValue().toString());
+      }
+    }
+    writeMap(out, metadata);
+    writeLocation(out, location.getParent());
+  }
+
+  private static Location readLocation(DataInput in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+
+    LocationBuilder builder = new LocationBuilder();
+    String scope = readString(in);
+    builder.scope(scope != null ? LocationScope.valueOf(scope) : null);
+    builder.id(readString(in));
+    builder.description(readString(in));
+    builder.iso3166Codes(readStrings(in));
+    builder.metadata(new LinkedHashMap<String, Object>(readMap(in)));
+    builder.parent(readLocation(in));
+    return builder.build();
+  }
+
+  private static void writeHardware(DataOutput out, Hardware hardware) throws IOException {
+    out.writeBoolean(hardware != null);
+    if (hardware == null) {
+      return;
+    }
+
+    writeString(out, hardware.getId());
+    writeString(out, hardware.getProviderId());
+    writeString(out, hardware.getName());
+    writeString(out, hardware.getUri() != null ? hardware.getUri().toString() : null);
+    writeLocation(out, hardware.getLocation());
+    writeMap(out, hardware.getUserMetadata());
+    writeStrings(out, hardware.getTags());
+
+    List<? extends Processor> processors = hardware.getProcessors();
+    out.writeInt(processors != null ? processors.size() : 0);
+    if (processors != null) {
+      for (Processor processor : processors) {
+        out.writeDouble(processor.getCores());
+        out.writeDouble(processor.getSpeed());
+      }
+    }
+
+    out.writeInt(hardware.getRam());
+
+    List<? extends Volume> volumes = hardware.getVolumes();
+    out.writeInt(volumes != null ? volumes.size() : 0);
+    if (volumes != null) {
+      for (Volume volume : volumes) {
+        writeString(out, volume.getId());
+        writeString(out, volume.getType() != null ? volume.getType().name() : null);
+        out.writeBoolean(volume.getSize() != null);
+        if (volume.getSize() != null) {
+          out.writeFloat(volume.getSize());
+        }
+        writeString(out, volume.getDevice());
+        out.writeBoolean(volume.isBootDevice());
+        out.writeBoolean(volume.isDurable());
+      }
+    }
+
+    writeString(out, hardware.getHypervisor());
+  }
+
+  private static Hardware readHardware(DataInput in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+
+    HardwareBuilder builder = new HardwareBuilder();
+    builder.id(readString(in));
+    builder.providerId(readString(in));
+    builder.name(readString(in));
+    String uri = readString(in);
+    builder.uri(uri != null ? URI.create(uri) : null);
+    builder.location(readLocation(in));
+    builder.userMetadata(readMap(in));
+    builder.tags(readStrings(in));
+
+    int count = in.readInt();
+    List<Processor> processors = new ArrayList<Processor>(count);
+    for (int i = 0; i < count; i++) {
+      processors.add(new Processor(in.readDouble(), in.readDouble()));
+    }
+    builder.processors(processors);
+
+    builder.ram(in.readInt());
+
+    count = in.readInt();
+    List<Volume> volumes = new ArrayList<Volume>(count);
+    for (int i = 0; i < count; i++) {
+      VolumeBuilder volume = new VolumeBuilder();
+      volume.id(readString(in));
+      String type = readString(in);
+      volume.type(type != null ? Volume.Type.valueOf(type) : null);
+      volume.size(in.readBoolean() ? in.readFloat() : null);
+      volume.device(readString(in));
+      volume.bootDevice(in.readBoolean());
+      volume.durable(in.readBoolean());
+      volumes.add(volume.build());
+    }
+    builder.volumes(volumes);
+
+    builder.hypervisor(readString(in));
+    return builder.build();
+  }
+
+  private static void writeOperatingSystem(DataOutput out, OperatingSystem os) throws IOException {
+    out.writeBoolean(os != null);
+    if (os == null) {
+      return;
+    }
+
+    writeString(out, os.getFamily() != null ? os.getFamily().name() : null);
+    writeString(out, os.getName());
+    writeString(out, os.getArch());
+    writeString(out, os.getVersion());
+    writeString(out, os.getDescription());
+    out.writeBoolean(os.is64Bit());
+  }
+
+  private static OperatingSystem readOperatingSystem(DataInput in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+
+    OperatingSystem.Builder builder = OperatingSystem.builder();
+    String family = readString(in);
+    builder.family(family != null ? OsFamily.valueOf(family) : null);
+    builder.name(readString(in));
+    builder.arch(readString(in));
+    builder.version(readString(in));
+    builder.description(readString(in));
+    builder.is64Bit(in.readBoolean());
+    return builder.build();
+  }
+
+  private static void writeCredentials(DataOutput out, LoginCredentials credentials) throws IOException {
+    out.writeBoolean(credentials != null);
+    if (credentials == null) {
+      return;
+    }
+
+    writeString(out, credentials.getUser());
+    writeString(out, credentials.getPassword());
+    writeString(out, credentials.getPrivateKey());
+    out.writeBoolean(credentials.shouldAuthenticateSudo());
+  }
+
+  private static LoginCredentials readCredentials(DataInput in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+
+    String user = readString(in);
+    String password = readString(in);
+    String privateKey = readString(in);
+    return new LoginCredentials(user, password, privateKey, in.readBoolean());
+  }
+
+  /*
+   * Strings are saved as the length of the UTF-8 bytes followed by the bytes, -1 stands for null.
+   * Unlike DataOutput#writeUTF there is no limit on the length e.g. for the user data scripts
+   */
+  static void writeString(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  static void writeStrings(DataOutput out, Collection<String> values) throws IOException {
+    out.writeInt(values != null ? values.size() : 0);
+    if (values != null) {
+      for (String value : values) {
+        writeString(out, value);
+      }
+    }
+  }
+
+  static Set<String> readStrings(DataInput in) throws IOException {
+    int count = in.readInt();
+    Set<String> result = new LinkedHashSet<String>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(readString(in));
+    }
+    return result;
+  }
+
+  static void writeMap(DataOutput out, Map<String, String> map) throws IOException {
+    out.writeInt(map != null ? map.size() : 0);
+    if (map != null) {
+      for (Map.Entry<String, String> entry : map.entrySet()) {
+        writeString(out, entry.getKey());
+        writeString(out, entry.getValue());
+      }
+    }
+  }
+
+  static Map<String, String> readMap(DataInput in) throws IOException {
+    int count = in.readInt();
+    Map<String, String> result = new LinkedHashMap<String, String>(count);
+    for (int i = 0; i < count; i++) {
+      result.put(readString(in), readString(in));
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.util;
+
+/**
+ * The checksum computed by the POSIX {@code cksum} command, over a window of fixed size that can be moved
+ * forward by one byte in constant time.
+ *
+ * <p>The remote hosts compute the checksum of their blocks with the standard {@code cksum} tool, this class
+ * finds the blocks in a local file at any offset. The CRC is linear, so removing the first byte of the window
+ * is a XOR with the CRC of that byte followed by {@code size - 1} zero bytes, which is precomputed for
+ * each of the 256 byte values.
+ */
+public final class RollingCksum {
+
+  private static final int[] TABLE = new int[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int crc = i << 24;
+      for (int j = 0; j < 8; j++) {
+        crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+      }
+      TABLE[i] = crc;
+    }
+  }
+
+  private final int size;
+
+  /** The CRC contribution of a byte leaving the window */
+  private final int[] outTable = new int[256];
+
+  private final byte[] window;
+
+  private int start;
+
+  private int count;
+
+  private int crc;
+
+  /**
+   * @param size The window size, the checksum is available when {@code size} bytes have been added
+   */
+  public RollingCksum(int size) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Window size must be positive");
+    }
+    this.size = size;
+    this.window = new byte[size];
+
+    // the CRC of 'b' followed by 'size-1' zeros, computed by linearity from the single bits
+    int[] bits = new int[8];
+    for (int bit = 0; bit < 8; bit++) {
+      int value = update(0, (byte) (1 << bit));
+      for (int i = 1; i < size; i++) {
+        value = update(value, (byte) 0);
+      }
+      bits[bit] = value;
+    }
+    for (int b = 0; b < 256; b++) {
+      int value = 0;
+      for (int bit = 0; bit < 8; bit++) {
+        if ((b & (1 << bit)) != 0) {
+          value ^= bits[bit];
+        }
+      }
+      outTable[b] = value;
+    }
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Add a byte at the end of the window, when the window is full the first byte is removed
+   */
+  public void roll(byte b) {
+    if (count == size) {
+      crc ^= outTable[window[start] & 0xFF];
+      window[start] = b;
+      start = (start + 1) % size;
+    } else {
+      window[(start + count) % size] = b;
+      count++;
+    }
+    crc = update(crc, b);
+  }
+
+  /**
+   * @return {@code true} when the window holds {@code size} bytes
+   */
+  public boolean isFull() {
+    return count == size;
+  }
+
+  /**
+   * @return The {@code cksum} value of the bytes in the window
+   */
+  public long getValue() {
+    return finish(crc, count);
+  }
+
+  public void reset() {
+    start = 0;
+    count = 0;
+    crc = 0;
+  }
+
+  /**
+   * @return The {@code cksum} value of the specified bytes
+   */
+  public static long cksum(byte[] data, int offset, int length) {
+    int crc = 0;
+    for (int i = offset; i < offset + length; i++) {
+      crc = update(crc, data[i]);
+    }
+    return finish(crc, length);
+  }
+
+  private static int update(int crc, byte b) {
+    return (crc << 8) ^ TABLE[((crc >>> 24) ^ b) & 0xFF];
+  }
+
+  /**
+   * {@code cksum} appends the length, least significant byte first, and inverts the result
+   */
+  private static long finish(int crc, long length) {
+    for (long len = length; len != 0; len >>>= 8) {
+      crc = update(crc, (byte) (len & 0xFF));
+    }
+    return ~crc & 0xFFFFFFFFL;
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A binary file made of named sections, used to save the session.
+ *
+ * <p>The file starts with a header describing its content, so that a reader can load only the sections it needs:
+ * <pre>
+ *   magic 'BLOW' (4 bytes) | format version (int) | number of sections (int)
+ *   for each section: name (UTF) | offset from the start of the file (long) | length (int)
+ *   the sections data
+ * </pre>
+ *
+ * <p>Readers ignore the sections they do not know, a file written by a newer format version is rejected.
+ * The file is written to a temporary file that replaces the target only when complete,
+ * so a failure never leaves a truncated session behind.
+ */
+public final class SessionFile {
+
+  /** The current format version */
+  public static final int VERSION = 1;
+
+  private static final int MAGIC = 0x424C4F57;
+
+  private final File file;
+
+  private final int version;
+
+  private final Map<String, long[]> sections;
+
+  private SessionFile(File file, int version, Map<String, long[]> sections) {
+    this.file = file;
+    this.version = version;
+    this.sections = Collections.unmodifiableMap(sections);
+  }
+
+  /**
+   * @return {@code true} when the file exists and starts with the binary format magic number
+   */
+  public static boolean isBinary(File file) {
+    if (!file.isFile() || file.length() < 4) {
+      return false;
+    }
+
+    try {
+      DataInputStream input = new DataInputStream(new FileInputStream(file));
+      try {
+        return input.readInt() == MAGIC;
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Read the header of a session file, the sections are read by {@link #read(String)}
+   */
+  public static SessionFile open(File file) throws IOException {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (input.readInt() != MAGIC) {
+        throw new IOException("Not a binary session file: '" + file + "'");
+      }
+      int version = input.readInt();
+      if (version > VERSION) {
+        throw new IOException("Unsupported session file version: " + version + " -- expected " + VERSION + " or lower");
+      }
+
+      int count = input.readInt();
+      Map<String, long[]> sections = new LinkedHashMap<String, long[]>(count);
+      for (int i = 0; i < count; i++) {
+        String name = input.readUTF();
+        long offset = input.readLong();
+        int length = input.readInt();
+        sections.put(name, new long[] { offset, length });
+      }
+      return new SessionFile(file, version, sections);
+    } finally {
+      input.close();
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  public Set<String> getSections() {
+    return sections.keySet();
+  }
+
+  public boolean contains(String name) {
+    return sections.containsKey(name);
+  }
+
+  /**
+   * @return the content of the specified section, or {@code null} when the file does not contain it
+   */
+  public byte[] read(String name) throws IOException {
+    long[] entry = sections.get(name);
+    if (entry == null) {
+      return null;
+    }
+
+    byte[] result = new byte[(int) entry[1]];
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      input.seek(entry[0]);
+      input.readFully(result);
+    } finally {
+      input.close();
+    }
+    return result;
+  }
+
+  /**
+   * @return a stream reading the specified section, or {@code null} when the file does not contain it
+   */
+  public DataInputStream input(String name) throws IOException {
+    byte[] data = read(name);
+    return data != null ? new DataInputStream(new ByteArrayInputStream(data)) : null;
+  }
+
+  /**
+   * Write the sections to the specified file, replacing it only when all the content has been written.
+   *
+   * @param file      the target file
+   * @param sections  the sections content in the order they have to be written
+   */
+  public static void write(File file, Map<String, byte[]> sections) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    File temp = File.createTempFile(file.getName(), ".tmp", parent);
+    boolean done = false;
+    try {
+      FileOutputStream stream = new FileOutputStream(temp);
+      try {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(sections.size());
+
+        // the header size is known in advance, so the offsets can be written before the data
+        long offset = 12;
+        for (String name : sections.keySet()) {
+          offset += 2 + utfLength(name) + 8 + 4;
+        }
+        for (Map.Entry<String, byte[]> entry : sections.entrySet()) {
+          output.writeUTF(entry.getKey());
+          output.writeLong(offset);
+          output.writeInt(entry.getValue().length);
+          offset += entry.getValue().length;
+        }
+        for (byte[] data : sections.values()) {
+          output.write(data);
+        }
+        output.flush();
+        stream.getFD().sync();
+      } finally {
+        stream.close();
+      }
+
+      // the rename replaces the existing file atomically on POSIX systems, on the others it has to be deleted first
+      if (!temp.renameTo(file)) {
+        if (!file.delete() || !temp.renameTo(file)) {
+          throw new IOException("Unable to replace session file: '" + file + "'");
+        }
+      }
+      done = true;
+    } finally {
+      if (!done) {
+        temp.delete();
+      }
+    }
+  }
+
+  private static int utfLength(String value) {
+    int result = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char ch = value.charAt(i);
+      result += (ch >= 0x0001 && ch <= 0x007F) ? 1 : (ch > 0x07FF ? 3 : 2);
+    }
+    return result;
+  }
+
+}
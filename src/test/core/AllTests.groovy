@@ -39,6 +39,10 @@ import blow.util.CmdLineTest;
 @SuiteClasses([
     blow.BlowConfigTest.class,
     blow.BlowSessionTest.class,
+    blow.NodeMetadataCacheTest.class,
+    blow.NodeIndexTest.class,
+    blow.ProvisioningJournalTest.class,
+    blow.SessionManagerTest.class,
 
     blow.builder.BlowConfigBuilderTest.class,
     blow.builder.BuilderExtendedTest.class,
@@ -46,6 +50,7 @@ import blow.util.CmdLineTest;
     blow.DynLoaderTest.class,
     blow.DynLoaderFactoryTest.class,
     blow.shell.BlowShellTest.class,
+    blow.shell.BatchRunnerTest.class,
 
     CmdLineTest.class,
     blow.util.KeyPairBuilderTest.class,
@@ -55,9 +60,13 @@ import blow.util.CmdLineTest;
     blow.util.KeyPairBuilderTest.class,
     blow.util.QuoteStringTokenizerTest.class,
     blow.util.WebHelperTest,
+    blow.util.SessionFileTest.class,
+    blow.util.NodeLogWriterTest.class,
+    blow.util.RollingCksumTest.class,
 
     blow.command.SshCommandTest.class,
     blow.command.S3CommandTest.class,
+    blow.command.S3SyncTest.class,
 
     blow.operation.AppendTextOpTest.class,
     blow.operation.NfsOpTest.class,
@@ -69,7 +78,24 @@ import blow.util.CmdLineTest;
     blow.operation.OperationFactoryTest.class,
     blow.operation.GlusterFSOpTest.class,
 
+	blow.eventbus.AsyncOrderedEventBusTest.class,
+	blow.eventbus.OrderedEventBusTest.class,
+
+	blow.metrics.MetricsTest.class,
+
+	blow.ssh.ArtifactCacheTest.class,
+	blow.ssh.BroadcastConsoleTest.class,
+	blow.ssh.BroadcastCopyTest.class,
+	blow.ssh.ClusterBroadcastCopyTest.class,
+	blow.ssh.DeltaSyncTest.class,
+	blow.ssh.LineOutputStreamTest.class,
+	blow.ssh.ParallelCopyTest.class,
+	blow.ssh.RollingExecutorTest.class,
 	blow.ssh.ScpClientTest.class,
+	blow.ssh.SshConnectionPoolTest.class,
+	blow.ssh.StreamPumpTest.class,
+	blow.storage.EbsStatusPollerTest.class,
+	blow.storage.ParallelDownloaderTest.class,
 ]
 )
 public class AllTests {
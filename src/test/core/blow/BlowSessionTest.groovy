@@ -20,7 +20,15 @@
 package blow
 
 import blow.builder.BlowConfigBuilder
+import blow.events.OnAfterNodeLaunchEvent
+import blow.events.OnBeforeNodeLaunchEvent
+import blow.events.OnNodeReadyEvent
+import blow.exception.BlowException
 import blow.operation.EbsVolumeOp
+import com.google.common.eventbus.Subscribe
+import org.jclouds.ContextBuilder
+import org.jclouds.compute.ComputeService
+import org.jclouds.compute.ComputeServiceContext
 import org.jclouds.domain.Location
 import org.jclouds.domain.LoginCredentials
 import org.jclouds.domain.ResourceMetadata
@@ -125,6 +133,32 @@ class BlowSessionTest extends Specification {
     }
 
 
+    def "test read previous xml session" () {
+        setup:
+        def key = File.createTempFile('test','key'); key.text = 'dummy'
+        def conf = new BlowConfig()
+        conf.privateKey = key
+        def session = new BlowSession(conf, 'legacy')
+        session.metadataInitialize()
+        def file = new File('.blow_session.legacy')
+        file.withWriter { BlowSession.createXStream().toXML(session, it) }
+
+        when:
+        def copy = BlowSession.read('legacy')
+
+        then:
+        // the session is read and saved again in the binary format
+        copy.clusterName == 'legacy'
+        copy.listNodesNames() == session.listNodesNames()
+        copy.confHashCode == session.confHashCode
+        blow.util.SessionFile.isBinary(file)
+        BlowSession.read('legacy').listNodesNames() == session.listNodesNames()
+
+        cleanup:
+        file?.delete()
+        key?.delete()
+    }
+
     def "test metadata" () {
         when:
         def session = new BlowSession()
@@ -244,6 +278,41 @@ class BlowSessionTest extends Specification {
     }
 
 
+    def "test getNextName skips the names in use"() {
+
+        when:
+        def session = new BlowSession()
+        session.conf.instanceNum = ['master':1, 'worker':10 ]
+        session.conf.roles = ['master','worker']
+
+        session.nodeNamesMap.put( 'master', '1' )
+        session.nodeRolesMap.put( 'master', '1' )
+        // the node 'worker02' has been removed
+        session.nodeNamesMap.put( 'worker01', '2' )
+        session.nodeRolesMap.put( 'worker', '2' )
+        session.nodeNamesMap.put( 'worker03', '4' )
+        session.nodeRolesMap.put( 'worker', '4' )
+
+        then:
+        session.getNextNodeName('worker') == 'worker04'
+        session.getNextNodeName('master') == 'master2'
+
+    }
+
+    def "test add and remove nodes require a started cluster"() {
+
+        when:
+        new BlowSession().addNodes('worker', 1)
+        then:
+        thrown(BlowException)
+
+        when:
+        new BlowSession().removeNodes('worker01')
+        then:
+        thrown(BlowException)
+
+    }
+
     def "test findNodeIDs" () {
         when:
         def session = new BlowSession()
@@ -288,6 +357,187 @@ class BlowSessionTest extends Specification {
         session.findNodeIDs('master') == ['1','2']
     }
 
+    def "test wrapScript" () {
+        expect:
+        BlowSession.wrapScript('echo hello', false) == "bash -c 'echo hello'"
+        BlowSession.wrapScript('echo hello', true) == "sudo bash -c 'echo hello'"
+        BlowSession.wrapScript("echo 'a b'", false) == "bash -c 'echo '\\''a b'\\'''"
+        BlowSession.wrapScript('make', true, 600) == "sudo timeout -k 10 600 bash -c 'make'"
+        BlowSession.wrapScript('make', false, 0) == "bash -c 'make'"
+    }
+
+    def "test wait for port" () {
+        setup:
+        def server = new ServerSocket(0)
+
+        expect:
+        BlowSession.waitForPort('127.0.0.1', server.getLocalPort(), 1000)
+
+        when:
+        def port = server.getLocalPort()
+        server.close()
+        then:
+        !BlowSession.waitForPort('127.0.0.1', port, 0)
+    }
+
+    def "test node ready events" () {
+        setup:
+        def context = ContextBuilder.newBuilder('stub').build(ComputeServiceContext)
+        ComputeService compute = context.getComputeService()
+        def created = compute.createNodesInGroup('test', 3)
+
+        def key = File.createTempFile('test','key'); key.text = 'dummy'
+        def conf = new BlowConfig()
+        conf.roles = ['node']
+        conf.instanceNum = 3
+        conf.privateKey = key
+        conf.nodeReadyTimeout = 0
+        def session = new BlowSession(conf, 'test')
+        session.@'$compute' = compute
+        session.metadataInitialize()
+        session.metadataAddInstances(created, 'node')
+
+        def events = Collections.synchronizedList([])
+        session.eventBus.register( new ReadyListener(events: events) )
+
+        when:
+        created.each { session.nodeReady(it, 'node') }
+
+        then:
+        events*.name.sort() == ['node1','node2','node3']
+        events.every { OnNodeReadyEvent it -> it.role == 'node' && it.node.is( session.getAllNodes().get(it.name) ) }
+
+        cleanup:
+        session?.getJournal()?.clear()
+        session?.close()
+        context?.close()
+        key?.delete()
+    }
+
+    def "test each node is ready before the role launch completes" () {
+        setup:
+        def context = ContextBuilder.newBuilder('stub').build(ComputeServiceContext)
+        ComputeService compute = context.getComputeService()
+
+        def key = File.createTempFile('test','key'); key.text = 'dummy'
+        def conf = new BlowConfig()
+        conf.roles = ['node']
+        conf.instanceNum = 3
+        conf.privateKey = key
+        conf.nodeReadyTimeout = 0
+        conf.inboundPorts = [22]
+        def session = new BlowSession(conf, 'test')
+        session.@'$compute' = compute
+        session.metaClass.templateBuilder = { String role -> compute.templateBuilder() }
+        session.metadataInitialize()
+
+        def events = Collections.synchronizedList([])
+        session.eventBus.register( new ReadyListener(events: events) )
+
+        when:
+        def nodes = session.launchRole('node', 3)
+
+        then:
+        nodes.size() == 3
+        nodes.every { it.getState() == NodeState.RUNNING }
+        // the nodes are notified one by one, before the event for the launch of the whole role
+        events.size() == 5
+        events[0] instanceof OnBeforeNodeLaunchEvent
+        events[1..3].every { it instanceof OnNodeReadyEvent }
+        events[1..3]*.name.sort() == ['node1','node2','node3']
+        events[4] instanceof OnAfterNodeLaunchEvent
+        events[4].nodes.size() == 3
+
+        cleanup:
+        session?.getJournal()?.clear()
+        session?.close()
+        context?.close()
+        key?.delete()
+    }
+
+    def "test resume posts again the node ready events" () {
+        setup:
+        def context = ContextBuilder.newBuilder('stub').build(ComputeServiceContext)
+        ComputeService compute = context.getComputeService()
+        def created = compute.createNodesInGroup('test', 2)
+
+        def key = File.createTempFile('test','key'); key.text = 'dummy'
+        def conf = new BlowConfig()
+        conf.roles = ['node']
+        conf.instanceNum = 2
+        conf.privateKey = key
+        def session = new BlowSession(conf, 'test')
+        session.@'$compute' = compute
+        session.@dirty = true
+        session.metadataInitialize()
+        session.metadataAddInstances(created, 'node')
+
+        def events = Collections.synchronizedList([])
+        session.eventBus.register( new ReadyListener(events: events) )
+
+        when:
+        session.resumeCluster()
+
+        then:
+        events*.name.sort() == ['node1','node2']
+        events.every { OnNodeReadyEvent it -> it.role == 'node' }
+
+        cleanup:
+        session?.getJournal()?.clear()
+        session?.close()
+        context?.close()
+        key?.delete()
+    }
+
+    def "test each session saves its own metrics" () {
+        setup:
+        def key = File.createTempFile('test','key'); key.text = 'dummy'
+        def alpha = new BlowSession(new BlowConfig(privateKey: key), 'metrics-alpha')
+        def beta = new BlowSession(new BlowConfig(privateKey: key), 'metrics-beta')
+        alpha.metricsTimer('ssh.exec').update(1000)
+        alpha.metricsTimer('ssh.exec').update(2000)
+        beta.metricsTimer('ssh.exec').update(3000)
+
+        when:
+        def file = alpha.saveMetrics()
+        def saved = new groovy.json.JsonSlurper().parseText(file.text)
+
+        then:
+        saved.cluster == 'metrics-alpha'
+        saved.metrics.keySet() as List == ['ssh.exec']
+        saved.metrics['ssh.exec'].count == 2
+        // the saved metrics are removed, the ones of the other session are kept
+        !blow.metrics.Metrics.snapshot('cluster.metrics-alpha.')
+        blow.metrics.Metrics.snapshot('cluster.metrics-beta.')['ssh.exec'].count == 1
+
+        cleanup:
+        file?.delete()
+        beta?.saveMetrics()?.delete()
+        key?.delete()
+    }
+
+
+}
+
+class ReadyListener {
+
+    def List events
+
+    @Subscribe
+    void nodeReady( OnNodeReadyEvent event ) {
+        events << event
+    }
+
+    @Subscribe
+    void beforeLaunch( OnBeforeNodeLaunchEvent event ) {
+        events << event
+    }
+
+    @Subscribe
+    void afterLaunch( OnAfterNodeLaunchEvent event ) {
+        events << event
+    }
+
 
 }
 
@@ -76,4 +76,52 @@ class DynLoaderTest extends Specification {
             loader.shellMethods *. getName() == ['command1', 'command3']
 	}
 
+
+	def "load extensions using the cache"() {
+
+		setup:
+			def sources = File.createTempFile('extensions','src'); sources.delete(); sources.mkdirs()
+			def cache = File.createTempFile('extensions','cache'); cache.delete()
+			new File(sources, 'blow').mkdirs()
+			new File('./src/test/extensions/blow').eachFile { File file -> new File(sources, "blow/${file.name}").text = file.text }
+
+		when:
+			def loader = new DynLoader([sources], null, cache)
+
+		then:
+			// the first time the index is created compiling all the sources
+			loader.index.commands*.className == ['blow.Command1', 'blow.Command2', 'blow.TestShellMethods', 'blow.TestShellMethods']
+			loader.index.commands*.name == [null, null, 'command1', 'cmd_3']
+			loader.index.operations*.name == ['Operation1', 'my-super-operation']
+			new File(cache, 'index').exists()
+			new File(cache, 'classes').listFiles().size() == 6
+
+		when:
+			def cached = new DynLoader([sources], null, cache)
+
+		then:
+			// the next launch reads the index, the classes are loaded only when required
+			cached.index.commands*.className == ['blow.Command1', 'blow.Command2', 'blow.TestShellMethods', 'blow.TestShellMethods']
+			cached.@'$allClasses' == null
+			cached.getOperationClass('my-super-operation').getSimpleName() == 'TestOperation'
+			cached.getOperationClass('missing') == null
+			cached.loadMethod( cached.index.commands[3] ).getName() == 'command3'
+			cached.@'$allClasses' == null
+
+		when:
+			// a source change invalidates the index and only that source is compiled again
+			def source = new File(sources, 'blow/Command2.groovy')
+			source.text = source.text.replace('class Command2', 'class Command3')
+			source.setLastModified( source.lastModified() + 2000 )
+			def changed = new DynLoader([sources], null, cache)
+
+		then:
+			changed.index.commands*.className == ['blow.Command1', 'blow.Command3', 'blow.TestShellMethods', 'blow.TestShellMethods']
+			new File(cache, 'classes').listFiles().size() == 6
+
+		cleanup:
+			sources?.deleteDir()
+			cache?.deleteDir()
+	}
+
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow
+
+import org.jclouds.compute.domain.NodeMetadata
+import org.jclouds.compute.domain.NodeMetadataBuilder
+import spock.lang.Specification
+
+class NodeIndexTest extends Specification {
+
+    static NodeMetadata node( String id, String ip, String hostname = null ) {
+        new NodeMetadataBuilder()
+                .id(id)
+                .providerId(id)
+                .hostname(hostname)
+                .publicAddresses([ip])
+                .status(NodeMetadata.Status.RUNNING)
+                .build()
+    }
+
+    def "test find" () {
+        setup:
+        def index = new NodeIndex([
+                master: node('i-01', '10.0.0.1', 'alpha'),
+                worker1: node('i-02', '10.0.0.2', 'beta'),
+                worker2: node('i-03', '10.0.0.3', 'alpha'),
+                worker3: null ])
+
+        expect:
+        index.nodes.size() == 3
+        index.find('master') == ['master']
+        index.find('10.0.0.2') == ['worker1']
+        index.find('i-03') == ['worker2']
+        index.find('alpha') == ['master','worker2']
+        index.find('worker3') == []
+        index.find('missing') == []
+        index.find(null) == []
+        index.get('worker1').getProviderId() == 'i-02'
+    }
+
+    def "test complete" () {
+        setup:
+        def index = new NodeIndex([
+                master: node('i-01', '10.0.0.1'),
+                worker1: node('i-02', '10.0.1.2'),
+                worker2: node('i-03', '10.0.1.3') ])
+
+        expect:
+        index.complete(NodeIndex.Attribute.NAME, null) == ['master','worker1','worker2']
+        index.complete(NodeIndex.Attribute.NAME, 'work') == ['worker1','worker2']
+        index.complete(NodeIndex.Attribute.NAME, 'worker1') == ['worker1']
+        index.complete(NodeIndex.Attribute.NAME, 'x') == []
+        index.complete(NodeIndex.Attribute.IP, '10.0.1') == ['10.0.1.2','10.0.1.3']
+        index.complete(NodeIndex.Attribute.PROVIDER_ID, 'i-0') == ['i-01','i-02','i-03']
+    }
+
+    def "test index is created again after a change" () {
+        setup:
+        def cache = new NodeMetadataCache()
+        cache.put('master', node('i-01', '10.0.0.1'))
+
+        when:
+        def index = cache.getIndex()
+        then:
+        cache.getIndex().is(index)
+
+        when:
+        cache.put('worker', node('i-02', '10.0.0.2'))
+        then:
+        !cache.getIndex().is(index)
+        cache.getIndex().find('10.0.0.2') == ['worker']
+    }
+
+}
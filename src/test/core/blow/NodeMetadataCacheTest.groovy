@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow
+
+import org.jclouds.ContextBuilder
+import org.jclouds.compute.ComputeService
+import org.jclouds.compute.ComputeServiceContext
+import org.jclouds.compute.domain.NodeMetadata
+import org.jclouds.compute.domain.NodeMetadataBuilder
+import spock.lang.Specification
+
+class NodeMetadataCacheTest extends Specification {
+
+    static NodeMetadata node( String id, NodeMetadata.Status status = NodeMetadata.Status.RUNNING ) {
+        new NodeMetadataBuilder().id(id).providerId(id).status(status).build()
+    }
+
+    def "test copy on write" () {
+        setup:
+        def cache = new NodeMetadataCache()
+        cache.reset(['a','b'])
+
+        when:
+        def snapshot = cache.snapshot()
+        cache.put('a', node('1'))
+        cache.putAll( [b: node('2'), c: node('3')] )
+
+        then:
+        snapshot == [a: null, b: null]
+        cache.keySet() as List == ['a','b','c']
+        cache['a'].getId() == '1'
+        cache.size() == 3
+        cache.getAge() >= 0
+
+        when:
+        cache.snapshot().put('x', node('x'))
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "test refresh backoff" () {
+        setup:
+        def cache = new NodeMetadataCache()
+        cache.setMinInterval(100)
+        cache.setMaxInterval(400)
+
+        when:
+        cache.put('a', node('1'))
+        cache.put('b', node('2', NodeMetadata.Status.PENDING))
+        then:
+        cache.dueNames() == []
+        cache.getNextDue() > System.currentTimeMillis()
+
+        when:
+        sleep 150
+        then:
+        cache.dueNames() == ['a','b']
+
+        when:
+        // 'a' is stable, the interval doubles; 'b' is still pending
+        cache.put('a', node('1'))
+        cache.put('b', node('2', NodeMetadata.Status.PENDING))
+        sleep 150
+        then:
+        cache.dueNames() == ['b']
+
+        when:
+        cache.expireAll()
+        then:
+        cache.dueNames() == ['a','b']
+        cache.getNextDue() == 0
+
+        when:
+        cache.put('a', null)
+        then:
+        cache.dueNames() == ['b']
+    }
+
+    def "test hits and misses" () {
+        setup:
+        def cache = new NodeMetadataCache()
+        cache.put('a', node('1'))
+
+        when:
+        cache.snapshot()
+        cache.snapshot()
+        cache.expire('a')
+        cache.snapshot()
+
+        then:
+        cache.getHits() == 2
+        cache.getMisses() == 1
+    }
+
+    def "test incremental update with stub compute service" () {
+        setup:
+        def context = ContextBuilder.newBuilder('stub').build(ComputeServiceContext)
+        ComputeService compute = context.getComputeService()
+        def created = compute.createNodesInGroup('test', 4)
+
+        def key = File.createTempFile('test','key'); key.text = 'dummy'
+        def conf = new BlowConfig()
+        conf.roles = ['node']
+        conf.instanceNum = 4
+        conf.privateKey = key
+        def session = new BlowSession(conf, 'test')
+        session.@'$compute' = compute
+        session.metadataInitialize()
+        session.metadataAddInstances(created, 'node')
+        def nodes = session.getAllNodes()
+
+        when:
+        def before = new HashMap(nodes)
+        compute.destroyNode(before['node2'].getId())
+        nodes.expire('node2')
+        session.metadataUpdateDue()
+
+        then:
+        // only the expired node has been fetched again
+        nodes['node1'].is( before['node1'] )
+        !nodes['node2'].is( before['node2'] )
+        nodes['node3'].is( before['node3'] )
+        nodes['node2'] == null || nodes['node2'].getStatus() != NodeMetadata.Status.RUNNING
+
+        when:
+        nodes.expireAll()
+        session.metadataUpdateDue()
+
+        then:
+        // all nodes are due, they are fetched by a single listing
+        !nodes['node1'].is( before['node1'] )
+        session.listNodes().size() in [3,4]
+        nodes.dueNames() == []
+
+        when:
+        def file = session.persist()
+        def copy = BlowSession.read('test')
+        def restored = copy.getAllNodes()
+
+        then:
+        // the nodes metadata is decoded on the first access
+        restored.keySet() == nodes.keySet()
+        restored.getDeferredCount() == nodes.values().count { it != null }
+        restored['node1'].getId() == nodes['node1'].getId()
+        restored['node1'].getNodeName() == 'node1'
+        restored.getDeferredCount() == nodes.values().count { it != null } - 1
+        copy.listNodes()*.getId() as Set == session.listNodes()*.getId() as Set
+        restored.getDeferredCount() == 0
+        copy.listNodesNames() == session.listNodesNames()
+        copy.conf.hashCode() == session.conf.hashCode()
+
+        cleanup:
+        file?.delete()
+        copy?.close()
+        session?.close()
+        context?.close()
+        key?.delete()
+    }
+
+    def "test deferred entries" () {
+        setup:
+        def cache = new NodeMetadataCache()
+        def loads = 0
+        def loader = { String id -> { -> loads++; node(id) } as java.util.concurrent.Callable<NodeMetadata> }
+        cache.reset(['a','b','c'])
+
+        when:
+        cache.defer([a: loader('1'), b: loader('2')])
+        then:
+        cache.keySet() as List == ['a','b','c']
+        cache.getDeferredCount() == 2
+        cache.getAvailableCount() == 2
+        loads == 0
+
+        when:
+        def a = cache['a']
+        then:
+        a.getId() == '1'
+        cache['a'].is(a)
+        loads == 1
+
+        when:
+        // the refreshed metadata replaces the saved one
+        cache.put('b', node('3'))
+        then:
+        cache.getDeferredCount() == 0
+        cache['b'].getId() == '3'
+        cache.snapshot().values()*.getId() == ['1','3',null]
+        loads == 1
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow
+
+import blow.eventbus.OrderedEventBus
+import blow.events.OnNodeReadyEvent
+import blow.operation.Conf
+import com.google.common.eventbus.Subscribe
+import spock.lang.Specification
+
+class ProvisioningJournalTest extends Specification {
+
+    /**
+     * Runs a script on two nodes, the script fails on the node 'worker2' until it is fixed
+     */
+    static class Installer {
+        @Conf String version = '1.0'
+        ProvisioningJournal journal
+        boolean fixed
+        List runs = []
+
+        @Subscribe void install( String event ) {
+            ['worker1','worker2'].each { String node ->
+                if( journal.isDone('install.sh', node) ) return
+                runs << node
+                journal.record('install.sh', node, node == 'worker2' && !fixed ? 1 : 0)
+            }
+        }
+    }
+
+    static class Counter {
+        int count
+        @Subscribe void count( String event ) { count++ }
+    }
+
+    /**
+     * Configures each node when it is ready, the node 'worker2' fails until it is fixed
+     */
+    static class NodeSetup {
+        boolean fixed
+        List runs = []
+        @Subscribe void setup( OnNodeReadyEvent event ) {
+            runs << event.name
+            if( event.name == 'worker2' && !fixed ) throw new IllegalStateException('Cannot setup node')
+        }
+    }
+
+    File file
+
+    def setup() {
+        file = File.createTempFile('journal',null)
+        file.delete()
+    }
+
+    def cleanup() {
+        file.delete()
+    }
+
+    def "test resume" () {
+
+        setup:
+        def journal = new ProvisioningJournal(file)
+        def installer = new Installer(journal: journal)
+        def counter = new Counter()
+        def bus = new OrderedEventBus()
+        bus.setInterceptor(journal)
+        bus.register(counter)
+        bus.register(installer)
+
+        when:
+        bus.post('start')
+
+        then:
+        installer.runs == ['worker1','worker2']
+        counter.count == 1
+        file.readLines().size() == 6
+
+        when:
+        // the journal is read by another session
+        def resumed = new ProvisioningJournal(file).load()
+        installer.journal = resumed
+        installer.fixed = true
+        installer.runs.clear()
+        bus.setInterceptor(resumed)
+        resumed.resuming = true
+        bus.post('start')
+
+        then:
+        resumed.incompleteSteps() == []
+        // the counter completed and the installer runs again only on the failed node
+        counter.count == 1
+        installer.runs == ['worker2']
+
+        when:
+        // the operation configuration has changed, so nothing is skipped
+        installer.version = '2.0'
+        installer.runs.clear()
+        bus.post('start')
+
+        then:
+        counter.count == 1
+        installer.runs == ['worker1','worker2']
+
+    }
+
+    def "test incomplete steps" () {
+
+        setup:
+        def journal = new ProvisioningJournal(file)
+        def bus = new OrderedEventBus()
+        bus.setInterceptor(journal)
+        bus.register(new Installer(journal: journal))
+
+        when:
+        bus.post('start')
+
+        then:
+        new ProvisioningJournal(file).load().incompleteSteps() == ['blow.ProvisioningJournalTest$Installer:String']
+        !journal.isDone('install.sh', 'worker1')
+
+        when:
+        // a truncated entry is ignored
+        file << '{"time":1,"key":"trunc'
+        then:
+        new ProvisioningJournal(file).load().incompleteSteps().size() == 1
+
+        when:
+        journal.clear()
+        then:
+        new ProvisioningJournal(file).load().incompleteSteps() == []
+        !file.exists()
+
+    }
+
+    def "test node ready steps are kept for each node" () {
+
+        setup:
+        def journal = new ProvisioningJournal(file)
+        def setup = new NodeSetup()
+        def bus = new OrderedEventBus()
+        bus.setInterceptor(journal)
+        bus.register(setup)
+
+        when:
+        ['worker1','worker2','worker3'].each { String name ->
+            try { bus.post(new OnNodeReadyEvent(name: name)) } catch( Exception e ) { }
+        }
+
+        then:
+        setup.runs == ['worker1','worker2','worker3']
+        new ProvisioningJournal(file).load().incompleteSteps() == ['blow.ProvisioningJournalTest$NodeSetup:OnNodeReadyEvent@worker2']
+
+        when:
+        // the node that failed is the only one configured again, also when the other nodes have completed after it
+        def resumed = new ProvisioningJournal(file).load()
+        resumed.resuming = true
+        bus.setInterceptor(resumed)
+        setup.fixed = true
+        setup.runs.clear()
+        ['worker1','worker2','worker3'].each { String name -> bus.post(new OnNodeReadyEvent(name: name)) }
+
+        then:
+        setup.runs == ['worker2']
+        resumed.incompleteSteps() == []
+
+    }
+
+    def "test nothing is recorded outside a step" () {
+
+        setup:
+        def journal = new ProvisioningJournal(file)
+
+        when:
+        journal.record('script', 'worker1', 0)
+        journal.resuming = true
+
+        then:
+        !file.exists()
+        !journal.isDone('script', 'worker1')
+
+    }
+
+}
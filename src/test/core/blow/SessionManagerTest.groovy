@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow
+
+import org.jclouds.compute.ComputeServiceContext
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class SessionManagerTest extends Specification {
+
+    /**
+     * A session creating a fake context which counts how many times it is closed
+     */
+    static class TestSession extends BlowSession {
+
+        static AtomicInteger created = new AtomicInteger()
+
+        static AtomicInteger closed = new AtomicInteger()
+
+        TestSession( String clusterName, String accessKey ) {
+            super(TestSession.config(accessKey), clusterName)
+        }
+
+        static BlowConfig config( String accessKey ) {
+            new BlowConfig(accessKey: accessKey, secretKey: 'secret', privateKey: SessionManagerTest.keyFile)
+        }
+
+        protected File saveMetrics() { null }
+
+        protected ComputeServiceContext createContext( BlowConfig conf ) {
+            created.incrementAndGet()
+            [close: { closed.incrementAndGet() }] as ComputeServiceContext
+        }
+    }
+
+    static File keyFile
+
+    def setupSpec() {
+        keyFile = File.createTempFile('test','key')
+        keyFile.text = 'private key'
+    }
+
+    def cleanupSpec() {
+        keyFile.delete()
+    }
+
+    def setup() {
+        TestSession.created.set(0)
+        TestSession.closed.set(0)
+    }
+
+    def "test shared contexts" () {
+
+        setup:
+        def manager = new SessionManager()
+        def alpha = manager.open( new TestSession('alpha', 'key1') )
+        def beta = manager.open( new TestSession('beta', 'key1') )
+        def gamma = manager.open( new TestSession('gamma', 'key2') )
+
+        when:
+        def contexts = [alpha.context, beta.context, gamma.context]
+
+        then:
+        contexts[0].is(contexts[1])
+        !contexts[0].is(contexts[2])
+        TestSession.created.get() == 2
+        manager.contextsCount == 2
+
+        when:
+        manager.close('alpha')
+        manager.close('gamma')
+
+        then:
+        // the context of 'beta' is still in use
+        TestSession.closed.get() == 1
+        manager.contextsCount == 1
+        manager.sessions*.clusterName == ['beta']
+
+        when:
+        manager.close('beta')
+
+        then:
+        TestSession.closed.get() == 2
+        manager.contextsCount == 0
+        !manager.sessions
+
+    }
+
+    def "test shared io executor" () {
+
+        setup:
+        def manager = new SessionManager(3)
+        def alpha = manager.open( new TestSession('alpha', 'key1') )
+        def beta = manager.open( new TestSession('beta', 'key1') )
+
+        expect:
+        alpha.scpExecutor.is( beta.scpExecutor )
+        alpha.scpExecutor.is( manager.ioExecutor )
+        manager.ioExecutor.maximumPoolSize == 3
+
+        when:
+        alpha.close()
+
+        then:
+        // the pool is not shutdown by the session
+        !manager.ioExecutor.isShutdown()
+
+        when:
+        def pool = manager.ioExecutor
+        manager.close()
+
+        then:
+        pool.isShutdown()
+
+    }
+
+    def "test open replaces the session of the same cluster" () {
+
+        setup:
+        def manager = new SessionManager()
+        def first = manager.open( new TestSession('alpha', 'key1') )
+        first.context
+
+        when:
+        def second = manager.open( new TestSession('alpha', 'key1') )
+
+        then:
+        manager.get('alpha').is(second)
+        second.manager.is(manager)
+        manager.sessions.size() == 1
+        // the replaced session has released the context
+        TestSession.closed.get() == 1
+
+        cleanup:
+        manager.close()
+
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.command
+
+import blow.storage.S3Manifest
+import org.jclouds.blobstore.BlobStoreContext
+import org.jclouds.blobstore.BlobStoreContextFactory
+import spock.lang.Specification
+
+/**
+ * Test the recursive copy against the jclouds in-memory 'transient' blob store
+ */
+class S3SyncTest extends Specification {
+
+    BlobStoreContext context
+
+    File source
+
+    File target
+
+    def setup() {
+        context = new BlobStoreContextFactory().createContext('transient', 'id', 'secret')
+        source = File.createTempFile('source', null); source.delete(); source.mkdirs()
+        target = File.createTempFile('target', null); target.delete(); target.mkdirs()
+
+        // some small files and a big one
+        100.times { new File(source, "file${it}.txt").text = "Hello ${it}" }
+        new File(source, 'sub/dir').mkdirs()
+        new File(source, 'sub/dir/data.txt').text = 'Some data'
+        def big = new byte[ 3 * 1024 * 1024 ]
+        new Random(1).nextBytes(big)
+        new File(source, 'sub/big.bin').bytes = big
+    }
+
+    def cleanup() {
+        context?.close()
+        source?.deleteDir()
+        target?.deleteDir()
+    }
+
+    def "test upload and download" () {
+
+        when:
+        def sync = new S3Sync(context)
+        sync.upload(source, 'bucket/path')
+        def store = context.getBlobStore()
+
+        then:
+        sync.copied.get() == 102
+        sync.failed.get() == 0
+        store.blobExists('bucket', 'path/file0.txt')
+        store.blobExists('bucket', 'path/sub/dir/data.txt')
+        store.blobExists('bucket', 'path/sub/big.bin')
+        !store.blobExists('bucket', 'path/' + S3Manifest.FILE_NAME)
+        new File(source, S3Manifest.FILE_NAME).exists()
+
+        when:
+        sync = new S3Sync(context)
+        sync.download('bucket/path', target)
+
+        then:
+        sync.copied.get() == 102
+        new File(target, 'file99.txt').text == 'Hello 99'
+        new File(target, 'sub/dir/data.txt').text == 'Some data'
+        new File(target, 'sub/big.bin').bytes == new File(source, 'sub/big.bin').bytes
+        sync.summary.startsWith('Copied 102 file(s)')
+    }
+
+    def "test skip unchanged files" () {
+
+        when:
+        new S3Sync(context).upload(source, 'bucket')
+        new File(source, 'file1.txt').text = 'Changed'
+        new File(source, 'new.txt').text = 'New file'
+        def sync = new S3Sync(context)
+        sync.upload(source, 'bucket')
+
+        then:
+        sync.copied.get() == 2
+        sync.skipped.get() == 101
+        context.getBlobStore().getBlob('bucket','file1.txt').getPayload().getInput().text == 'Changed'
+
+        when:
+        // files already in the storage are recognized by the checksum even without the manifest
+        new File(source, S3Manifest.FILE_NAME).delete()
+        sync = new S3Sync(context)
+        sync.upload(source, 'bucket')
+
+        then:
+        sync.copied.get() == 0
+        sync.skipped.get() == 103
+
+        when:
+        new S3Sync(context).download('bucket', target)
+        sync = new S3Sync(context)
+        sync.download('bucket', target)
+
+        then:
+        sync.copied.get() == 0
+        sync.skipped.get() == 103
+    }
+
+    def "test keys outside the target directory are not downloaded" () {
+
+        setup:
+        def store = context.getBlobStore()
+        store.createContainerInLocation(null, 'bucket')
+        ['../escape.txt', 'sub/../../escape.txt', 'sub/ok.txt'].each { String key ->
+            store.putBlob('bucket', store.blobBuilder(key).payload('Hello').build())
+        }
+
+        when:
+        def sync = new S3Sync(context)
+        sync.download('bucket', target)
+
+        then:
+        sync.copied.get() == 1
+        sync.failed.get() == 2
+        new File(target, 'sub/ok.txt').text == 'Hello'
+        !new File(target.getParentFile(), 'escape.txt').exists()
+    }
+
+    def "test target file" () {
+
+        setup:
+        def dir = target.getCanonicalFile()
+
+        expect:
+        S3Sync.targetFile(dir, 'a/b.txt') == new File(dir, 'a/b.txt')
+        S3Sync.targetFile(dir, '/a/b.txt') == new File(dir, 'a/b.txt')
+        S3Sync.targetFile(dir, 'a/../b.txt') == new File(dir, 'b.txt')
+        S3Sync.targetFile(dir, '../b.txt') == null
+        S3Sync.targetFile(dir, 'a/../../b.txt') == null
+        S3Sync.targetFile(dir, '') == null
+    }
+
+}
@@ -44,6 +44,33 @@ class SshCommandTest extends Specification{
         targetCommand << [ null, "something more", "blanks", "args" ]
     }
 
+    def "test parse stream options" () {
+        setup:
+        def ssh = new SshCommand();
+
+        when:
+        ssh.parse( CmdLine.splitter("--stream node uptime") )
+        then:
+        ssh.stream
+        ssh.tail == 0
+        ssh.targetHost == 'node'
+        ssh.targetCommand == 'uptime'
+
+        when:
+        ssh.parse( CmdLine.splitter("--tail 20 node ls -la") )
+        then:
+        ssh.stream
+        ssh.tail == 20
+        ssh.targetHost == 'node'
+        ssh.targetCommand == 'ls -la'
+
+        when:
+        ssh.parse( CmdLine.splitter("node ls") )
+        then:
+        !ssh.stream
+        ssh.tail == 0
+    }
+
     def "test make regexp" () {
 
         expect:
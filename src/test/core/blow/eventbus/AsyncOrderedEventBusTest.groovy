@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.eventbus
+
+import com.google.common.eventbus.AllowConcurrentEvents
+import com.google.common.eventbus.Subscribe
+import spock.lang.Specification
+
+import java.lang.reflect.InvocationTargetException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class AsyncOrderedEventBusTest extends Specification {
+
+    static List trace = Collections.synchronizedList([])
+
+    static class SlowHandler {
+        CountDownLatch latch
+        @Subscribe void handle( String event ) {
+            // wait for the other independent handler, it hangs if handlers do not run in parallel
+            latch.countDown()
+            latch.await(5, TimeUnit.SECONDS)
+            sleep 50
+            trace << "slow:$event".toString()
+        }
+    }
+
+    static class OtherHandler {
+        CountDownLatch latch
+        @Subscribe void handle( String event ) {
+            latch.countDown()
+            latch.await(5, TimeUnit.SECONDS)
+            trace << "other:$event".toString()
+        }
+    }
+
+    @DependsOn([SlowHandler, OtherHandler])
+    static class LastHandler {
+        @Subscribe void handle( String event ) {
+            trace << "last:$event".toString()
+        }
+    }
+
+    static class FailingHandler {
+        @Subscribe void handle( String event ) {
+            throw new IllegalArgumentException('Oops')
+        }
+    }
+
+    @DependsOn(FailingHandler)
+    static class SkippedHandler {
+        @Subscribe void handle( String event ) {
+            trace << "skipped:$event".toString()
+        }
+    }
+
+    @DependsOn(CycleB)
+    static class CycleA {
+        @Subscribe void handle( String event ) { }
+    }
+
+    @DependsOn(CycleA)
+    static class CycleB {
+        @Subscribe void handle( String event ) { }
+    }
+
+    static class SequenceHandler {
+        List<Integer> received = Collections.synchronizedList([])
+        @Subscribe void handle( Integer event ) {
+            sleep( new Random().nextInt(3) )
+            received << event
+        }
+    }
+
+    static class ConcurrentHandler {
+        CountDownLatch latch
+        List<Integer> received = Collections.synchronizedList([])
+        @Subscribe @AllowConcurrentEvents void handle( Integer event ) {
+            // wait for the other events, it hangs if the events are not handled in parallel
+            latch.countDown()
+            if( latch.await(5, TimeUnit.SECONDS) ) {
+                received << event
+            }
+        }
+    }
+
+    def setup() {
+        trace.clear()
+    }
+
+    def "test handlers run in parallel and respect dependencies" () {
+        setup:
+        def bus = new AsyncOrderedEventBus()
+        def latch = new CountDownLatch(2)
+        bus.register(new LastHandler())
+        bus.register(new SlowHandler(latch: latch))
+        bus.register(new OtherHandler(latch: latch))
+
+        when:
+        bus.post('hello')
+
+        then:
+        // 'other' does not wait the 'slow' handler that has been registered first
+        trace == ['other:hello', 'slow:hello', 'last:hello']
+
+        cleanup:
+        bus.shutdown()
+    }
+
+    def "test events are received in the posting order" () {
+        setup:
+        def bus = new AsyncOrderedEventBus()
+        def handler = new SequenceHandler()
+        bus.register(handler)
+
+        when:
+        def completions = (0..<50).collect { bus.postAsync(it) }
+        completions *. await()
+
+        then:
+        completions.every { it.isDone() }
+        handler.received == (0..<50).toList()
+
+        cleanup:
+        bus.shutdown()
+    }
+
+    def "test concurrent handlers receive the events while the previous ones are handled" () {
+        setup:
+        def bus = new AsyncOrderedEventBus()
+        def handler = new ConcurrentHandler(latch: new CountDownLatch(3))
+        bus.register(handler)
+
+        when:
+        def completions = (0..<3).collect { bus.postAsync(it) }
+        completions *. await()
+
+        then:
+        handler.received.sort() == [0, 1, 2]
+
+        cleanup:
+        bus.shutdown()
+    }
+
+    def "test dependent handlers are skipped on failure" () {
+        setup:
+        def bus = new AsyncOrderedEventBus()
+        bus.register(new SkippedHandler())
+        bus.register(new FailingHandler())
+
+        when:
+        bus.post('hello')
+
+        then:
+        def e = thrown(InvocationTargetException)
+        e.getCause() instanceof IllegalArgumentException
+        trace == []
+
+        cleanup:
+        bus.shutdown()
+    }
+
+    def "test circular dependencies" () {
+        setup:
+        def bus = new AsyncOrderedEventBus()
+        bus.register(new CycleA())
+        bus.register(new CycleB())
+
+        when:
+        bus.post('hello')
+
+        then:
+        thrown(IllegalStateException)
+
+        cleanup:
+        bus.shutdown()
+    }
+
+}
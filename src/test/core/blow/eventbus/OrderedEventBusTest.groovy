@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.eventbus
+
+import blow.metrics.Metrics
+import com.google.common.eventbus.DeadEvent
+import com.google.common.eventbus.Subscribe
+import spock.lang.Specification
+
+import java.lang.reflect.InvocationTargetException
+
+class OrderedEventBusTest extends Specification {
+
+    static class Handler {
+        List events = []
+        @Subscribe void onString( String event ) { events << event }
+        @Subscribe String onNumber( Number event ) { events << event; 'ignored' }
+        @Subscribe long onLong( Long event ) { events << "long:$event".toString(); 1L }
+    }
+
+    static class Failing {
+        @Subscribe void handle( String event ) { throw new IOException('Oops') }
+    }
+
+    static class Nested {
+        OrderedEventBus bus
+        List events = []
+        @Subscribe void handle( String event ) {
+            events << event
+            if( event == 'first' ) bus.post(1)
+        }
+        @Subscribe void handle( Integer event ) { events << event }
+    }
+
+    static class DeadHandler {
+        List events = []
+        @Subscribe void handle( DeadEvent event ) { events << event.getEvent() }
+    }
+
+    private static class Hidden {
+        List events = []
+        @Subscribe void handle( String event ) { events << event }
+    }
+
+    def "test generated invoker" () {
+        when:
+        def handler = new Handler()
+        def method = Handler.getMethod('onString', String)
+        def wrapper = new EventHandler(handler, method)
+        wrapper.handleEvent('hello')
+
+        then:
+        wrapper.isDirect()
+        handler.events == ['hello']
+
+        when:
+        def hidden = new Hidden()
+        wrapper = new EventHandler(hidden, Hidden.getMethod('handle', String))
+        wrapper.handleEvent('hola')
+
+        then:
+        // not public, fallback on reflection
+        !wrapper.isDirect()
+        hidden.events == ['hola']
+
+        when:
+        wrapper = new EventHandler(handler, method, false)
+        wrapper.handleEvent('ciao')
+
+        then:
+        !wrapper.isDirect()
+        handler.events == ['hello', 'ciao']
+    }
+
+    def "test invoker exceptions" () {
+        when:
+        new EventHandler(new Failing(), Failing.getMethod('handle', String)).handleEvent('hello')
+
+        then:
+        def e = thrown(InvocationTargetException)
+        e.getCause() instanceof IOException
+    }
+
+    def "test post" () {
+        setup:
+        def bus = new OrderedEventBus()
+        def handler = new Handler()
+        bus.register(handler)
+
+        when:
+        bus.post('hello')
+        bus.post(1)
+        bus.post(2L)
+
+        then:
+        handler.events.size() == 4
+        handler.events[0..1] == ['hello', 1]
+        handler.events[2..3] as Set == [2L, 'long:2'] as Set
+    }
+
+    def "test handlers cache" () {
+        setup:
+        def bus = new OrderedEventBus()
+        def handler1 = new Handler()
+        def handler2 = new Handler()
+        def dead = new DeadHandler()
+        bus.register(handler1)
+        bus.register(dead)
+
+        when:
+        bus.post('a')
+        bus.register(handler2)
+        bus.post('b')
+        bus.unregister(handler1)
+        bus.post('c')
+        bus.unregister(handler2)
+        bus.post('d')
+
+        then:
+        handler1.events == ['a','b']
+        handler2.events == ['b','c']
+        dead.events == ['d']
+        bus.getHandlersForEventClass(String).is( bus.getHandlersForEventClass(String) )
+    }
+
+    def "test nested events" () {
+        setup:
+        def bus = new OrderedEventBus()
+        def nested = new Nested(bus: bus)
+        def handler = new Handler()
+        bus.register(nested)
+        bus.register(handler)
+
+        when:
+        bus.post('first')
+
+        then:
+        // the nested event is dispatched after the current one has been delivered to all handlers
+        handler.events == ['first', 1]
+        nested.events == ['first', 1]
+    }
+
+    def "test handler timer" () {
+        setup:
+        def bus = new OrderedEventBus()
+        bus.register(new Handler())
+        def name = "eventbus.${Handler.getName()}.onString"
+        def before = Metrics.timer(name).getCount()
+
+        when:
+        bus.post('one')
+        bus.post('two')
+
+        then:
+        Metrics.timer(name).getCount() == before + 2
+    }
+
+    def "test interceptor" () {
+        setup:
+        def bus = new OrderedEventBus()
+        def handler = new Handler()
+        bus.register(handler)
+        bus.register(new Failing())
+        def calls = []
+        bus.setInterceptor( [
+                beforeHandler: { target, method, event -> calls << "before ${method.name}".toString(); event != 'skip' },
+                afterHandler: { target, method, event, error -> calls << "after ${method.name} ${error?.message}".toString() }
+        ] as HandlerInterceptor )
+
+        when:
+        bus.post('skip')
+
+        then:
+        handler.events == []
+        calls == ['before onString', 'before handle']
+
+        when:
+        calls.clear()
+        bus.post('hello')
+
+        then:
+        thrown(InvocationTargetException)
+        handler.events == ['hello']
+        calls == ['before onString', 'after onString null', 'before handle', 'after handle Oops']
+    }
+
+}
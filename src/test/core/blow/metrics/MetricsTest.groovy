@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.metrics
+
+import spock.lang.Specification
+
+import javax.management.ObjectName
+import java.lang.management.ManagementFactory
+import java.util.concurrent.TimeUnit
+
+class MetricsTest extends Specification {
+
+    def "test histogram buckets" () {
+
+        expect:
+        // each value falls in the bucket whose bounds contain it
+        [0L, 1L, 31L, 32L, 33L, 63L, 64L, 65L, 1000L, 123456789L, Long.MAX_VALUE].each { long value ->
+            int index = Histogram.index(value)
+            long low = Histogram.lowerBound(index)
+            assert value >= low && value - low < Histogram.width(index)
+        }
+
+        Histogram.index(Long.MAX_VALUE) < (64 - Histogram.SUB_BITS + 1) * Histogram.SUB_BUCKETS
+    }
+
+    def "test histogram percentiles" () {
+
+        setup:
+        def histogram = new Histogram()
+
+        when:
+        (1..1000).each { histogram.update(it * 1000) }
+
+        then:
+        histogram.count == 1000
+        histogram.min == 1000
+        histogram.max == 1000000
+        histogram.mean == 500500
+        Math.abs( histogram.getPercentile(0.5) - 500000 ) <= 500000 / Histogram.SUB_BUCKETS
+        Math.abs( histogram.getPercentile(0.99) - 990000 ) <= 990000 / Histogram.SUB_BUCKETS
+        histogram.getPercentile(1.0) == 1000000
+        new Histogram().getPercentile(0.5) == 0
+    }
+
+    def "test timer and snapshot" () {
+
+        setup:
+        def timer = Metrics.timer('test.timer')
+        Metrics.counter('test.counter').add(3)
+
+        when:
+        timer.update(2, TimeUnit.MILLISECONDS)
+        timer.update(4, TimeUnit.MILLISECONDS)
+        def snapshot = Metrics.snapshot()
+
+        then:
+        Metrics.timer('test.timer').is(timer)
+        snapshot['test.timer'].type == 'timer'
+        snapshot['test.timer'].count == 2
+        snapshot['test.timer'].total == 6.0
+        snapshot['test.timer'].mean == 3.0
+        snapshot['test.counter'] == [type: 'counter', count: 3]
+
+        when:
+        Metrics.histogram('test.timer')
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        Metrics.reset()
+        then:
+        Metrics.snapshot()['test.timer'].count == 0
+        Metrics.snapshot()['test.counter'].count == 0
+    }
+
+    def "test prefix snapshot and remove" () {
+
+        setup:
+        Metrics.timer('cluster.alpha.ssh.exec').update(1, TimeUnit.MILLISECONDS)
+        Metrics.counter('cluster.alpha.nodes').add(2)
+        Metrics.counter('cluster.beta.nodes').add(5)
+
+        when:
+        def alpha = Metrics.snapshot('cluster.alpha.')
+
+        then:
+        alpha.keySet() as List == ['nodes', 'ssh.exec']
+        alpha['nodes'].count == 2
+        alpha['ssh.exec'].count == 1
+
+        when:
+        Metrics.remove('cluster.alpha.')
+
+        then:
+        !Metrics.snapshot('cluster.alpha.')
+        Metrics.snapshot('cluster.beta.')['nodes'].count == 5
+
+        cleanup:
+        Metrics.remove('cluster.')
+    }
+
+    def "test jmx" () {
+
+        setup:
+        Metrics.counter('test.jmx').inc()
+        def server = ManagementFactory.getPlatformMBeanServer()
+        def name = new ObjectName(Metrics.OBJECT_NAME)
+
+        when:
+        Metrics.registerMBean()
+
+        then:
+        server.getAttribute(name, 'test.jmx.count') == 1
+        server.getMBeanInfo(name).attributes.find { it.name == 'test.jmx.count' }
+        !Metrics.registerMBean()
+    }
+
+}
@@ -160,6 +160,21 @@ class HadoopOpTest extends Specification {
 
     }
 
+    def "test added and removed nodes scripts" () {
+        when:
+        def hadoop = new HadoopOp(path: '/opt/hadoop', decommissionTimeout: 60)
+
+        then:
+        hadoop.scriptAddSlaves(['worker4','worker5']) .contains('for HOST in worker4 worker5; do')
+        hadoop.scriptAddSlaves(['worker4','worker5']) .contains('echo $HOST >> /opt/hadoop/conf/slaves')
+        hadoop.scriptStartSlave() .contains('/opt/hadoop/bin/hadoop-daemon.sh start datanode')
+        hadoop.scriptDecommission(['worker4']) .contains('echo $HOST >> /opt/hadoop/conf/excludes')
+        hadoop.scriptDecommission(['worker4']) .contains('/opt/hadoop/bin/hadoop dfsadmin -refreshNodes')
+        hadoop.scriptDecommission(['worker4']) .contains('MAX=$(( `date +%s` + 60 ))')
+        hadoop.xmlHdfsSite() .contains('<value>${hadoop.home.dir}/conf/excludes</value>')
+
+    }
+
     def "test resource" () {
         when:
         def op = new HadoopOp()
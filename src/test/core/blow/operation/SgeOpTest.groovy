@@ -176,6 +176,29 @@ class SgeOpTest extends Specification {
 	}
 
 
+    public void testAddedNodesScripts () {
+
+        when:
+        def sge = new SgeOp();
+        sge.path = '/some/path'
+        sge.cell = 'beta'
+        sge.user = 'goofy'
+        sge.spool = '/hola'
+        sge.drainTimeout = 30
+
+        then:
+        sge.scriptAddHosts(['worker04','worker05']) .contains( 'for HOST in worker04 worker05; do' )
+        sge.scriptAddHosts(['worker04','worker05']) .contains( 'qconf -ah $HOST' )
+
+        sge.scriptInstallAddedWorker() .startsWith( 'sed -e "s/^EXEC_HOST_LIST=.*/EXEC_HOST_LIST=\\"`hostname`\\"/" /some/path/sge.conf > /tmp/sge-exec.conf' )
+        sge.scriptInstallAddedWorker() .contains( './inst_sge -x -auto /tmp/sge-exec.conf' )
+
+        sge.scriptRemoveHosts(['worker04']) .contains( 'HOSTS="worker04"' )
+        sge.scriptRemoveHosts(['worker04']) .contains( 'qmod -d "*@$HOST"' )
+        sge.scriptRemoveHosts(['worker04']) .contains( 'MAX=$(( `date +%s` + 30 ))' )
+        sge.scriptRemoveHosts(['worker04']) .contains( 'qconf -de $HOST' )
+    }
+
 	public void testScriptSshConf() {
 
         when:
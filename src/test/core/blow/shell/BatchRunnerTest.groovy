@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.shell
+
+import blow.BlowConfig
+import blow.BlowSession
+import blow.exception.BlowException
+import org.jclouds.compute.domain.ExecResponse
+import spock.lang.Specification
+
+class BatchRunnerTest extends Specification {
+
+    /**
+     * A shell recording the executed commands, the command 'fail' does not complete
+     */
+    static class TestShell extends BlowShell {
+
+        static List<String> executed = Collections.synchronizedList([])
+
+        String cluster
+
+        List<String> listClusters() { ['alpha','beta','gamma'] }
+
+        BlowSession useCluster( String name ) {
+            if( name == 'gamma' ) throw new BlowException("Cannot open: ${name}")
+            cluster = name
+            return null
+        }
+
+        boolean execute( String command, def args ) {
+            executed << "${cluster}: ${([command] + args).join(' ')}".toString()
+            command != 'fail'
+        }
+
+        void close() { }
+    }
+
+    /**
+     * A shell running the real commands on the specified session
+     */
+    static class SessionShell extends BlowShell {
+
+        SessionShell( BlowSession session ) {
+            getSessions().open(session)
+        }
+
+        List<String> listClusters() { ['alpha'] }
+
+        void close() { }
+    }
+
+    def newRunner( String defaultCluster = null ) {
+        new BatchRunner(new TestShell(), defaultCluster) {
+            protected BlowShell createShell() { new TestShell() }
+        }
+    }
+
+    def setup() {
+        TestShell.executed.clear()
+    }
+
+    def "test parse" () {
+
+        when:
+        def lines = BatchRunner.parse(
+            """\
+            # start the clusters
+            @alpha,beta start
+
+            @* ssh master 'ls -la'
+            conf
+            """
+            .stripIndent() )
+
+        then:
+        lines.size() == 3
+        lines[0].number == 2
+        lines[0].clusters == ['alpha','beta']
+        lines[0].command == 'start'
+        lines[0].args == []
+        lines[1].clusters == ['*']
+        lines[1].args == ['master', 'ls -la']
+        lines[2].number == 5
+        lines[2].clusters == null
+        lines[2].toString() == 'conf'
+
+        when:
+        BatchRunner.parse('@ start')
+        then:
+        thrown(BlowException)
+
+        when:
+        BatchRunner.parse('@alpha')
+        then:
+        thrown(BlowException)
+
+    }
+
+    def "test plan" () {
+
+        setup:
+        def lines = BatchRunner.parse("@beta start\n@* nodes\nconf")
+
+        when:
+        def plan = newRunner('alpha').plan(lines, ['alpha','beta'])
+
+        then:
+        plan.keySet().toList() == ['beta','alpha']
+        plan['beta']*.toString() == ['start','nodes']
+        plan['alpha']*.toString() == ['nodes','conf']
+
+        when:
+        newRunner().plan(lines, ['alpha','beta'])
+
+        then:
+        // no default cluster
+        thrown(BlowException)
+
+    }
+
+    def "test run" () {
+
+        when:
+        def results = newRunner('alpha').run(
+            """\
+            @alpha,beta start
+            @beta fail
+            @alpha,beta nodes
+            @gamma start
+            """
+            .stripIndent() )
+
+        then:
+        results.keySet().toList() == ['alpha','beta','gamma']
+        results['alpha'].success
+        results['alpha'].completed == 2
+        !results['beta'].success
+        results['beta'].completed == 1
+        results['beta'].total == 3
+        results['beta'].failed.number == 2
+        !results['gamma'].success
+        results['gamma'].error == 'Cannot open: gamma'
+        BatchRunner.exitStatus(results) == 1
+        TestShell.executed.sort() == ['alpha: nodes', 'alpha: start', 'beta: fail', 'beta: start']
+
+        when:
+        def buffer = new ByteArrayOutputStream()
+        BatchRunner.printSummary(results, new PrintStream(buffer))
+        def summary = buffer.toString().readLines()
+
+        then:
+        summary[2].startsWith('  alpha  OK      2/2 commands')
+        summary[3].startsWith('  beta   FAILED  1/3 commands')
+        summary[3].endsWith('-- failed at line 2: fail')
+        summary[4].endsWith('-- Cannot open: gamma')
+
+    }
+
+    def "test failing remote command" () {
+
+        setup:
+        def key = File.createTempFile('test','key'); key.text = 'dummy'
+        def session = new BlowSession(new BlowConfig(privateKey: key), 'alpha')
+        session.metaClass.runScriptOnNodes = { String script, def criteria ->
+            session.errors = [ (criteria.toString()): new ExecResponse('', 'command not found', 127) ]
+            return false
+        }
+        def runner = new BatchRunner(new SessionShell(session), 'alpha') {
+            protected BlowShell createShell() { new SessionShell(session) }
+        }
+
+        when:
+        def results = runner.run('ssh master uptime\nnodes')
+
+        then:
+        !results['alpha'].success
+        results['alpha'].completed == 0
+        results['alpha'].failed.number == 1
+        BatchRunner.exitStatus(results) == 1
+
+        cleanup:
+        key?.delete()
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import com.google.common.io.Files
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import org.jclouds.compute.domain.ExecResponse
+import spock.lang.Specification
+
+class ArtifactCacheTest extends Specification {
+
+    File root
+
+    HttpServer origin
+
+    /** The number of requests received by the origin server for each path */
+    Map<String,Integer> requests = [:]
+
+    def setup() {
+        root = Files.createTempDir()
+
+        origin = HttpServer.create(new InetSocketAddress('127.0.0.1', 0), 0)
+        origin.createContext('/', { HttpExchange exchange ->
+            def path = exchange.getRequestURI().getPath()
+            synchronized (requests) { requests[path] = (requests[path] ?: 0) + 1 }
+            def name = path.substring(path.lastIndexOf('/')+1)
+            def body = name.startsWith('missing') ? null : "content of ${name.startsWith('copy') ? 'file.rpm' : name}".toString().bytes
+            exchange.sendResponseHeaders(body ? 200 : 404, body ? body.length : -1)
+            if( body ) exchange.getResponseBody().write(body)
+            exchange.close()
+        } as HttpHandler)
+        origin.start()
+    }
+
+    def cleanup() {
+        origin.stop(0)
+        def pid = new File(root, 'cache/.pid')
+        if( pid.exists() ) {
+            ['kill', pid.text.trim()].execute().waitFor()
+        }
+        root.deleteDir()
+    }
+
+    /**
+     * The cache 'node' is the local host
+     */
+    def ArtifactCache newCache() {
+        def cache = new ArtifactCache('127.0.0.1', { String script ->
+            def proc = ['bash', '-c', script].execute()
+            def out = new StringBuilder()
+            def err = new StringBuilder()
+            proc.waitForProcessOutput(out, err)
+            new ExecResponse(out.toString(), err.toString(), proc.exitValue())
+        })
+        cache.dir = new File(root, 'cache').absolutePath
+        cache.port = freePort()
+        return cache
+    }
+
+    static int freePort() {
+        def socket = new ServerSocket(0)
+        try { socket.getLocalPort() } finally { socket.close() }
+    }
+
+    String url( String path ) {
+        "http://127.0.0.1:${origin.getAddress().getPort()}${path}".toString()
+    }
+
+    def "test file name" () {
+
+        expect:
+        ArtifactCache.fileName('http://host.com/path/glusterfs-core-3.2.4-1.fc11.x86_64.rpm') == 'glusterfs-core-3.2.4-1.fc11.x86_64.rpm'
+        ArtifactCache.fileName('https://host.com/hadoop-1.0.4.tar.gz?x=1') == 'hadoop-1.0.4.tar.gz'
+        ArtifactCache.fileName('http://sourceforge.net/projects/GE2011.11.tar.gz/download') == 'download'
+        ArtifactCache.fileName('http://host.com/') == null
+        ArtifactCache.fileName('http://host.com/a%20b.zip') == null
+        ArtifactCache.fileName('file:///tmp/file.zip') == null
+        ArtifactCache.fileName('not a url') == null
+
+    }
+
+    def "test resolve" () {
+
+        setup:
+        def cache = newCache()
+        def rpm = url('/dist/file.rpm')
+        def copy = url('/mirror/copy.rpm')
+        def tar = url('/dist/hadoop.tar.gz')
+
+        when:
+        def result = cache.resolve([rpm, copy, tar])
+
+        then:
+        result.keySet().toList() == [rpm, copy, tar]
+        result[rpm] ==~ /http:\/\/127\.0\.0\.1:${cache.port}\/[0-9a-f]{64}\/file\.rpm/
+        result[tar] ==~ /http:\/\/127\.0\.0\.1:${cache.port}\/[0-9a-f]{64}\/hadoop\.tar\.gz/
+        // the same content is stored once
+        result[copy].split('/')[3] == result[rpm].split('/')[3]
+        requests == ['/dist/file.rpm':1, '/mirror/copy.rpm':1, '/dist/hadoop.tar.gz':1]
+
+        when:
+        def again = newCache()
+        again.port = cache.port
+        def second = again.resolve([tar, rpm])
+
+        then:
+        // the artifacts are downloaded only once
+        second[tar] == result[tar]
+        second[rpm] == result[rpm]
+        requests == ['/dist/file.rpm':1, '/mirror/copy.rpm':1, '/dist/hadoop.tar.gz':1]
+        cache.resolve(rpm) == result[rpm]
+
+    }
+
+    def "test artifacts are served" () {
+
+        setup:
+        def cache = newCache()
+
+        when:
+        def cached = cache.resolve( url('/dist/file.rpm') )
+        def text = null
+        for( int i=0; i<50 && text == null; i++ ) {
+            try { text = new URL(cached).text } catch( IOException e ) { sleep 100 }
+        }
+
+        then:
+        cached != url('/dist/file.rpm')
+        text == 'content of file.rpm'
+
+    }
+
+    def "test fall back to the original url" () {
+
+        setup:
+        def cache = newCache()
+        def missing = url('/dist/missing.rpm')
+        def notCacheable = url('/dist/')
+
+        when:
+        def result = cache.resolve([missing, notCacheable])
+
+        then:
+        result[missing] == missing
+        result[notCacheable] == notCacheable
+
+        when:
+        def broken = new ArtifactCache('127.0.0.1', { String script -> new ExecResponse('', 'permission denied', 1) })
+        then:
+        broken.resolve( url('/dist/file.rpm') ) == url('/dist/file.rpm')
+
+    }
+
+}
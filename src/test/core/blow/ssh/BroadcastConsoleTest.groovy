@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class BroadcastConsoleTest extends Specification {
+
+    /**
+     * A terminal printing the specified text, then closing when {@code open} is false
+     */
+    static BroadcastConsole.Terminal terminal( String name, String text = '', Closure<Boolean> open = { false }, AtomicInteger closed = null ) {
+        new BroadcastConsole.Terminal(
+                name: name,
+                output: new ByteArrayInputStream(text.getBytes('UTF-8')),
+                input: new ByteArrayOutputStream(),
+                isOpen: open,
+                close: { closed?.incrementAndGet() } )
+    }
+
+    /**
+     * A keyboard entering the specified text only when the check closure returns true
+     */
+    static InputStream keyboard( String text, Closure<Boolean> ready = { true } ) {
+        def data = new ByteArrayInputStream(text.bytes)
+        [ available: { ready.call() ? data.available() : 0 },
+          read: { byte[] b, int off, int len -> data.read(b, off, len) } ] as InputStream
+    }
+
+    def "test merged output" () {
+
+        setup:
+        def buffer = new ByteArrayOutputStream()
+        def view = new MergedConsoleView(['node1','node10'], new PrintStream(buffer, true))
+        def terminals = [ terminal('node1', 'hello\r\nworld\r\n[node1]$ '), terminal('node10', 'hola\r\n') ]
+        def console = new BroadcastConsole(terminals, view)
+        console.keyboard = keyboard('')
+
+        when:
+        console.launch()
+        def lines = buffer.toString().readLines()
+
+        then:
+        lines.findAll { it.startsWith('[node1 ]') } == ['[node1 ] hello', '[node1 ] world', '[node1 ] [node1]$ ', '[node1 ] ** terminal closed']
+        lines.findAll { it.startsWith('[node10]') } == ['[node10] hola', '[node10] ** terminal closed']
+
+    }
+
+    def "test partial line" () {
+
+        setup:
+        def buffer = new ByteArrayOutputStream()
+        def view = new MergedConsoleView(['alpha'], new PrintStream(buffer, true))
+        view.partialDelay = 100
+
+        when:
+        view.onOutput('alpha', 'prompt$ '.bytes, 8)
+        view.onIdle('alpha', 50)
+        then:
+        buffer.size() == 0
+
+        when:
+        view.onIdle('alpha', 100)
+        then:
+        buffer.toString().readLines() == ['[alpha] prompt$ ']
+
+    }
+
+    def "test keystrokes broadcast" () {
+
+        setup:
+        def closed = new AtomicInteger()
+        def terminals = (1..3).collect { terminal("node${it}", '', { true }, closed) }
+        def console = new BroadcastConsole(terminals, new MergedConsoleView(terminals*.name, new PrintStream(new ByteArrayOutputStream())))
+        console.keyboard = keyboard('ls -l\n~x\n~.echo')
+
+        when:
+        console.launch()
+
+        then:
+        // the console is closed by '~.' at the beginning of a line
+        terminals.every { it.input.toString() == 'ls -l\r~x\r' }
+        closed.get() == 3
+
+    }
+
+    def "test fixed number of threads" () {
+
+        setup:
+        def terminals = (1..30).collect { terminal("node${it}", 'hello\n', { true }) }
+        def console = new BroadcastConsole(terminals, new MergedConsoleView(terminals*.name, new PrintStream(new ByteArrayOutputStream())))
+        def threads = []
+        def start = System.currentTimeMillis()
+        console.ioThreads = 2
+        console.keyboard = keyboard('~.') {
+            // wait for the output threads to start
+            threads = Thread.getAllStackTraces().keySet()*.getName().findAll { it.startsWith('console-output') }
+            threads.size() == 2 || System.currentTimeMillis() - start > 5000
+        }
+
+        when:
+        console.launch()
+
+        then:
+        threads.sort() == ['console-output-0', 'console-output-1']
+
+    }
+
+    def "test tiled view" () {
+
+        setup:
+        def view = new TiledConsoleView(['alpha','beta'], new PrintStream(new ByteArrayOutputStream()))
+
+        when:
+        def alpha = 'one\r\ntwo\r\n\u001B[01;32mthree\u001B[0m\r\n$ lsx\b \b'.bytes
+        view.onOutput('alpha', alpha, alpha.length)
+        view.onOutput('beta', 'hola\n'.bytes, 5)
+        view.onClose('beta')
+
+        then:
+        view.render(20, 8) == [
+                '-- alpha -----------',
+                'two',
+                'three',
+                '$ ls',
+                '-- beta (closed) ---',
+                'hola',
+                '',
+                '' ]
+
+        // not enough rows, a row for each node
+        view.render(20, 3) == [ 'alpha| $ ls', 'beta x hola' ]
+        view.render(20, 1) == [ '(2 more nodes not shown)' ]
+
+    }
+
+}
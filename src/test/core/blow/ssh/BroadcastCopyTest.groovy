@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import org.jclouds.compute.domain.ExecResponse
+import spock.lang.Specification
+
+import java.util.concurrent.Executors
+
+class BroadcastCopyTest extends Specification {
+
+    /**
+     * Simulate the copies, the nodes in {@link #brokenRelays} fail to forward the file
+     * and the nodes in {@link #unreachable} cannot be reached by other nodes
+     */
+    static class FakeCopy extends BroadcastCopy {
+
+        List seeded = Collections.synchronizedList([])
+        List relayed = Collections.synchronizedList([])
+        List directs = Collections.synchronizedList([])
+        Set holders = Collections.synchronizedSet(new HashSet())
+        def brokenRelays = []
+        def unreachable = []
+        def failDirect = []
+
+        FakeCopy() { super(Executors.newFixedThreadPool(8)) }
+
+        protected boolean seed( def node ) {
+            seeded << node
+            holders << node
+            return true
+        }
+
+        protected boolean relay( def source, def target ) {
+            assert source in holders
+            relayed << [source, target]
+            if( source in brokenRelays || target in unreachable ) return false
+            holders << target
+            return true
+        }
+
+        protected boolean direct( def node ) {
+            directs << node
+            if( node in failDirect ) return false
+            holders << node
+            return true
+        }
+    }
+
+    def "test copy tree" () {
+
+        setup:
+        def nodes = (1..15).collect { "node$it".toString() }
+        def copy = new FakeCopy(seeds: 1, fanout: 2)
+
+        when:
+        def result = copy.copy(nodes)
+
+        then:
+        result.keySet() == nodes as Set
+        result.values().every { ExecResponse it -> it.exitCode == 0 }
+        copy.seeded == ['node1']
+        copy.relayed.size() == 14
+        // no node forwards more than the fanout copies at the same time, the seed does not forward them all
+        copy.relayed.count { it[0] == 'node1' } < 14
+        copy.directs.isEmpty()
+    }
+
+    def "test failed relays" () {
+
+        setup:
+        def nodes = (1..10).collect { "node$it".toString() }
+        def copy = new FakeCopy(seeds: 2, fanout: 1, brokenRelays: ['node2'], unreachable: ['node9'], failDirect: ['node9'])
+
+        when:
+        def result = copy.copy(nodes)
+
+        then:
+        copy.seeded as Set == ['node1','node2'] as Set
+        // the broken node is excluded after two failures
+        copy.relayed.count { it[0] == 'node2' } <= 2
+        // the unreachable node is tried directly after two relays
+        copy.relayed.count { it[1] == 'node9' } == 2
+        copy.directs == ['node9']
+        result.findAll { it.value.exitCode == 0 }.keySet() == nodes.findAll { it != 'node9' } as Set
+        result['node9'].exitCode == 1
+    }
+
+    def "test manifest" () {
+
+        setup:
+        def file = File.createTempFile('test','data')
+        def data = new byte[2500]
+        new Random(1).nextBytes(data)
+        file.bytes = data
+
+        when:
+        def manifest = BroadcastCopy.Manifest.create(file, 1000)
+        def proc = ['bash','-c', manifest.checksumScript(file.absolutePath)].execute()
+        def output = proc.text
+        proc.waitFor()
+
+        then:
+        manifest.chunks == 3
+        manifest.size == 2500
+        manifest.badChunks( new ExecResponse(output, '', proc.exitValue()) ) == []
+
+        when:
+        data[1500] = (byte)(data[1500] + 1)
+        file.bytes = data
+        proc = ['bash','-c', manifest.checksumScript(file.absolutePath)].execute()
+        output = proc.text
+        proc.waitFor()
+
+        then:
+        manifest.badChunks( new ExecResponse(output, '', proc.exitValue()) ) == [1]
+        manifest.badChunks( new ExecResponse('', '', 1) ) == [0,1,2]
+
+        cleanup:
+        file.delete()
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import blow.BlowConfig
+import blow.BlowSession
+import org.jclouds.compute.domain.ExecResponse
+import org.jclouds.compute.domain.NodeMetadata
+import org.jclouds.compute.domain.NodeMetadataBuilder
+import spock.lang.Specification
+
+import java.util.concurrent.Executors
+
+class ClusterBroadcastCopyTest extends Specification {
+
+    /**
+     * A session simulating the nodes, the relay key cannot be installed on the nodes listed in {@link #broken}
+     */
+    static class TestSession extends BlowSession {
+
+        List<String> broken = []
+
+        List<String> uploaded = Collections.synchronizedList([])
+
+        String checksums
+
+        TestSession( BlowConfig conf ) { super(conf, 'broadcast') }
+
+        protected ExecResponse execOnNode( String script, BlowSession.BlowNodeMetadata node, boolean runAsRoot, OutputListener listener, int tail, int timeout ) {
+            if( script.contains('authorized_keys') && script.contains('>>') && node.getId() in broken ) {
+                return new ExecResponse('', 'Permission denied', 1)
+            }
+            if( script.contains('sha1sum') ) {
+                return new ExecResponse(checksums, '', 0)
+            }
+            return new ExecResponse('', '', 0)
+        }
+
+        protected void copyToNode( def payload, String targetPath, BlowSession.BlowNodeMetadata node, boolean sync ) {
+            uploaded << node.getId()
+        }
+
+        protected File saveMetrics() { null }
+    }
+
+    static NodeMetadata node( String id ) {
+        new NodeMetadataBuilder().id(id).providerId(id).status(NodeMetadata.Status.RUNNING).build()
+    }
+
+    def "test nodes without the relay key are copied directly" () {
+
+        setup:
+        def key = File.createTempFile('test','key'); key.text = 'dummy'
+        def file = File.createTempFile('test','data'); file.text = 'Hello world'
+        def session = new TestSession(new BlowConfig(privateKey: key))
+        def nodes = ['a','b','c'].collect { new BlowSession.BlowNodeMetadata(session, node(it)) }
+        def copier = new ClusterBroadcastCopy(session, Executors.newFixedThreadPool(4), file, '/tmp/data')
+        session.checksums = BroadcastCopy.Manifest.create(file, copier.chunkSize).checksums.join('\n')
+        session.broken = ['c']
+
+        when:
+        def result = copier.copy(nodes)
+
+        then:
+        result.size() == 3
+        result.values().every { it.getExitCode() == 0 }
+        // the node without the key has been copied by the client
+        'c' in session.uploaded
+
+        when:
+        session.checksums = 'bad'
+        session.uploaded.clear()
+        result = new ClusterBroadcastCopy(session, Executors.newFixedThreadPool(4), file, '/tmp/data').copy(nodes)
+
+        then:
+        result.size() == 3
+        result.values().every { it.getExitCode() == 1 }
+
+        cleanup:
+        key?.delete()
+        file?.delete()
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import org.jclouds.compute.domain.ExecResponse
+import spock.lang.Specification
+
+class DeltaSyncTest extends Specification {
+
+    /**
+     * Files 'remote' to a local directory, the scripts are run by the local bash
+     */
+    static class LocalFiles implements RemoteFiles {
+
+        File root
+
+        List<String> scripts = []
+
+        long uploaded
+
+        File target( String path ) { new File(root, path) }
+
+        Map stat( String path ) {
+            def file = target(path)
+            file.exists() ? [size: file.length(), mtime: file.lastModified().intdiv(1000) as long] : null
+        }
+
+        ExecResponse exec( String script ) {
+            scripts << script
+            def proc = new ProcessBuilder('bash', '-c', script).directory(root).start()
+            def err = new StringBuilder()
+            def out = new StringBuilder()
+            proc.waitForProcessOutput(out, err)
+            new ExecResponse(out.toString(), err.toString(), proc.exitValue())
+        }
+
+        void upload( File file, String path ) {
+            uploaded += file.length()
+            target(path).bytes = file.bytes
+        }
+
+        void mkdirs( String path ) { target(path).mkdirs() }
+
+        void setMtime( String path, long seconds ) { target(path).setLastModified(seconds * 1000) }
+    }
+
+    File local
+    LocalFiles remote
+
+    def setup() {
+        local = File.createTempFile('local','')
+        local.delete(); local.mkdirs()
+        def root = File.createTempFile('remote','')
+        root.delete(); root.mkdirs()
+        remote = new LocalFiles(root: root)
+    }
+
+    def cleanup() {
+        local?.deleteDir()
+        remote?.root?.deleteDir()
+    }
+
+    static byte[] random( int size, int seed = 1 ) {
+        def result = new byte[size]
+        new Random(seed).nextBytes(result)
+        return result
+    }
+
+    def "test block size" () {
+        expect:
+        DeltaSync.blockSize(100) == 1024
+        DeltaSync.blockSize(4 * 1024 * 1024) == 2048
+        DeltaSync.blockSize(1024L * 1024 * 1024) == 32768
+    }
+
+    def "test copy and skip unchanged" () {
+
+        setup:
+        def file = new File(local, 'data.bin')
+        file.bytes = random(10000)
+
+        when:
+        def stats = new DeltaSync(remote).sync(file, 'data.bin')
+        then:
+        stats.full == 1
+        remote.target('data.bin').bytes == file.bytes
+        remote.target('data.bin').lastModified().intdiv(1000) == file.lastModified().intdiv(1000)
+
+        when:
+        stats = new DeltaSync(remote).sync(file, 'data.bin')
+        then:
+        stats.skipped == 1
+        stats.sent == 0
+        remote.scripts.empty
+
+        when:
+        // same content, different time: the checksum is compared
+        remote.target('data.bin').setLastModified(0)
+        stats = new DeltaSync(remote).sync(file, 'data.bin')
+        then:
+        stats.skipped == 1
+        stats.sent == 0
+        remote.target('data.bin').lastModified().intdiv(1000) == file.lastModified().intdiv(1000)
+    }
+
+    def "test send only the changed blocks" () {
+
+        setup:
+        def data = random(200 * 1024)
+        remote.target('data.bin').bytes = data
+
+        // insert some bytes and change some others, the blocks after the insertion are shifted
+        def changed = new ByteArrayOutputStream()
+        changed.write(data, 0, 50000)
+        changed.write('inserted data'.getBytes())
+        changed.write(data, 50000, 100000)
+        changed.write(random(100, 9))
+        changed.write(data, 150100, data.length - 150100)
+        def file = new File(local, 'data.bin')
+        file.bytes = changed.toByteArray()
+
+        when:
+        def stats = new DeltaSync(remote).sync(file, 'data.bin')
+
+        then:
+        stats.delta == 1
+        stats.full == 0
+        stats.sent < 4 * 1024
+        remote.target('data.bin').bytes == file.bytes
+        remote.root.list().toList() == ['data.bin']
+    }
+
+    def "test completely different file is uploaded" () {
+
+        setup:
+        remote.target('data.bin').bytes = random(100 * 1024, 1)
+        remote.target('data.bin').setLastModified(0)
+        def file = new File(local, 'data.bin')
+        file.bytes = random(100 * 1024, 2)
+
+        when:
+        def stats = new DeltaSync(remote).sync(file, 'data.bin')
+
+        then:
+        stats.full == 1
+        stats.delta == 0
+        remote.target('data.bin').bytes == file.bytes
+    }
+
+    def "test delta update keeps the file mode" () {
+
+        setup:
+        def data = random(200 * 1024)
+        remote.target('run.sh').bytes = data
+        remote.target('run.sh').setExecutable(true)
+        def file = new File(local, 'run.sh')
+        file.bytes = data
+        file.append('echo done'.getBytes())
+
+        when:
+        def stats = new DeltaSync(remote).sync(file, 'run.sh')
+
+        then:
+        stats.delta == 1
+        remote.target('run.sh').bytes == file.bytes
+        remote.target('run.sh').canExecute()
+        remote.root.list().toList() == ['run.sh']
+    }
+
+    def "test file with too many blocks is uploaded" () {
+
+        setup:
+        def data = random(200 * 1024)
+        remote.target('data.bin').bytes = data
+        def file = new File(local, 'data.bin')
+        file.bytes = data
+        file.append('more data'.getBytes())
+
+        when:
+        def sync = new DeltaSync(remote)
+        sync.maxBlocks = 100
+        def stats = sync.sync(file, 'data.bin')
+
+        then:
+        stats.full == 1
+        stats.delta == 0
+        remote.scripts.empty
+        remote.target('data.bin').bytes == file.bytes
+    }
+
+    def "test sync tree" () {
+
+        setup:
+        new File(local, 'a.txt').text = 'Hello'
+        new File(local, 'sub/deep').mkdirs()
+        new File(local, 'sub/b.txt').text = 'World'
+        new File(local, 'sub/deep/c.bin').bytes = random(100 * 1024)
+
+        when:
+        def stats = new DeltaSync(remote).sync(local, 'dest')
+        then:
+        stats.files == 3
+        stats.full == 3
+        remote.target('dest/a.txt').text == 'Hello'
+        remote.target('dest/sub/b.txt').text == 'World'
+        remote.target('dest/sub/deep/c.bin').bytes == new File(local, 'sub/deep/c.bin').bytes
+
+        when:
+        new File(local, 'sub/b.txt').text = 'World!'
+        stats = new DeltaSync(remote).sync(local, 'dest')
+        then:
+        stats.files == 3
+        stats.skipped == 2
+        stats.full == 1
+        remote.target('dest/sub/b.txt').text == 'World!'
+    }
+
+}
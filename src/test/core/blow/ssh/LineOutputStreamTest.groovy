@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import org.jclouds.compute.domain.ExecResponse
+import spock.lang.Specification
+
+class LineOutputStreamTest extends Specification {
+
+    def "test split lines" () {
+
+        setup:
+        def lines = []
+        def stream = new LineOutputStream( { lines << it } )
+
+        when:
+        stream.write('alpha\nbeta\r\ngam'.getBytes())
+        stream.write('ma\n\ndelta'.getBytes())
+        then:
+        lines == ['alpha','beta','gamma','']
+
+        when:
+        stream.close()
+        then:
+        lines == ['alpha','beta','gamma','','delta']
+
+    }
+
+    def "test long lines are split" () {
+
+        setup:
+        def lines = []
+        def stream = new LineOutputStream( { lines << it }, 4 )
+
+        when:
+        stream.write('0123456789\nxy'.getBytes())
+        stream.close()
+
+        then:
+        lines == ['0123','4567','89', 'xy']
+    }
+
+    def "test utf8" () {
+
+        setup:
+        def lines = []
+        def stream = new LineOutputStream( { lines << it } )
+
+        when:
+        def bytes = 'caffè\nò'.getBytes('UTF-8')
+        bytes.each { stream.write(it) }
+        stream.close()
+
+        then:
+        lines == ['caffè','ò']
+    }
+
+    def "test tail lines" () {
+
+        when:
+        def tail = new TailLines(2)
+        tail.add('1'); tail.add('2'); tail.add('3')
+        then:
+        tail.lines == ['2','3']
+        tail.total == 3
+        tail.dropped == 1
+        tail.toString() == '[... 1 line(s) omitted]\n2\n3\n'
+
+        when:
+        def all = new TailLines()
+        all.add('1'); all.add('2'); all.add('3')
+        then:
+        all.lines == ['1','2','3']
+        all.dropped == 0
+        all.toString() == '1\n2\n3\n'
+
+    }
+
+    def "test console printer" () {
+
+        setup:
+        def out = new ByteArrayOutputStream()
+        def err = new ByteArrayOutputStream()
+        def printer = new ConsolePrinter(new PrintStream(out,true), new PrintStream(err,true))
+        printer.width = 5
+
+        when:
+        printer.onLine('node1', 'hello', false)
+        printer.onLine('n2', 'oops', true)
+        printer.onComplete('n2', new ExecResponse('','oops',2))
+        printer.onComplete('node1', new ExecResponse('hello','',0))
+        printer.onComplete('n3', new ExecResponse('','',1))
+        printer.printSummary()
+
+        def lines = out.toString().readLines()
+        then:
+        err.toString().readLines() == ['[n2   ] oops']
+        lines[0] == '[node1] hello'
+        lines[1] == "** Node 'n2' failed with exit status 2 (first failure)"
+        lines[2] == "** Node 'n3' failed with exit status 1"
+        lines[3] == "** 2 of 3 node(s) failed: n2, n3"
+        printer.failed == ['n2','n3']
+
+    }
+
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import blow.exception.BlowException
+import spock.lang.Specification
+
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+class ParallelCopyTest extends Specification {
+
+    /**
+     * A channel 'remote' to a local directory
+     */
+    static class LocalChannel implements TransferChannel {
+
+        File root
+
+        AtomicInteger opened
+
+        /** Fails the writes at this offset */
+        Long failAt
+
+        List<Long> offsets = Collections.synchronizedList([])
+
+        File target( String path ) { new File(root, path) }
+
+        Map stat( String path ) {
+            def file = target(path)
+            file.exists() ? [size: file.length(), mtime: file.lastModified().intdiv(1000) as long, dir: file.isDirectory()] : null
+        }
+
+        List<String> list( String path ) { target(path).list().toList() }
+
+        void mkdirs( String path ) { target(path).mkdirs() }
+
+        void allocate( String path, long size ) {
+            def raf = new RandomAccessFile(target(path), 'rw')
+            try { raf.setLength(size) } finally { raf.close() }
+        }
+
+        void upload( File file, String path, long offset, long length, boolean create, Closure counter ) {
+            if( failAt != null && failAt.longValue() == offset ) throw new IOException("Broken pipe")
+            offsets << offset
+            if( create ) target(path).delete()
+            copy(file, target(path), offset, length, counter)
+        }
+
+        void download( String path, File file, long offset, long length, Closure counter ) {
+            if( failAt != null && failAt.longValue() == offset ) throw new IOException("Broken pipe")
+            offsets << offset
+            copy(target(path), file, offset, length, counter)
+        }
+
+        String md5( String path ) { DeltaSync.md5(target(path)) }
+
+        void close() { }
+
+        static void copy( File from, File to, long offset, long length, Closure counter ) {
+            def input = new RandomAccessFile(from, 'r')
+            def output = new RandomAccessFile(to, 'rw')
+            try {
+                def buffer = new byte[(int)length]
+                input.seek(offset)
+                input.readFully(buffer)
+                output.seek(offset)
+                output.write(buffer)
+                counter.call((int)length)
+            }
+            finally {
+                input.close()
+                output.close()
+            }
+        }
+    }
+
+    /**
+     * Delivers the written data to the target stream after a delay, as a network link with latency
+     */
+    static class LatencyOutputStream extends OutputStream {
+
+        final private OutputStream target
+
+        final private long delay
+
+        final private LinkedBlockingQueue<Object[]> queue = new LinkedBlockingQueue<Object[]>()
+
+        final private Thread pump
+
+        LatencyOutputStream( OutputStream target, long delay ) {
+            this.target = target
+            this.delay = delay
+            this.pump = Thread.start {
+                while( true ) {
+                    def item = queue.take()
+                    long wait = (item[0] as long) + delay - System.currentTimeMillis()
+                    if( wait > 0 ) sleep(wait)
+                    if( item[1] == null ) break
+                    target.write(item[1] as byte[])
+                }
+                target.close()
+            }
+        }
+
+        void write( int b ) { write([b] as byte[], 0, 1) }
+
+        void write( byte[] b, int off, int len ) {
+            queue.put([System.currentTimeMillis(), Arrays.copyOfRange(b, off, off + len)] as Object[])
+        }
+
+        void close() {
+            queue.put([System.currentTimeMillis(), null] as Object[])
+            pump.join()
+        }
+    }
+
+    /**
+     * A channel streaming the ranges through the same {@code dd} commands of {@link SftpTransferChannel}, run
+     * by the local bash, adding a latency to the data sent and received
+     */
+    static class LatencyChannel extends LocalChannel {
+
+        long delay
+
+        Process exec( String command ) {
+            new ProcessBuilder('bash', '-c', command).directory(root).start()
+        }
+
+        void upload( File file, String path, long offset, long length, boolean create, Closure counter ) {
+            def proc = exec(SftpTransferChannel.uploadCommand(path, offset, create))
+            def input = new RandomAccessFile(file, 'r')
+            try {
+                SftpTransferChannel.send(input, new LatencyOutputStream(proc.getOutputStream(), delay), offset, length, counter)
+            }
+            finally {
+                input.close()
+            }
+            if( proc.waitFor() ) throw new IOException(proc.getErrorStream().text)
+        }
+
+        void download( String path, File file, long offset, long length, Closure counter ) {
+            def proc = exec(SftpTransferChannel.downloadCommand(path, offset, length))
+            def pipe = new PipedInputStream(1024 * 1024)
+            def delayed = new LatencyOutputStream(new PipedOutputStream(pipe), delay)
+            Thread.start { delayed << proc.getInputStream(); delayed.close() }
+            def output = new RandomAccessFile(file, 'rw')
+            try {
+                SftpTransferChannel.receive(pipe, output, offset, length, counter)
+            }
+            finally {
+                output.close()
+            }
+            if( proc.waitFor() ) throw new IOException(proc.getErrorStream().text)
+        }
+    }
+
+    File local
+    File remote
+    File checkpoints
+    AtomicInteger opened = new AtomicInteger()
+
+    def setup() {
+        local = File.createTempFile('local','')
+        local.delete(); local.mkdirs()
+        remote = File.createTempFile('remote','')
+        remote.delete(); remote.mkdirs()
+        checkpoints = File.createTempFile('ckpt','')
+        checkpoints.delete()
+    }
+
+    def cleanup() {
+        local?.deleteDir()
+        remote?.deleteDir()
+        checkpoints?.deleteDir()
+    }
+
+    ParallelCopy newCopier( LocalChannel channel ) {
+        def result = new ParallelCopy('host', { opened.incrementAndGet(); channel } )
+        result.checkpointDir = checkpoints
+        result.minRangeSize = 1000
+        result.rangeSize = 4000
+        return result
+    }
+
+    static byte[] random( int size, int seed = 1 ) {
+        def result = new byte[size]
+        new Random(seed).nextBytes(result)
+        return result
+    }
+
+    def "test split ranges" () {
+
+        setup:
+        def copier = new ParallelCopy('host', { null })
+        copier.streams = 4
+        copier.minRangeSize = 100
+        copier.rangeSize = 1000
+
+        expect:
+        copier.ranges(new ParallelCopy.Item(size: 150))*.length == [150]
+        copier.ranges(new ParallelCopy.Item(size: 400))*.length == [100,100,100,100]
+        copier.ranges(new ParallelCopy.Item(size: 1000))*.length == [250,250,250,250]
+        copier.ranges(new ParallelCopy.Item(size: 5500))*.length == [1000,1000,1000,1000,1000,500]
+    }
+
+    def "test upload files and directories" () {
+
+        setup:
+        def big = new File(local, 'big.bin'); big.bytes = random(18000)
+        new File(local, 'dir/sub').mkdirs()
+        def files = (1..20).collect { def f = new File(local, "dir/sub/file${it}.txt"); f.text = "Hello ${it}"; f }
+        def channel = new LocalChannel(root: remote)
+        def copier = newCopier(channel)
+        def reports = []
+        copier.progress = { reports << it.toString() }
+        copier.verify = true
+
+        when:
+        def result = copier.upload([big, new File(local,'dir')], 'target')
+
+        then:
+        new File(remote, 'target/big.bin').bytes == big.bytes
+        files.every { new File(remote, "target/dir/sub/${it.name}").text == it.text }
+        channel.offsets.findAll { it > 0 }.sort() == [4000L, 8000L, 12000L, 16000L]
+        result.files == 21
+        result.completed == 21
+        result.done == result.total
+        opened.get() == 4
+        reports.last().startsWith('100% - 21 of 21 file(s)')
+        !checkpoints.exists() || !checkpoints.list()
+    }
+
+    def "test download" () {
+
+        setup:
+        new File(remote, 'data').mkdirs()
+        new File(remote, 'data/big.bin').bytes = random(10000)
+        new File(remote, 'data/small.txt').text = 'Hello'
+        def copier = newCopier(new LocalChannel(root: remote))
+
+        when:
+        def result = copier.download(['data'], new File(local, 'out'))
+
+        then:
+        new File(local, 'out/data/big.bin').bytes == new File(remote, 'data/big.bin').bytes
+        new File(local, 'out/data/small.txt').text == 'Hello'
+        result.completed == 2
+    }
+
+    def "test resume interrupted copy" () {
+
+        setup:
+        def big = new File(local, 'big.bin'); big.bytes = random(16000)
+        def channel = new LocalChannel(root: remote, failAt: 8000)
+        def copier = newCopier(channel)
+        copier.streams = 1
+
+        when:
+        copier.upload([big], 'target')
+        then:
+        def e = thrown(BlowException)
+        e.message.contains('Broken pipe')
+        channel.offsets.sort() == [0L, 4000L, 12000L]
+        checkpoints.list().size() == 1
+
+        when:
+        channel.failAt = null
+        channel.offsets.clear()
+        def result = newCopier(channel).upload([big], 'target')
+        then:
+        channel.offsets == [8000L]
+        result.resumed == 12000
+        result.done == 16000
+        new File(remote, 'target/big.bin').bytes == big.bytes
+        !checkpoints.list()
+    }
+
+    def "test download is not resumed when the remote file changes" () {
+
+        setup:
+        def data = new File(remote, 'big.bin'); data.bytes = random(16000)
+        def channel = new LocalChannel(root: remote, failAt: 8000)
+        def copier = newCopier(channel)
+        copier.streams = 1
+
+        when:
+        copier.download(['big.bin'], local)
+        then:
+        thrown(BlowException)
+        checkpoints.list().size() == 1
+
+        when:
+        // same size, different content and time
+        data.bytes = random(16000, 2)
+        data.setLastModified(data.lastModified() - 60000)
+        channel.failAt = null
+        channel.offsets.clear()
+        def result = newCopier(channel).download(['big.bin'], local)
+        then:
+        channel.offsets.sort() == [0L, 4000L, 8000L, 12000L]
+        result.resumed == 0
+        new File(local, 'big.bin').bytes == data.bytes
+    }
+
+    def "test resume with a different number of streams" () {
+
+        setup:
+        def big = new File(local, 'big.bin'); big.bytes = random(16000)
+        def channel = new LocalChannel(root: remote, failAt: 2000)
+        def copier = newCopier(channel)
+        // ranges of 2000 bytes
+        copier.streams = 8
+
+        when:
+        copier.upload([big], 'target')
+        then:
+        thrown(BlowException)
+
+        when:
+        channel.failAt = null
+        channel.offsets.clear()
+        copier = newCopier(channel)
+        // ranges of 4000 bytes, none of them has been completed by the previous copy
+        copier.streams = 1
+        def result = copier.upload([big], 'target')
+        then:
+        channel.offsets == [0L, 4000L, 8000L, 12000L]
+        result.done == 16000
+        new File(remote, 'target/big.bin').bytes == big.bytes
+        !checkpoints.list()
+    }
+
+    def "test stream the ranges over a channel with latency" () {
+
+        setup:
+        def big = new File(local, 'big.bin'); big.bytes = random(4 * 1024 * 1024)
+        def small = new File(local, 'small.txt'); small.text = 'Hello'
+        def channel = new LatencyChannel(root: remote, delay: 50)
+        def copier = newCopier(channel)
+        copier.streams = 1
+        copier.rangeSize = 1000 * 1000
+
+        when:
+        def start = System.currentTimeMillis()
+        def result = copier.upload([big, small], 'target')
+        def elapsed = System.currentTimeMillis() - start
+        then:
+        result.completed == 2
+        new File(remote, 'target/big.bin').bytes == big.bytes
+        new File(remote, 'target/small.txt').text == 'Hello'
+        // waiting the reply of each 32 KiB request would take more than 6 seconds
+        elapsed < 3000
+
+        when:
+        copier = newCopier(channel)
+        copier.streams = 1
+        copier.rangeSize = 1000 * 1000
+        start = System.currentTimeMillis()
+        result = copier.download(['target'], new File(local, 'out'))
+        elapsed = System.currentTimeMillis() - start
+        then:
+        result.completed == 2
+        new File(local, 'out/target/big.bin').bytes == big.bytes
+        new File(local, 'out/target/small.txt').text == 'Hello'
+        elapsed < 3000
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import blow.exception.BlowConfigException
+import org.jclouds.compute.domain.ExecResponse
+import spock.lang.Specification
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class RollingExecutorTest extends Specification {
+
+    ExecutorService pool = Executors.newFixedThreadPool(20)
+
+    def cleanup() {
+        pool.shutdownNow()
+    }
+
+    def RollingExecutor<Integer> newExecutor( Map policy ) {
+        def result = new RollingExecutor<Integer>(pool, ExecPolicy.create(policy))
+        result.pollInterval = 10
+        return result
+    }
+
+    static ExecResponse ok() { new ExecResponse('OK', null, 0) }
+
+    static ExecResponse fail() { new ExecResponse('', 'ERR', 1) }
+
+    def "test create policy" () {
+
+        when:
+        def policy = ExecPolicy.create( [maxInFlight: 10, wave: 25, timeout: 60], ExecPolicy.create([failFast: 2, timeout: 30]) )
+
+        then:
+        policy.maxInFlight == 10
+        policy.wave == 25
+        policy.failFast == 2
+        policy.timeout == 60
+        policy.speculative == 0
+        policy.waveSize(10) == 3
+        policy.inFlight(5) == 5
+        policy.inFlight(50) == 10
+
+        ExecPolicy.create(null).waveSize(7) == 7
+        ExecPolicy.create(null).inFlight(7) == 7
+        ExecPolicy.create([speculative: 1.5]).speculative == 1.5d
+
+    }
+
+    def "test invalid policy" () {
+
+        when:
+        ExecPolicy.create( [maxNodes: 10] )
+        then:
+        thrown(BlowConfigException)
+
+        when:
+        ExecPolicy.create( [timeout: -1] )
+        then:
+        thrown(BlowConfigException)
+
+        when:
+        ExecPolicy.create( [wave: 150] )
+        then:
+        thrown(BlowConfigException)
+
+    }
+
+    def "test all nodes" () {
+
+        when:
+        def result = newExecutor(null).invoke( 1..30 ) { Integer node -> node == 7 ? fail() : ok() }
+
+        then:
+        result.keySet().toList() == (1..30).toList()
+        result.values().findAll { it.getExitCode() }.size() == 1
+        result[7].getExitCode() == 1
+
+    }
+
+    def "test action exception" () {
+
+        when:
+        def result = newExecutor(null).invoke( [1,2] ) { Integer node -> if( node == 2 ) throw new IOException('Broken pipe'); ok() }
+
+        then:
+        result[1].getExitCode() == 0
+        result[2].getExitCode() == 1
+        result[2].getError() == 'Broken pipe'
+
+    }
+
+    def "test max in flight" () {
+
+        setup:
+        def running = new AtomicInteger()
+        def max = new AtomicInteger()
+
+        when:
+        def result = newExecutor([maxInFlight: 3]).invoke( 1..12 ) { Integer node ->
+            def count = running.incrementAndGet()
+            synchronized (max) { if( count > max.get() ) max.set(count) }
+            sleep 30
+            running.decrementAndGet()
+            ok()
+        }
+
+        then:
+        result.size() == 12
+        result.values().every { it.getExitCode() == 0 }
+        max.get() == 3
+
+    }
+
+    def "test waves" () {
+
+        setup:
+        def order = Collections.synchronizedList([])
+
+        when:
+        // 4 waves of 3 nodes, the last node of each wave is the slowest
+        newExecutor([wave: 25]).invoke( 1..12 ) { Integer node ->
+            order << "start ${node}".toString()
+            sleep( node % 3 == 0 ? 60 : 5 )
+            order << "end ${node}".toString()
+            ok()
+        }
+
+        then:
+        order.size() == 24
+        [3, 6, 9].every { int last -> order.indexOf("end ${last}".toString()) < order.indexOf("start ${last+1}".toString()) }
+
+    }
+
+    def "test fail fast" () {
+
+        setup:
+        def started = new AtomicInteger()
+
+        when:
+        def result = newExecutor([maxInFlight: 2, failFast: 2]).invoke( 1..10 ) { Integer node ->
+            started.incrementAndGet()
+            node in [2,3] ? fail() : ok()
+        }
+
+        then:
+        result.size() == 10
+        started.get() < 10
+        result.values().findAll { it.getExitCode() == RollingExecutor.SKIPPED_EXIT_CODE }.size() == 10 - started.get()
+        result.values().findAll { it.getExitCode() == 1 }.size() == 2
+
+    }
+
+    def "test timeout" () {
+
+        when:
+        def result = newExecutor([timeout: 1]).invoke( 1..3 ) { Integer node ->
+            if( node == 2 ) sleep 5000
+            ok()
+        }
+
+        then:
+        result[1].getExitCode() == 0
+        result[2].getExitCode() == RollingExecutor.TIMEOUT_EXIT_CODE
+        result[3].getExitCode() == 0
+
+    }
+
+    def "test timeout grace" () {
+
+        setup:
+        def executor = newExecutor([timeout: 1])
+        executor.timeoutGrace = 2
+
+        when:
+        // the action stops by itself on timeout, as the remote 'timeout' command, before the grace expires
+        def result = executor.invoke( 1..2 ) { Integer node ->
+            if( node == 2 ) {
+                sleep 1500
+                return new ExecResponse('', 'Terminated', RollingExecutor.TIMEOUT_EXIT_CODE)
+            }
+            ok()
+        }
+
+        then:
+        result[1].getExitCode() == 0
+        result[2].getExitCode() == RollingExecutor.TIMEOUT_EXIT_CODE
+        // the response of the action is kept
+        result[2].getError() == 'Terminated'
+
+    }
+
+    def "test speculative execution" () {
+
+        setup:
+        def attempts = new AtomicInteger()
+
+        when:
+        def start = System.currentTimeMillis()
+        def result = newExecutor([speculative: 3]).invoke( 1..5 ) { Integer node ->
+            if( node == 5 && attempts.incrementAndGet() == 1 ) {
+                // the first execution on this node hangs
+                sleep 5000
+            }
+            else {
+                sleep 50
+            }
+            ok()
+        }
+        def elapsed = System.currentTimeMillis() - start
+
+        then:
+        result.size() == 5
+        result.values().every { it.getExitCode() == 0 }
+        attempts.get() == 2
+        elapsed < 2000
+
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import blow.exception.BlowException
+import net.schmizz.sshj.SSHClient
+import spock.lang.Specification
+
+class SshConnectionPoolTest extends Specification {
+
+    static class FakeClient extends SSHClient {
+        String host
+        boolean connected = true
+        boolean isConnected() { connected }
+        boolean isAuthenticated() { connected }
+        void disconnect() { connected = false }
+    }
+
+    static class FakePool extends SshConnectionPool {
+        protected SSHClient connect( String host, int port, String user, File privateKey ) {
+            new FakeClient(host: host)
+        }
+    }
+
+    def "test borrow and release" () {
+        setup:
+        def pool = new FakePool()
+
+        when:
+        def ssh1 = pool.borrow('host1', 'user')
+        def ssh2 = pool.borrow('host1', 'user')
+        then:
+        ssh1 != ssh2
+        pool.leasedCount == 2
+        pool.createdCount == 2
+
+        when:
+        pool.release(ssh1)
+        def ssh3 = pool.borrow('host1', 'user')
+        def ssh4 = pool.borrow('host2', 'user')
+        then:
+        ssh3.is(ssh1)
+        !ssh4.is(ssh1)
+        ssh4.host == 'host2'
+        pool.reusedCount == 1
+        pool.createdCount == 3
+
+        cleanup:
+        pool.close()
+    }
+
+    def "test stale connections are discarded" () {
+        setup:
+        def pool = new FakePool()
+
+        when:
+        def ssh1 = pool.borrow('host1', 'user')
+        pool.release(ssh1)
+        ssh1.connected = false
+        def ssh2 = pool.borrow('host1', 'user')
+
+        then:
+        !ssh2.is(ssh1)
+        pool.reusedCount == 0
+        pool.idleCount == 0
+
+        cleanup:
+        pool.close()
+    }
+
+    def "test max connections per host" () {
+        setup:
+        def pool = new FakePool(maxPerHost: 1, borrowTimeout: 100)
+
+        when:
+        pool.borrow('host1', 'user')
+        pool.borrow('host2', 'user')
+        pool.borrow('host1', 'user')
+
+        then:
+        thrown(BlowException)
+        pool.leasedCount == 2
+
+        cleanup:
+        pool.close()
+    }
+
+    def "test withConnection" () {
+        setup:
+        def pool = new FakePool()
+        def conn
+
+        when:
+        def result = pool.withConnection('host1', 'user', null) { SSHClient ssh -> conn = ssh; 'done' }
+        then:
+        result == 'done'
+        pool.idleCount == 1
+        pool.leasedCount == 0
+        conn.isConnected()
+
+        when:
+        pool.withConnection('host1', 'user', null) { SSHClient ssh -> conn = ssh; throw new IOException('Broken') }
+        then:
+        thrown(IOException)
+        pool.idleCount == 0
+        pool.leasedCount == 0
+        !conn.isConnected()
+
+        cleanup:
+        pool.close()
+    }
+
+    def "test evict and close" () {
+        setup:
+        def pool = new FakePool(idleTimeout: 0)
+
+        when:
+        def ssh1 = pool.borrow('host1', 'user')
+        def ssh2 = pool.borrow('host2', 'user')
+        pool.release(ssh1)
+        sleep 10
+        then:
+        pool.evictIdle() == 1
+        !ssh1.isConnected()
+
+        when:
+        pool.close()
+        pool.release(ssh2)
+        then:
+        !ssh2.isConnected()
+        pool.idleCount == 0
+
+        when:
+        pool.borrow('host1', 'user')
+        then:
+        thrown(IllegalStateException)
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.ssh
+
+import net.schmizz.sshj.common.StreamCopier
+import spock.lang.Specification
+
+class StreamPumpTest extends Specification {
+
+    static byte[] data( int size ) {
+        def result = new byte[size]
+        new Random(1).nextBytes(result)
+        return result
+    }
+
+    def "test copy streams" () {
+        setup:
+        def source = data(100 * 1024)
+        def target = new ByteArrayOutputStream()
+        def progress = []
+
+        when:
+        def pump = new StreamPump(new ByteArrayInputStream(source), target)
+                .listener( { long count -> progress << count } as StreamCopier.Listener )
+        def count = pump.copy()
+
+        then:
+        count == source.length
+        target.toByteArray() == source
+        pump.bytesTransferred == source.length
+        progress.size() == 4
+        progress.last() == source.length
+    }
+
+    def "test copy with length" () {
+        setup:
+        def source = data(1000)
+        def target = new ByteArrayOutputStream()
+
+        when:
+        new StreamPump(new ByteArrayInputStream(source), target).bufSize(100).length(250).copy()
+        then:
+        target.toByteArray() == source[0..249] as byte[]
+
+        when:
+        new StreamPump(new ByteArrayInputStream(source), new ByteArrayOutputStream()).length(2000).copy()
+        then:
+        thrown(IOException)
+    }
+
+    def "test flush only when input stalls" () {
+        setup:
+        int flushes = 0
+        def target = new ByteArrayOutputStream() { void flush() { flushes++ } }
+
+        when:
+        new StreamPump(new ByteArrayInputStream(data(1000)), target).bufSize(10).copy()
+        then:
+        // one when the input is drained and one at the end of the copy
+        flushes == 2
+    }
+
+    def "test copy from and to files" () {
+        setup:
+        def source = data(300 * 1024)
+        def file1 = File.createTempFile('pump',null)
+        def file2 = File.createTempFile('pump',null)
+        file1.bytes = source
+
+        when:
+        def target = new ByteArrayOutputStream()
+        def input = new FileInputStream(file1)
+        def count = new StreamPump(input, target).copy()
+        input.close()
+        then:
+        count == source.length
+        target.toByteArray() == source
+
+        when:
+        def output = new FileOutputStream(file2)
+        count = new StreamPump(new ByteArrayInputStream(source), output).copy()
+        output.close()
+        then:
+        count == source.length
+        file2.bytes == source
+
+        when:
+        input = new FileInputStream(file1)
+        output = new FileOutputStream(file2)
+        count = new StreamPump(input, output).length(1000).copy()
+        input.close(); output.close()
+        then:
+        count == 1000
+        file2.bytes == source[0..999] as byte[]
+
+        cleanup:
+        file1?.delete()
+        file2?.delete()
+    }
+
+    def "test spawn" () {
+        setup:
+        def source = data(50 * 1024)
+        def target = new ByteArrayOutputStream()
+
+        when:
+        def pump = new StreamPump(new ByteArrayInputStream(source), target)
+        pump.spawnDaemon('test').await()
+
+        then:
+        target.toByteArray() == source
+        pump.bytesTransferred == source.length
+        pump.bytesPerSecond > 0
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.storage
+
+import org.jclouds.aws.AWSResponseException
+import org.jclouds.aws.domain.AWSError
+import org.jclouds.ec2.domain.Attachment
+import org.jclouds.ec2.domain.Snapshot
+import org.jclouds.ec2.domain.Volume
+import org.jclouds.ec2.options.DescribeSnapshotsOptions
+import org.jclouds.ec2.services.ElasticBlockStoreClient
+import spock.lang.Specification
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeoutException
+
+class EbsStatusPollerTest extends Specification {
+
+    /**
+     * A fake EBS client, each resource becomes ready after the specified number of describe requests
+     */
+    static class FakeEbs {
+
+        Map<String,Integer> volumes = [:]
+
+        Map<String,Integer> snapshots = [:]
+
+        List<List<String>> volumeRequests = []
+
+        List<List<String>> snapshotRequests = []
+
+        int throttle
+
+        ElasticBlockStoreClient client() {
+            [
+                describeVolumesInRegion: { String region, String[] ids ->
+                    checkThrottle()
+                    volumeRequests << ids.toList()
+                    if( ids.any { !volumes.containsKey(it) } ) {
+                        throw error('InvalidVolume.NotFound')
+                    }
+                    ids.collect { String id -> volume(id, ready(volumes, id) ? Volume.Status.AVAILABLE : Volume.Status.CREATING) } as Set
+                },
+
+                describeSnapshotsInRegion: { String region, DescribeSnapshotsOptions[] opts ->
+                    checkThrottle()
+                    def ids = opts[0].buildFormParameters().entries().findAll { it.key.startsWith('SnapshotId') }*.value
+                    snapshotRequests << ids
+                    ids.collect { String id -> snapshot(id, ready(snapshots, id) ? Snapshot.Status.COMPLETED : Snapshot.Status.PENDING) } as Set
+                }
+            ] as ElasticBlockStoreClient
+        }
+
+        synchronized private boolean ready( Map<String,Integer> map, String id ) {
+            int count = map[id] - 1
+            map[id] = count
+            return count <= 0
+        }
+
+        synchronized private void checkThrottle() {
+            if( throttle > 0 ) {
+                throttle--
+                throw error('RequestLimitExceeded')
+            }
+        }
+    }
+
+    static Volume volume( String id, Volume.Status status ) {
+        new Volume('eu-west-1', id, 10, null, 'eu-west-1a', status, new Date(), Collections.<Attachment>emptySet())
+    }
+
+    static Snapshot snapshot( String id, Snapshot.Status status ) {
+        new Snapshot('eu-west-1', id, 'vol-1', 10, status, new Date(), 0, '1', 'desc', null)
+    }
+
+    static AWSResponseException error( String code ) {
+        def error = new AWSError()
+        error.setCode(code)
+        new AWSResponseException(code, null, null, error)
+    }
+
+    def "test volumes are polled in a single request" () {
+
+        setup:
+        def fake = new FakeEbs(volumes: ['vol-1':1, 'vol-2':2, 'vol-3':3])
+        def poller = new EbsStatusPoller(fake.client(), 'eu-west-1')
+        poller.minDelay = 10
+        poller.maxDelay = 50
+
+        when:
+        def futures = ['vol-1','vol-2','vol-3'].collect { String id ->
+            poller.watchVolume(id, 5000) { Volume vol -> vol.getStatus() == Volume.Status.AVAILABLE }
+        }
+        def result = futures*.get()
+
+        then:
+        result*.id == ['vol-1','vol-2','vol-3']
+        result.every { it.status == Volume.Status.AVAILABLE }
+        fake.volumeRequests[0].sort() == ['vol-1','vol-2','vol-3']
+        fake.volumeRequests.size() == 3
+        poller.pendingCount == 0
+
+        cleanup:
+        poller.close()
+    }
+
+    def "test snapshots and throttling" () {
+
+        setup:
+        def fake = new FakeEbs(snapshots: ['snap-1':2, 'snap-2':1], throttle: 2)
+        def poller = new EbsStatusPoller(fake.client(), 'eu-west-1')
+        poller.minDelay = 10
+        poller.maxDelay = 50
+
+        when:
+        def first = poller.watchSnapshot('snap-1', 5000) { Snapshot snap -> snap.getStatus() == Snapshot.Status.COMPLETED }
+        def second = poller.watchSnapshot('snap-2', 5000) { Snapshot snap -> snap.getStatus() == Snapshot.Status.COMPLETED }
+
+        then:
+        first.get().status == Snapshot.Status.COMPLETED
+        second.get().status == Snapshot.Status.COMPLETED
+        fake.throttle == 0
+        fake.snapshotRequests[0].sort() == ['snap-1','snap-2']
+
+        cleanup:
+        poller.close()
+    }
+
+    def "test missing volume and timeout" () {
+
+        setup:
+        def fake = new FakeEbs(volumes: ['vol-1':1])
+        def poller = new EbsStatusPoller(fake.client(), 'eu-west-1')
+        poller.minDelay = 10
+        poller.maxDelay = 20
+
+        when:
+        def ok = poller.watchVolume('vol-1', 5000) { Volume vol -> vol.getStatus() == Volume.Status.AVAILABLE }
+        def missing = poller.watchVolume('vol-x', 200) { Volume vol -> true }
+
+        then:
+        ok.get().id == 'vol-1'
+
+        when:
+        missing.get()
+        then:
+        def e = thrown(ExecutionException)
+        e.getCause() instanceof TimeoutException
+
+        cleanup:
+        poller.close()
+    }
+
+    def "test block storage waits with the poller" () {
+
+        setup:
+        def fake = new FakeEbs(volumes: ['vol-1':2, 'vol-2':1])
+        def poller = new EbsStatusPoller(fake.client(), 'eu-west-1')
+        poller.minDelay = 10
+        def storage = new BlockStorage(null, null)
+        storage.@'$poller' = poller
+
+        when:
+        def first = storage.waitForVolumeAvailAsync( volume('vol-1', Volume.Status.CREATING) )
+        def second = storage.waitForVolumeAvail( volume('vol-2', Volume.Status.CREATING) )
+        def ready = storage.waitForVolumeAvail( volume('vol-3', Volume.Status.AVAILABLE) )
+
+        then:
+        first.get().status == Volume.Status.AVAILABLE
+        second.status == Volume.Status.AVAILABLE
+        ready.id == 'vol-3'
+        // the ready volume has not been requested
+        !fake.volumeRequests.flatten().contains('vol-3')
+
+        cleanup:
+        poller.close()
+    }
+
+}
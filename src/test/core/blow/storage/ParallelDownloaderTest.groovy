@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.storage
+
+import blow.exception.BlowException
+import org.jclouds.blobstore.BlobStore
+import org.jclouds.blobstore.BlobStoreContext
+import org.jclouds.blobstore.BlobStoreContextFactory
+import org.jclouds.blobstore.domain.Blob
+import org.jclouds.blobstore.options.GetOptions
+import spock.lang.Shared
+import spock.lang.Specification
+
+/**
+ * Test the parallel download against the jclouds in-memory 'transient' blob store
+ */
+class ParallelDownloaderTest extends Specification {
+
+    @Shared BlobStoreContext context
+
+    @Shared BlobStore store
+
+    @Shared byte[] data
+
+    def setupSpec() {
+        context = new BlobStoreContextFactory().createContext('transient', 'id', 'secret')
+        store = context.getBlobStore()
+        store.createContainerInLocation(null, 'bucket')
+
+        data = new byte[1000 * 1000 + 7]
+        new Random(1).nextBytes(data)
+        store.putBlob('bucket', store.blobBuilder('data.bin').payload(data).build())
+    }
+
+    def cleanupSpec() {
+        context?.close()
+    }
+
+    def "test split" () {
+        expect:
+        ParallelDownloader.split(0, 10) == []
+        ParallelDownloader.split(10, 10).collect { it as List } == [[0,9]]
+        ParallelDownloader.split(25, 10).collect { it as List } == [[0,9], [10,19], [20,24]]
+    }
+
+    def "test download" () {
+        setup:
+        def target = File.createTempFile('test',null)
+
+        when:
+        def downloader = new ParallelDownloader(store)
+        downloader.partSize = 100 * 1000
+        downloader.parallelism = 3
+        def count = downloader.download('bucket', 'data.bin', target)
+
+        then:
+        count == data.length
+        target.bytes == data
+        downloader.bytesDownloaded == data.length
+
+        cleanup:
+        target?.delete()
+    }
+
+    def "test download retry failed parts" () {
+        setup:
+        def target = File.createTempFile('test',null)
+        int failures = 0
+        def flaky = [
+            getBlob: { String container, String name, GetOptions opt ->
+                if( failures++ < 2 ) throw new IOException('Connection reset')
+                store.getBlob(container, name, opt)
+            },
+            blobMetadata: { String container, String name -> store.blobMetadata(container, name) }
+        ] as BlobStore
+
+        when:
+        def downloader = new ParallelDownloader(flaky)
+        downloader.partSize = 300 * 1000
+        downloader.parallelism = 1
+        downloader.retryDelay = 1
+        downloader.download('bucket', 'data.bin', target)
+
+        then:
+        target.bytes == data
+        downloader.bytesDownloaded == data.length
+
+        when:
+        failures = -100
+        downloader.maxRetries = 1
+        downloader.download('bucket', 'data.bin', target)
+
+        then:
+        thrown(BlowException)
+
+        cleanup:
+        target?.delete()
+    }
+
+    def "test download checks etag" () {
+        setup:
+        def target = File.createTempFile('test',null)
+        def tampered = [
+            getBlob: { String container, String name, GetOptions opt ->
+                Blob blob = store.getBlob(container, name, opt)
+                def bytes = blob.getPayload().getInput().bytes
+                bytes[0] = (byte)(bytes[0] + 1)
+                store.blobBuilder(name).payload(bytes).build()
+            },
+            blobMetadata: { String container, String name -> store.blobMetadata(container, name) }
+        ] as BlobStore
+
+        when:
+        new ParallelDownloader(tampered).download('bucket', 'data.bin', target)
+
+        then:
+        def e = thrown(BlowException)
+        e.message.contains('ETag')
+
+        cleanup:
+        target?.delete()
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.util
+
+import spock.lang.Specification
+
+import java.util.zip.GZIPInputStream
+
+class NodeLogWriterTest extends Specification {
+
+    def "test append and close" () {
+
+        setup:
+        def folder = File.createTempFile('test','logs')
+        folder.delete()
+        def file1 = new File(folder, 'node-1.log')
+        def file2 = new File(folder, 'node-2.log')
+        def writer = new NodeLogWriter()
+
+        when:
+        writer.append(file1, 'alpha\n')
+        writer.append(file2, 'beta\n')
+        writer.append(file1, 'gamma\n')
+        writer.flush()
+        then:
+        file1.text == 'alpha\ngamma\n'
+        file2.text == 'beta\n'
+
+        when:
+        writer.append(file2, 'delta\n')
+        writer.close()
+        then:
+        file2.text == 'beta\ndelta\n'
+        !writer.append(file2, 'lost')
+        writer.dropped == 1
+
+        cleanup:
+        folder.deleteDir()
+    }
+
+    def "test concurrent records are not mixed" () {
+
+        setup:
+        def folder = File.createTempFile('test','logs')
+        folder.delete()
+        def file = new File(folder, 'node.log')
+        def writer = new NodeLogWriter(4)
+
+        when:
+        def threads = (1..8).collect { n ->
+            Thread.start { 50.times { writer.append(file, "${n}:".padRight(200,"${n}") + '\n') } }
+        }
+        threads*.join()
+        writer.close()
+
+        def lines = file.readLines()
+        then:
+        lines.size() == 400
+        lines.every { String line -> line.size() == 200 && line.toSet().size() == 2 }
+
+        cleanup:
+        folder.deleteDir()
+    }
+
+    def "test rotate" () {
+
+        setup:
+        def folder = File.createTempFile('test','logs')
+        folder.delete()
+        def file = new File(folder, 'node.log')
+        def writer = new NodeLogWriter(10, NodeLogWriter.Policy.BLOCK, 10, 2)
+
+        when:
+        ['aaaaaa\n','bbbbbb\n','cccccc\n','dddddd\n'].each { writer.append(file, it) }
+        writer.close()
+
+        then:
+        file.text == 'dddddd\n'
+        unzip(new File(folder,'node.log.1.gz')) == 'cccccc\n'
+        unzip(new File(folder,'node.log.2.gz')) == 'bbbbbb\n'
+        !new File(folder,'node.log.3.gz').exists()
+
+        cleanup:
+        folder.deleteDir()
+    }
+
+    def "test drop policy" () {
+
+        setup:
+        def writer = new NodeLogWriter(1, NodeLogWriter.Policy.DROP)
+        def file = File.createTempFile('test','log')
+
+        when:
+        def accepted = (1..1000).collect { writer.append(file, 'x\n') }.count(true)
+        writer.close()
+
+        then:
+        accepted + writer.dropped == 1000
+        file.readLines().size() == accepted
+
+        cleanup:
+        file.delete()
+    }
+
+    def "test close while appending and flushing" () {
+
+        setup:
+        def file = File.createTempFile('test','log')
+        def writer = new NodeLogWriter(2)
+
+        when:
+        def threads = (1..8).collect { n ->
+            Thread.start { 200.times { writer.append(file, "${n}\n"); if( it % 10 == 0 ) writer.flush() } }
+        }
+        sleep 10
+        writer.close()
+        threads*.join(5000)
+
+        then:
+        // none of the callers is left waiting after the writer has been closed
+        threads.every { !it.isAlive() }
+        file.readLines().size() + writer.dropped == 1600
+
+        cleanup:
+        file.delete()
+    }
+
+    static String unzip( File file ) {
+        new GZIPInputStream(new FileInputStream(file)).text
+    }
+
+}
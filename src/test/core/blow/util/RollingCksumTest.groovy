@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.util
+
+import spock.lang.Specification
+
+class RollingCksumTest extends Specification {
+
+    def "test same value as cksum command" () {
+
+        setup:
+        def file = File.createTempFile('test', '.dat')
+        def data = new byte[5000]
+        new Random(7).nextBytes(data)
+        file.bytes = data
+
+        when:
+        def proc = ['bash','-c',"cksum < '${file}'"].execute()
+        def expected = proc.text.split(' ')[0] as long
+
+        then:
+        RollingCksum.cksum(data, 0, data.length) == expected
+        RollingCksum.cksum(new byte[0], 0, 0) == 4294967295L
+
+        cleanup:
+        file?.delete()
+    }
+
+    def "test rolling window" () {
+
+        setup:
+        def data = new byte[300]
+        new Random(3).nextBytes(data)
+        def roller = new RollingCksum(64)
+
+        when:
+        def values = []
+        data.eachWithIndex { byte b, int i ->
+            roller.roll(b)
+            if( roller.isFull() ) {
+                values << roller.getValue()
+            }
+        }
+
+        then:
+        values.size() == 300 - 64 + 1
+        values.eachWithIndex { long value, int i -> assert value == RollingCksum.cksum(data, i, 64) }
+
+        when:
+        roller.reset()
+        then:
+        !roller.isFull()
+
+    }
+
+}
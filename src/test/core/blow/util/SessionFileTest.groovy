@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.util
+
+import org.jclouds.compute.domain.HardwareBuilder
+import org.jclouds.compute.domain.NodeMetadata
+import org.jclouds.compute.domain.NodeMetadataBuilder
+import org.jclouds.compute.domain.OperatingSystem
+import org.jclouds.compute.domain.OsFamily
+import org.jclouds.compute.domain.Processor
+import org.jclouds.compute.domain.Volume
+import org.jclouds.compute.domain.VolumeBuilder
+import org.jclouds.domain.LocationBuilder
+import org.jclouds.domain.LocationScope
+import org.jclouds.domain.LoginCredentials
+import spock.lang.Specification
+
+class SessionFileTest extends Specification {
+
+    def "test write and read sections" () {
+        setup:
+        def file = File.createTempFile('session','test')
+
+        when:
+        SessionFile.write(file, [alpha: 'hello'.bytes, beta: new byte[0], gamma: 'world'.bytes])
+        def session = SessionFile.open(file)
+
+        then:
+        SessionFile.isBinary(file)
+        session.getVersion() == SessionFile.VERSION
+        session.getSections() as List == ['alpha','beta','gamma']
+        new String(session.read('alpha')) == 'hello'
+        session.read('beta').length == 0
+        new String(session.read('gamma')) == 'world'
+        session.read('delta') == null
+        // no temporary file is left in the directory
+        file.parentFile.listFiles().findAll { it.name.startsWith(file.name) } == [file]
+
+        cleanup:
+        file?.delete()
+    }
+
+    def "test xml file is not binary" () {
+        setup:
+        def file = File.createTempFile('session','test')
+        file.text = '<session><clusterName>x</clusterName></session>'
+
+        expect:
+        !SessionFile.isBinary(file)
+        !SessionFile.isBinary(new File('missing-file'))
+
+        when:
+        SessionFile.open(file)
+        then:
+        thrown(IOException)
+
+        cleanup:
+        file?.delete()
+    }
+
+    def "test node metadata codec" () {
+        setup:
+        def region = new LocationBuilder().scope(LocationScope.REGION).id('us-east-1').description('us-east-1').build()
+        def zone = new LocationBuilder().scope(LocationScope.ZONE).id('us-east-1a').description('us-east-1a').parent(region).iso3166Codes(['US-VA']).build()
+        def volume = new VolumeBuilder().id('vol-1').type(Volume.Type.LOCAL).size(420f).device('/dev/sdb').bootDevice(false).durable(false).build()
+        def hardware = new HardwareBuilder().ids('m1.large').ram(7680).processors([new Processor(2, 2)]).volumes([volume]).build()
+        def os = OperatingSystem.builder().family(OsFamily.AMZN_LINUX).name('Amazon').version('2012.03').arch('paravirtual').description('amzn').is64Bit(true).build()
+
+        def node = new NodeMetadataBuilder()
+                .id('us-east-1/i-1234')
+                .providerId('i-1234')
+                .name('node-1')
+                .group('cluster')
+                .location(zone)
+                .hardware(hardware)
+                .operatingSystem(os)
+                .imageId('us-east-1/ami-1234')
+                .status(NodeMetadata.Status.RUNNING)
+                .backendStatus('running')
+                .loginPort(22)
+                .publicAddresses(['54.1.2.3'])
+                .privateAddresses(['10.1.2.3'])
+                .hostname('ip-10-1-2-3')
+                .tags(['a','b'])
+                .userMetadata([Name: 'master'])
+                .credentials(new LoginCredentials('root', null, 'private-key', true))
+                .build()
+
+        when:
+        def copy = NodeMetadataCodec.decode( NodeMetadataCodec.encode(node) )
+
+        then:
+        copy == node
+        copy.getProviderId() == 'i-1234'
+        copy.getGroup() == 'cluster'
+        copy.getLocation().getId() == 'us-east-1a'
+        copy.getLocation().getParent().getId() == 'us-east-1'
+        copy.getLocation().getIso3166Codes() == ['US-VA'] as Set
+        copy.getHardware().getId() == 'm1.large'
+        copy.getHardware().getRam() == 7680
+        copy.getHardware().getProcessors() == [new Processor(2, 2)]
+        copy.getHardware().getVolumes()[0].getDevice() == '/dev/sdb'
+        copy.getHardware().getVolumes()[0].getSize() == 420f
+        copy.getOperatingSystem() == os
+        copy.getImageId() == 'us-east-1/ami-1234'
+        copy.getStatus() == NodeMetadata.Status.RUNNING
+        copy.getBackendStatus() == 'running'
+        copy.getLoginPort() == 22
+        copy.getPublicAddresses() == ['54.1.2.3'] as Set
+        copy.getPrivateAddresses() == ['10.1.2.3'] as Set
+        copy.getHostname() == 'ip-10-1-2-3'
+        copy.getTags() == ['a','b'] as Set
+        copy.getUserMetadata() == [Name: 'master']
+        copy.getCredentials().getUser() == 'root'
+        copy.getCredentials().getPrivateKey() == 'private-key'
+        copy.getCredentials().getPassword() == null
+        copy.getCredentials().shouldAuthenticateSudo()
+    }
+
+}
@@ -19,6 +19,9 @@
 
 package blow.util
 
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
 import spock.lang.Specification
 
 /**
@@ -37,4 +40,55 @@ class WebHelperTest extends Specification{
 
     }
 
+    def "test verified urls are cached" () {
+
+        setup:
+        int count = 0
+        def server = HttpServer.create(new InetSocketAddress('127.0.0.1', 0), 0)
+        server.createContext('/', { HttpExchange exchange ->
+            count++
+            exchange.sendResponseHeaders(exchange.getRequestURI().getPath() == '/file.zip' ? 200 : 404, -1)
+            exchange.close()
+        } as HttpHandler)
+        server.start()
+        def base = "http://127.0.0.1:${server.getAddress().getPort()}"
+
+        def file = File.createTempFile('urls','.cache')
+        file.delete()
+        def savedFile = WebHelper.urlCacheFile
+        def savedTtl = WebHelper.urlCacheTtl
+        WebHelper.urlCacheFile = file
+        WebHelper.resetUrlCache()
+
+        when:
+        WebHelper.checkURLExists("${base}/file.zip")
+        WebHelper.checkURLExists("${base}/file.zip")
+        WebHelper.resetUrlCache()
+
+        then:
+        WebHelper.checkURLExists("${base}/file.zip")
+        count == 1
+        file.exists()
+
+        when:
+        // the missing urls are always checked
+        def missing = [ WebHelper.checkURLExists("${base}/missing.zip"), WebHelper.checkURLExists("${base}/missing.zip") ]
+        then:
+        missing == [false, false]
+        count == 3
+
+        when:
+        WebHelper.urlCacheTtl = 0
+        then:
+        WebHelper.checkURLExists("${base}/file.zip")
+        count == 4
+
+        cleanup:
+        server.stop(0)
+        file.delete()
+        WebHelper.urlCacheFile = savedFile
+        WebHelper.urlCacheTtl = savedTtl
+        WebHelper.resetUrlCache()
+    }
+
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow
+
+import org.jclouds.compute.domain.HardwareBuilder
+import org.jclouds.compute.domain.NodeMetadata
+import org.jclouds.compute.domain.NodeMetadataBuilder
+import org.jclouds.compute.domain.OperatingSystem
+import org.jclouds.compute.domain.OsFamily
+import org.jclouds.compute.domain.Processor
+import org.jclouds.compute.domain.Volume
+import org.jclouds.compute.domain.VolumeBuilder
+import org.jclouds.domain.LocationBuilder
+import org.jclouds.domain.LocationScope
+import org.jclouds.domain.LoginCredentials
+
+/**
+ * Compares the load time of the session saved in the binary format with the XML format
+ * saved by the previous versions.
+ *
+ * <p>Run it with: {@code groovy -cp <classpath> blow.SessionFileBenchmark [runs]}
+ *
+ * <p>It reports, for sessions of 10, 100 and 1000 nodes, the size of the file, the average time to read
+ * the session (the nodes metadata is not decoded) and the time to read it and decode all the nodes.
+ * Each measure is preceded by a warm-up run.
+ */
+class SessionFileBenchmark {
+
+    static void main( String[] args ) {
+        int runs = args ? args[0] as int : 20
+
+        def key = File.createTempFile('benchmark','key'); key.text = 'dummy'
+        try {
+            println String.format("%6s %12s %12s %12s %12s %14s", 'nodes', 'xml (KB)', 'binary (KB)', 'xml (ms)', 'binary (ms)', 'binary+nodes')
+            [10, 100, 1000].each { size -> run(size, runs, key) }
+        }
+        finally {
+            key.delete()
+        }
+    }
+
+    static void run( int size, int runs, File key ) {
+        def conf = new BlowConfig()
+        conf.privateKey = key
+        conf.roles = ['node']
+        conf.instanceNum = size
+        def session = new BlowSession(conf, 'benchmark')
+        session.metadataInitialize()
+        def nodes = new LinkedHashSet<NodeMetadata>()
+        size.times { nodes.add(node(it)) }
+        session.metadataAddInstances(nodes, 'node')
+
+        def xml = File.createTempFile('benchmark','xml')
+        def binary = new File('.blow_session.benchmark')
+        try {
+            xml.withWriter { BlowSession.createXStream().toXML(session, it) }
+            session.persist(binary)
+
+            // the sessions saved as XML are read by XStream, as by the previous versions
+            def readXml = { BlowSession.createXStream().fromXML(xml) }
+            def readBinary = { BlowSession.read('benchmark').close() }
+            def readAll = { def copy = BlowSession.read('benchmark'); copy.listNodes(); copy.close() }
+
+            def timeXml
+            try {
+                timeXml = String.format('%12.2f', measure(runs, readXml))
+            }
+            catch( Exception e ) {
+                // XStream requires an enhanced reflection provider to create the nodes, it is not available on all the JVMs
+                timeXml = String.format('%12s', 'n/a')
+            }
+
+            println String.format("%6d %12.1f %12.1f %s %12.2f %14.2f",
+                    size,
+                    xml.length() / 1024d,
+                    binary.length() / 1024d,
+                    timeXml,
+                    measure(runs, readBinary),
+                    measure(runs, readAll) )
+        }
+        finally {
+            xml.delete()
+            binary.delete()
+            session.close()
+        }
+    }
+
+    static double measure( int runs, Closure action ) {
+        action.call()
+        long start = System.nanoTime()
+        runs.times { action.call() }
+        return (System.nanoTime() - start) / runs / 1000000d
+    }
+
+    static NodeMetadata node( int index ) {
+        def region = new LocationBuilder().scope(LocationScope.REGION).id('us-east-1').description('us-east-1').build()
+        def zone = new LocationBuilder().scope(LocationScope.ZONE).id('us-east-1a').description('us-east-1a').parent(region).build()
+        def volume = new VolumeBuilder().id("vol-${index}").type(Volume.Type.LOCAL).size(420f).device('/dev/sdb').build()
+        def hardware = new HardwareBuilder().ids('m1.large').ram(7680).processors([new Processor(2, 2)]).volumes([volume]).build()
+        def os = OperatingSystem.builder().family(OsFamily.AMZN_LINUX).name('Amazon').version('2012.03').arch('paravirtual').description('amzn').is64Bit(true).build()
+
+        new NodeMetadataBuilder()
+                .id("us-east-1/i-${index}")
+                .providerId("i-${index}")
+                .group('benchmark')
+                .location(zone)
+                .hardware(hardware)
+                .operatingSystem(os)
+                .imageId('us-east-1/ami-1234')
+                .status(NodeMetadata.Status.RUNNING)
+                .loginPort(22)
+                .publicAddresses(["54.1.${index >> 8}.${index & 0xff}".toString()])
+                .privateAddresses(["10.1.${index >> 8}.${index & 0xff}".toString()])
+                .hostname("ip-10-1-${index >> 8}-${index & 0xff}".toString())
+                .credentials(new LoginCredentials('root', null, 'private-key', true))
+                .build()
+    }
+}
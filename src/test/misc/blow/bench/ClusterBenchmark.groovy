@@ -0,0 +1,473 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.bench
+
+import blow.BlowSession
+import blow.command.S3Sync
+import blow.events.OnNodeReadyEvent
+import blow.metrics.Metrics
+import blow.shell.BlowShell
+import blow.ssh.OutputListener
+import blow.storage.S3Manifest
+import groovy.json.JsonBuilder
+import groovy.util.logging.Slf4j
+import org.jclouds.blobstore.BlobStoreContext
+import org.jclouds.blobstore.BlobStoreContextFactory
+import org.jclouds.compute.domain.ExecResponse
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Measure how the session operations scale with the number of nodes in the cluster.
+ * <p>
+ * Each scenario is executed on clusters of increasing size, see {@link #sizes}, started on the jclouds
+ * 'stub' provider by a {@link StubSession}. The S3 scenarios transfer one file for each node to the
+ * jclouds in-memory 'transient' blob store. The scenarios are:
+ * <li>{@code createCluster}: start a new cluster, including the nodes ready events and a provisioning script
+ * <li>{@code runScriptOnNodes}: run a script on all the nodes
+ * <li>{@code copyToNodes}: upload a file to all the nodes
+ * <li>{@code metadataUpdate}: refresh the metadata of all the nodes
+ * <li>{@code persist}, {@code read}: save the session and read it back
+ * <li>{@code eventDispatch}: post a {@link OnNodeReadyEvent} for each node to the operations
+ * <li>{@code s3Upload}, {@code s3Download}: synchronize a directory with the blob store, see {@link S3Sync}
+ * <p>
+ * For each scenario and size are reported the latency percentiles, the throughput in nodes (or files) per second,
+ * the memory allocated by each iteration, the number of threads and the {@link Metrics} collected while running.
+ * The results are appended to the {@link #output} file, one JSON object per line, so that the runs can be compared.
+ * <p>
+ * Run it from the test classpath, for example:
+ * <pre>
+ *     groovy -cp &lt;test classpath&gt; blow.bench.ClusterBenchmark --nodes 10,100,500 --output bench.json
+ * </pre>
+ */
+@Slf4j
+class ClusterBenchmark {
+
+    static final List<Integer> DEFAULT_SIZES = [10, 100, 500]
+
+    static final List<String> SCENARIOS = ['createCluster', 'runScriptOnNodes', 'copyToNodes', 'metadataUpdate',
+            'persist', 'read', 'eventDispatch', 's3Upload', 's3Download']
+
+    /**
+     * The measures of a scenario run on a cluster of a given size
+     */
+    static class Result {
+
+        String scenario
+
+        int nodes
+
+        /** The number of nodes, or files, processed by each iteration */
+        int units
+
+        /** The duration of each iteration, in nanoseconds */
+        List<Long> samples = []
+
+        /** The bytes allocated by all the threads, summed over the iterations, or {@code -1} if it cannot be measured */
+        long allocated
+
+        int threadsStart
+
+        int threadsEnd
+
+        int threadsPeak
+
+        Map metrics
+
+        int getIterations() { samples.size() }
+
+        /**
+         * @param quantile A value between 0 and 1, e.g. 0.99 for the 99th percentile
+         * @return The iteration duration at the specified quantile, in milliseconds
+         */
+        double percentile( double quantile ) {
+            if( !samples ) {
+                return 0
+            }
+            def sorted = new ArrayList<Long>(samples).sort()
+            int rank = Math.max(1, (int) Math.ceil(quantile * sorted.size()))
+            return millis(sorted[rank-1])
+        }
+
+        double getMean() {
+            samples ? millis( (long) (samples.sum() / samples.size()) ) : 0
+        }
+
+        /**
+         * @return The number of nodes, or files, processed per second
+         */
+        double getThroughput() {
+            def total = samples ? samples.sum() as long : 0
+            total ? round(units * samples.size() * 1e9 / total) : 0
+        }
+
+        /**
+         * @return The measures as a map, the durations are in milliseconds and the allocated bytes
+         *  are the mean of the iterations. The allocated bytes are missing when they cannot be measured
+         */
+        Map toMap() {
+            def result = [
+                scenario: scenario,
+                nodes: nodes,
+                iterations: iterations,
+                latency: [mean: mean, p50: percentile(0.50), p90: percentile(0.90), p99: percentile(0.99), max: percentile(1)],
+                throughput: throughput,
+                threads: [start: threadsStart, end: threadsEnd, peak: threadsPeak],
+                metrics: metrics ?: [:]
+            ]
+            if( allocated >= 0 && iterations ) {
+                result.allocatedBytes = allocated.intdiv(iterations)
+            }
+            return result
+        }
+
+        static private double millis( long nanos ) { round(nanos / 1e6) }
+
+        static private double round( double value ) { Math.round(value * 1000) / 1000.0 }
+    }
+
+    /** The number of nodes of the clusters on which the scenarios run */
+    List<Integer> sizes = DEFAULT_SIZES
+
+    /** The scenarios to run, see {@link #SCENARIOS} */
+    List<String> scenarios = SCENARIOS
+
+    /** The number of measured iterations of each scenario */
+    int iterations = 5
+
+    /** The number of iterations executed before the measured ones */
+    int warmup = 1
+
+    /** The simulated duration of the SSH commands and uploads, see {@link StubSession#execLatency} */
+    long execLatency = 20
+
+    /** The size of the file uploaded to the nodes */
+    int payloadSize = 64 * 1024
+
+    /** Run the operations event handlers in parallel, see {@link blow.BlowConfig#asyncOperations} */
+    boolean asyncOperations
+
+    /** The file to which the results are appended, it may be {@code null} */
+    File output
+
+    private File workDir
+
+    private File keyFile
+
+    private BlobStoreContext blobStore
+
+    private final AtomicLong count = new AtomicLong()
+
+    /**
+     * Run all the scenarios for each cluster size
+     *
+     * @return The results in the order they have been measured
+     */
+    List<Result> run() {
+        assert sizes && sizes.every { it > 1 }, "The clusters must have at least two nodes: ${sizes}"
+        def unknown = scenarios - SCENARIOS
+        assert !unknown, "Unknown scenario(s): ${unknown.join(', ')} -- available: ${SCENARIOS.join(', ')}"
+
+        def batchMode = BlowShell.batchMode
+        // an error must not stop the benchmark waiting for an answer
+        BlowShell.batchMode = true
+        workDir = File.createTempFile('bench', null); workDir.delete(); workDir.mkdirs()
+        keyFile = new File(workDir, 'key'); keyFile.text = 'stub key'
+
+        def result = []
+        try {
+            for( int nodes : sizes ) {
+                result.addAll( runSize(nodes) )
+            }
+        }
+        finally {
+            blobStore?.close()
+            blobStore = null
+            workDir.deleteDir()
+            BlowShell.batchMode = batchMode
+        }
+        return result
+    }
+
+    protected List<Result> runSize( int nodes ) {
+        log.info "Running scenarios on a cluster of ${nodes} nodes"
+        def result = []
+
+        if( 'createCluster' in scenarios ) {
+            result << measure('createCluster', nodes, nodes,
+                    { StubSession session -> session.createCluster() },
+                    { newSession(nodes) },
+                    { StubSession session -> session.close() } )
+        }
+
+        def session = newSession(nodes)
+        try {
+            session.createCluster()
+            result.addAll( runSession(session, nodes) )
+        }
+        finally {
+            session.close()
+            session.deleteSessionFile()
+        }
+
+        result.addAll( runStorage(nodes) )
+        return result
+    }
+
+    /**
+     * Run the scenarios on a started cluster
+     */
+    protected List<Result> runSession( StubSession session, int nodes ) {
+        def result = []
+
+        if( 'runScriptOnNodes' in scenarios ) {
+            def listener = [ onLine: { String node, String line, boolean error -> }, onComplete: { String node, ExecResponse response -> } ] as OutputListener
+            result << measure('runScriptOnNodes', nodes, nodes) { session.runScriptOnNodes('uptime', null, false, listener, 0, null) }
+        }
+
+        if( 'copyToNodes' in scenarios ) {
+            def payload = new File(workDir, 'payload.bin')
+            def data = new byte[payloadSize]
+            new Random(1).nextBytes(data)
+            payload.bytes = data
+            result << measure('copyToNodes', nodes, nodes) { session.copyToNodes(payload, '/tmp/payload.bin') }
+        }
+
+        if( 'metadataUpdate' in scenarios ) {
+            result << measure('metadataUpdate', nodes, nodes) { session.refreshMetadata() }
+        }
+
+        if( 'persist' in scenarios ) {
+            result << measure('persist', nodes, nodes) { session.persist(null) }
+        }
+
+        if( 'read' in scenarios ) {
+            session.persist(null)
+            // decode the metadata of all the nodes, since it is read lazily
+            result << measure('read', nodes, nodes,
+                    { List<BlowSession> restored -> restored << BlowSession.read(session.clusterName); restored[0].listNodes().size() },
+                    { [] },
+                    { List<BlowSession> restored -> restored[0]?.cancelScheduledRefresh() } )
+        }
+
+        if( 'eventDispatch' in scenarios ) {
+            def all = session.listNodes()
+            result << measure('eventDispatch', nodes, nodes) {
+                for( BlowSession.BlowNodeMetadata node : all ) {
+                    session.eventBus.post( new OnNodeReadyEvent(session: session, clusterName: session.clusterName, role: node.getNodeRole(), name: node.getNodeName(), node: node) )
+                }
+            }
+        }
+
+        return result
+    }
+
+    /**
+     * Run the S3 scenarios, transferring a small file for each node
+     */
+    protected List<Result> runStorage( int nodes ) {
+        def result = []
+        if( !('s3Upload' in scenarios) && !('s3Download' in scenarios) ) {
+            return result
+        }
+
+        if( !blobStore ) {
+            blobStore = new BlobStoreContextFactory().createContext('transient', 'id', 'secret')
+        }
+
+        def source = new File(workDir, "upload${nodes}")
+        source.mkdirs()
+        for( int i=0; i<nodes; i++ ) {
+            new File(source, "node${i}.log").text = "Output of node ${i}\n" * 100
+        }
+        def path = "bench/nodes${nodes}"
+
+        if( 's3Upload' in scenarios ) {
+            // delete the manifest, otherwise the files already uploaded are skipped
+            result << measure('s3Upload', nodes, nodes,
+                    { def unused -> new S3Sync(blobStore).upload(source, path) },
+                    { new File(source, S3Manifest.FILE_NAME).delete() } )
+        }
+
+        if( 's3Download' in scenarios ) {
+            if( !('s3Upload' in scenarios) ) {
+                new S3Sync(blobStore).upload(source, path)
+            }
+
+            def target = new File(workDir, "download${nodes}")
+            result << measure('s3Download', nodes, nodes,
+                    { def unused -> new S3Sync(blobStore).download(path, target) },
+                    { target.deleteDir() } )
+        }
+
+        source.deleteDir()
+        return result
+    }
+
+    protected StubSession newSession( int nodes ) {
+        // each cluster has its own stub identity, so the nodes of the previous ones are not listed
+        def name = "bench${nodes}x${count.incrementAndGet()}"
+        def session = new StubSession(StubSession.config(name, nodes, keyFile, asyncOperations), name)
+        session.execLatency = execLatency
+        return session
+    }
+
+    /**
+     * Measure a scenario
+     *
+     * @param scenario The scenario name
+     * @param nodes The number of nodes of the cluster
+     * @param units The number of nodes, or files, processed by each iteration
+     * @param action The measured action, it receives the object returned by {@code prepare}
+     * @param prepare A closure invoked before each iteration, it is not measured. It may be {@code null}
+     * @param dispose A closure invoked after each iteration with the object returned by {@code prepare}, it is not measured. It may be {@code null}
+     * @return The scenario measures
+     */
+    protected Result measure( String scenario, int nodes, int units, Closure action, Closure prepare = null, Closure dispose = null ) {
+        log.info "Measuring '${scenario}' on ${nodes} nodes"
+
+        def threads = ManagementFactory.getThreadMXBean()
+        def result = new Result(scenario: scenario, nodes: nodes, units: units, threadsStart: threads.getThreadCount())
+        boolean measureAllocation = allocatedBytes() >= 0
+
+        for( int i=0; i<warmup+iterations; i++ ) {
+            if( i == warmup ) {
+                Metrics.reset()
+                threads.resetPeakThreadCount()
+            }
+
+            def target = prepare?.call()
+            try {
+                long allocated = measureAllocation ? allocatedBytes() : 0
+                long start = System.nanoTime()
+                action.call(target)
+                long elapsed = System.nanoTime() - start
+                allocated = measureAllocation ? allocatedBytes() - allocated : 0
+
+                if( i >= warmup ) {
+                    result.samples << elapsed
+                    // the bytes allocated by the threads terminated in the meanwhile are lost, so it can be negative
+                    result.allocated += Math.max(0, allocated)
+                }
+            }
+            finally {
+                dispose?.call(target)
+            }
+        }
+
+        result.threadsEnd = threads.getThreadCount()
+        result.threadsPeak = threads.getPeakThreadCount()
+        // note: the groovy json builder does not handle sorted maps, copy them into a linked one
+        result.metrics = new LinkedHashMap( Metrics.snapshot().findAll { String name, Map values -> values.count } )
+        if( !measureAllocation ) {
+            result.allocated = -1
+        }
+
+        if( output ) {
+            append(output, result)
+        }
+        return result
+    }
+
+    /**
+     * @return The bytes allocated so far by all the live threads, or {@code -1} if the JVM does not measure it
+     */
+    static protected long allocatedBytes() {
+        def bean = ManagementFactory.getThreadMXBean()
+        if( !(bean instanceof com.sun.management.ThreadMXBean) || !bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled() ) {
+            return -1
+        }
+
+        long result = 0
+        for( long bytes : bean.getThreadAllocatedBytes(bean.getAllThreadIds()) ) {
+            if( bytes > 0 ) {
+                result += bytes
+            }
+        }
+        return result
+    }
+
+    protected void append( File file, Result result ) {
+        def entry = [benchmark: 'cluster', timestamp: System.currentTimeMillis(), java: System.getProperty('java.version'),
+                settings: [execLatency: execLatency, payloadSize: payloadSize, asyncOperations: asyncOperations] ]
+        entry.putAll( result.toMap() )
+
+        if( file.getParentFile() && !file.getParentFile().exists() ) {
+            file.getParentFile().mkdirs()
+        }
+        file.append( new JsonBuilder(entry).toString() + '\n' )
+    }
+
+    /**
+     * Print the results as a table
+     */
+    static void printSummary( List<Result> results, PrintStream out = System.out ) {
+        if( !results ) { return }
+
+        def max = results.collect { it.scenario.length() }.max()
+        out.println "${'scenario'.padRight(max)}  ${'nodes'.padLeft(5)}  ${'p50'.padLeft(10)}  ${'p90'.padLeft(10)}  ${'p99'.padLeft(10)}  ${'nodes/s'.padLeft(10)}  ${'alloc/iter'.padLeft(12)}  threads"
+        results.each { Result it ->
+            def alloc = it.allocated >= 0 && it.iterations ? "${it.allocated.intdiv(it.iterations).intdiv(1024)} KB" : '-'
+            out.println "${it.scenario.padRight(max)}  ${it.nodes.toString().padLeft(5)}  ${fmt(it.percentile(0.5))}  ${fmt(it.percentile(0.9))}  ${fmt(it.percentile(0.99))}  ${String.format('%10.1f', it.throughput)}  ${alloc.padLeft(12)}  ${it.threadsPeak}"
+        }
+    }
+
+    static private String fmt( double millis ) {
+        String.format('%8.1fms', millis)
+    }
+
+    static void main( String[] args ) {
+
+        def cli = new CliBuilder()
+        cli.usage = "usage: ClusterBenchmark [options]"
+        cli.n( longOpt: 'nodes', "The comma separated sizes of the clusters (default: ${DEFAULT_SIZES.join(',')})", args: 1, argName: 'sizes')
+        cli.s( longOpt: 'scenarios', "The comma separated scenarios to run, any of: ${SCENARIOS.join(', ')}", args: 1, argName: 'names')
+        cli.i( longOpt: 'iterations', "The number of measured iterations (default: 5)", args: 1, argName: 'num')
+        cli.w( longOpt: 'warmup', "The number of warm up iterations (default: 1)", args: 1, argName: 'num')
+        cli.l( longOpt: 'latency', "The simulated duration of the SSH commands in millis (default: 20)", args: 1, argName: 'millis')
+        cli._( longOpt: 'async', "Run the operations event handlers in parallel")
+        cli.o( longOpt: 'output', "The file to which the results are appended as JSON lines", args: 1, argName: 'file')
+        cli.h( longOpt: 'help', "Show this help")
+
+        def options = cli.parse(args)
+        if( !options || options.help ) {
+            cli.usage()
+            return
+        }
+
+        def bench = new ClusterBenchmark()
+        if( options.nodes ) bench.sizes = options.nodes.toString().tokenize(',').collect { it.trim() as int }
+        if( options.scenarios ) bench.scenarios = options.scenarios.toString().tokenize(',').collect { it.trim() }
+        if( options.iterations ) bench.iterations = options.iterations as int
+        if( options.warmup ) bench.warmup = options.warmup as int
+        if( options.latency ) bench.execLatency = options.latency as long
+        if( options.output ) bench.output = new File(options.output as String)
+        bench.asyncOperations = options.async as boolean
+
+        def results = bench.run()
+        printSummary(results)
+        if( bench.output ) {
+            println "\nResults appended to: ${bench.output}"
+        }
+        System.exit(0)
+    }
+
+}
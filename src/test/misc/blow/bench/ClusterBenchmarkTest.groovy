@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.bench
+
+import groovy.json.JsonSlurper
+import spock.lang.Specification
+
+class ClusterBenchmarkTest extends Specification {
+
+    def "test stub cluster" () {
+
+        setup:
+        def key = File.createTempFile('test','key'); key.text = 'dummy'
+        def session = new StubSession(StubSession.config('test-stub', 4, key), 'stubtest')
+        session.execLatency = 1
+
+        when:
+        session.createCluster()
+        def provisioning = session.conf.operations[0] as StubSession.Provisioning
+
+        then:
+        session.listNodes().size() == 4
+        session.listNodesNames().sort() == ['master','worker1','worker2','worker3']
+        provisioning.readyCount.get() == 4
+        // the provisioning script has run on all the nodes
+        session.execCount.get() == 4
+
+        when:
+        def ok = session.copyToNodes(key, '/tmp/key')
+
+        then:
+        ok
+        session.copyCount.get() == 4
+
+        cleanup:
+        session?.close()
+        key?.delete()
+
+    }
+
+    def "test run" () {
+
+        setup:
+        def output = File.createTempFile('bench', '.json')
+        def bench = new ClusterBenchmark(sizes: [3], iterations: 2, warmup: 0, execLatency: 1, payloadSize: 1024, output: output)
+
+        when:
+        def results = bench.run()
+
+        then:
+        results*.scenario == ClusterBenchmark.SCENARIOS
+        results.every { it.nodes == 3 && it.iterations == 2 }
+        results.every { it.percentile(0.5) <= it.percentile(0.99) && it.throughput > 0 }
+        results.every { it.threadsPeak >= it.threadsEnd }
+        results.find { it.scenario == 'runScriptOnNodes' }.metrics['ssh.exec'].count == 6
+
+        when:
+        def lines = output.readLines().collect { new JsonSlurper().parseText(it) }
+
+        then:
+        lines.size() == ClusterBenchmark.SCENARIOS.size()
+        lines[0].benchmark == 'cluster'
+        lines[0].scenario == 'createCluster'
+        lines[0].latency.p99 >= lines[0].latency.p50
+        lines[0].threads.peak > 0
+        // no session or journal file is left
+        !new File('.').list().any { it.startsWith('.blow_session.bench') || it.startsWith('.blow_journal.bench') }
+
+        when:
+        def buffer = new ByteArrayOutputStream()
+        ClusterBenchmark.printSummary(results, new PrintStream(buffer))
+        def summary = buffer.toString().readLines()
+
+        then:
+        summary.size() == ClusterBenchmark.SCENARIOS.size() + 1
+        summary[1].startsWith('createCluster ')
+
+        cleanup:
+        output?.delete()
+
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.bench
+
+import blow.BlowConfig
+import blow.BlowSession
+import blow.events.OnAfterClusterStartedEvent
+import blow.events.OnNodeReadyEvent
+import blow.metrics.Metrics
+import blow.ssh.OutputListener
+import blow.ssh.TailLines
+import com.google.common.collect.ImmutableSet
+import com.google.common.eventbus.Subscribe
+import com.google.inject.Module
+import groovy.util.logging.Slf4j
+import org.jclouds.ContextBuilder
+import org.jclouds.compute.ComputeServiceContext
+import org.jclouds.compute.domain.ExecResponse
+import org.jclouds.compute.domain.NodeMetadata
+import org.jclouds.compute.domain.TemplateBuilder
+import org.jclouds.logging.slf4j.config.SLF4JLoggingModule
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A session running the cluster on the jclouds 'stub' compute provider, so that a cluster of hundreds
+ * of nodes can be started on a single box.
+ * <p>
+ * The stub nodes do not exist, so the SSH commands and uploads are simulated: each of them takes
+ * {@link #execLatency} milliseconds and a script prints {@link #outputLines} lines. All the rest,
+ * the thread pools, the events, the metadata and the provisioning journal, is the one of a real session
+ */
+@Slf4j
+class StubSession extends BlowSession {
+
+    /**
+     * The operation configuring the stub cluster: it counts the ready nodes and
+     * runs a script on all the nodes when the cluster has started
+     */
+    static class Provisioning {
+
+        // note: the session is injected only when the field type is the session class,
+        // it is transient since the saved configuration cannot restore a stub session
+        transient private StubSession session
+
+        AtomicInteger readyCount = new AtomicInteger()
+
+        @Subscribe
+        void ready( OnNodeReadyEvent event ) {
+            readyCount.incrementAndGet()
+        }
+
+        @Subscribe
+        void configure( OnAfterClusterStartedEvent event ) {
+            session.runScriptOnNodes('echo configured', null, false)
+        }
+    }
+
+    /** The simulated duration, in milliseconds, of each SSH command or upload */
+    long execLatency = 20
+
+    /** The number of output lines printed by each simulated script */
+    int outputLines = 10
+
+    final AtomicInteger execCount = new AtomicInteger()
+
+    final AtomicInteger copyCount = new AtomicInteger()
+
+    StubSession( BlowConfig conf, String clusterName ) {
+        super(conf, clusterName)
+    }
+
+    /**
+     * Create the configuration of a stub cluster
+     *
+     * @param identity The stub provider keeps the nodes of each identity apart, so each cluster should use its own
+     * @param nodes The number of nodes, one is the master the others are workers
+     * @param keyFile Any existing file, it is not used to connect the nodes
+     */
+    static BlowConfig config( String identity, int nodes, File keyFile, boolean asyncOperations = false ) {
+        assert nodes > 1
+        new BlowConfig(
+                accessKey: identity,
+                secretKey: 'secret',
+                userName: System.getProperty('user.name'),
+                privateKey: keyFile,
+                createUser: false,
+                instanceNum: nodes,
+                nodeReadyTimeout: 0,
+                asyncOperations: asyncOperations,
+                operations: [ new Provisioning() ] )
+    }
+
+    protected ComputeServiceContext createContext( BlowConfig conf ) {
+        ContextBuilder.newBuilder('stub')
+                .credentials(conf.accessKey, conf.secretKey)
+                .modules(ImmutableSet.<Module>of(new SLF4JLoggingModule()))
+                .build(ComputeServiceContext)
+    }
+
+    /*
+     * the stub provider has not any EC2 resource to check or clear
+     */
+    protected void checkProviderResources() { }
+
+    protected void deleteDefaultSecurityGroup() { }
+
+    protected TemplateBuilder templateBuilder( String role ) {
+        compute.templateBuilder().hardwareId('small')
+    }
+
+    protected ExecResponse execOnNode( String script, BlowSession.BlowNodeMetadata targetNode, boolean runAsRoot, OutputListener listener, int tail, int timeout ) {
+        def label = targetNode.getNodeName() ?: targetNode.getNodeIp()
+        def timer = metricsTimer('ssh.exec').start()
+        try {
+            sleep(execLatency)
+            def lines = new TailLines(tail)
+            for( int i=0; i<outputLines; i++ ) {
+                def line = "${label}: output line ${i}".toString()
+                lines.add(line)
+                listener?.onLine(label, line, false)
+            }
+            execCount.incrementAndGet()
+            return new ExecResponse(lines.toString(), '', 0)
+        }
+        finally {
+            timer.stop()
+        }
+    }
+
+    protected void copyToNode( def payload, String targetPath, BlowSession.BlowNodeMetadata targetNode, boolean sync ) {
+        def timer = Metrics.timer('scp.upload').start()
+        try {
+            // read the payload as the upload would do
+            if( payload instanceof File ) {
+                def buffer = new byte[64 * 1024]
+                payload.withInputStream { InputStream it -> while( it.read(buffer) != -1 ) { } }
+                Metrics.counter('scp.upload.bytes').add(payload.length())
+            }
+            sleep(execLatency)
+            copyCount.incrementAndGet()
+        }
+        finally {
+            timer.stop()
+        }
+    }
+
+    /*
+     * the nodes log files are not written, since they would be written in the current directory
+     */
+    protected void logExecResponse( def command, NodeMetadata node, ExecResponse response ) { }
+
+    /*
+     * the benchmark runs one session at time and reports the metrics by itself,
+     * so the session metrics are not prefixed by the cluster name
+     */
+    protected File saveMetrics() { null }
+
+    protected String getMetricsPrefix() { '' }
+
+    /**
+     * Close the session and delete the provisioning journal, so that no file is left
+     * in the current directory
+     */
+    def close() {
+        getJournal().clear()
+        super.close()
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2012, the authors.
+ *
+ *   This file is part of Blow.
+ *
+ *   Blow is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Blow is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Blow.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package blow.eventbus;
+
+import com.google.common.eventbus.Subscribe;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Compares the event dispatch of the {@link OrderedEventBus} with the former implementation,
+ * that walked the event class hierarchy on each post, queued an entry for each handler and
+ * called the handler methods by reflection.
+ *
+ * <p>Run it with: {@code java -cp <classpath> blow.eventbus.EventBusBenchmark [iterations]}
+ *
+ * <p>It reports the average time of a post for 1, 10 and 100 registered handlers. Each measure
+ * is preceded by a warm-up run of the same length, so that both paths are compiled by the JIT.
+ */
+public class EventBusBenchmark {
+
+  public static class Listener {
+    long count;
+    @Subscribe public void handle(String event) {
+      count += event.length();
+    }
+  }
+
+  /**
+   * The dispatch as implemented before the handlers cache and the generated invokers
+   */
+  static class ReflectionDispatch {
+    final OrderedEventBus bus;
+    final ConcurrentLinkedQueue<Object[]> queue = new ConcurrentLinkedQueue<Object[]>();
+
+    ReflectionDispatch(OrderedEventBus bus) {
+      this.bus = bus;
+    }
+
+    void post(Object event) throws Exception {
+      Set<Class<?>> dispatchTypes = bus.flattenHierarchy(event.getClass());
+      for (Class<?> eventType : dispatchTypes) {
+        List<EventHandler> wrappers = bus.getHandlersForEventType(eventType);
+        if (wrappers != null) {
+          for (EventHandler wrapper : wrappers) {
+            queue.offer(new Object[] { event, wrapper });
+          }
+        }
+      }
+
+      Object[] entry;
+      while ((entry = queue.poll()) != null) {
+        EventHandler handler = (EventHandler) entry[1];
+        handler.getMethod().invoke(handler.getTarget(), new Object[] { entry[0] });
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+    System.out.println(String.format("%10s %18s %18s %8s", "handlers", "reflection (ns/op)", "generated (ns/op)", "speedup"));
+    for (int size : new int[] { 1, 10, 100 }) {
+      OrderedEventBus bus = new OrderedEventBus();
+      for (int i = 0; i < size; i++) {
+        bus.register(new Listener());
+      }
+
+      // the number of posts is scaled so that each run invokes about the same number of handlers
+      int posts = Math.max(1000, iterations / size);
+      ReflectionDispatch former = new ReflectionDispatch(bus);
+      measureFormer(former, posts);
+      double reflection = measureFormer(former, posts);
+      measure(bus, posts);
+      double generated = measure(bus, posts);
+
+      System.out.println(String.format("%10d %18.1f %18.1f %7.1fx", size, reflection, generated, reflection / generated));
+    }
+  }
+
+  static double measureFormer(ReflectionDispatch dispatch, int posts) throws Exception {
+    long start = System.nanoTime();
+    for (int i = 0; i < posts; i++) {
+      dispatch.post("event");
+    }
+    return (System.nanoTime() - start) / (double) posts;
+  }
+
+  static double measure(OrderedEventBus bus, int posts) throws Exception {
+    long start = System.nanoTime();
+    for (int i = 0; i < posts; i++) {
+      bus.post("event");
+    }
+    return (System.nanoTime() - start) / (double) posts;
+  }
+
+}